@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb;
+
+/**
+ * Options for {@link DB#compactRange(byte[], byte[], CompactRangeOptions)}.
+ * A manual compaction of a large range is split into chunks that share no
+ * files, and up to {@link #maxSubcompactions()} chunks run at the same time.
+ */
+public class CompactRangeOptions {
+    private int maxSubcompactions = 4;
+    private long targetChunkSize = 64 << 20;
+    private ProgressListener progressListener;
+    private volatile boolean canceled;
+
+    public int maxSubcompactions() {
+        return maxSubcompactions;
+    }
+
+    public CompactRangeOptions maxSubcompactions(int maxSubcompactions) {
+        if (maxSubcompactions < 1) {
+            throw new IllegalArgumentException("maxSubcompactions must be positive");
+        }
+        this.maxSubcompactions = maxSubcompactions;
+        return this;
+    }
+
+    /**
+     * Input bytes of the compacted level a chunk is filled to before the
+     * range is cut; cuts only fall where no file of the next level spans them.
+     */
+    public long targetChunkSize() {
+        return targetChunkSize;
+    }
+
+    public CompactRangeOptions targetChunkSize(long targetChunkSize) {
+        if (targetChunkSize < 1) {
+            throw new IllegalArgumentException("targetChunkSize must be positive");
+        }
+        this.targetChunkSize = targetChunkSize;
+        return this;
+    }
+
+    public ProgressListener progressListener() {
+        return progressListener;
+    }
+
+    public CompactRangeOptions progressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+        return this;
+    }
+
+    /**
+     * Stops the compaction this options object was passed to.  Chunks that
+     * are already running are finished, the rest of the range is left as is.
+     * May be called from any thread.
+     */
+    public void cancel() {
+        canceled = true;
+    }
+
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    public interface ProgressListener {
+        /**
+         * Called after each finished chunk, from the thread that ran it.
+         */
+        void progress(int level, int completedChunks, int totalChunks);
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb;
+
+/**
+ * Called by compactions for the newest version of each key that is not
+ * visible to an older snapshot, letting applications drop or rewrite data
+ * without issuing deletes.  Filters are called from the compaction thread
+ * and must not access the database.
+ */
+public interface CompactionFilter {
+    String name();
+
+    /**
+     * @param level the level the entry is compacted from
+     * @return null to remove the entry, {@code existingValue} itself to keep it,
+     * or a new value to replace it
+     */
+    byte[] filter(int level, byte[] key, byte[] existingValue);
+}
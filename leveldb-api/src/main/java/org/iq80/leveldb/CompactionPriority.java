@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb;
+
+/**
+ * Which file of a level that is over its size limit is compacted next.
+ */
+public enum CompactionPriority {
+    /**
+     * The file after the one compacted last, cycling through the key space.
+     */
+    ROUND_ROBIN,
+    /**
+     * The file overlapping the fewest bytes in the next level relative to its
+     * own size, which keeps the write amplification of each compaction low.
+     */
+    MIN_OVERLAPPING_RATIO,
+    /**
+     * The file whose newest entry is the oldest, for workloads that update
+     * recent keys and let older ones settle.
+     */
+    OLDEST_LARGEST_SEQ_FIRST,
+    /**
+     * The file with the largest share of deletions, which frees the most
+     * space and speeds up scans over deleted ranges.
+     */
+    DELETION_DENSITY
+}
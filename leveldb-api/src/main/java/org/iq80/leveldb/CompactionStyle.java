@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb;
+
+/**
+ * 压缩（合并）策略
+ */
+public enum CompactionStyle {
+    /**
+     * Each level is a single sorted run about ten times larger than the one
+     * above it.  Low space and read amplification, high write amplification.
+     */
+    LEVEL,
+    /**
+     * Level-0 files and the base level are sorted runs that are merged with
+     * runs of a similar size.  Much lower write amplification at the cost of
+     * more runs to read and more space.
+     */
+    UNIVERSAL
+}
@@ -19,12 +19,21 @@ package org.iq80.leveldb;
 
 /**
  * 压缩类型
+ * The persistent ids are the ones of the C++ implementations.  Codecs other than
+ * snappy prefix the compressed block with its uncompressed length.
  */
 public enum CompressionType {
     // 0
     NONE(0x00),
     // 1
-    SNAPPY(0x01);
+    SNAPPY(0x01),
+    // raw deflate, built into the JVM
+    ZLIB(0x02),
+    // needs org.lz4:lz4-java on the class path
+    LZ4(0x04),
+    LZ4HC(0x05),
+    // needs com.github.luben:zstd-jni on the class path
+    ZSTD(0x07);
     private final int persistentId;
 
     CompressionType(int persistentId) {
@@ -18,6 +18,7 @@
 package org.iq80.leveldb;
 
 import java.io.Closeable;
+import java.nio.ByteBuffer;
 import java.util.Map;
 
 /**
@@ -28,6 +29,82 @@ public interface DB extends Iterable<Map.Entry<byte[], byte[]>>, Closeable {
 
     byte[] get(byte[] key, ReadOptions options) throws DBException;
 
+    default int get(byte[] key, ByteBuffer value) throws DBException {
+        return get(key, value, new ReadOptions());
+    }
+
+    /**
+     * Copies the value of the key into the remaining space of the supplied buffer
+     * without allocating an intermediate array.  If the buffer is too small only
+     * the first {@code value.remaining()} bytes are copied.  The default
+     * implementation copies the array returned by {@link #get(byte[], ReadOptions)}.
+     *
+     * @return the full length of the value, or -1 if the key was not found
+     */
+    default int get(byte[] key, ByteBuffer value, ReadOptions options) throws DBException {
+        byte[] bytes = get(key, options);
+        if (bytes == null) {
+            return -1;
+        }
+        value.put(bytes, 0, Math.min(bytes.length, value.remaining()));
+        return bytes.length;
+    }
+
+    default PinnedSlice getPinned(byte[] key) throws DBException {
+        return getPinned(key, new ReadOptions());
+    }
+
+    /**
+     * The default implementation wraps the array returned by
+     * {@link #get(byte[], ReadOptions)}.
+     *
+     * @return null if the key was not found, otherwise a view of the value that
+     * must be closed once the caller is done with it.
+     */
+    default PinnedSlice getPinned(byte[] key, ReadOptions options) throws DBException {
+        byte[] bytes = get(key, options);
+        if (bytes == null) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+        return new PinnedSlice() {
+            @Override
+            public ByteBuffer buffer() {
+                return buffer.duplicate();
+            }
+
+            @Override
+            public int length() {
+                return bytes.length;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    default boolean keyMayExist(byte[] key) throws DBException {
+        return keyMayExist(key, new ReadOptions(), null);
+    }
+
+    /**
+     * Checks for the key using only data already in memory: the memtables, the
+     * key ranges of the table files, their filters and cached blocks.  Never
+     * reads from disk.  The default implementation has nothing in memory to
+     * check and always answers that the key may exist.
+     *
+     * @param value if not null, receives the value when it was found in memory
+     * and null otherwise
+     * @return false if the key is definitely not present, true if it may be
+     */
+    default boolean keyMayExist(byte[] key, ReadOptions options, Holder<byte[]> value) throws DBException {
+        if (value != null) {
+            value.setValue(null);
+        }
+        return true;
+    }
+
     @Override
     DBIterator iterator();
 
@@ -37,6 +114,14 @@ public interface DB extends Iterable<Map.Entry<byte[], byte[]>>, Closeable {
 
     void delete(byte[] key) throws DBException;
 
+    default void merge(byte[] key, byte[] value) throws DBException {
+        merge(key, value, new WriteOptions());
+    }
+
+    default void deleteRange(byte[] begin, byte[] end) throws DBException {
+        deleteRange(begin, end, new WriteOptions());
+    }
+
     void write(WriteBatch updates) throws DBException;
 
     WriteBatch createWriteBatch();
@@ -53,6 +138,30 @@ public interface DB extends Iterable<Map.Entry<byte[], byte[]>>, Closeable {
      */
     Snapshot delete(byte[] key, WriteOptions options) throws DBException;
 
+    /**
+     * Records an operand that is combined with the existing value by the
+     * configured {@link MergeOperator} when the key is read or compacted.
+     *
+     * @return null if options.isSnapshot()==false otherwise returns a snapshot
+     * of the DB after this operation.
+     * @throws UnsupportedOperationException if the implementation has no merge support
+     */
+    default Snapshot merge(byte[] key, byte[] value, WriteOptions options) throws DBException {
+        throw new UnsupportedOperationException("merge is not supported");
+    }
+
+    /**
+     * Deletes every key in [begin, end) with a single range tombstone instead of
+     * one deletion per key.  The range is empty if end is not after begin.
+     *
+     * @return null if options.isSnapshot()==false otherwise returns a snapshot
+     * of the DB after this operation.
+     * @throws UnsupportedOperationException if the implementation has no range deletions
+     */
+    default Snapshot deleteRange(byte[] begin, byte[] end, WriteOptions options) throws DBException {
+        throw new UnsupportedOperationException("deleteRange is not supported");
+    }
+
     /**
      * @return null if options.isSnapshot()==false otherwise returns a snapshot
      * of the DB after this operation.
@@ -83,4 +192,15 @@ public interface DB extends Iterable<Map.Entry<byte[], byte[]>>, Closeable {
      * @param end   if null then compaction ends at the last key
      */
     void compactRange(byte[] begin, byte[] end) throws DBException;
+
+    /**
+     * Compacts the range like {@link #compactRange(byte[], byte[])}, splitting
+     * each level into chunks that are compacted in parallel.  Returns early,
+     * leaving the rest of the range uncompacted, once
+     * {@link CompactRangeOptions#cancel()} is called.  The default implementation
+     * compacts the whole range with {@link #compactRange(byte[], byte[])}.
+     */
+    default void compactRange(byte[] begin, byte[] end, CompactRangeOptions options) throws DBException {
+        compactRange(begin, end);
+    }
 }
@@ -0,0 +1,32 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb;
+
+/**
+ * A policy that builds a small filter for the keys of each table, letting reads
+ * skip tables that can not contain a key.  Implementations live next to the
+ * table code, see {@code org.iq80.leveldb.table.BloomFilterPolicy}.
+ */
+public interface DBFilterPolicy {
+    /**
+     * The name is persisted in every table written with the policy.  A table
+     * is only filtered by a policy of the same name, so the name must change
+     * whenever the encoding of the filters changes.
+     */
+    String name();
+}
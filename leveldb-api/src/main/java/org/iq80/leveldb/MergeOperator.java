@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb;
+
+import java.util.List;
+
+/**
+ * Combines the operands written with {@link DB#merge(byte[], byte[])} into a
+ * value.  Operands are folded lazily by reads and eagerly by compactions, so
+ * the result must not depend on when the merge happens.
+ */
+public interface MergeOperator {
+    String name();
+
+    /**
+     * Applies the operands to the existing value.
+     *
+     * @param existingValue the value the operands were written on top of, or null
+     * if there is none
+     * @param operands the operands, oldest first
+     * @return the new value
+     */
+    byte[] fullMerge(byte[] key, byte[] existingValue, List<byte[]> operands);
+
+    /**
+     * Combines two operands into one when that is possible without knowing the
+     * existing value.  Simple implementations should return null, leaving both
+     * operands in place until a full merge.
+     *
+     * @param leftOperand the older operand
+     * @param rightOperand the newer operand
+     */
+    byte[] partialMerge(byte[] key, byte[] leftOperand, byte[] rightOperand);
+}
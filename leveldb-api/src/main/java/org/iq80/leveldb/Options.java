@@ -17,6 +17,10 @@
  */
 package org.iq80.leveldb;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 public class Options {
     private boolean createIfMissing = true;
     private boolean errorIfExists;
@@ -27,15 +31,48 @@ public class Options {
 
     private int blockRestartInterval = 16;
     private int blockSize = 4 * 1024;
+    private boolean dataBlockHashIndex;
+    private int indexPartitionSize;
+    private TableFormat tableFormat = TableFormat.BLOCK_BASED;
+
+    private long maxBytesForLevelBase = 10 * 1048576;
+    private double maxBytesForLevelMultiplier = 10;
+    private long targetFileSize = 2 * 1048576;
+    private int targetFileSizeMultiplier = 1;
+    private boolean dynamicLevelBytes;
+
+    private CompactionStyle compactionStyle = CompactionStyle.LEVEL;
+    private CompactionPriority compactionPriority = CompactionPriority.ROUND_ROBIN;
+    private double deletionCompactionRatio;
+    private boolean persistFileStats;
+    private int universalSizeRatio = 1;
+    private int universalMinMergeWidth = 2;
+    private int universalMaxSizeAmplificationPercent = 200;
     //压缩类型
     private CompressionType compressionType = CompressionType.SNAPPY;
+    private List<CompressionType> compressionPerLevel = Collections.emptyList();
+    private CompressionType bottommostCompressionType;
+    private int maxCompressionDictionaryBytes;
+    private int compressionThreads = 1;
     private boolean verifyChecksums = true;
     private boolean paranoidChecks;
     //用户传过来的比较器
     private DBComparator comparator;
+    private DBFilterPolicy filterPolicy;
+    private CompactionFilter compactionFilter;
+    private MergeOperator mergeOperator;
+    private RateLimiter rateLimiter;
+    private long bytesPerSync;
+    private boolean useDirectReads;
+    private boolean useDirectIoForFlushAndCompaction;
+    private boolean enableBlobFiles;
+    private int minBlobSize = 4096;
+    private long blobFileSize = 256 * 1048576;
+    private double blobGarbageCollectionAgeCutoff = 0.25;
     private Logger logger;
     //缓存大小
     private long cacheSize;
+    private long rowCacheSize;
 
     static void checkArgNotNull(Object value, String name) {
         if (value == null) {
@@ -97,6 +134,232 @@ public class Options {
         return this;
     }
 
+    public boolean dataBlockHashIndex() {
+        return dataBlockHashIndex;
+    }
+
+    /**
+     * Appends a hash index of the user keys to each data block so point lookups
+     * can skip the binary search over restart positions.  Tables written with
+     * this option can not be read by the C++ leveldb.
+     */
+    public Options dataBlockHashIndex(boolean dataBlockHashIndex) {
+        this.dataBlockHashIndex = dataBlockHashIndex;
+        return this;
+    }
+
+    public int indexPartitionSize() {
+        return indexPartitionSize;
+    }
+
+    /**
+     * Splits the index of each table into partitions of about this many bytes that
+     * are loaded through the block cache, keeping only a small top level index in
+     * memory.  Zero, the default, writes a single index block.
+     */
+    public Options indexPartitionSize(int indexPartitionSize) {
+        if (indexPartitionSize < 0) {
+            throw new IllegalArgumentException("indexPartitionSize must not be negative");
+        }
+        this.indexPartitionSize = indexPartitionSize;
+        return this;
+    }
+
+    public TableFormat tableFormat() {
+        return tableFormat;
+    }
+
+    /**
+     * Format of the tables written from now on.  {@link TableFormat#PLAIN} tables
+     * ignore the block size, compression, filter and index options, and can not be
+     * read by the C++ leveldb.
+     */
+    public Options tableFormat(TableFormat tableFormat) {
+        checkArgNotNull(tableFormat, "tableFormat");
+        this.tableFormat = tableFormat;
+        return this;
+    }
+
+    public long maxBytesForLevelBase() {
+        return maxBytesForLevelBase;
+    }
+
+    /**
+     * Size limit of level 1, the size at which it is compacted into level 2.
+     */
+    public Options maxBytesForLevelBase(long maxBytesForLevelBase) {
+        if (maxBytesForLevelBase <= 0) {
+            throw new IllegalArgumentException("maxBytesForLevelBase must be positive");
+        }
+        this.maxBytesForLevelBase = maxBytesForLevelBase;
+        return this;
+    }
+
+    public double maxBytesForLevelMultiplier() {
+        return maxBytesForLevelMultiplier;
+    }
+
+    /**
+     * Each level above level 1 may hold this many times the bytes of the level before it.
+     */
+    public Options maxBytesForLevelMultiplier(double maxBytesForLevelMultiplier) {
+        if (maxBytesForLevelMultiplier <= 1) {
+            throw new IllegalArgumentException("maxBytesForLevelMultiplier must be greater than 1");
+        }
+        this.maxBytesForLevelMultiplier = maxBytesForLevelMultiplier;
+        return this;
+    }
+
+    public long targetFileSize() {
+        return targetFileSize;
+    }
+
+    /**
+     * Size of the table files written to level 1 by compactions.
+     */
+    public Options targetFileSize(long targetFileSize) {
+        if (targetFileSize <= 0) {
+            throw new IllegalArgumentException("targetFileSize must be positive");
+        }
+        this.targetFileSize = targetFileSize;
+        return this;
+    }
+
+    public int targetFileSizeMultiplier() {
+        return targetFileSizeMultiplier;
+    }
+
+    /**
+     * Files written to each level are this many times larger than those of the
+     * level before it.  One, the default, uses the same size for every level.
+     */
+    public Options targetFileSizeMultiplier(int targetFileSizeMultiplier) {
+        if (targetFileSizeMultiplier < 1) {
+            throw new IllegalArgumentException("targetFileSizeMultiplier must be at least 1");
+        }
+        this.targetFileSizeMultiplier = targetFileSizeMultiplier;
+        return this;
+    }
+
+    public boolean dynamicLevelBytes() {
+        return dynamicLevelBytes;
+    }
+
+    /**
+     * Derives the level size limits from the actual size of the last level,
+     * dividing by the multiplier for each level above it.  Level 0 compacts
+     * straight into the first level whose limit reaches
+     * {@link #maxBytesForLevelBase()}, leaving the levels above it empty, which
+     * keeps the space amplification near {@code 1 + 1 / multiplier} whatever
+     * the size of the database.
+     */
+    public Options dynamicLevelBytes(boolean dynamicLevelBytes) {
+        this.dynamicLevelBytes = dynamicLevelBytes;
+        return this;
+    }
+
+    public CompactionStyle compactionStyle() {
+        return compactionStyle;
+    }
+
+    public Options compactionStyle(CompactionStyle compactionStyle) {
+        checkArgNotNull(compactionStyle, "compactionStyle");
+        this.compactionStyle = compactionStyle;
+        return this;
+    }
+
+    public CompactionPriority compactionPriority() {
+        return compactionPriority;
+    }
+
+    /**
+     * How level compaction picks the file of a level that is over its limit.
+     * The priorities other than round robin use the stats of the files, which
+     * are lost on reopen unless {@link #persistFileStats(boolean)} is set.
+     */
+    public Options compactionPriority(CompactionPriority compactionPriority) {
+        checkArgNotNull(compactionPriority, "compactionPriority");
+        this.compactionPriority = compactionPriority;
+        return this;
+    }
+
+    public double deletionCompactionRatio() {
+        return deletionCompactionRatio;
+    }
+
+    /**
+     * Compacts a file of any level but the last once more than this share of its
+     * entries are deletions, even when the level is within its limit.  0, the
+     * default, disables deletion triggered compactions.
+     */
+    public Options deletionCompactionRatio(double deletionCompactionRatio) {
+        if (deletionCompactionRatio < 0 || deletionCompactionRatio > 1) {
+            throw new IllegalArgumentException("deletionCompactionRatio must be between 0 and 1");
+        }
+        this.deletionCompactionRatio = deletionCompactionRatio;
+        return this;
+    }
+
+    public boolean persistFileStats() {
+        return persistFileStats;
+    }
+
+    /**
+     * Writes the entry counts and sizes of the tables to the manifest.  A
+     * manifest with file stats can not be opened by the C++ implementation.
+     */
+    public Options persistFileStats(boolean persistFileStats) {
+        this.persistFileStats = persistFileStats;
+        return this;
+    }
+
+    public int universalSizeRatio() {
+        return universalSizeRatio;
+    }
+
+    /**
+     * Universal compaction adds the next older run to a merge while its size is
+     * at most this percentage larger than the runs picked so far.
+     */
+    public Options universalSizeRatio(int universalSizeRatio) {
+        if (universalSizeRatio < 0) {
+            throw new IllegalArgumentException("universalSizeRatio must not be negative");
+        }
+        this.universalSizeRatio = universalSizeRatio;
+        return this;
+    }
+
+    public int universalMinMergeWidth() {
+        return universalMinMergeWidth;
+    }
+
+    /**
+     * Minimum number of runs merged by a size ratio triggered universal compaction.
+     */
+    public Options universalMinMergeWidth(int universalMinMergeWidth) {
+        if (universalMinMergeWidth < 2) {
+            throw new IllegalArgumentException("universalMinMergeWidth must be at least 2");
+        }
+        this.universalMinMergeWidth = universalMinMergeWidth;
+        return this;
+    }
+
+    public int universalMaxSizeAmplificationPercent() {
+        return universalMaxSizeAmplificationPercent;
+    }
+
+    /**
+     * Universal compaction merges every run into the base level once the newer
+     * runs hold more than this percentage of the bytes of the base level.
+     */
+    public Options universalMaxSizeAmplificationPercent(int universalMaxSizeAmplificationPercent) {
+        if (universalMaxSizeAmplificationPercent < 0) {
+            throw new IllegalArgumentException("universalMaxSizeAmplificationPercent must not be negative");
+        }
+        this.universalMaxSizeAmplificationPercent = universalMaxSizeAmplificationPercent;
+        return this;
+    }
+
     public CompressionType compressionType() {
         return compressionType;
     }
@@ -107,6 +370,75 @@ public class Options {
         return this;
     }
 
+    public List<CompressionType> compressionPerLevel() {
+        return compressionPerLevel;
+    }
+
+    /**
+     * Compression of the tables written to each level, starting with level-0.  Levels
+     * past the end of the list use its last entry.  With dynamicLevelBytes the entry
+     * after level-0 is used for the base level.  Empty, the default, uses
+     * {@link #compressionType()} for all levels.
+     */
+    public Options compressionPerLevel(List<CompressionType> compressionPerLevel) {
+        checkArgNotNull(compressionPerLevel, "compressionPerLevel");
+        for (CompressionType compressionType : compressionPerLevel) {
+            checkArgNotNull(compressionType, "compressionPerLevel entry");
+        }
+        this.compressionPerLevel = Collections.unmodifiableList(new ArrayList<>(compressionPerLevel));
+        return this;
+    }
+
+    public CompressionType bottommostCompressionType() {
+        return bottommostCompressionType;
+    }
+
+    /**
+     * Compression of the tables written by compactions into the last level holding
+     * data, which holds most of it.  Null, the default, uses the compression of the level.
+     */
+    public Options bottommostCompressionType(CompressionType bottommostCompressionType) {
+        this.bottommostCompressionType = bottommostCompressionType;
+        return this;
+    }
+
+    public int maxCompressionDictionaryBytes() {
+        return maxCompressionDictionaryBytes;
+    }
+
+    /**
+     * Size of the dictionary that compactions into the last level holding data sample
+     * from their first output and compress the following outputs with.  Helps small
+     * blocks of similar values, which share little within a single block.  Only used by
+     * codecs that support dictionaries, such as zlib and zstd.  0, the default, disables
+     * dictionaries.
+     */
+    public Options maxCompressionDictionaryBytes(int maxCompressionDictionaryBytes) {
+        if (maxCompressionDictionaryBytes < 0) {
+            throw new IllegalArgumentException("maxCompressionDictionaryBytes must not be negative");
+        }
+        this.maxCompressionDictionaryBytes = maxCompressionDictionaryBytes;
+        return this;
+    }
+
+    public int compressionThreads() {
+        return compressionThreads;
+    }
+
+    /**
+     * Number of threads compressing the blocks of the tables written by flushes and
+     * compactions.  With more than one, finished blocks are compressed in parallel and
+     * written in order by the thread building the table.  1, the default, compresses
+     * on the building thread.
+     */
+    public Options compressionThreads(int compressionThreads) {
+        if (compressionThreads < 1) {
+            throw new IllegalArgumentException("compressionThreads must be positive");
+        }
+        this.compressionThreads = compressionThreads;
+        return this;
+    }
+
     public boolean verifyChecksums() {
         return verifyChecksums;
     }
@@ -120,11 +452,28 @@ public class Options {
         return cacheSize;
     }
 
+    /**
+     * Size in bytes of the cache of uncompressed blocks shared by all tables.
+     * Zero, the default, uses an 8MB cache.
+     */
     public Options cacheSize(long cacheSize) {
         this.cacheSize = cacheSize;
         return this;
     }
 
+    public long rowCacheSize() {
+        return rowCacheSize;
+    }
+
+    /**
+     * Size in bytes of the cache of point lookup results, kept separately from
+     * the block cache.  Zero, the default, disables the row cache.
+     */
+    public Options rowCacheSize(long rowCacheSize) {
+        this.rowCacheSize = rowCacheSize;
+        return this;
+    }
+
     public DBComparator comparator() {
         return comparator;
     }
@@ -134,6 +483,167 @@ public class Options {
         return this;
     }
 
+    public DBFilterPolicy filterPolicy() {
+        return filterPolicy;
+    }
+
+    /**
+     * Policy used to build a filter for every table, checked by point lookups
+     * before reading a data block.  Null, the default, writes no filters.
+     */
+    public Options filterPolicy(DBFilterPolicy filterPolicy) {
+        this.filterPolicy = filterPolicy;
+        return this;
+    }
+
+    public CompactionFilter compactionFilter() {
+        return compactionFilter;
+    }
+
+    /**
+     * Filter applied to the entries rewritten by compactions.  Null, the default,
+     * keeps every entry.
+     */
+    public Options compactionFilter(CompactionFilter compactionFilter) {
+        this.compactionFilter = compactionFilter;
+        return this;
+    }
+
+    public RateLimiter rateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Limiter charged by the table writes of flushes and compactions.  Null,
+     * the default, writes at full speed.
+     */
+    public Options rateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+        return this;
+    }
+
+    public long bytesPerSync() {
+        return bytesPerSync;
+    }
+
+    /**
+     * Syncs table files every time this many bytes were written, instead of
+     * only once when the file is finished.  Spreads the write back of large
+     * files over time.  0, the default, disables incremental syncs.
+     */
+    public Options bytesPerSync(long bytesPerSync) {
+        if (bytesPerSync < 0) {
+            throw new IllegalArgumentException("bytesPerSync must not be negative");
+        }
+        this.bytesPerSync = bytesPerSync;
+        return this;
+    }
+
+    public boolean useDirectReads() {
+        return useDirectReads;
+    }
+
+    /**
+     * Reads tables with direct I/O, bypassing the page cache of the operating system,
+     * so the block cache is the only cache of table data.  Size the block cache
+     * accordingly.  Needs Java 10 or later and a file system supporting direct I/O.
+     */
+    public Options useDirectReads(boolean useDirectReads) {
+        this.useDirectReads = useDirectReads;
+        return this;
+    }
+
+    public boolean useDirectIoForFlushAndCompaction() {
+        return useDirectIoForFlushAndCompaction;
+    }
+
+    /**
+     * Writes the tables of flushes and compactions with direct I/O, so they do not
+     * evict the data of other processes from the page cache.  Needs Java 10 or later
+     * and a file system supporting direct I/O.
+     */
+    public Options useDirectIoForFlushAndCompaction(boolean useDirectIoForFlushAndCompaction) {
+        this.useDirectIoForFlushAndCompaction = useDirectIoForFlushAndCompaction;
+        return this;
+    }
+
+    public boolean enableBlobFiles() {
+        return enableBlobFiles;
+    }
+
+    /**
+     * Separates large values from their keys: flushes and compactions write values of
+     * at least {@link #minBlobSize()} bytes to append-only blob files and keep only a
+     * reference to them in the tables, so compactions no longer rewrite the values.
+     * Blob files are deleted once compactions dropped all references to them.
+     */
+    public Options enableBlobFiles(boolean enableBlobFiles) {
+        this.enableBlobFiles = enableBlobFiles;
+        return this;
+    }
+
+    public int minBlobSize() {
+        return minBlobSize;
+    }
+
+    /**
+     * Smallest value written to a blob file when {@link #enableBlobFiles()} is set,
+     * smaller values stay in the tables.  Defaults to 4KB.
+     */
+    public Options minBlobSize(int minBlobSize) {
+        if (minBlobSize < 0) {
+            throw new IllegalArgumentException("minBlobSize must not be negative");
+        }
+        this.minBlobSize = minBlobSize;
+        return this;
+    }
+
+    public long blobFileSize() {
+        return blobFileSize;
+    }
+
+    /**
+     * Size at which a flush or compaction starts a new blob file.  Defaults to 256MB.
+     */
+    public Options blobFileSize(long blobFileSize) {
+        if (blobFileSize <= 0) {
+            throw new IllegalArgumentException("blobFileSize must be positive");
+        }
+        this.blobFileSize = blobFileSize;
+        return this;
+    }
+
+    public double blobGarbageCollectionAgeCutoff() {
+        return blobGarbageCollectionAgeCutoff;
+    }
+
+    /**
+     * Share of the oldest blob files whose values compactions move to new blob files,
+     * so the old files run out of references and can be deleted.  0 disables the
+     * relocation, blob files are then only deleted when all their values were
+     * overwritten or deleted.  Defaults to 0.25.
+     */
+    public Options blobGarbageCollectionAgeCutoff(double blobGarbageCollectionAgeCutoff) {
+        if (blobGarbageCollectionAgeCutoff < 0 || blobGarbageCollectionAgeCutoff > 1) {
+            throw new IllegalArgumentException("blobGarbageCollectionAgeCutoff must be between 0 and 1");
+        }
+        this.blobGarbageCollectionAgeCutoff = blobGarbageCollectionAgeCutoff;
+        return this;
+    }
+
+    public MergeOperator mergeOperator() {
+        return mergeOperator;
+    }
+
+    /**
+     * Operator used to fold the operands written with {@link DB#merge(byte[], byte[])}.
+     * A database holding merge operands must always be opened with the same operator.
+     */
+    public Options mergeOperator(MergeOperator mergeOperator) {
+        this.mergeOperator = mergeOperator;
+        return this;
+    }
+
     public Logger logger() {
         return logger;
     }
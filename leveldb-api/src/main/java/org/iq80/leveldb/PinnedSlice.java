@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+
+/**
+ * A value returned by {@link DB#getPinned(byte[], ReadOptions)} that references
+ * the database's own copy of the data instead of a freshly allocated array.
+ * The buffer stays valid until the slice is closed.
+ */
+public interface PinnedSlice
+        extends Closeable {
+    /**
+     * @return a read-only view of the value, positioned at zero with its limit
+     * set to the value length.
+     */
+    ByteBuffer buffer();
+
+    int length();
+
+    @Override
+    void close();
+}
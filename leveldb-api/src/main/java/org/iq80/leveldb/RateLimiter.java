@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb;
+
+/**
+ * Limits the bytes background work writes to table files, so flushes and
+ * compactions do not starve foreground reads of disk bandwidth.  Writes
+ * block in {@link #request(long, Priority)} until the limiter lets them
+ * through.  Implementations are shared by all background threads and must
+ * be thread safe.
+ */
+public interface RateLimiter {
+    enum Priority {
+        /**
+         * Memtable flushes, which writers may be waiting for.
+         */
+        HIGH,
+        /**
+         * Compactions.
+         */
+        LOW
+    }
+
+    /**
+     * Blocks until {@code bytes} may be written.
+     */
+    void request(long bytes, Priority priority);
+
+    long getBytesPerSecond();
+
+    /**
+     * Changes the limit, takes effect for the requests that are waiting as well.
+     */
+    void setBytesPerSecond(long bytesPerSecond);
+
+    /**
+     * Total bytes let through with the given priority.
+     */
+    long getTotalBytesThrough(Priority priority);
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb;
+
+/**
+ * Layout of the table files written by flushes and compactions.  Tables of
+ * either format can be read, whatever the format of the options.
+ */
+public enum TableFormat {
+    /**
+     * Entries are prefix compressed into blocks that may be compressed, and are
+     * found through an index of the blocks.  Tables can be larger than memory
+     * and are read one block at a time.
+     */
+    BLOCK_BASED,
+    /**
+     * Entries are stored uncompressed, one after the other, followed by the
+     * offsets of all entries.  Each table is read into memory once when it is
+     * opened, lookups then binary search the offsets and return the keys and
+     * values without copying them.  Meant for data sets that fit in memory.
+     */
+    PLAIN
+}
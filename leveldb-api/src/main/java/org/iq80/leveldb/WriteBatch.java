@@ -27,4 +27,11 @@ public interface WriteBatch
     WriteBatch put(byte[] key, byte[] value);
 
     WriteBatch delete(byte[] key);
+
+    WriteBatch merge(byte[] key, byte[] value);
+
+    /**
+     * Deletes the keys in [begin, end).
+     */
+    WriteBatch deleteRange(byte[] begin, byte[] end);
 }
@@ -23,7 +23,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.io.CharStreams;
 import com.google.common.io.Files;
 import org.iq80.leveldb.*;
-import org.iq80.leveldb.impl.DbImpl;
+import org.iq80.leveldb.table.BloomFilterPolicy;
 import org.iq80.leveldb.util.*;
 
 import java.io.File;
@@ -38,14 +38,15 @@ import static org.iq80.leveldb.benchmark.DbBenchmark.DBState.EXISTING;
 import static org.iq80.leveldb.benchmark.DbBenchmark.DBState.FRESH;
 import static org.iq80.leveldb.benchmark.DbBenchmark.Order.RANDOM;
 import static org.iq80.leveldb.benchmark.DbBenchmark.Order.SEQUENTIAL;
-import static org.iq80.leveldb.impl.DbConstants.NUM_LEVELS;
 
 public class DbBenchmark {
     private final boolean useExisting;
     private final Integer writeBufferSize;
+    private final int cacheSize;
+    private final long rowCacheSize;
+    private final int bloomBits;
     private final File databaseDir;
     private final double compressionRatio;
-    //    Cache cache_;
     private final List<String> benchmarks;
     private final int num;
     private final int valueSize;
@@ -74,6 +75,9 @@ public class DbBenchmark {
         reads = (Integer) (flags.get(Flag.reads) == null ? flags.get(Flag.num) : flags.get(Flag.reads));
         valueSize = (Integer) flags.get(Flag.value_size);
         writeBufferSize = (Integer) flags.get(Flag.write_buffer_size);
+        cacheSize = (Integer) flags.get(Flag.cache_size);
+        rowCacheSize = (Long) flags.get(Flag.row_cache_size);
+        bloomBits = (Integer) flags.get(Flag.bloom_bits);
         compressionRatio = (Double) flags.get(Flag.compression_ratio);
         useExisting = (Boolean) flags.get(Flag.use_existing_db);
         heapCounter = 0;
@@ -311,7 +315,13 @@ public class DbBenchmark {
             throws IOException {
         Options options = new Options();
         options.createIfMissing(!useExisting);
-        // todo block cache
+        if (cacheSize >= 0) {
+            options.cacheSize(cacheSize);
+        }
+        options.rowCacheSize(rowCacheSize);
+        if (bloomBits >= 0) {
+            options.filterPolicy(new BloomFilterPolicy(bloomBits));
+        }
         if (writeBufferSize != null) {
             options.writeBufferSize(writeBufferSize);
         }
@@ -463,12 +473,7 @@ public class DbBenchmark {
 
     private void compact()
             throws IOException {
-        if (db instanceof DbImpl) {
-            ((DbImpl) db).compactMemTable();
-            for (int level = 0; level < NUM_LEVELS - 1; level++) {
-                ((DbImpl) db).compactRange(level, Slices.copiedBuffer("", UTF_8), Slices.copiedBuffer("~", UTF_8));
-            }
-        }
+        db.compactRange(null, null);
     }
 
     private void crc32c(int blockSize, String message) {
@@ -482,7 +487,7 @@ public class DbBenchmark {
         long bytes = 0;
         int crc = 0;
         while (bytes < 1000 * 1048576) {
-            PureJavaCrc32C checksum = new PureJavaCrc32C();
+            Crc32C checksum = new Crc32C();
             checksum.update(data, 0, blockSize);
             crc = checksum.getMaskedValue();
             finishedSingleOp();
@@ -586,7 +591,10 @@ public class DbBenchmark {
     }
 
     private void printStats() {
-        //To change body of created methods use File | Settings | File Templates.
+        String stats = db.getProperty("leveldb.row-cache-stats");
+        if (stats != null) {
+            System.out.printf("%nRow cache:%n%s%n", stats);
+        }
     }
 
     enum Order {
@@ -715,6 +723,24 @@ public class DbBenchmark {
             }
         },
 
+        // Number of bytes to use as a cache of point lookup results.
+        // Zero disables the row cache.
+        row_cache_size(0L) {
+            @Override
+            public Object parseValue(String value) {
+                return Long.parseLong(value);
+            }
+        },
+
+        // Bloom filter bits per key.
+        // Negative means use default settings.
+        bloom_bits(-1) {
+            @Override
+            public Object parseValue(String value) {
+                return Integer.parseInt(value);
+            }
+        },
+
         // Maximum number of files to keep open at the same time (use default if == 0)
         open_files(0) {
             @Override
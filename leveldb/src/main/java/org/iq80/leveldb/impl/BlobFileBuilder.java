@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.RateLimiter;
+import org.iq80.leveldb.util.Closeables;
+import org.iq80.leveldb.util.Crc32C;
+import org.iq80.leveldb.util.Slice;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Appends values to a blob file.  Each value is written as a record made of the
+ * masked crc32c of the value followed by the value itself; the tables reference
+ * it with a {@link BlobIndex}.  The builder owns the channel and closes it when
+ * the file is finished or abandoned.
+ */
+public class BlobFileBuilder {
+    public static final int RECORD_HEADER_SIZE = 4;
+
+    private final long fileNumber;
+    private final FileChannel fileChannel;
+    private final RateLimiter rateLimiter;
+    private final RateLimiter.Priority ioPriority;
+    private final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    private long position;
+    private long blobCount;
+    private boolean closed;
+
+    /**
+     * @param rateLimiter limits the write rate, or null
+     */
+    public BlobFileBuilder(long fileNumber, FileChannel fileChannel, RateLimiter rateLimiter, RateLimiter.Priority ioPriority) {
+        this.fileNumber = fileNumber;
+        this.fileChannel = requireNonNull(fileChannel, "fileChannel is null");
+        this.rateLimiter = rateLimiter;
+        this.ioPriority = requireNonNull(ioPriority, "ioPriority is null");
+    }
+
+    public long getFileNumber() {
+        return fileNumber;
+    }
+
+    public long getFileSize() {
+        return position;
+    }
+
+    /**
+     * Appends the value and returns the reference the tables store in its place.
+     */
+    public BlobIndex add(Slice value)
+            throws IOException {
+        checkState(!closed, "blob file is finished");
+
+        Crc32C crc32c = new Crc32C();
+        crc32c.update(value);
+        header.clear();
+        header.putInt(crc32c.getMaskedValue());
+        header.flip();
+
+        ByteBuffer data = value.toByteBuffer();
+        if (rateLimiter != null) {
+            rateLimiter.request(RECORD_HEADER_SIZE + value.length(), ioPriority);
+        }
+        ByteBuffer[] buffers = {header, data};
+        while (data.hasRemaining()) {
+            fileChannel.write(buffers);
+        }
+
+        BlobIndex blobIndex = new BlobIndex(fileNumber, position + RECORD_HEADER_SIZE, value.length());
+        position += blobIndex.getRecordSize();
+        blobCount++;
+        return blobIndex;
+    }
+
+    /**
+     * Syncs and closes the file.
+     */
+    public BlobFileMetaData finish()
+            throws IOException {
+        checkState(!closed, "blob file is finished");
+        closed = true;
+        try {
+            fileChannel.force(true);
+        } finally {
+            fileChannel.close();
+        }
+        return new BlobFileMetaData(fileNumber, blobCount, position);
+    }
+
+    /**
+     * Closes the file without syncing it, the caller deletes it.
+     */
+    public void abandon() {
+        if (!closed) {
+            closed = true;
+            Closeables.closeQuietly(fileChannel);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import org.iq80.leveldb.util.Closeables;
+import org.iq80.leveldb.util.Crc32C;
+import org.iq80.leveldb.util.DirectIoFileChannel;
+import org.iq80.leveldb.util.Finalizer;
+import org.iq80.leveldb.util.Slice;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Open blob files, reading the values the tables reference.  Like the tables, an
+ * evicted file is closed once no reader uses it any more.
+ */
+public class BlobFileCache {
+    private final LoadingCache<Long, BlobFile> cache;
+    private final Finalizer<BlobFile> finalizer = new Finalizer<>(1);
+    private final boolean verifyChecksums;
+
+    /**
+     * @param useDirectReads read the blob files with direct I/O, bypassing the page cache
+     */
+    public BlobFileCache(final File databaseDir, int blobFileCacheSize, boolean verifyChecksums, final boolean useDirectReads) {
+        requireNonNull(databaseDir, "databaseDir is null");
+        this.verifyChecksums = verifyChecksums;
+
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(blobFileCacheSize)
+                .removalListener(new RemovalListener<Long, BlobFile>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<Long, BlobFile> notification) {
+                        BlobFile blobFile = notification.getValue();
+                        finalizer.addCleanup(blobFile, blobFile.closer());
+                    }
+                })
+                .build(new CacheLoader<Long, BlobFile>() {
+                    @Override
+                    public BlobFile load(Long fileNumber)
+                            throws IOException {
+                        File file = new File(databaseDir, Filename.blobFileName(fileNumber));
+                        if (useDirectReads) {
+                            return new BlobFile(DirectIoFileChannel.openForRead(file));
+                        }
+                        return new BlobFile(new FileInputStream(file).getChannel());
+                    }
+                });
+    }
+
+    /**
+     * Returns the value the encoded {@link BlobIndex} refers to.
+     */
+    public Slice get(Slice blobIndex) {
+        return get(BlobIndex.decode(blobIndex));
+    }
+
+    public Slice get(BlobIndex blobIndex) {
+        BlobFile blobFile;
+        try {
+            blobFile = cache.get(blobIndex.getFileNumber());
+        } catch (ExecutionException e) {
+            Throwable cause = e;
+            if (e.getCause() != null) {
+                cause = e.getCause();
+            }
+            throw new RuntimeException("Could not open blob file " + blobIndex.getFileNumber(), cause);
+        }
+        try {
+            return blobFile.read(blobIndex, verifyChecksums);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    public void close() {
+        cache.invalidateAll();
+        finalizer.destroy();
+    }
+
+    public void evict(long number) {
+        cache.invalidate(number);
+    }
+
+    private static final class BlobFile {
+        private final FileChannel fileChannel;
+
+        private BlobFile(FileChannel fileChannel) {
+            this.fileChannel = fileChannel;
+        }
+
+        private Slice read(BlobIndex blobIndex, boolean verifyChecksum)
+                throws IOException {
+            ByteBuffer record = ByteBuffer.allocate((int) blobIndex.getRecordSize()).order(ByteOrder.LITTLE_ENDIAN);
+            long position = blobIndex.getOffset() - BlobFileBuilder.RECORD_HEADER_SIZE;
+            while (record.hasRemaining()) {
+                int read = fileChannel.read(record, position + record.position());
+                if (read < 0) {
+                    throw new IOException(String.format("Blob file %d is truncated, the value at %d is missing", blobIndex.getFileNumber(), blobIndex.getOffset()));
+                }
+            }
+            Slice value = new Slice(record.array(), BlobFileBuilder.RECORD_HEADER_SIZE, blobIndex.getLength());
+            if (verifyChecksum) {
+                Crc32C crc32c = new Crc32C();
+                crc32c.update(value);
+                if (crc32c.getMaskedValue() != record.getInt(0)) {
+                    throw new IOException(String.format("Corrupt value at %d of blob file %d", blobIndex.getOffset(), blobIndex.getFileNumber()));
+                }
+            }
+            return value;
+        }
+
+        private Callable<?> closer() {
+            final FileChannel channel = fileChannel;
+            return new Callable<Void>() {
+                @Override
+                public Void call() {
+                    Closeables.closeQuietly(channel);
+                    return null;
+                }
+            };
+        }
+    }
+}
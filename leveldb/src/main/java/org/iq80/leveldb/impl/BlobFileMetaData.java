@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A blob file of a version, with the number of its values and how many of them
+ * are no longer referenced by any table.  Values only become garbage, so a file
+ * whose values are all garbage is dropped from the version.
+ */
+public class BlobFileMetaData {
+    private final long number;
+    private final long blobCount;
+    // size of the records, including their headers
+    private final long blobBytes;
+    private final long garbageCount;
+    private final long garbageBytes;
+
+    public BlobFileMetaData(long number, long blobCount, long blobBytes) {
+        this(number, blobCount, blobBytes, 0, 0);
+    }
+
+    public BlobFileMetaData(long number, long blobCount, long blobBytes, long garbageCount, long garbageBytes) {
+        checkArgument(garbageCount <= blobCount, "blob file %s has more garbage than values", number);
+        this.number = number;
+        this.blobCount = blobCount;
+        this.blobBytes = blobBytes;
+        this.garbageCount = garbageCount;
+        this.garbageBytes = garbageBytes;
+    }
+
+    public long getNumber() {
+        return number;
+    }
+
+    public long getBlobCount() {
+        return blobCount;
+    }
+
+    public long getBlobBytes() {
+        return blobBytes;
+    }
+
+    public long getGarbageCount() {
+        return garbageCount;
+    }
+
+    public long getGarbageBytes() {
+        return garbageBytes;
+    }
+
+    public BlobFileMetaData addGarbage(long count, long bytes) {
+        return new BlobFileMetaData(number, blobCount, blobBytes, garbageCount + count, garbageBytes + bytes);
+    }
+
+    /**
+     * Returns true if no table references a value of the file any more.
+     */
+    public boolean isObsolete() {
+        return garbageCount >= blobCount;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("BlobFileMetaData");
+        sb.append("{number=").append(number);
+        sb.append(", blobCount=").append(blobCount);
+        sb.append(", blobBytes=").append(blobBytes);
+        sb.append(", garbageCount=").append(garbageCount);
+        sb.append(", garbageBytes=").append(garbageBytes);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.util.DynamicSliceOutput;
+import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.SliceInput;
+import org.iq80.leveldb.util.VariableLengthQuantity;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Reference to a value in a blob file, stored in the tables in place of the
+ * value by entries of type {@link ValueType#BLOB_INDEX}.
+ */
+public final class BlobIndex {
+    private final long fileNumber;
+    private final long offset;
+    private final int length;
+
+    /**
+     * @param offset position of the value in the file, after its record header
+     */
+    public BlobIndex(long fileNumber, long offset, int length) {
+        checkArgument(offset >= BlobFileBuilder.RECORD_HEADER_SIZE, "offset is before the first value");
+        checkArgument(length >= 0, "length is negative");
+        this.fileNumber = fileNumber;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public static BlobIndex decode(Slice slice) {
+        SliceInput input = slice.input();
+        long fileNumber = VariableLengthQuantity.readVariableLengthLong(input);
+        long offset = VariableLengthQuantity.readVariableLengthLong(input);
+        int length = VariableLengthQuantity.readVariableLengthInt(input);
+        return new BlobIndex(fileNumber, offset, length);
+    }
+
+    public Slice encode() {
+        DynamicSliceOutput output = new DynamicSliceOutput(20);
+        VariableLengthQuantity.writeVariableLengthLong(fileNumber, output);
+        VariableLengthQuantity.writeVariableLengthLong(offset, output);
+        VariableLengthQuantity.writeVariableLengthInt(length, output);
+        return output.slice();
+    }
+
+    public long getFileNumber() {
+        return fileNumber;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the size of the record holding the value in the blob file.
+     */
+    public long getRecordSize() {
+        return BlobFileBuilder.RECORD_HEADER_SIZE + length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        BlobIndex blobIndex = (BlobIndex) o;
+        return fileNumber == blobIndex.fileNumber &&
+                offset == blobIndex.offset &&
+                length == blobIndex.length;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (fileNumber ^ (fileNumber >>> 32));
+        result = 31 * result + (int) (offset ^ (offset >>> 32));
+        result = 31 * result + length;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("BlobIndex");
+        sb.append("{fileNumber=").append(fileNumber);
+        sb.append(", offset=").append(offset);
+        sb.append(", length=").append(length);
+        sb.append('}');
+        return sb.toString();
+    }
+}
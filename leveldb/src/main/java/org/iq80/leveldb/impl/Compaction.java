@@ -26,7 +26,6 @@ import java.util.List;
 import static com.google.common.base.Preconditions.checkArgument;
 import static java.util.Objects.requireNonNull;
 import static org.iq80.leveldb.impl.DbConstants.NUM_LEVELS;
-import static org.iq80.leveldb.impl.VersionSet.MAX_GRAND_PARENT_OVERLAP_BYTES;
 
 /**
  * A Compaction encapsulates information about a compaction.
@@ -35,11 +34,13 @@ import static org.iq80.leveldb.impl.VersionSet.MAX_GRAND_PARENT_OVERLAP_BYTES;
 public class Compaction {
     //要compact的level
     private final int level;
+    // the level the outputs are written to, level + 1 unless level-0 skips empty levels
+    private final int outputLevel;
     //compact时当前的版本
     private final Version inputVersion;
 
-    // Each compaction reads inputs from "level" and "level+1"
-    //每个压缩都从“level”和“level+1”读取输入
+    // Each compaction reads inputs from "level" and "outputLevel"
+    //每个压缩都从“level”和“outputLevel”读取输入
     private final List<FileMetaData> levelInputs;
     private final List<FileMetaData> levelUpInputs;//父级level
     private final List<FileMetaData> grandparents;//祖父级level
@@ -49,6 +50,11 @@ public class Compaction {
 
     //生成sstable的最大size(targe_file_size)
     private final long maxOutputFileSize;
+    private final long maxGrandParentOverlapBytes;
+    // number reserved for the single output of a level-0 to level-0 compaction, zero otherwise
+    private long outputFileNumber;
+    // picked to drop the deletions of its input, which a move would keep
+    private boolean deletionTriggered;
     //记录compact过程中的操作
     private final VersionEdit edit = new VersionEdit();
 
@@ -68,13 +74,17 @@ public class Compaction {
     //当前输出文件和祖父文件之间重叠的字节数
     private long overlappedBytes;
 
-    public Compaction(Version inputVersion, int level, List<FileMetaData> levelInputs, List<FileMetaData> levelUpInputs, List<FileMetaData> grandparents) {
+    public Compaction(Version inputVersion, int level, int outputLevel, List<FileMetaData> levelInputs, List<FileMetaData> levelUpInputs, List<FileMetaData> grandparents,
+            long maxOutputFileSize, long maxGrandParentOverlapBytes) {
+        checkArgument(outputLevel > level || outputLevel == 0, "outputLevel must be greater than level");
         this.inputVersion = inputVersion;
         this.level = level;
+        this.outputLevel = outputLevel;
         this.levelInputs = levelInputs;
         this.levelUpInputs = levelUpInputs;
         this.grandparents = ImmutableList.copyOf(requireNonNull(grandparents, "grandparents is null"));
-        this.maxOutputFileSize = VersionSet.maxFileSizeForLevel(level);
+        this.maxOutputFileSize = maxOutputFileSize;
+        this.maxGrandParentOverlapBytes = maxGrandParentOverlapBytes;
         this.inputs = new List[]{levelInputs, levelUpInputs};
     }
 
@@ -90,6 +100,31 @@ public class Compaction {
         return level;
     }
 
+    public int getOutputLevel() {
+        return outputLevel;
+    }
+
+    public long getOutputFileNumber() {
+        return outputFileNumber;
+    }
+
+    public void setOutputFileNumber(long outputFileNumber) {
+        this.outputFileNumber = outputFileNumber;
+    }
+
+    /**
+     * Returns true if none of the levels below the output level have files, so the
+     * outputs hold the oldest data of their key range.
+     */
+    public boolean isBottommost() {
+        for (int level = outputLevel + 1; level < NUM_LEVELS; level++) {
+            if (inputVersion.numberOfFilesInLevel(level) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public List<FileMetaData> getLevelInputs() {
         return levelInputs;
     }
@@ -102,7 +137,7 @@ public class Compaction {
         return edit;
     }
 
-    // Return the ith input file at "level()+which" ("which" must be 0 or 1).
+    // Return the ith input file at "level()" or "outputLevel()" ("which" must be 0 or 1).
     public FileMetaData input(int which, int i) {
         checkArgument(which == 0 || which == 1, "which must be either 0 or 1");
         if (which == 0) {
@@ -124,10 +159,19 @@ public class Compaction {
         // Otherwise, the move could create a parent file that will require a very expensive merge later on.
         //如果有很多重叠的祖父母数据，避免移动。
         //否则，move可能会创建一个父文件，它将在以后需要非常昂贵的合并。
-        return (levelInputs.size() == 1 &&
+        return (!deletionTriggered &&
+                levelInputs.size() == 1 &&
                 levelUpInputs.isEmpty() &&
-                totalFileSize(grandparents) <= MAX_GRAND_PARENT_OVERLAP_BYTES);
+                totalFileSize(grandparents) <= maxGrandParentOverlapBytes);
+
+    }
+
+    public boolean isDeletionTriggered() {
+        return deletionTriggered;
+    }
 
+    public void setDeletionTriggered(boolean deletionTriggered) {
+        this.deletionTriggered = deletionTriggered;
     }
 
     // Add all inputs to this compaction as delete operations to *edit.
@@ -136,17 +180,21 @@ public class Compaction {
             edit.deleteFile(level, input.getNumber());
         }
         for (FileMetaData input : levelUpInputs) {
-            edit.deleteFile(level + 1, input.getNumber());
+            edit.deleteFile(outputLevel, input.getNumber());
         }
     }
 
     // Returns true if the information we have available guarantees that
-    // the compaction is producing data in "level+1" for which no data exists
-    // in levels greater than "level+1".
+    // the compaction is producing data in "outputLevel" for which no data exists
+    // in levels greater than "outputLevel".
     public boolean isBaseLevelForKey(Slice userKey) {
+        if (outputLevel == 0) {
+            // older level-0 files that are not part of the compaction may hold the key
+            return false;
+        }
         // Maybe use binary search to find right entry instead of linear search?
         UserComparator userComparator = inputVersion.getInternalKeyComparator().getUserComparator();
-        for (int level = this.level + 2; level < NUM_LEVELS; level++) {
+        for (int level = outputLevel + 1; level < NUM_LEVELS; level++) {
             List<FileMetaData> files = inputVersion.getFiles(level);
             while (levelPointers[level] < files.size()) {
                 FileMetaData f = files.get(levelPointers[level]);
@@ -164,6 +212,22 @@ public class Compaction {
         return true;
     }
 
+    /**
+     * Returns true if no level below the output level holds keys in [start, end],
+     * so a range tombstone over it has nothing left to delete once compacted.
+     */
+    public boolean isBaseLevelForRange(Slice start, Slice end) {
+        if (outputLevel == 0) {
+            return false;
+        }
+        for (int level = outputLevel + 1; level < NUM_LEVELS; level++) {
+            if (inputVersion.overlapInLevel(level, start, end)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     // Returns true iff we should stop building the current output
     // before processing "internal_key".
     public boolean shouldStopBefore(InternalKey internalKey) {
@@ -177,7 +241,7 @@ public class Compaction {
         }
         seenKey = true;
 
-        if (overlappedBytes > MAX_GRAND_PARENT_OVERLAP_BYTES) {
+        if (overlappedBytes > maxGrandParentOverlapBytes) {
             // Too much overlap for current output; start new output
             overlappedBytes = 0;
             return true;
@@ -19,26 +19,37 @@ package org.iq80.leveldb.impl;
 
 import com.google.common.base.Throwables;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.iq80.leveldb.*;
 import org.iq80.leveldb.impl.Filename.FileInfo;
 import org.iq80.leveldb.impl.Filename.FileType;
 import org.iq80.leveldb.impl.MemTable.MemTableIterator;
 import org.iq80.leveldb.impl.WriteBatchImpl.Handler;
+import org.iq80.leveldb.table.BlockCache;
 import org.iq80.leveldb.table.BytewiseComparator;
+import org.iq80.leveldb.table.CompressionDictionarySampler;
 import org.iq80.leveldb.table.CustomUserComparator;
+import org.iq80.leveldb.table.FilterPolicy;
 import org.iq80.leveldb.table.TableBuilder;
+import org.iq80.leveldb.table.TableProperties;
 import org.iq80.leveldb.table.UserComparator;
 import org.iq80.leveldb.util.*;
 
 import java.io.*;
 import java.lang.Thread.UncaughtExceptionHandler;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -47,7 +58,10 @@ import static com.google.common.base.Preconditions.checkState;
 import static java.util.Objects.requireNonNull;
 import static org.iq80.leveldb.impl.DbConstants.*;
 import static org.iq80.leveldb.impl.SequenceNumber.MAX_SEQUENCE_NUMBER;
+import static org.iq80.leveldb.impl.ValueType.BLOB_INDEX;
 import static org.iq80.leveldb.impl.ValueType.DELETION;
+import static org.iq80.leveldb.impl.ValueType.MERGE;
+import static org.iq80.leveldb.impl.ValueType.RANGE_DELETION;
 import static org.iq80.leveldb.impl.ValueType.VALUE;
 import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
 import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
@@ -60,6 +74,10 @@ public class DbImpl implements DB {
     private final Options options;
     private final File databaseDir;
     private final TableCache tableCache;
+    private final BlobFileCache blobFileCache;
+    private final BlockCache blockCache;
+    private final RowCache rowCache;
+    private final FilterPolicy filterPolicy;
     private final DbLock dbLock;
     private final VersionSet versions;
 
@@ -69,8 +87,12 @@ public class DbImpl implements DB {
 
     //等待output的文件列表名
     private final List<Long> pendingOutputs = new ArrayList<>(); // todo
+    // snapshots handed out to users, compactions keep the versions they can see
+    private final SnapshotList snapshots = new SnapshotList();
     private final InternalKeyComparator internalKeyComparator;
     private final ExecutorService compactionExecutor;
+    // null unless blocks are compressed by more than one thread
+    private final ExecutorService compressionExecutor;
     private final Object suspensionMutex = new Object();
     private LogWriter log;
     //内存表
@@ -81,6 +103,13 @@ public class DbImpl implements DB {
     private Future<?> backgroundCompaction;
     //手动合并器
     private ManualCompaction manualCompaction;
+    // set while compactRange runs its chunks; the background thread still flushes
+    // memtables but picks no compactions that could take the same files
+    private boolean exclusiveManualCompaction;
+    // the level compactRange is compacting while exclusiveManualCompaction is set
+    private int exclusiveManualCompactionLevel;
+    // set while a memtable is written to a table with the mutex released
+    private boolean memTableCompactionRunning;
     private int suspensionCounter;
 
     public DbImpl(Options options, File databaseDir)
@@ -89,10 +118,12 @@ public class DbImpl implements DB {
         requireNonNull(databaseDir, "databaseDir is null");
         this.options = options;
 
-        if (this.options.compressionType() == CompressionType.SNAPPY && !Snappy.available()) {
-            // Disable snappy if it's not available.翻译：snappy如果它不可用，禁用它。
+        if (!CompressionCodecs.isAvailable(this.options.compressionType())) {
+            // Disable compression if its codec is not available.翻译：压缩codec如果它不可用，禁用它。
             this.options.compressionType(CompressionType.NONE);
         }
+        checkArgument(DirectIoFileChannel.isAvailable() || !(options.useDirectReads() || options.useDirectIoForFlushAndCompaction()),
+                "Direct I/O needs Java 10 or later");
 
         this.databaseDir = databaseDir;
 
@@ -105,6 +136,12 @@ public class DbImpl implements DB {
             userComparator = new BytewiseComparator();
         }
         internalKeyComparator = new InternalKeyComparator(userComparator);
+        if (options.filterPolicy() != null) {
+            checkArgument(options.filterPolicy() instanceof FilterPolicy, "filterPolicy must implement %s", FilterPolicy.class.getName());
+            filterPolicy = new InternalFilterPolicy((FilterPolicy) options.filterPolicy());
+        } else {
+            filterPolicy = null;
+        }
         //初始化一个内存表
         memTable = new MemTable(internalKeyComparator);
         //不可变的内存表，默认为null
@@ -123,11 +160,24 @@ public class DbImpl implements DB {
                 .build();
         //创建一个线程池
         compactionExecutor = Executors.newSingleThreadExecutor(compactionThreadFactory);
+        if (options.compressionThreads() > 1) {
+            compressionExecutor = Executors.newFixedThreadPool(options.compressionThreads(), new ThreadFactoryBuilder()
+                    .setNameFormat("leveldb-compression-%s")
+                    .setDaemon(true)
+                    .build());
+        } else {
+            compressionExecutor = null;
+        }
 
         // Reserve ten files or so for other uses and give the rest to TableCache.
         //保留10个左右的文件用于其他用途，其余的留给TableCache。
         int tableCacheSize = options.maxOpenFiles() - 10;
-        tableCache = new TableCache(databaseDir, tableCacheSize, new InternalUserComparator(internalKeyComparator), options.verifyChecksums());
+        // Like the C++ version, use an 8MB block cache unless a size is specified
+        blockCache = new BlockCache(options.cacheSize() > 0 ? options.cacheSize() : 8 << 20);
+        tableCache = new TableCache(databaseDir, tableCacheSize, internalKeyComparator, options.verifyChecksums(), blockCache, filterPolicy, options.useDirectReads());
+        // blob files of an earlier run stay readable when blob files are disabled
+        blobFileCache = new BlobFileCache(databaseDir, tableCacheSize, options.verifyChecksums(), options.useDirectReads());
+        rowCache = options.rowCacheSize() > 0 ? new RowCache(options.rowCacheSize()) : null;
 
         // create the version set
 
@@ -149,7 +199,7 @@ public class DbImpl implements DB {
                 checkArgument(!options.errorIfExists(), "Database '%s' exists and the error if exists option is enabled", databaseDir);
             }
 
-            versions = new VersionSet(databaseDir, tableCache, internalKeyComparator);
+            versions = new VersionSet(options, databaseDir, tableCache, rowCache, internalKeyComparator);
 
             // load  (and recover) current version
             versions.recover();
@@ -225,6 +275,10 @@ public class DbImpl implements DB {
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
+        if (compressionExecutor != null) {
+            // no table is being built any more
+            compressionExecutor.shutdown();
+        }
         try {
             versions.destroy();
         } catch (IOException ignored) {
@@ -234,15 +288,85 @@ public class DbImpl implements DB {
         } catch (IOException ignored) {
         }
         tableCache.close();
+        blobFileCache.close();
         dbLock.release();
     }
 
     @Override
     public String getProperty(String name) {
         checkBackgroundException();
+        requireNonNull(name, "name is null");
+        if (name.equals("leveldb.row-cache-stats")) {
+            if (rowCache == null) {
+                return null;
+            }
+            return String.format("hits: %d%nmisses: %d%nusage: %d%ncapacity: %d%n",
+                    rowCache.getHits(), rowCache.getMisses(), rowCache.getUsage(), rowCache.getCapacity());
+        }
+        if (name.equals("leveldb.aggregated-table-properties")) {
+            return formatTableProperties(versions.getCurrent().getFiles().values());
+        }
+        if (name.startsWith("leveldb.aggregated-table-properties-at-level")) {
+            int level;
+            try {
+                level = Integer.parseInt(name.substring("leveldb.aggregated-table-properties-at-level".length()));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (level < 0 || level >= NUM_LEVELS) {
+                return null;
+            }
+            return formatTableProperties(versions.getCurrent().getFiles(level));
+        }
+        if (name.equals("leveldb.blob-stats")) {
+            long blobCount = 0;
+            long blobBytes = 0;
+            long garbageCount = 0;
+            long garbageBytes = 0;
+            Collection<BlobFileMetaData> blobFiles = versions.getCurrent().getBlobFiles().values();
+            for (BlobFileMetaData blobFile : blobFiles) {
+                blobCount += blobFile.getBlobCount();
+                blobBytes += blobFile.getBlobBytes();
+                garbageCount += blobFile.getGarbageCount();
+                garbageBytes += blobFile.getGarbageBytes();
+            }
+            return String.format("blob files: %d%nblobs: %d%nblob size: %d%ngarbage blobs: %d%ngarbage size: %d%n",
+                    blobFiles.size(), blobCount, blobBytes, garbageCount, garbageBytes);
+        }
         return null;
     }
 
+    private String formatTableProperties(Collection<FileMetaData> files) {
+        TableProperties.Builder builder = new TableProperties.Builder();
+        for (FileMetaData file : files) {
+            TableProperties properties = tableCache.getTableProperties(file);
+            if (properties != null) {
+                builder.add(properties);
+            }
+        }
+        TableProperties properties = builder.build();
+        return String.format("tables: %d%nentries: %d%ndeletions: %d%nrange deletions: %d%ndata blocks: %d%n" +
+                        "raw key size: %d%nraw value size: %d%ndata size: %d%nindex size: %d%nfilter size: %d%ncompression ratio: %.2f%n",
+                files.size(), properties.getNumEntries(), properties.getNumDeletions(), properties.getNumRangeDeletions(), properties.getNumDataBlocks(),
+                properties.getRawKeySize(), properties.getRawValueSize(), properties.getDataSize(), properties.getIndexSize(), properties.getFilterSize(),
+                properties.getCompressionRatio());
+    }
+
+    /**
+     * Returns the properties of the tables of the current version by file number.
+     * Tables written without properties are left out.
+     */
+    public Map<Long, TableProperties> getPropertiesOfAllTables() {
+        Map<Long, TableProperties> result = new TreeMap<>();
+        for (FileMetaData file : versions.getCurrent().getFiles().values()) {
+            TableProperties properties = tableCache.getTableProperties(file);
+            if (properties != null) {
+                result.put(file.getNumber(), properties);
+            }
+        }
+        return result;
+    }
+
     //删除过时的文件
     private void deleteObsoleteFiles() {
         checkState(mutex.isHeldByCurrentThread());
@@ -252,6 +376,7 @@ public class DbImpl implements DB {
         for (FileMetaData fileMetaData : versions.getLiveFiles()) {
             live.add(fileMetaData.getNumber());
         }
+        Set<Long> liveBlobFiles = versions.getLiveBlobFiles();
 
         for (File file : Filename.listFiles(databaseDir)) {
             FileInfo fileInfo = Filename.parseFileName(file);
@@ -273,6 +398,9 @@ public class DbImpl implements DB {
                 case TABLE:
                     keep = live.contains(number);
                     break;
+                case BLOB:
+                    keep = liveBlobFiles.contains(number) || live.contains(number);
+                    break;
                 case TEMP:
                     // Any temp files that are currently being written to must
                     // be recorded in pending_outputs_, which is inserted into "live"
@@ -288,6 +416,8 @@ public class DbImpl implements DB {
             if (!keep) {
                 if (fileInfo.getFileType() == FileType.TABLE) {
                     tableCache.evict(number);
+                } else if (fileInfo.getFileType() == FileType.BLOB) {
+                    blobFileCache.evict(number);
                 }
                 // todo info logging system needed
 //                Log(options_.info_log, "Delete type=%d #%lld\n",
@@ -351,8 +481,7 @@ public class DbImpl implements DB {
             // DB is being shutdown; no more background compactions
             //DB正在关闭;不再有后台压缩
         } else if (immutableMemTable == null &&
-                manualCompaction == null &&
-                !versions.needsCompaction()) {
+                (exclusiveManualCompaction || (manualCompaction == null && !versions.needsCompaction()))) {
             // No work to be done 没有工作要做
         } else {
             backgroundCompaction = compactionExecutor.submit(new Callable<Void>() {
@@ -422,7 +551,14 @@ public class DbImpl implements DB {
         compactMemTableInternal();
 
         Compaction compaction;
-        if (manualCompaction != null) {
+        if (exclusiveManualCompaction) {
+            // level-0 is not touched while compactRange works on deeper levels, so keep
+            // the flushed files from piling up until writes stop
+            if (exclusiveManualCompactionLevel == 0) {
+                return;
+            }
+            compaction = versions.pickIntraLevel0Compaction();
+        } else if (manualCompaction != null) {
             //手动触发合并不为空
             compaction = versions.compactRange(manualCompaction.level,
                     new InternalKey(manualCompaction.begin, MAX_SEQUENCE_NUMBER, VALUE),
@@ -439,11 +575,11 @@ public class DbImpl implements DB {
             checkState(compaction.getLevelInputs().size() == 1);
             FileMetaData fileMetaData = compaction.getLevelInputs().get(0);
             compaction.getEdit().deleteFile(compaction.getLevel(), fileMetaData.getNumber());
-            compaction.getEdit().addFile(compaction.getLevel() + 1, fileMetaData);
+            compaction.getEdit().addFile(compaction.getOutputLevel(), fileMetaData);
             versions.logAndApply(compaction.getEdit());
             // log
         } else {
-            CompactionState compactionState = new CompactionState(compaction);
+            CompactionState compactionState = new CompactionState(compaction, new BlobOutputs(RateLimiter.Priority.LOW));
             doCompactionWork(compactionState);
             cleanupCompaction(compactionState);
         }
@@ -466,6 +602,7 @@ public class DbImpl implements DB {
         for (FileMetaData output : compactionState.outputs) {
             pendingOutputs.remove(output.getNumber());
         }
+        compactionState.blobOutputs.release();
     }
 
     private long recoverLogFile(long fileNumber, VersionEdit edit)
@@ -532,38 +669,161 @@ public class DbImpl implements DB {
     @Override
     public byte[] get(byte[] key, ReadOptions options)
             throws DBException {
+        Slice value = getValue(key, options);
+        if (value == null) {
+            return null;
+        }
+        return value.getBytes();
+    }
+
+    @Override
+    public int get(byte[] key, ByteBuffer value)
+            throws DBException {
+        return get(key, value, new ReadOptions());
+    }
+
+    @Override
+    public int get(byte[] key, ByteBuffer value, ReadOptions options)
+            throws DBException {
+        Slice slice = getValue(key, options);
+        if (slice == null) {
+            return -1;
+        }
+        slice.getBytes(0, value);
+        return slice.length();
+    }
+
+    @Override
+    public PinnedSlice getPinned(byte[] key)
+            throws DBException {
+        return getPinned(key, new ReadOptions());
+    }
+
+    @Override
+    public PinnedSlice getPinned(byte[] key, ReadOptions options)
+            throws DBException {
+        // the version the value was read from keeps its tables while the caller looks at it
+        Holder<Version> version = new Holder<>();
+        Slice value = null;
+        try {
+            value = getValue(key, options, version);
+        } finally {
+            if (value == null && version.getValue() != null) {
+                version.getValue().release();
+            }
+        }
+        if (value == null) {
+            return null;
+        }
+        return new PinnedSliceImpl(value, version.getValue());
+    }
+
+    @Override
+    public boolean keyMayExist(byte[] key)
+            throws DBException {
+        return keyMayExist(key, new ReadOptions(), null);
+    }
+
+    @Override
+    public boolean keyMayExist(byte[] key, ReadOptions options, Holder<byte[]> value)
+            throws DBException {
+        checkBackgroundException();
+        if (value != null) {
+            value.setValue(null);
+        }
+
+        LookupKey lookupKey;
+        LookupResult lookupResult;
+        MergeContext mergeContext;
+        Version current;
+        mutex.lock();
+        try {
+            SnapshotImpl snapshot = getSnapshot(options);
+            lookupKey = new LookupKey(Slices.wrappedBuffer(key), snapshot.getLastSequence());
+            mergeContext = new MergeContext(this.options.mergeOperator(), lookupKey.getUserKey(), blobFileCache);
+
+            lookupResult = memTable.get(lookupKey, mergeContext);
+            if (lookupResult == null && immutableMemTable != null) {
+                lookupResult = immutableMemTable.get(lookupKey, mergeContext);
+            }
+            current = versions.getCurrent();
+            current.retain();
+        } finally {
+            mutex.unlock();
+        }
+
+        try {
+            if (lookupResult == null) {
+                lookupResult = current.keyMayExist(lookupKey, mergeContext);
+            }
+        } finally {
+            current.release();
+        }
+
+        if (lookupResult == null && mergeContext.hasOperands()) {
+            // no table can hold an older value for the operands
+            lookupResult = LookupResult.ok(lookupKey, mergeContext.fullMerge(null));
+        }
+
+        if (lookupResult == null || lookupResult.isDeleted()) {
+            return false;
+        }
+        if (value != null && lookupResult.getValue() != null) {
+            value.setValue(lookupResult.getValue().getBytes());
+        }
+        return true;
+    }
+
+    private Slice getValue(byte[] key, ReadOptions options) {
+        return getValue(key, options, null);
+    }
+
+    /**
+     * @param pinned if not null, receives the version the value was read from when it
+     * came from the tables, retained for the caller to release
+     */
+    private Slice getValue(byte[] key, ReadOptions options, Holder<Version> pinned) {
         checkBackgroundException();
         LookupKey lookupKey;
+        MergeContext mergeContext;
+        Version current;
         mutex.lock();
         try {
             SnapshotImpl snapshot = getSnapshot(options);
             lookupKey = new LookupKey(Slices.wrappedBuffer(key), snapshot.getLastSequence());
+            mergeContext = new MergeContext(this.options.mergeOperator(), lookupKey.getUserKey(), blobFileCache);
 
             // First look in the memtable, then in the immutable memtable (if any).
-            LookupResult lookupResult = memTable.get(lookupKey);
+            // Merge operands found on the way are collected until an older value
+            // or deletion ends the lookup.
+            LookupResult lookupResult = memTable.get(lookupKey, mergeContext);
             if (lookupResult != null) {
-                Slice value = lookupResult.getValue();
-                if (value == null) {
-                    return null;
-                }
-                return value.getBytes();
+                return lookupResult.getValue();
             }
             if (immutableMemTable != null) {
-                lookupResult = immutableMemTable.get(lookupKey);
+                lookupResult = immutableMemTable.get(lookupKey, mergeContext);
                 if (lookupResult != null) {
-                    Slice value = lookupResult.getValue();
-                    if (value == null) {
-                        return null;
-                    }
-                    return value.getBytes();
+                    return lookupResult.getValue();
                 }
             }
+            // keep the files of the version while they are read without the mutex
+            current = versions.getCurrent();
+            current.retain();
         } finally {
             mutex.unlock();
         }
 
         // Not in memTables; try live files in level order
-        LookupResult lookupResult = versions.get(lookupKey);
+        LookupResult lookupResult;
+        try {
+            lookupResult = current.get(lookupKey, mergeContext);
+            if (pinned != null) {
+                current.retain();
+                pinned.setValue(current);
+            }
+        } finally {
+            current.release();
+        }
 
         // schedule compaction if necessary
         mutex.lock();
@@ -576,10 +836,11 @@ public class DbImpl implements DB {
         }
 
         if (lookupResult != null) {
-            Slice value = lookupResult.getValue();
-            if (value != null) {
-                return value.getBytes();
-            }
+            return lookupResult.getValue();
+        }
+        if (mergeContext.hasOperands()) {
+            // only merge operands, nothing older to apply them to
+            return mergeContext.fullMerge(null);
         }
         return null;
     }
@@ -608,6 +869,30 @@ public class DbImpl implements DB {
         return writeInternal(new WriteBatchImpl().delete(key), options);
     }
 
+    @Override
+    public void merge(byte[] key, byte[] value)
+            throws DBException {
+        writeInternal(new WriteBatchImpl().merge(key, value), new WriteOptions());
+    }
+
+    @Override
+    public Snapshot merge(byte[] key, byte[] value, WriteOptions options)
+            throws DBException {
+        return writeInternal(new WriteBatchImpl().merge(key, value), options);
+    }
+
+    @Override
+    public void deleteRange(byte[] begin, byte[] end)
+            throws DBException {
+        writeInternal(new WriteBatchImpl().deleteRange(begin, end), new WriteOptions());
+    }
+
+    @Override
+    public Snapshot deleteRange(byte[] begin, byte[] end, WriteOptions options)
+            throws DBException {
+        return writeInternal(new WriteBatchImpl().deleteRange(begin, end), options);
+    }
+
     @Override
     public void write(WriteBatch updates)
             throws DBException {
@@ -624,6 +909,7 @@ public class DbImpl implements DB {
     public Snapshot writeInternal(WriteBatchImpl updates, WriteOptions options)
             throws DBException {
         checkBackgroundException();
+        checkState(!updates.hasMerges() || this.options.mergeOperator() != null, "Merge requires a merge operator");
         mutex.lock();
         try {
             long sequenceEnd;
@@ -654,7 +940,7 @@ public class DbImpl implements DB {
             }
 
             if (options.snapshot()) {
-                return new SnapshotImpl(versions.getCurrent(), sequenceEnd);
+                return snapshots.newSnapshot(versions.getCurrent(), sequenceEnd);
             } else {
                 return null;
             }
@@ -681,15 +967,33 @@ public class DbImpl implements DB {
         try {
             DbIterator rawIterator = internalIterator();
 
-            // filter any entries not visible in our snapshot
+            // filter any entries not visible in our snapshot, or deleted by a range tombstone
             SnapshotImpl snapshot = getSnapshot(options);
-            SnapshotSeekingIterator snapshotIterator = new SnapshotSeekingIterator(rawIterator, snapshot, internalKeyComparator.getUserComparator());
+            SnapshotSeekingIterator snapshotIterator = new SnapshotSeekingIterator(rawIterator, snapshot, internalKeyComparator.getUserComparator(), this.options.mergeOperator(), getRangeTombstones(),
+                    blobFileCache);
             return new SeekingIteratorAdapter(snapshotIterator);
         } finally {
             mutex.unlock();
         }
     }
 
+    /**
+     * Returns the range tombstones of the memtables and the current version.
+     */
+    private RangeTombstones getRangeTombstones() {
+        checkState(mutex.isHeldByCurrentThread());
+        RangeTombstones versionTombstones = versions.getCurrent().getRangeTombstones();
+        List<Entry<InternalKey, Slice>> tombstones = memTable.getRangeTombstones();
+        if (immutableMemTable != null) {
+            tombstones.addAll(immutableMemTable.getRangeTombstones());
+        }
+        if (tombstones.isEmpty()) {
+            return versionTombstones;
+        }
+        tombstones.addAll(versionTombstones.getTombstones());
+        return RangeTombstones.fragment(internalKeyComparator.getUserComparator(), tombstones);
+    }
+
     SeekingIterable<InternalKey, Slice> internalIterable() {
         return new SeekingIterable<InternalKey, Slice>() {
             @Override
@@ -719,7 +1023,7 @@ public class DbImpl implements DB {
         checkBackgroundException();
         mutex.lock();
         try {
-            return new SnapshotImpl(versions.getCurrent(), versions.getLastSequence());
+            return snapshots.newSnapshot(versions.getCurrent(), versions.getLastSequence());
         } finally {
             mutex.unlock();
         }
@@ -835,10 +1139,11 @@ public class DbImpl implements DB {
     private void compactMemTableInternal()
             throws IOException {
         checkState(mutex.isHeldByCurrentThread());
-        if (immutableMemTable == null) {
+        if (immutableMemTable == null || memTableCompactionRunning) {
             return;
         }
 
+        memTableCompactionRunning = true;
         try {
             // Save the contents of the memtable as a new Table
             // 将memtable的内容保存为一个新表
@@ -861,11 +1166,20 @@ public class DbImpl implements DB {
             //删除过时的文件
             deleteObsoleteFiles();
         } finally {
+            memTableCompactionRunning = false;
             backgroundCondition.signalAll();
         }
     }
 
     //5 immutableMemTable to level0
+    /**
+     * Returns the largest key of a file whose range tombstones end at the user key.
+     * It sorts before every entry of the user key, which the range does not cover.
+     */
+    private static InternalKey rangeTombstoneEnd(Slice end) {
+        return new InternalKey(end, MAX_SEQUENCE_NUMBER, RANGE_DELETION);
+    }
+
     private void writeLevel0Table(MemTable mem, VersionEdit edit, Version base)
             throws IOException {
         checkState(mutex.isHeldByCurrentThread());
@@ -879,15 +1193,21 @@ public class DbImpl implements DB {
         // 将memtable写入一个新的sstable
         long fileNumber = versions.getNextFileNumber();
         pendingOutputs.add(fileNumber);
+        // flushes go ahead of compactions at the rate limiter, writers may be waiting for them
+        BlobOutputs blobOutputs = new BlobOutputs(RateLimiter.Priority.HIGH);
         mutex.unlock();
         FileMetaData meta;
         try {
             //build一个.sst文件对应的实体
-            meta = buildTable(mem, fileNumber);
+            meta = buildTable(mem, fileNumber, blobOutputs);
         } finally {
             mutex.lock();
         }
         pendingOutputs.remove(fileNumber);
+        for (BlobFileMetaData blobFile : blobOutputs.getFiles()) {
+            pendingOutputs.remove(blobFile.getNumber());
+            edit.addBlobFile(blobFile);
+        }
 
         // Note that if file size is zero, the file has been deleted and should not be added to the manifest.
         //请注意，如果文件大小为0，则该文件已被删除，不应该被添加到清单中。
@@ -903,27 +1223,56 @@ public class DbImpl implements DB {
     }
 
     // build一个.sst文件对应的实体
-    private FileMetaData buildTable(SeekingIterable<InternalKey, Slice> data, long fileNumber)
+    private FileMetaData buildTable(MemTable data, long fileNumber, BlobOutputs blobOutputs)
             throws IOException {
         File file = new File(databaseDir, Filename.tableFileName(fileNumber));
         try {
             InternalKey smallest = null;
             InternalKey largest = null;
-            FileChannel channel = new FileOutputStream(file).getChannel();
+            FileStats.Builder stats = new FileStats.Builder();
+            FileChannel channel = openTableForWrite(file);
             try {
-                TableBuilder tableBuilder = new TableBuilder(options, channel, new InternalUserComparator(internalKeyComparator));
+                // flushes go ahead of compactions at the rate limiter, writers may be waiting for them
+                TableBuilder tableBuilder = newTableBuilder(channel, RateLimiter.Priority.HIGH, versions.compressionTypeForLevel(0, false));
 
                 for (Entry<InternalKey, Slice> entry : data) {
-                    // update keys
                     InternalKey key = entry.getKey();
+                    Slice value = entry.getValue();
+                    if (isBlobValue(key, value)) {
+                        value = blobOutputs.add(value).encode();
+                        key = new InternalKey(key.getUserKey(), key.getSequenceNumber(), BLOB_INDEX);
+                    }
+
+                    // update keys
                     if (smallest == null) {
                         smallest = key;
                     }
                     largest = key;
 
-                    tableBuilder.add(key.encode(), entry.getValue());
+                    tableBuilder.add(key.encode(), value);
+                    stats.add(key, value);
+                }
+                blobOutputs.finish();
+
+                // the file range must cover the range tombstones as well
+                for (Entry<InternalKey, Slice> tombstone : data.getRangeTombstones()) {
+                    InternalKey start = tombstone.getKey();
+                    if (internalKeyComparator.getUserComparator().compare(start.getUserKey(), tombstone.getValue()) >= 0) {
+                        // empty range
+                        continue;
+                    }
+                    tableBuilder.addRangeTombstone(start.encode(), tombstone.getValue());
+                    stats.add(start, tombstone.getValue());
+                    if (smallest == null || internalKeyComparator.compare(start, smallest) < 0) {
+                        smallest = start;
+                    }
+                    InternalKey end = rangeTombstoneEnd(tombstone.getValue());
+                    if (largest == null || internalKeyComparator.compare(end, largest) > 0) {
+                        largest = end;
+                    }
                 }
 
+                stats.writeTo(tableBuilder);
                 tableBuilder.finish();
             } finally {
                 try {
@@ -936,9 +1285,9 @@ public class DbImpl implements DB {
             if (smallest == null) {
                 return null;
             }
-            FileMetaData fileMetaData = new FileMetaData(fileNumber, file.length(), smallest, largest);
+            FileMetaData fileMetaData = new FileMetaData(fileNumber, file.length(), smallest, largest, stats.build());
 
-            // verify table can be opened  验证表可打开
+            // verify table can be opened, which keeps its range tombstones with the file  验证表可打开
             tableCache.newIterator(fileMetaData);
 
             pendingOutputs.remove(fileNumber);
@@ -947,10 +1296,18 @@ public class DbImpl implements DB {
 
         } catch (IOException e) {
             file.delete();
+            blobOutputs.abandon();
             throw e;
         }
     }
 
+    /**
+     * Returns true if the value of the entry is written to a blob file.
+     */
+    private boolean isBlobValue(InternalKey key, Slice value) {
+        return options.enableBlobFiles() && key.getValueType() == VALUE && value.length() >= options.minBlobSize();
+    }
+
     private void doCompactionWork(CompactionState compactionState)
             throws IOException {
         checkState(mutex.isHeldByCurrentThread());
@@ -958,16 +1315,44 @@ public class DbImpl implements DB {
         checkArgument(compactionState.builder == null);
         checkArgument(compactionState.outfile == null);
 
-        // todo track snapshots
-        compactionState.smallestSnapshot = versions.getLastSequence();
+        // snapshots taken after this point see the newest entry of every key in the inputs
+        compactionState.snapshots = snapshots.getSequences();
+        if (compactionState.snapshots.length > 0) {
+            compactionState.smallestSnapshot = compactionState.snapshots[0];
+        } else {
+            compactionState.smallestSnapshot = versions.getLastSequence();
+        }
+
+        // values in the oldest blob files are moved to new ones, so the old files run out of references
+        List<Long> blobFiles = new ArrayList<>(versions.getCurrent().getBlobFiles().keySet());
+        Collections.sort(blobFiles);
+        compactionState.hasBlobFiles = !blobFiles.isEmpty();
+        int relocatedBlobFiles = (int) (blobFiles.size() * options.blobGarbageCollectionAgeCutoff());
+        if (relocatedBlobFiles > 0) {
+            compactionState.blobRelocationLimit = relocatedBlobFiles < blobFiles.size() ? blobFiles.get(relocatedBlobFiles) : Long.MAX_VALUE;
+        }
+
+        // the bottommost level holds most of the data, its outputs after the first one are
+        // compressed with a dictionary sampled from the first
+        Compaction compaction = compactionState.getCompaction();
+        if (options.maxCompressionDictionaryBytes() > 0 && compaction.isBottommost()) {
+            CompressionCodec codec = CompressionCodecs.getCodec(versions.compressionTypeForLevel(compaction.getOutputLevel(), true));
+            if (codec != null && codec.supportsDictionary()) {
+                compactionState.dictionarySampler = new CompressionDictionarySampler(options.maxCompressionDictionaryBytes(), compaction.getMaxOutputFileSize());
+            }
+        }
 
         // Release mutex while we're actually doing the compaction work
         mutex.unlock();
         try {
-            MergingIterator iterator = versions.makeInputIterator(compactionState.compaction);
+            List<FileMetaData> levelUpInputs = prepareRangeTombstones(compactionState);
+            MergingIterator iterator = versions.makeInputIterator(compactionState.compaction, levelUpInputs);
 
+            CompactionFilter compactionFilter = options.compactionFilter();
+            MergeOperator mergeOperator = options.mergeOperator();
             Slice currentUserKey = null;
             boolean hasCurrentUserKey = false;
+            boolean firstOccurrence = false;
 
             long lastSequenceForKey = MAX_SEQUENCE_NUMBER;
             while (iterator.hasNext() && !shuttingDown.get()) {
@@ -980,8 +1365,12 @@ public class DbImpl implements DB {
                 }
 
                 InternalKey key = iterator.peek().getKey();
-                if (compactionState.compaction.shouldStopBefore(key) && compactionState.builder != null) {
-                    finishCompactionOutputFile(compactionState);
+                boolean stopBefore = compactionState.compaction.shouldStopBefore(key);
+                // output files are switched between user keys, which gives each file a
+                // clean boundary to cut the range tombstones at
+                if (compactionState.builder != null && (stopBefore || isCompactionOutputFull(compactionState)) &&
+                        internalKeyComparator.getUserComparator().compare(key.getUserKey(), compactionState.currentLargest.getUserKey()) != 0) {
+                    finishCompactionOutputFile(compactionState, key.getUserKey());
                 }
 
                 // Handle key/value, add to state, etc.
@@ -998,10 +1387,16 @@ public class DbImpl implements DB {
                         currentUserKey = key.getUserKey();
                         hasCurrentUserKey = true;
                         lastSequenceForKey = MAX_SEQUENCE_NUMBER;
+                        firstOccurrence = true;
+                    } else {
+                        firstOccurrence = false;
                     }
 
-                    if (lastSequenceForKey <= compactionState.smallestSnapshot) {
-                        // Hidden by an newer entry for same user key
+                    long stripe = SnapshotList.stripe(compactionState.snapshots, key.getSequenceNumber());
+                    if (lastSequenceForKey != MAX_SEQUENCE_NUMBER &&
+                            SnapshotList.stripe(compactionState.snapshots, lastSequenceForKey) == stripe) {
+                        // Hidden by a newer entry for same user key, which every
+                        // snapshot that could see this entry sees as well
                         drop = true; // (A)
                     } else if (key.getValueType() == DELETION &&
                             key.getSequenceNumber() <= compactionState.smallestSnapshot &&
@@ -1014,27 +1409,57 @@ public class DbImpl implements DB {
                         //     few iterations of this loop (by rule (A) above).
                         // Therefore this deletion marker is obsolete and can be dropped.
                         drop = true;
+                    } else if (key.getSequenceNumber() < compactionState.rangeTombstones.maxCoveringSequence(key.getUserKey(), stripe)) {
+                        // deleted by a range tombstone that every snapshot seeing the entry sees
+                        drop = true;
                     }
 
-                    lastSequenceForKey = key.getSequenceNumber();
+                    if (key.getValueType() == MERGE &&
+                            (mergeOperator == null || key.getSequenceNumber() > compactionState.smallestSnapshot)) {
+                        // an operand does not hide older entries unless it is folded with them below
+                        lastSequenceForKey = MAX_SEQUENCE_NUMBER;
+                    } else {
+                        lastSequenceForKey = key.getSequenceNumber();
+                    }
                 }
 
-                if (!drop) {
-                    // Open output file if necessary
-                    if (compactionState.builder == null) {
-                        openCompactionOutputFile(compactionState);
-                    }
-                    if (compactionState.builder.getEntryCount() == 0) {
-                        compactionState.currentSmallest = key;
+                Slice value = iterator.peek().getValue();
+                InternalKey inputKey = key;
+                Slice inputValue = value;
+                if (!drop && compactionFilter != null && firstOccurrence &&
+                        (key.getValueType() == VALUE || key.getValueType() == BLOB_INDEX) &&
+                        key.getSequenceNumber() <= compactionState.smallestSnapshot) {
+                    byte[] existingValue = key.getValueType() == BLOB_INDEX ? blobFileCache.get(value).getBytes() : value.getBytes();
+                    byte[] newValue = compactionFilter.filter(compactionState.compaction.getLevel(), key.getUserKey().getBytes(), existingValue);
+                    if (newValue == null) {
+                        if (compactionState.compaction.isBaseLevelForKey(key.getUserKey())) {
+                            drop = true;
+                        } else {
+                            // older versions in deeper levels must stay hidden, keep a deletion marker instead
+                            key = new InternalKey(key.getUserKey(), key.getSequenceNumber(), DELETION);
+                            value = Slices.EMPTY_SLICE;
+                        }
+                    } else if (newValue != existingValue) {
+                        key = new InternalKey(key.getUserKey(), key.getSequenceNumber(), VALUE);
+                        value = Slices.wrappedBuffer(newValue);
                     }
-                    compactionState.currentLargest = key;
-                    compactionState.builder.add(key.encode(), iterator.peek().getValue());
+                }
 
-                    // Close output file if it is big enough
-                    if (compactionState.builder.getFileSize() >=
-                            compactionState.compaction.getMaxOutputFileSize()) {
-                        finishCompactionOutputFile(compactionState);
-                    }
+                if (inputKey.getValueType() == BLOB_INDEX && (drop || key.getValueType() != BLOB_INDEX)) {
+                    // the blob value is no longer referenced by the entry
+                    addBlobGarbage(compactionState, inputValue);
+                }
+
+                if (!drop && mergeOperator != null && key.getValueType() == MERGE &&
+                        key.getSequenceNumber() <= compactionState.smallestSnapshot) {
+                    // no snapshot can see the key between this operand and the older
+                    // entries, so they can be folded into one entry
+                    mergeOperands(compactionState, iterator, mergeOperator);
+                    continue;
+                }
+
+                if (!drop) {
+                    addCompactionOutput(compactionState, key, value);
                 }
                 iterator.next();
             }
@@ -1042,9 +1467,14 @@ public class DbImpl implements DB {
             if (shuttingDown.get()) {
                 throw new DatabaseShutdownException("DB shutdown during compaction");
             }
+            if (compactionState.builder == null && hasRangeTombstonesAfter(compactionState, compactionState.currentLowerBound)) {
+                // only range tombstones are left for the last output
+                openCompactionOutputFile(compactionState);
+            }
             if (compactionState.builder != null) {
-                finishCompactionOutputFile(compactionState);
+                finishCompactionOutputFile(compactionState, null);
             }
+            compactionState.blobOutputs.finish();
         } finally {
             mutex.lock();
         }
@@ -1054,29 +1484,240 @@ public class DbImpl implements DB {
         installCompactionResults(compactionState);
     }
 
+    /**
+     * Consumes the merge operand at the head of the iterator together with the
+     * older entries of its key.  Operands that reach a value, a deletion or the
+     * bottom of the tree become a value; otherwise they are combined into one
+     * operand when the operator can do so, or written back unchanged.
+     */
+    private void mergeOperands(CompactionState compactionState, MergingIterator iterator, MergeOperator mergeOperator)
+            throws IOException {
+        InternalKey first = iterator.peek().getKey();
+        Slice userKey = first.getUserKey();
+        MergeContext mergeContext = new MergeContext(mergeOperator, userKey);
+        List<InternalKey> operandKeys = new ArrayList<>();
+
+        Slice mergedValue = null;
+        long rangeTombstone = compactionState.rangeTombstones.maxCoveringSequence(userKey, compactionState.smallestSnapshot);
+        while (iterator.hasNext() && internalKeyComparator.getUserComparator().compare(iterator.peek().getKey().getUserKey(), userKey) == 0) {
+            Entry<InternalKey, Slice> entry = iterator.next();
+            ValueType valueType = entry.getKey().getValueType();
+            if (entry.getKey().getSequenceNumber() < rangeTombstone) {
+                // a range tombstone ends the operands like a deletion
+                valueType = DELETION;
+            }
+            if (valueType == MERGE) {
+                operandKeys.add(entry.getKey());
+                mergeContext.addOperand(entry.getValue());
+            } else {
+                // older entries of the key are hidden by the merged value and
+                // dropped by the main loop
+                Slice existingValue = null;
+                if (valueType == VALUE) {
+                    existingValue = entry.getValue();
+                } else if (valueType == BLOB_INDEX) {
+                    existingValue = blobFileCache.get(entry.getValue());
+                }
+                if (entry.getKey().getValueType() == BLOB_INDEX) {
+                    addBlobGarbage(compactionState, entry.getValue());
+                }
+                mergedValue = mergeContext.fullMerge(existingValue);
+                break;
+            }
+        }
+        if (mergedValue == null && compactionState.compaction.isBaseLevelForKey(userKey)) {
+            mergedValue = mergeContext.fullMerge(null);
+        }
+
+        if (mergedValue != null) {
+            addCompactionOutput(compactionState, new InternalKey(userKey, first.getSequenceNumber(), VALUE), mergedValue);
+        } else {
+            Slice operand = mergeContext.partialMerge();
+            if (operand != null) {
+                addCompactionOutput(compactionState, first, operand);
+            } else {
+                List<Slice> operands = mergeContext.getOperands();
+                for (int i = 0; i < operandKeys.size(); i++) {
+                    addCompactionOutput(compactionState, operandKeys.get(i), operands.get(i));
+                }
+            }
+        }
+    }
+
+    private void addCompactionOutput(CompactionState compactionState, InternalKey key, Slice value)
+            throws IOException {
+        if (key.getValueType() == BLOB_INDEX && BlobIndex.decode(value).getFileNumber() < compactionState.blobRelocationLimit) {
+            // move the value out of an old blob file, it is written to a new one below unless blob files are disabled
+            addBlobGarbage(compactionState, value);
+            value = blobFileCache.get(value);
+            key = new InternalKey(key.getUserKey(), key.getSequenceNumber(), VALUE);
+        }
+        if (isBlobValue(key, value)) {
+            value = compactionState.blobOutputs.add(value).encode();
+            key = new InternalKey(key.getUserKey(), key.getSequenceNumber(), BLOB_INDEX);
+        }
+
+        // Open output file if necessary
+        if (compactionState.builder == null) {
+            openCompactionOutputFile(compactionState);
+        }
+        if (compactionState.builder.getEntryCount() == 0) {
+            compactionState.currentSmallest = key;
+        }
+        compactionState.currentLargest = key;
+        compactionState.builder.add(key.encode(), value);
+        compactionState.currentStats.add(key, value);
+    }
+
+    private static void addBlobGarbage(CompactionState compactionState, Slice value) {
+        BlobIndex blobIndex = BlobIndex.decode(value);
+        compactionState.compaction.getEdit().addBlobGarbage(blobIndex.getFileNumber(), 1, blobIndex.getRecordSize());
+    }
+
+    private boolean isCompactionOutputFull(CompactionState compactionState)
+            throws IOException {
+        return compactionState.builder.getFileSize() >= compactionState.compaction.getMaxOutputFileSize();
+    }
+
+    /**
+     * Reads the range tombstones of the compaction inputs and decides which of them
+     * are written to the outputs.  Returns the files of the output level that must be
+     * read; files whose whole range is deleted by a tombstone from the level inputs
+     * are skipped, since all their entries are older than it.  Files are not skipped
+     * while there are blob files, as the blob values they reference become garbage
+     * only when they are read.
+     */
+    private List<FileMetaData> prepareRangeTombstones(CompactionState compactionState) {
+        Compaction compaction = compactionState.compaction;
+        UserComparator userComparator = internalKeyComparator.getUserComparator();
+
+        List<Entry<InternalKey, Slice>> tombstones = new ArrayList<>();
+        for (FileMetaData file : compaction.getLevelInputs()) {
+            tombstones.addAll(tableCache.getRangeTombstones(file).getTombstones());
+        }
+        RangeTombstones levelTombstones = RangeTombstones.fragment(userComparator, tombstones);
+
+        List<FileMetaData> levelUpInputs = new ArrayList<>();
+        for (FileMetaData file : compaction.getLevelUpInputs()) {
+            if (!levelTombstones.isEmpty() && !compactionState.hasBlobFiles &&
+                    levelTombstones.covers(file.getSmallest().getUserKey(), file.getLargest().getUserKey(), compactionState.smallestSnapshot)) {
+                continue;
+            }
+            levelUpInputs.add(file);
+            tombstones.addAll(tableCache.getRangeTombstones(file).getTombstones());
+        }
+        compactionState.rangeTombstones = RangeTombstones.fragment(userComparator, tombstones);
+
+        for (Entry<InternalKey, Slice> tombstone : tombstones) {
+            // a tombstone every snapshot can see is obsolete once nothing below the output can hold its keys
+            if (tombstone.getKey().getSequenceNumber() > compactionState.smallestSnapshot ||
+                    !compaction.isBaseLevelForRange(tombstone.getKey().getUserKey(), tombstone.getValue())) {
+                compactionState.outputTombstones.add(tombstone);
+            }
+        }
+        return levelUpInputs;
+    }
+
+    private boolean hasRangeTombstonesAfter(CompactionState compactionState, Slice lowerBound) {
+        for (Entry<InternalKey, Slice> tombstone : compactionState.outputTombstones) {
+            if (lowerBound == null || internalKeyComparator.getUserComparator().compare(tombstone.getValue(), lowerBound) > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the parts of the output range tombstones between the lower bound of the
+     * current output file and the upper bound, null meaning unbounded.
+     */
+    private void addRangeTombstones(CompactionState compactionState, Slice upperBound) {
+        UserComparator userComparator = internalKeyComparator.getUserComparator();
+        Slice lowerBound = compactionState.currentLowerBound;
+        for (Entry<InternalKey, Slice> tombstone : compactionState.outputTombstones) {
+            Slice start = tombstone.getKey().getUserKey();
+            Slice end = tombstone.getValue();
+            if (lowerBound != null && userComparator.compare(start, lowerBound) < 0) {
+                start = lowerBound;
+            }
+            if (upperBound != null && userComparator.compare(end, upperBound) > 0) {
+                end = upperBound;
+            }
+            if (userComparator.compare(start, end) >= 0) {
+                continue;
+            }
+
+            InternalKey startKey = new InternalKey(start, tombstone.getKey().getSequenceNumber(), RANGE_DELETION);
+            compactionState.builder.addRangeTombstone(startKey.encode(), end);
+            compactionState.currentStats.add(startKey, end);
+            if (compactionState.currentSmallest == null || internalKeyComparator.compare(startKey, compactionState.currentSmallest) < 0) {
+                compactionState.currentSmallest = startKey;
+            }
+            InternalKey endKey = rangeTombstoneEnd(end);
+            if (compactionState.currentLargest == null || internalKeyComparator.compare(endKey, compactionState.currentLargest) > 0) {
+                compactionState.currentLargest = endKey;
+            }
+        }
+        compactionState.currentLowerBound = upperBound;
+    }
+
+    private FileChannel openTableForWrite(File file)
+            throws IOException {
+        if (options.useDirectIoForFlushAndCompaction()) {
+            return DirectIoFileChannel.openForWrite(file);
+        }
+        return new FileOutputStream(file).getChannel();
+    }
+
+    private TableBuilder newTableBuilder(FileChannel channel, RateLimiter.Priority ioPriority, CompressionType compressionType) {
+        TableBuilder tableBuilder = new TableBuilder(options, channel, new InternalUserComparator(internalKeyComparator), filterPolicy, ioPriority, compressionType);
+        tableBuilder.setCreationTime(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+        if (compressionExecutor != null) {
+            // a couple of blocks per thread keeps them busy while the builder writes
+            tableBuilder.compressBlocksIn(compressionExecutor, 2 * options.compressionThreads());
+        }
+        return tableBuilder;
+    }
+
     private void openCompactionOutputFile(CompactionState compactionState)
-            throws FileNotFoundException {
+            throws IOException {
         requireNonNull(compactionState, "compactionState is null");
         checkArgument(compactionState.builder == null, "compactionState builder is not null");
 
         mutex.lock();
         try {
-            long fileNumber = versions.getNextFileNumber();
+            long fileNumber = compactionState.compaction.getOutputFileNumber();
+            if (fileNumber == 0) {
+                fileNumber = versions.getNextFileNumber();
+            } else {
+                checkState(compactionState.outputs.isEmpty(), "compaction with a reserved output number can only write one file");
+            }
             pendingOutputs.add(fileNumber);
             compactionState.currentFileNumber = fileNumber;
             compactionState.currentFileSize = 0;
             compactionState.currentSmallest = null;
             compactionState.currentLargest = null;
+            compactionState.currentStats = new FileStats.Builder();
 
             File file = new File(databaseDir, Filename.tableFileName(fileNumber));
-            compactionState.outfile = new FileOutputStream(file).getChannel();
-            compactionState.builder = new TableBuilder(options, compactionState.outfile, new InternalUserComparator(internalKeyComparator));
+            compactionState.outfile = openTableForWrite(file);
+            Compaction compaction = compactionState.compaction;
+            compactionState.builder = newTableBuilder(compactionState.outfile, RateLimiter.Priority.LOW,
+                    versions.compressionTypeForLevel(compaction.getOutputLevel(), compaction.isBottommost()));
+            if (compactionState.compressionDictionary != null) {
+                compactionState.builder.setCompressionDictionary(compactionState.compressionDictionary);
+            } else if (compactionState.dictionarySampler != null) {
+                compactionState.builder.sampleDataBlocks(compactionState.dictionarySampler);
+            }
         } finally {
             mutex.unlock();
         }
     }
 
-    private void finishCompactionOutputFile(CompactionState compactionState)
+    /**
+     * @param upperBound the user key the next output file starts at, or null for the last file
+     */
+    private void finishCompactionOutputFile(CompactionState compactionState, Slice upperBound)
             throws IOException {
         requireNonNull(compactionState, "compactionState is null");
         checkArgument(compactionState.outfile != null);
@@ -1085,8 +1726,14 @@ public class DbImpl implements DB {
         long outputNumber = compactionState.currentFileNumber;
         checkArgument(outputNumber != 0);
 
-        long currentEntries = compactionState.builder.getEntryCount();
+        addRangeTombstones(compactionState, upperBound);
+        long currentEntries = compactionState.builder.getEntryCount() + compactionState.builder.getRangeTombstoneCount();
+        compactionState.currentStats.writeTo(compactionState.builder);
         compactionState.builder.finish();
+        if (compactionState.dictionarySampler != null) {
+            compactionState.compressionDictionary = compactionState.dictionarySampler.finish();
+            compactionState.dictionarySampler = null;
+        }
 
         long currentBytes = compactionState.builder.getFileSize();
         compactionState.currentFileSize = currentBytes;
@@ -1095,7 +1742,8 @@ public class DbImpl implements DB {
         FileMetaData currentFileMetaData = new FileMetaData(compactionState.currentFileNumber,
                 compactionState.currentFileSize,
                 compactionState.currentSmallest,
-                compactionState.currentLargest);
+                compactionState.currentLargest,
+                compactionState.currentStats.build());
         compactionState.outputs.add(currentFileMetaData);
 
         compactionState.builder = null;
@@ -1105,8 +1753,8 @@ public class DbImpl implements DB {
         compactionState.outfile = null;
 
         if (currentEntries > 0) {
-            // Verify that the table is usable
-            tableCache.newIterator(outputNumber);
+            // Verify that the table is usable, which keeps its range tombstones with the file
+            tableCache.newIterator(currentFileMetaData);
         }
     }
 
@@ -1116,11 +1764,14 @@ public class DbImpl implements DB {
 
         // Add compaction outputs
         compact.compaction.addInputDeletions(compact.compaction.getEdit());
-        int level = compact.compaction.getLevel();
+        int level = compact.compaction.getOutputLevel();
         for (FileMetaData output : compact.outputs) {
-            compact.compaction.getEdit().addFile(level + 1, output);
+            compact.compaction.getEdit().addFile(level, output);
             pendingOutputs.remove(output.getNumber());
         }
+        for (BlobFileMetaData blobFile : compact.blobOutputs.getFiles()) {
+            compact.compaction.getEdit().addBlobFile(blobFile);
+        }
 
         try {
             versions.logAndApply(compact.compaction.getEdit());
@@ -1134,6 +1785,7 @@ public class DbImpl implements DB {
                 file.delete();
             }
             compact.outputs.clear();
+            compact.blobOutputs.abandon();
         }
     }
 
@@ -1141,6 +1793,10 @@ public class DbImpl implements DB {
         return versions.getCurrent().numberOfFilesInLevel(level);
     }
 
+    List<FileMetaData> getFilesInLevel(int level) {
+        return versions.getCurrent().getFiles(level);
+    }
+
     @Override
     public long[] getApproximateSizes(Range... ranges) {
         requireNonNull(ranges, "ranges is null");
@@ -1181,6 +1837,14 @@ public class DbImpl implements DB {
             } else if (valueType == DELETION) {
                 Slice key = readLengthPrefixedBytes(record);
                 writeBatch.delete(key);
+            } else if (valueType == MERGE) {
+                Slice key = readLengthPrefixedBytes(record);
+                Slice value = readLengthPrefixedBytes(record);
+                writeBatch.merge(key, value);
+            } else if (valueType == RANGE_DELETION) {
+                Slice begin = readLengthPrefixedBytes(record);
+                Slice end = readLengthPrefixedBytes(record);
+                writeBatch.deleteRange(begin, end);
             } else {
                 throw new IllegalStateException("Unexpected value type " + valueType);
             }
@@ -1222,6 +1886,20 @@ public class DbImpl implements DB {
                 //key.size()的varint编码，key实际值
                 writeLengthPrefixedBytes(sliceOutput, key);
             }
+
+            @Override
+            public void merge(Slice key, Slice value) {
+                sliceOutput.writeByte(MERGE.getPersistentId());
+                writeLengthPrefixedBytes(sliceOutput, key);
+                writeLengthPrefixedBytes(sliceOutput, value);
+            }
+
+            @Override
+            public void deleteRange(Slice begin, Slice end) {
+                sliceOutput.writeByte(RANGE_DELETION.getPersistentId());
+                writeLengthPrefixedBytes(sliceOutput, begin);
+                writeLengthPrefixedBytes(sliceOutput, end);
+            }
         });
         return record.slice(0, sliceOutput.size());
     }
@@ -1262,7 +1940,174 @@ public class DbImpl implements DB {
     @Override
     public void compactRange(byte[] begin, byte[] end)
             throws DBException {
-        throw new UnsupportedOperationException("Not yet implemented");
+        compactRange(begin, end, new CompactRangeOptions());
+    }
+
+    @Override
+    public void compactRange(byte[] begin, byte[] end, CompactRangeOptions options)
+            throws DBException {
+        requireNonNull(options, "options is null");
+        checkBackgroundException();
+
+        flushMemTable();
+
+        Slice smallest;
+        Slice largest;
+        int maxLevelWithFiles = 1;
+        mutex.lock();
+        try {
+            // open bounds are closed with the smallest and largest keys on disk
+            UserComparator userComparator = internalKeyComparator.getUserComparator();
+            smallest = begin != null ? Slices.wrappedBuffer(begin) : null;
+            largest = end != null ? Slices.wrappedBuffer(end) : null;
+            boolean empty = true;
+            for (FileMetaData file : versions.getCurrent().getFiles().values()) {
+                empty = false;
+                if (begin == null && (smallest == null || userComparator.compare(file.getSmallest().getUserKey(), smallest) < 0)) {
+                    smallest = file.getSmallest().getUserKey();
+                }
+                if (end == null && (largest == null || userComparator.compare(file.getLargest().getUserKey(), largest) > 0)) {
+                    largest = file.getLargest().getUserKey();
+                }
+            }
+            if (empty) {
+                return;
+            }
+
+            for (int level = 1; level < NUM_LEVELS; level++) {
+                if (versions.overlapInLevel(level, smallest, largest)) {
+                    maxLevelWithFiles = level;
+                }
+            }
+        } finally {
+            mutex.unlock();
+        }
+
+        for (int level = 0; level < maxLevelWithFiles && !options.isCanceled(); level++) {
+            compactLevelRange(level, smallest, largest, options);
+        }
+    }
+
+    /**
+     * Compacts one level of the range.  The background thread is kept from picking
+     * compactions until the chunks are done, so the files of the chunks can not be
+     * taken by anything else.
+     */
+    private void compactLevelRange(int level, Slice begin, Slice end, CompactRangeOptions options) {
+        List<Compaction> compactions;
+        mutex.lock();
+        try {
+            while (exclusiveManualCompaction || manualCompaction != null) {
+                backgroundCondition.awaitUninterruptibly();
+            }
+            exclusiveManualCompaction = true;
+            exclusiveManualCompactionLevel = level;
+            try {
+                while (backgroundCompaction != null) {
+                    backgroundCondition.awaitUninterruptibly();
+                }
+                compactions = versions.compactRangeChunks(level,
+                        new InternalKey(begin, MAX_SEQUENCE_NUMBER, VALUE),
+                        new InternalKey(end, 0, DELETION),
+                        options.targetChunkSize());
+            } catch (RuntimeException e) {
+                exclusiveManualCompaction = false;
+                throw e;
+            }
+        } finally {
+            mutex.unlock();
+        }
+
+        try {
+            runManualCompactions(level, compactions, options);
+        } finally {
+            mutex.lock();
+            try {
+                exclusiveManualCompaction = false;
+                maybeScheduleCompaction();
+                backgroundCondition.signalAll();
+            } finally {
+                mutex.unlock();
+            }
+        }
+    }
+
+    private void runManualCompactions(final int level, final List<Compaction> compactions, final CompactRangeOptions options) {
+        final CompactRangeOptions.ProgressListener listener = options.progressListener();
+        final AtomicInteger completed = new AtomicInteger();
+        final AtomicBoolean failed = new AtomicBoolean();
+        int threads = Math.min(compactions.size(), options.maxSubcompactions());
+        if (threads <= 1) {
+            for (Compaction compaction : compactions) {
+                if (options.isCanceled()) {
+                    return;
+                }
+                runManualCompaction(compaction);
+                if (listener != null) {
+                    listener.progress(level, completed.incrementAndGet(), compactions.size());
+                }
+            }
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setNameFormat("leveldb-manual-compaction-%s")
+                .build());
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (final Compaction compaction : compactions) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        if (options.isCanceled() || failed.get()) {
+                            return null;
+                        }
+                        try {
+                            runManualCompaction(compaction);
+                        } catch (RuntimeException e) {
+                            failed.set(true);
+                            throw e;
+                        }
+                        if (listener != null) {
+                            listener.progress(level, completed.incrementAndGet(), compactions.size());
+                        }
+                        return null;
+                    }
+                }));
+            }
+            // every chunk must be done before the background thread may pick files again
+            Throwable failure = null;
+            for (Future<?> future : futures) {
+                try {
+                    Uninterruptibles.getUninterruptibly(future);
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause();
+                    }
+                }
+            }
+            if (failure != null) {
+                throw Throwables.propagate(failure);
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void runManualCompaction(Compaction compaction) {
+        mutex.lock();
+        try {
+            CompactionState compactionState = new CompactionState(compaction, new BlobOutputs(RateLimiter.Priority.LOW));
+            try {
+                doCompactionWork(compactionState);
+            } finally {
+                cleanupCompaction(compactionState);
+            }
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        } finally {
+            mutex.unlock();
+        }
     }
 
     private static class CompactionState {
@@ -1270,8 +2115,16 @@ public class DbImpl implements DB {
 
         private final List<FileMetaData> outputs = new ArrayList<>();
 
+        // live snapshots when the compaction started, oldest first
+        private long[] snapshots;
         private long smallestSnapshot;
 
+        // range tombstones of the inputs, and the ones that are written to the outputs
+        private RangeTombstones rangeTombstones = RangeTombstones.EMPTY;
+        private final List<Entry<InternalKey, Slice>> outputTombstones = new ArrayList<>();
+        // user key the current output file starts at, null for the first file
+        private Slice currentLowerBound;
+
         // State kept for output being generated
         private FileChannel outfile;
         private TableBuilder builder;
@@ -1281,11 +2134,24 @@ public class DbImpl implements DB {
         private long currentFileSize;
         private InternalKey currentSmallest;
         private InternalKey currentLargest;
+        private FileStats.Builder currentStats;
+
+        // samples the first output for the dictionary of the following ones
+        private CompressionDictionarySampler dictionarySampler;
+        private Slice compressionDictionary;
 
         private long totalBytes;
 
-        private CompactionState(Compaction compaction) {
+        // values moved out of old blob files and separated from the outputs
+        private final BlobOutputs blobOutputs;
+        // blob files numbered below are relocated, 0 when none is
+        private long blobRelocationLimit;
+        // the inputs may reference blob files, so every input must be read to count the garbage
+        private boolean hasBlobFiles;
+
+        private CompactionState(Compaction compaction, BlobOutputs blobOutputs) {
             this.compaction = compaction;
+            this.blobOutputs = blobOutputs;
         }
 
         public Compaction getCompaction() {
@@ -1293,6 +2159,94 @@ public class DbImpl implements DB {
         }
     }
 
+    /**
+     * Blob files written by a flush or a compaction.  Their numbers stay in the
+     * pending outputs until they are released once the files are installed.
+     */
+    private final class BlobOutputs {
+        private final RateLimiter.Priority ioPriority;
+        private final List<BlobFileMetaData> files = new ArrayList<>();
+        private BlobFileBuilder builder;
+
+        private BlobOutputs(RateLimiter.Priority ioPriority) {
+            this.ioPriority = ioPriority;
+        }
+
+        public BlobIndex add(Slice value)
+                throws IOException {
+            if (builder == null) {
+                long fileNumber;
+                mutex.lock();
+                try {
+                    fileNumber = versions.getNextFileNumber();
+                    pendingOutputs.add(fileNumber);
+                } finally {
+                    mutex.unlock();
+                }
+                File file = new File(databaseDir, Filename.blobFileName(fileNumber));
+                builder = new BlobFileBuilder(fileNumber, openTableForWrite(file), options.rateLimiter(), ioPriority);
+            }
+            BlobIndex blobIndex = builder.add(value);
+            if (builder.getFileSize() >= options.blobFileSize()) {
+                finish();
+            }
+            return blobIndex;
+        }
+
+        /**
+         * Finishes the current file, the next value starts a new one.
+         */
+        public void finish()
+                throws IOException {
+            if (builder != null) {
+                files.add(builder.finish());
+                builder = null;
+            }
+        }
+
+        public List<BlobFileMetaData> getFiles() {
+            return files;
+        }
+
+        /**
+         * Removes the files from the pending outputs, the ones no version refers to are
+         * deleted as obsolete.
+         */
+        public void release() {
+            checkState(mutex.isHeldByCurrentThread());
+            if (builder != null) {
+                builder.abandon();
+                pendingOutputs.remove(builder.getFileNumber());
+                builder = null;
+            }
+            for (BlobFileMetaData file : files) {
+                pendingOutputs.remove(file.getNumber());
+            }
+        }
+
+        /**
+         * Deletes the files after the flush or compaction writing them failed.
+         */
+        public void abandon() {
+            mutex.lock();
+            try {
+                if (builder != null) {
+                    builder.abandon();
+                    new File(databaseDir, Filename.blobFileName(builder.getFileNumber())).delete();
+                    pendingOutputs.remove(builder.getFileNumber());
+                    builder = null;
+                }
+                for (BlobFileMetaData file : files) {
+                    new File(databaseDir, Filename.blobFileName(file.getNumber())).delete();
+                    pendingOutputs.remove(file.getNumber());
+                }
+                files.clear();
+            } finally {
+                mutex.unlock();
+            }
+        }
+    }
+
     private static class ManualCompaction {
         private final int level;
         private final Slice begin;
@@ -1323,6 +2277,16 @@ public class DbImpl implements DB {
         public void delete(Slice key) {
             memTable.add(sequence++, DELETION, key, Slices.EMPTY_SLICE);
         }
+
+        @Override
+        public void merge(Slice key, Slice value) {
+            memTable.add(sequence++, MERGE, key, value);
+        }
+
+        @Override
+        public void deleteRange(Slice begin, Slice end) {
+            memTable.add(sequence++, RANGE_DELETION, begin, end);
+        }
     }
 
     public static class DatabaseShutdownException
@@ -24,6 +24,7 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -35,24 +36,40 @@ import static org.iq80.leveldb.impl.LogConstants.HEADER_SIZE;
 
 public class FileChannelLogWriter
         implements LogWriter {
+    // holds at least one chunk of the largest size with its header
+    private static final int STAGING_BUFFER_SIZE = 2 * BLOCK_SIZE;
+
     private final File file;
     private final long fileNumber;
     private final FileChannel fileChannel;
     private final AtomicBoolean closed = new AtomicBoolean();
 
+    // the chunks of a record are copied here with their headers and the block
+    // padding, and written at once when the record is complete or the buffer full
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(STAGING_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final Crc32C crc32C = new Crc32C();
+
     /**
      * Current offset in the current block
      */
     private int blockOffset;
 
+    // set when writing the staged chunks failed, after which the block offset no longer matches the file
+    private Throwable writeFailure;
+
     public FileChannelLogWriter(File file, long fileNumber)
             throws FileNotFoundException {
+        this(file, fileNumber, new FileOutputStream(file).getChannel());
+    }
+
+    FileChannelLogWriter(File file, long fileNumber, FileChannel fileChannel) {
         requireNonNull(file, "file is null");
         checkArgument(fileNumber >= 0, "fileNumber is negative");
+        requireNonNull(fileChannel, "fileChannel is null");
 
         this.file = file;
         this.fileNumber = fileNumber;
-        this.fileChannel = new FileOutputStream(file).getChannel();
+        this.fileChannel = fileChannel;
     }
 
     @Override
@@ -100,6 +117,10 @@ public class FileChannelLogWriter
     public synchronized void addRecord(Slice record, boolean force)
             throws IOException {
         checkState(!closed.get(), "Log has been closed");
+        if (writeFailure != null) {
+            // records written now would be framed across the wrong block boundaries
+            throw new IOException("Log is unusable after a failed write", writeFailure);
+        }
 
         SliceInput sliceInput = record.input();
 
@@ -117,8 +138,10 @@ public class FileChannelLogWriter
             if (bytesRemainingInBlock < HEADER_SIZE) {
                 if (bytesRemainingInBlock > 0) {
                     // Fill the rest of the block with zeros
-                    // todo lame... need a better way to write zeros
-                    fileChannel.write(ByteBuffer.allocate(bytesRemainingInBlock));
+                    ensureBufferCapacity(bytesRemainingInBlock);
+                    for (int i = 0; i < bytesRemainingInBlock; i++) {
+                        buffer.put((byte) 0);
+                    }
                 }
                 blockOffset = 0;
                 bytesRemainingInBlock = BLOCK_SIZE - blockOffset;
@@ -159,6 +182,7 @@ public class FileChannelLogWriter
             begin = false;
         } while (sliceInput.isReadable());
 
+        writeBuffer();
         if (force) {
             fileChannel.force(false);
         }
@@ -168,27 +192,37 @@ public class FileChannelLogWriter
             throws IOException {
         checkArgument(slice.length() <= 0xffff, "length %s is larger than two bytes", slice.length());
         checkArgument(blockOffset + HEADER_SIZE <= BLOCK_SIZE);
+        ensureBufferCapacity(HEADER_SIZE + slice.length());
 
-        // create header
-        Slice header = newLogRecordHeader(type, slice, slice.length());
-
-        // write the header and the payload
-        header.getBytes(0, fileChannel, header.length());
-        slice.getBytes(0, fileChannel, slice.length());
+        // stage the header and the payload
+        int crc = Logs.getChunkChecksum(crc32C, type.getPersistentId(), slice.getRawArray(), slice.getRawOffset(), slice.length());
+        buffer.putInt(crc);
+        buffer.put((byte) (slice.length() & 0xff));
+        buffer.put((byte) (slice.length() >>> 8));
+        buffer.put((byte) (type.getPersistentId()));
+        buffer.put(slice.getRawArray(), slice.getRawOffset(), slice.length());
 
         blockOffset += HEADER_SIZE + slice.length();
     }
 
-    private Slice newLogRecordHeader(LogChunkType type, Slice slice, int length) {
-        int crc = Logs.getChunkChecksum(type.getPersistentId(), slice.getRawArray(), slice.getRawOffset(), length);
-
-        // Format the header
-        SliceOutput header = Slices.allocate(HEADER_SIZE).output();
-        header.writeInt(crc);
-        header.writeByte((byte) (length & 0xff));
-        header.writeByte((byte) (length >>> 8));
-        header.writeByte((byte) (type.getPersistentId()));
+    private void ensureBufferCapacity(int length)
+            throws IOException {
+        if (buffer.remaining() < length) {
+            writeBuffer();
+        }
+    }
 
-        return header.slice();
+    private void writeBuffer()
+            throws IOException {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                fileChannel.write(buffer);
+            }
+        } catch (IOException | RuntimeException e) {
+            writeFailure = e;
+            throw e;
+        }
+        buffer.clear();
     }
 }
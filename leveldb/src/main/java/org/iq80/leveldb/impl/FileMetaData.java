@@ -19,6 +19,8 @@ package org.iq80.leveldb.impl;
 
 import java.util.concurrent.atomic.AtomicInteger;
 
+import static java.util.Objects.requireNonNull;
+
 /**
  * level层级里有多个.sst文件，对应的一个.sst文件实体
  */
@@ -46,6 +48,12 @@ public class FileMetaData {
      */
     private final InternalKey largest;
 
+    // loaded from the table properties when the manifest has none
+    private volatile FileStats stats;
+
+    // the fragmented range tombstones of the table, null until they are read from it
+    private volatile RangeTombstones rangeTombstones;
+
     /**
      * Seeks allowed until compaction
      * compact之前允许的 seek 次数 （参见 Version）
@@ -54,10 +62,15 @@ public class FileMetaData {
     private final AtomicInteger allowedSeeks = new AtomicInteger(1 << 30);
 
     public FileMetaData(long number, long fileSize, InternalKey smallest, InternalKey largest) {
+        this(number, fileSize, smallest, largest, FileStats.UNKNOWN);
+    }
+
+    public FileMetaData(long number, long fileSize, InternalKey smallest, InternalKey largest, FileStats stats) {
         this.number = number;
         this.fileSize = fileSize;
         this.smallest = smallest;
         this.largest = largest;
+        this.stats = stats;
     }
 
     public long getFileSize() {
@@ -76,6 +89,26 @@ public class FileMetaData {
         return largest;
     }
 
+    public FileStats getStats() {
+        return stats;
+    }
+
+    void setStats(FileStats stats) {
+        this.stats = requireNonNull(stats, "stats is null");
+    }
+
+    /**
+     * Returns the range tombstones of the table, or null if they have not been read
+     * yet, see {@link TableCache#getRangeTombstones(FileMetaData)}.
+     */
+    RangeTombstones getRangeTombstones() {
+        return rangeTombstones;
+    }
+
+    void setRangeTombstones(RangeTombstones rangeTombstones) {
+        this.rangeTombstones = requireNonNull(rangeTombstones, "rangeTombstones is null");
+    }
+
     public int getAllowedSeeks() {
         return allowedSeeks.get();
     }
@@ -97,6 +130,7 @@ public class FileMetaData {
         sb.append(", fileSize=").append(fileSize);
         sb.append(", smallest=").append(smallest);
         sb.append(", largest=").append(largest);
+        sb.append(", stats=").append(stats);
         sb.append(", allowedSeeks=").append(allowedSeeks);
         sb.append('}');
         return sb.toString();
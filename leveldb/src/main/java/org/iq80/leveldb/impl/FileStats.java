@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.table.TableBuilder;
+import org.iq80.leveldb.table.TableProperties;
+import org.iq80.leveldb.util.Slice;
+
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
+
+/**
+ * Entry counts and sizes of a table, collected while the table is written and
+ * used to pick compactions.  Tables from manifests written without the stats
+ * have {@link #UNKNOWN} stats.
+ */
+public final class FileStats {
+    public static final FileStats UNKNOWN = new FileStats(0, 0, 0, 0, 0);
+
+    private final long entries;
+    private final long deletions;
+    private final long rawKeySize;
+    private final long rawValueSize;
+    private final long largestSequence;
+
+    public FileStats(long entries, long deletions, long rawKeySize, long rawValueSize, long largestSequence) {
+        this.entries = entries;
+        this.deletions = deletions;
+        this.rawKeySize = rawKeySize;
+        this.rawValueSize = rawValueSize;
+        this.largestSequence = largestSequence;
+    }
+
+    /**
+     * Stats of a table from its properties, for tables whose stats are missing from
+     * the manifest.
+     */
+    public static FileStats of(TableProperties properties) {
+        long rangeDeletions = properties.getNumRangeDeletions();
+        return new FileStats(properties.getNumEntries() + rangeDeletions,
+                properties.getNumDeletions() + rangeDeletions,
+                properties.getRawKeySize(),
+                properties.getRawValueSize(),
+                properties.getLargestSequence());
+    }
+
+    public boolean isKnown() {
+        return entries > 0;
+    }
+
+    /**
+     * Number of entries including deletion markers and range tombstones.
+     */
+    public long getEntries() {
+        return entries;
+    }
+
+    /**
+     * Number of deletion markers and range tombstones.
+     */
+    public long getDeletions() {
+        return deletions;
+    }
+
+    public long getRawKeySize() {
+        return rawKeySize;
+    }
+
+    public long getRawValueSize() {
+        return rawValueSize;
+    }
+
+    public long getLargestSequence() {
+        return largestSequence;
+    }
+
+    public double getDeletionRatio() {
+        return entries == 0 ? 0 : 1.0 * deletions / entries;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("FileStats");
+        sb.append("{entries=").append(entries);
+        sb.append(", deletions=").append(deletions);
+        sb.append(", rawKeySize=").append(rawKeySize);
+        sb.append(", rawValueSize=").append(rawValueSize);
+        sb.append(", largestSequence=").append(largestSequence);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    public static class Builder {
+        private long entries;
+        private long deletions;
+        private long rawKeySize;
+        private long rawValueSize;
+        private long largestSequence;
+        private long smallestSequence = Long.MAX_VALUE;
+        private long rangeDeletions;
+
+        public Builder add(InternalKey key, Slice value) {
+            entries++;
+            if (key.getValueType() == ValueType.DELETION || key.getValueType() == ValueType.RANGE_DELETION) {
+                deletions++;
+            }
+            if (key.getValueType() == ValueType.RANGE_DELETION) {
+                rangeDeletions++;
+            }
+            rawKeySize += key.getUserKey().length() + SIZE_OF_LONG;
+            rawValueSize += value.length();
+            largestSequence = Math.max(largestSequence, key.getSequenceNumber());
+            smallestSequence = Math.min(smallestSequence, key.getSequenceNumber());
+            return this;
+        }
+
+        /**
+         * Hands the counts the table builder cannot tell from the encoded keys to the
+         * properties of the table.
+         */
+        public void writeTo(TableBuilder tableBuilder) {
+            tableBuilder.setInternalKeyStats(deletions - rangeDeletions, entries == 0 ? 0 : smallestSequence, largestSequence);
+        }
+
+        public FileStats build() {
+            return new FileStats(entries, deletions, rawKeySize, rawValueSize, largestSequence);
+        }
+    }
+}
@@ -47,6 +47,13 @@ public final class Filename {
         return makeFileName(number, "sst");
     }
 
+    /**
+     * Return the name of the blob file with the specified number.
+     */
+    public static String blobFileName(long number) {
+        return makeFileName(number, "blob");
+    }
+
     /**
      * Return the name of the descriptor file with the specified incarnation number.
      */
@@ -102,7 +109,7 @@ public final class Filename {
         //    dbname/LOG
         //    dbname/LOG.old
         //    dbname/MANIFEST-[0-9]+
-        //    dbname/[0-9]+.(log|sst|dbtmp)
+        //    dbname/[0-9]+.(log|sst|blob|dbtmp)
         String fileName = file.getName();
         if ("CURRENT".equals(fileName)) {
             return new FileInfo(FileType.CURRENT);
@@ -121,6 +128,9 @@ public final class Filename {
         } else if (fileName.endsWith(".sst")) {
             long fileNumber = Long.parseLong(removeSuffix(fileName, ".sst"));
             return new FileInfo(FileType.TABLE, fileNumber);
+        } else if (fileName.endsWith(".blob")) {
+            long fileNumber = Long.parseLong(removeSuffix(fileName, ".blob"));
+            return new FileInfo(FileType.BLOB, fileNumber);
         } else if (fileName.endsWith(".dbtmp")) {
             long fileNumber = Long.parseLong(removeSuffix(fileName, ".dbtmp"));
             return new FileInfo(FileType.TEMP, fileNumber);
@@ -186,6 +196,7 @@ public final class Filename {
         LOG,//log文件
         DB_LOCK,//db_lock文件
         TABLE,//table文件
+        BLOB, // values separated from the tables
         DESCRIPTOR,//descriptor描述文件
         CURRENT,//current文件
         TEMP,//temp 临时文件
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import com.google.common.collect.Lists;
+import org.iq80.leveldb.table.FilterPolicy;
+import org.iq80.leveldb.util.Slice;
+
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
+
+/**
+ * Applies a user filter policy to the user key part of internal keys, so all
+ * versions of a key share the same filter bits.
+ */
+public class InternalFilterPolicy
+        implements FilterPolicy {
+    private final FilterPolicy userPolicy;
+
+    public InternalFilterPolicy(FilterPolicy userPolicy) {
+        this.userPolicy = requireNonNull(userPolicy, "userPolicy is null");
+    }
+
+    @Override
+    public String name() {
+        return userPolicy.name();
+    }
+
+    @Override
+    public byte[] createFilter(List<Slice> keys) {
+        return userPolicy.createFilter(Lists.transform(keys, InternalFilterPolicy::userKey));
+    }
+
+    @Override
+    public boolean keyMayMatch(Slice key, Slice filter) {
+        return userPolicy.keyMayMatch(userKey(key), filter);
+    }
+
+    private static Slice userKey(Slice internalKey) {
+        return internalKey.slice(0, internalKey.length() - SIZE_OF_LONG);
+    }
+}
@@ -19,7 +19,6 @@ package org.iq80.leveldb.impl;
 
 import com.google.common.collect.Lists;
 import org.iq80.leveldb.table.UserComparator;
-import org.iq80.leveldb.util.InternalTableIterator;
 import org.iq80.leveldb.util.LevelIterator;
 import org.iq80.leveldb.util.Slice;
 
@@ -46,11 +45,12 @@ public class Level implements SeekingIterable<InternalKey, Slice> {
     private final int levelNumber;
     //当前层级的缓存
     private final TableCache tableCache;
+    private final RowCache rowCache;
     //key比较器
     private final InternalKeyComparator internalKeyComparator;
     private final List<FileMetaData> files;
 
-    public Level(int levelNumber, List<FileMetaData> files, TableCache tableCache, InternalKeyComparator internalKeyComparator) {
+    public Level(int levelNumber, List<FileMetaData> files, TableCache tableCache, RowCache rowCache, InternalKeyComparator internalKeyComparator) {
         checkArgument(levelNumber >= 0, "levelNumber is negative");
         requireNonNull(files, "files is null");
         requireNonNull(tableCache, "tableCache is null");
@@ -58,6 +58,7 @@ public class Level implements SeekingIterable<InternalKey, Slice> {
 
         this.files = new ArrayList<>(files);
         this.tableCache = tableCache;
+        this.rowCache = rowCache;
         this.internalKeyComparator = internalKeyComparator;
         checkArgument(levelNumber >= 0, "levelNumber is negative");
         this.levelNumber = levelNumber;
@@ -89,36 +90,15 @@ public class Level implements SeekingIterable<InternalKey, Slice> {
     }
 
     public LookupResult get(LookupKey key, ReadStats readStats) {
+        return get(key, readStats, new MergeContext(null, key.getUserKey()));
+    }
+
+    public LookupResult get(LookupKey key, ReadStats readStats, MergeContext mergeContext) {
         if (files.isEmpty()) {
             return null;
         }
 
-        List<FileMetaData> fileMetaDataList = new ArrayList<>(files.size());
-        if (levelNumber == 0) {
-            for (FileMetaData fileMetaData : files) {
-                if (internalKeyComparator.getUserComparator().compare(key.getUserKey(), fileMetaData.getSmallest().getUserKey()) >= 0 &&
-                        internalKeyComparator.getUserComparator().compare(key.getUserKey(), fileMetaData.getLargest().getUserKey()) <= 0) {
-                    fileMetaDataList.add(fileMetaData);
-                }
-            }
-        } else {
-            // Binary search to find earliest index whose largest key >= ikey.
-            int index = ceilingEntryIndex(Lists.transform(files, FileMetaData::getLargest), key.getInternalKey(), internalKeyComparator);
-
-            // did we find any files that could contain the key?
-            if (index >= files.size()) {
-                return null;
-            }
-
-            // check if the smallest user key in the file is less than the target user key
-            FileMetaData fileMetaData = files.get(index);
-            if (internalKeyComparator.getUserComparator().compare(key.getUserKey(), fileMetaData.getSmallest().getUserKey()) < 0) {
-                return null;
-            }
-
-            // search this file
-            fileMetaDataList.add(fileMetaData);
-        }
+        List<FileMetaData> fileMetaDataList = getFilesForKey(key);
 
         FileMetaData lastFileRead = null;
         int lastFileReadLevel = -1;
@@ -133,25 +113,33 @@ public class Level implements SeekingIterable<InternalKey, Slice> {
             lastFileRead = fileMetaData;
             lastFileReadLevel = levelNumber;
 
-            // open the iterator
-            InternalTableIterator iterator = tableCache.newIterator(fileMetaData);
-
-            // seek to the key
-            iterator.seek(key.getInternalKey());
+            // look up the key in the row cache or the table
+            Entry<InternalKey, Slice> entry;
+            if (rowCache != null) {
+                entry = rowCache.get(fileMetaData, key, tableCache);
+            } else {
+                entry = tableCache.get(fileMetaData, key.getInternalKey());
+            }
+            // range tombstones in the file hide its older entries and those of older files
+            RangeTombstones rangeTombstones = fileMetaData.getRangeTombstones();
+            if (rangeTombstones == null) {
+                // the table was opened in an earlier run, or only the row cache was read
+                rangeTombstones = tableCache.getRangeTombstones(fileMetaData);
+            }
+            mergeContext.addRangeTombstones(rangeTombstones, key);
 
-            if (iterator.hasNext()) {
+            if (entry != null) {
                 // parse the key in the block
-                Entry<InternalKey, Slice> entry = iterator.next();
                 InternalKey internalKey = entry.getKey();
                 checkState(internalKey != null, "Corrupt key for %s", key.getUserKey().toString(UTF_8));
 
-                // if this is a value key (not a delete) and the keys match, return the value
+                // if the keys match the entry answers the lookup, unless it is a merge operand
                 if (key.getUserKey().equals(internalKey.getUserKey())) {
-                    if (internalKey.getValueType() == ValueType.DELETION) {
-                        return LookupResult.deleted(key);
-                    } else if (internalKey.getValueType() == VALUE) {
-                        return LookupResult.ok(key, entry.getValue());
+                    if (internalKey.getValueType() == ValueType.MERGE) {
+                        // the older entries of the key may continue in the next file of the level
+                        return mergeContext.complete(key, iterator());
                     }
+                    return mergeContext.complete(key, internalKey, entry.getValue());
                 }
             }
         }
@@ -159,6 +147,39 @@ public class Level implements SeekingIterable<InternalKey, Slice> {
         return null;
     }
 
+    /**
+     * Returns the files that may contain the key, in the order they must be searched.
+     */
+    List<FileMetaData> getFilesForKey(LookupKey key) {
+        List<FileMetaData> fileMetaDataList = new ArrayList<>(files.size());
+        if (levelNumber == 0) {
+            for (FileMetaData fileMetaData : files) {
+                if (internalKeyComparator.getUserComparator().compare(key.getUserKey(), fileMetaData.getSmallest().getUserKey()) >= 0 &&
+                        internalKeyComparator.getUserComparator().compare(key.getUserKey(), fileMetaData.getLargest().getUserKey()) <= 0) {
+                    fileMetaDataList.add(fileMetaData);
+                }
+            }
+        } else {
+            // Binary search to find earliest index whose largest key >= ikey.
+            int index = ceilingEntryIndex(Lists.transform(files, FileMetaData::getLargest), key.getInternalKey(), internalKeyComparator);
+
+            // did we find any files that could contain the key?
+            if (index >= files.size()) {
+                return fileMetaDataList;
+            }
+
+            // check if the smallest user key in the file is less than the target user key
+            FileMetaData fileMetaData = files.get(index);
+            if (internalKeyComparator.getUserComparator().compare(key.getUserKey(), fileMetaData.getSmallest().getUserKey()) < 0) {
+                return fileMetaDataList;
+            }
+
+            // search this file
+            fileMetaDataList.add(fileMetaData);
+        }
+        return fileMetaDataList;
+    }
+
     public boolean someFileOverlapsRange(Slice smallestUserKey, Slice largestUserKey) {
         InternalKey smallestInternalKey = new InternalKey(smallestUserKey, MAX_SEQUENCE_NUMBER, VALUE);
         int index = findFile(smallestInternalKey);
@@ -18,7 +18,6 @@
 package org.iq80.leveldb.impl;
 
 import org.iq80.leveldb.table.UserComparator;
-import org.iq80.leveldb.util.InternalTableIterator;
 import org.iq80.leveldb.util.Level0Iterator;
 import org.iq80.leveldb.util.Slice;
 
@@ -47,16 +46,18 @@ public class Level0 implements SeekingIterable<InternalKey, Slice> {
         }
     };
     private final TableCache tableCache;
+    private final RowCache rowCache;
     private final InternalKeyComparator internalKeyComparator;
     private final List<FileMetaData> files;
 
-    public Level0(List<FileMetaData> files, TableCache tableCache, InternalKeyComparator internalKeyComparator) {
+    public Level0(List<FileMetaData> files, TableCache tableCache, RowCache rowCache, InternalKeyComparator internalKeyComparator) {
         requireNonNull(files, "files is null");
         requireNonNull(tableCache, "tableCache is null");
         requireNonNull(internalKeyComparator, "internalKeyComparator is null");
 
         this.files = new ArrayList<>(files);
         this.tableCache = tableCache;
+        this.rowCache = rowCache;
         this.internalKeyComparator = internalKeyComparator;
     }
 
@@ -74,40 +75,49 @@ public class Level0 implements SeekingIterable<InternalKey, Slice> {
     }
 
     public LookupResult get(LookupKey key, ReadStats readStats) {
+        return get(key, readStats, new MergeContext(null, key.getUserKey()));
+    }
+
+    public LookupResult get(LookupKey key, ReadStats readStats, MergeContext mergeContext) {
         if (files.isEmpty()) {
             return null;
         }
 
-        List<FileMetaData> fileMetaDataList = new ArrayList<>(files.size());
-        for (FileMetaData fileMetaData : files) {
-            if (internalKeyComparator.getUserComparator().compare(key.getUserKey(), fileMetaData.getSmallest().getUserKey()) >= 0 &&
-                    internalKeyComparator.getUserComparator().compare(key.getUserKey(), fileMetaData.getLargest().getUserKey()) <= 0) {
-                fileMetaDataList.add(fileMetaData);
-            }
-        }
-
-        Collections.sort(fileMetaDataList, NEWEST_FIRST);
+        List<FileMetaData> fileMetaDataList = getFilesForKey(key);
 
         readStats.clear();
         for (FileMetaData fileMetaData : fileMetaDataList) {
-            // open the iterator
-            InternalTableIterator iterator = tableCache.newIterator(fileMetaData);
-
-            // seek to the key
-            iterator.seek(key.getInternalKey());
+            // look up the key in the row cache or the table
+            Entry<InternalKey, Slice> entry;
+            if (rowCache != null) {
+                entry = rowCache.get(fileMetaData, key, tableCache);
+            } else {
+                entry = tableCache.get(fileMetaData, key.getInternalKey());
+            }
+            // range tombstones in the file hide its older entries and those of older files
+            RangeTombstones rangeTombstones = fileMetaData.getRangeTombstones();
+            if (rangeTombstones == null) {
+                // the table was opened in an earlier run, or only the row cache was read
+                rangeTombstones = tableCache.getRangeTombstones(fileMetaData);
+            }
+            mergeContext.addRangeTombstones(rangeTombstones, key);
 
-            if (iterator.hasNext()) {
+            if (entry != null) {
                 // parse the key in the block
-                Entry<InternalKey, Slice> entry = iterator.next();
                 InternalKey internalKey = entry.getKey();
                 checkState(internalKey != null, "Corrupt key for %s", key.getUserKey().toString(UTF_8));
 
-                // if this is a value key (not a delete) and the keys match, return the value
+                // if the keys match the entry answers the lookup, unless it is a merge operand
                 if (key.getUserKey().equals(internalKey.getUserKey())) {
-                    if (internalKey.getValueType() == ValueType.DELETION) {
-                        return LookupResult.deleted(key);
-                    } else if (internalKey.getValueType() == VALUE) {
-                        return LookupResult.ok(key, entry.getValue());
+                    LookupResult lookupResult;
+                    if (internalKey.getValueType() == ValueType.MERGE) {
+                        // older entries of the key in this file are needed as well
+                        lookupResult = mergeContext.complete(key, tableCache.newIterator(fileMetaData));
+                    } else {
+                        lookupResult = mergeContext.complete(key, internalKey, entry.getValue());
+                    }
+                    if (lookupResult != null) {
+                        return lookupResult;
                     }
                 }
             }
@@ -122,6 +132,22 @@ public class Level0 implements SeekingIterable<InternalKey, Slice> {
         return null;
     }
 
+    /**
+     * Returns the files whose range covers the key, newest first.
+     */
+    List<FileMetaData> getFilesForKey(LookupKey key) {
+        List<FileMetaData> fileMetaDataList = new ArrayList<>(files.size());
+        for (FileMetaData fileMetaData : files) {
+            if (internalKeyComparator.getUserComparator().compare(key.getUserKey(), fileMetaData.getSmallest().getUserKey()) >= 0 &&
+                    internalKeyComparator.getUserComparator().compare(key.getUserKey(), fileMetaData.getLargest().getUserKey()) <= 0) {
+                fileMetaDataList.add(fileMetaData);
+            }
+        }
+
+        Collections.sort(fileMetaDataList, NEWEST_FIRST);
+        return fileMetaDataList;
+    }
+
     public boolean someFileOverlapsRange(Slice smallestUserKey, Slice largestUserKey) {
         InternalKey smallestInternalKey = new InternalKey(smallestUserKey, MAX_SEQUENCE_NUMBER, VALUE);
         int index = findFile(smallestInternalKey);
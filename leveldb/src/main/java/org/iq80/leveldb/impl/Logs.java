@@ -17,7 +17,7 @@
  */
 package org.iq80.leveldb.impl;
 
-import org.iq80.leveldb.util.PureJavaCrc32C;
+import org.iq80.leveldb.util.Crc32C;
 import org.iq80.leveldb.util.Slice;
 
 import java.io.File;
@@ -41,8 +41,16 @@ public final class Logs {
     }
 
     public static int getChunkChecksum(int chunkTypeId, byte[] buffer, int offset, int length) {
+        return getChunkChecksum(new Crc32C(), chunkTypeId, buffer, offset, length);
+    }
+
+    /**
+     * Computes the checksum of the chunk with the checksum, which is reset first so
+     * writers can reuse one for all their chunks.
+     */
+    public static int getChunkChecksum(Crc32C crc32C, int chunkTypeId, byte[] buffer, int offset, int length) {
         // Compute the crc of the record type and the payload.
-        PureJavaCrc32C crc32C = new PureJavaCrc32C();
+        crc32C.reset();
         crc32C.update(chunkTypeId);
         crc32C.update(buffer, offset, length);
         return crc32C.getMaskedValue();
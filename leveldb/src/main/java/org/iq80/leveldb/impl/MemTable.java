@@ -19,11 +19,15 @@ package org.iq80.leveldb.impl;
 
 import com.google.common.collect.Iterators;
 import com.google.common.collect.PeekingIterator;
+import org.iq80.leveldb.table.UserComparator;
 import org.iq80.leveldb.util.InternalIterator;
 import org.iq80.leveldb.util.Slice;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import static java.util.Objects.requireNonNull;
@@ -34,14 +38,22 @@ import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
  */
 public class MemTable implements SeekingIterable<InternalKey, Slice> {
     private final ConcurrentSkipListMap<InternalKey, Slice> table;
+    // range tombstones are kept apart from the point entries, keyed by the start of the range
+    private final ConcurrentSkipListMap<InternalKey, Slice> rangeTombstones;
+    // counted after they are added, the fragments are rebuilt by the first lookup after a change
+    private final AtomicInteger rangeTombstoneCount = new AtomicInteger();
+    private volatile Fragments fragments = new Fragments(0, RangeTombstones.EMPTY);
+    private final UserComparator userComparator;
     private final AtomicLong approximateMemoryUsage = new AtomicLong();
 
     public MemTable(InternalKeyComparator internalKeyComparator) {
         table = new ConcurrentSkipListMap<>(internalKeyComparator);
+        rangeTombstones = new ConcurrentSkipListMap<>(internalKeyComparator);
+        userComparator = internalKeyComparator.getUserComparator();
     }
 
     public boolean isEmpty() {
-        return table.isEmpty();
+        return table.isEmpty() && rangeTombstones.isEmpty();
     }
 
     public long approximateMemoryUsage() {
@@ -54,31 +66,64 @@ public class MemTable implements SeekingIterable<InternalKey, Slice> {
         requireNonNull(valueType, "valueType is null");
 
         InternalKey internalKey = new InternalKey(key, sequenceNumber, valueType);
-        table.put(internalKey, value);
+        if (valueType == ValueType.RANGE_DELETION) {
+            rangeTombstones.put(internalKey, value);
+            rangeTombstoneCount.incrementAndGet();
+        } else {
+            table.put(internalKey, value);
+        }
 
         approximateMemoryUsage.addAndGet(key.length() + SIZE_OF_LONG + value.length());
     }
 
     public LookupResult get(LookupKey key) {
+        return get(key, new MergeContext(null, key.getUserKey()));
+    }
+
+    /**
+     * Looks up the newest entry of the key, walking on to older entries while
+     * they are merge operands.
+     *
+     * @return null if the memtable has no entry ending the lookup; merge operands
+     * found on the way are left in the context
+     */
+    public LookupResult get(LookupKey key, MergeContext mergeContext) {
         requireNonNull(key, "key is null");
 
         InternalKey internalKey = key.getInternalKey();
-        Entry<InternalKey, Slice> entry = table.ceilingEntry(internalKey);
-        if (entry == null) {
-            return null;
+        if (rangeTombstoneCount.get() > 0) {
+            mergeContext.addRangeTombstones(getFragments(), key);
         }
-
-        InternalKey entryKey = entry.getKey();
-        if (entryKey.getUserKey().equals(key.getUserKey())) {
-            if (entryKey.getValueType() == ValueType.DELETION) {
-                return LookupResult.deleted(key);
-            } else {
-                return LookupResult.ok(key, entry.getValue());
+        Entry<InternalKey, Slice> entry = table.ceilingEntry(internalKey);
+        while (entry != null && entry.getKey().getUserKey().equals(key.getUserKey())) {
+            LookupResult lookupResult = mergeContext.complete(key, entry.getKey(), entry.getValue());
+            if (lookupResult != null) {
+                return lookupResult;
             }
+            entry = table.higherEntry(entry.getKey());
         }
         return null;
     }
 
+    /**
+     * Returns the range tombstones fragmented for binary searches, rebuilding them
+     * if tombstones were added since they were last built.
+     */
+    private RangeTombstones getFragments() {
+        Fragments current = fragments;
+        int count = rangeTombstoneCount.get();
+        if (current.count != count) {
+            // the copy holds at least the counted tombstones; any newer ones are filtered by their sequence
+            current = new Fragments(count, RangeTombstones.fragment(userComparator, getRangeTombstones()));
+            fragments = current;
+        }
+        return current.rangeTombstones;
+    }
+
+    public List<Entry<InternalKey, Slice>> getRangeTombstones() {
+        return new ArrayList<>(rangeTombstones.entrySet());
+    }
+
     @Override
     public MemTableIterator iterator() {
         return new MemTableIterator();
@@ -124,4 +169,14 @@ public class MemTable implements SeekingIterable<InternalKey, Slice> {
             throw new UnsupportedOperationException();
         }
     }
+
+    private static final class Fragments {
+        private final int count;
+        private final RangeTombstones rangeTombstones;
+
+        private Fragments(int count, RangeTombstones rangeTombstones) {
+            this.count = count;
+            this.rangeTombstones = rangeTombstones;
+        }
+    }
 }
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.MergeOperator;
+import org.iq80.leveldb.util.InternalIterator;
+import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.Slices;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Collects the merge operands found for a user key while walking its entries
+ * from newest to oldest, and folds them once an older value, a deletion or the
+ * end of the data is reached.  It also remembers the newest range tombstone
+ * covering the key, which hides all older entries like a deletion.  Values
+ * separated into blob files are read when the entry referencing them is reached.
+ */
+public class MergeContext {
+    private final MergeOperator mergeOperator;
+    private final Slice userKey;
+    // null when the database has no blob files
+    private final BlobFileCache blobFileCache;
+    // newest first
+    private final List<Slice> operands = new ArrayList<>();
+    private long rangeTombstoneSequence;
+
+    public MergeContext(MergeOperator mergeOperator, Slice userKey) {
+        this(mergeOperator, userKey, null);
+    }
+
+    public MergeContext(MergeOperator mergeOperator, Slice userKey, BlobFileCache blobFileCache) {
+        this.mergeOperator = mergeOperator;
+        this.userKey = userKey;
+        this.blobFileCache = blobFileCache;
+    }
+
+    public boolean hasOperands() {
+        return !operands.isEmpty();
+    }
+
+    public List<Slice> getOperands() {
+        return operands;
+    }
+
+    public void addOperand(Slice operand) {
+        checkState(mergeOperator != null, "Found a merge operand for %s but no merge operator is configured", userKey);
+        operands.add(operand);
+    }
+
+    /**
+     * Records a range tombstone covering the key, 0 meaning none.  Must be
+     * called before the entries it may hide are handled.
+     */
+    public void addRangeTombstone(long sequence) {
+        rangeTombstoneSequence = Math.max(rangeTombstoneSequence, sequence);
+    }
+
+    /**
+     * Adds the newest of the tombstones that covers the key and is visible to the lookup.
+     */
+    public void addRangeTombstones(RangeTombstones rangeTombstones, LookupKey key) {
+        if (!rangeTombstones.isEmpty()) {
+            addRangeTombstone(rangeTombstones.maxCoveringSequence(key.getUserKey(), key.getInternalKey().getSequenceNumber()));
+        }
+    }
+
+    /**
+     * Handles the next older entry of the key.
+     *
+     * @return the result of the lookup, or null if older entries are needed
+     */
+    public LookupResult complete(LookupKey key, InternalKey internalKey, Slice value) {
+        ValueType valueType = internalKey.getValueType();
+        if (internalKey.getSequenceNumber() < rangeTombstoneSequence) {
+            valueType = ValueType.DELETION;
+        }
+        if (valueType == ValueType.BLOB_INDEX) {
+            checkState(blobFileCache != null, "Found a blob reference for %s but blob files are not readable", userKey);
+            value = blobFileCache.get(value);
+            valueType = ValueType.VALUE;
+        }
+        switch (valueType) {
+            case MERGE:
+                addOperand(value);
+                return null;
+            case DELETION:
+                if (hasOperands()) {
+                    return LookupResult.ok(key, fullMerge(null));
+                }
+                return LookupResult.deleted(key);
+            case VALUE:
+                if (hasOperands()) {
+                    return LookupResult.ok(key, fullMerge(value));
+                }
+                return LookupResult.ok(key, value);
+            default:
+                throw new IllegalStateException("Unexpected value type " + valueType);
+        }
+    }
+
+    /**
+     * Seeks the iterator to the key and handles its entries until the lookup
+     * is complete or the iterator runs out of entries for the key.
+     */
+    public LookupResult complete(LookupKey key, InternalIterator iterator) {
+        iterator.seek(key.getInternalKey());
+        while (iterator.hasNext()) {
+            Entry<InternalKey, Slice> entry = iterator.next();
+            if (!entry.getKey().getUserKey().equals(key.getUserKey())) {
+                break;
+            }
+            LookupResult lookupResult = complete(key, entry.getKey(), entry.getValue());
+            if (lookupResult != null) {
+                return lookupResult;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Applies the collected operands to the value, which is null if the key has
+     * no older value.
+     */
+    public Slice fullMerge(Slice existingValue) {
+        checkState(mergeOperator != null, "No merge operator is configured");
+        List<byte[]> values = new ArrayList<>(operands.size());
+        for (int i = operands.size() - 1; i >= 0; i--) {
+            values.add(operands.get(i).getBytes());
+        }
+        byte[] existing = existingValue == null ? null : existingValue.getBytes();
+        byte[] result = mergeOperator.fullMerge(userKey.getBytes(), existing, values);
+        checkState(result != null, "Merge operator %s returned null", mergeOperator.name());
+        return Slices.wrappedBuffer(result);
+    }
+
+    /**
+     * Combines all collected operands into one.
+     *
+     * @return the combined operand, or null if the operator could not combine them
+     */
+    public Slice partialMerge() {
+        checkState(mergeOperator != null, "No merge operator is configured");
+        byte[] key = userKey.getBytes();
+        byte[] result = operands.get(operands.size() - 1).getBytes();
+        for (int i = operands.size() - 2; i >= 0; i--) {
+            result = mergeOperator.partialMerge(key, result, operands.get(i).getBytes());
+            if (result == null) {
+                return null;
+            }
+        }
+        return Slices.wrappedBuffer(result);
+    }
+}
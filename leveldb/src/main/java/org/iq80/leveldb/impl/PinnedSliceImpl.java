@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.PinnedSlice;
+import org.iq80.leveldb.util.Slice;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A value handed out without copying; the version it was read from is
+ * retained until the slice is closed.  Values found in the memtables have
+ * no version.
+ */
+public class PinnedSliceImpl implements PinnedSlice {
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final Slice value;
+    private final Version version;
+
+    PinnedSliceImpl(Slice value, Version version) {
+        this.value = value;
+        this.version = version;
+    }
+
+    @Override
+    public ByteBuffer buffer() {
+        checkState(!closed.get(), "Pinned slice has been closed");
+        return value.toByteBuffer().slice().asReadOnlyBuffer();
+    }
+
+    @Override
+    public int length() {
+        return value.length();
+    }
+
+    public Slice getSlice() {
+        return value;
+    }
+
+    @Override
+    public void close() {
+        // This is an end user API.. he might screw up and close multiple times.
+        // but we don't want the version reference count going bad.
+        if (closed.compareAndSet(false, true) && version != null) {
+            version.release();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("PinnedSliceImpl");
+        sb.append("{length=").append(value.length());
+        sb.append(", closed=").append(closed.get());
+        sb.append('}');
+        return sb.toString();
+    }
+}
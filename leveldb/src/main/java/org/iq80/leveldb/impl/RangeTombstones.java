@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import com.google.common.collect.ImmutableList;
+import org.iq80.leveldb.util.Slice;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Range tombstones split into non-overlapping fragments.  Each fragment keeps
+ * the sequence numbers of all tombstones covering it, so the newest tombstone
+ * visible to a snapshot is found with a binary search on the fragment starts.
+ * <p>
+ * Tombstones are entries keyed by the start of the range, with the sequence
+ * number of the deletion, and valued with the exclusive end of the range.
+ */
+public final class RangeTombstones {
+    public static final RangeTombstones EMPTY = new RangeTombstones(null, ImmutableList.<Entry<InternalKey, Slice>>of(), new Slice[0], new Slice[0], new long[0][]);
+
+    private final Comparator<Slice> userComparator;
+    private final List<Entry<InternalKey, Slice>> tombstones;
+    private final Slice[] starts;
+    private final Slice[] ends;
+    // newest first
+    private final long[][] sequences;
+
+    private RangeTombstones(Comparator<Slice> userComparator, List<Entry<InternalKey, Slice>> tombstones, Slice[] starts, Slice[] ends, long[][] sequences) {
+        this.userComparator = userComparator;
+        this.tombstones = tombstones;
+        this.starts = starts;
+        this.ends = ends;
+        this.sequences = sequences;
+    }
+
+    public static RangeTombstones fragment(Comparator<Slice> userComparator, List<Entry<InternalKey, Slice>> tombstones) {
+        if (tombstones.isEmpty()) {
+            return EMPTY;
+        }
+
+        // sweep the boundaries of the ranges in order, keeping the tombstones covering the current one
+        List<Entry<InternalKey, Slice>> byStart = new ArrayList<>(tombstones.size());
+        TreeSet<Slice> boundaries = new TreeSet<>(userComparator);
+        for (Entry<InternalKey, Slice> tombstone : tombstones) {
+            if (userComparator.compare(tombstone.getKey().getUserKey(), tombstone.getValue()) < 0) {
+                byStart.add(tombstone);
+                boundaries.add(tombstone.getKey().getUserKey());
+                boundaries.add(tombstone.getValue());
+            }
+        }
+        byStart.sort((left, right) -> userComparator.compare(left.getKey().getUserKey(), right.getKey().getUserKey()));
+        PriorityQueue<Entry<InternalKey, Slice>> activeByEnd = new PriorityQueue<>(Math.max(1, byStart.size()),
+                (left, right) -> userComparator.compare(left.getValue(), right.getValue()));
+        // sequence numbers of the active tombstones, with the number of tombstones having each
+        TreeMap<Long, Integer> activeSequences = new TreeMap<>();
+
+        List<Slice> starts = new ArrayList<>();
+        List<Slice> ends = new ArrayList<>();
+        List<long[]> sequences = new ArrayList<>();
+        int next = 0;
+        Slice start = null;
+        for (Slice end : boundaries) {
+            if (start != null) {
+                // every boundary is a start or an end, so the active tombstones cover [start, end) entirely
+                while (next < byStart.size() && userComparator.compare(byStart.get(next).getKey().getUserKey(), start) <= 0) {
+                    Entry<InternalKey, Slice> tombstone = byStart.get(next++);
+                    activeByEnd.add(tombstone);
+                    activeSequences.merge(tombstone.getKey().getSequenceNumber(), 1, Integer::sum);
+                }
+                while (!activeByEnd.isEmpty() && userComparator.compare(activeByEnd.peek().getValue(), start) <= 0) {
+                    long sequence = activeByEnd.poll().getKey().getSequenceNumber();
+                    activeSequences.computeIfPresent(sequence, (key, count) -> count == 1 ? null : count - 1);
+                }
+                if (!activeSequences.isEmpty()) {
+                    long[] covering = new long[activeSequences.size()];
+                    int count = 0;
+                    for (long sequence : activeSequences.descendingKeySet()) {
+                        covering[count++] = sequence;
+                    }
+                    starts.add(start);
+                    ends.add(end);
+                    sequences.add(covering);
+                }
+            }
+            start = end;
+        }
+        return new RangeTombstones(userComparator,
+                ImmutableList.copyOf(tombstones),
+                starts.toArray(new Slice[0]),
+                ends.toArray(new Slice[0]),
+                sequences.toArray(new long[0][]));
+    }
+
+    public boolean isEmpty() {
+        return starts.length == 0;
+    }
+
+    /**
+     * Returns the tombstones the fragments were built from.
+     */
+    public List<Entry<InternalKey, Slice>> getTombstones() {
+        return tombstones;
+    }
+
+    /**
+     * Returns the sequence number of the newest tombstone covering the key that
+     * is not newer than the sequence number, or 0 if there is none.  Entries of
+     * the key older than the result are deleted.
+     */
+    public long maxCoveringSequence(Slice userKey, long sequence) {
+        int index = findFragment(userKey);
+        if (index < 0) {
+            return 0;
+        }
+        return visibleSequence(index, sequence);
+    }
+
+    /**
+     * Returns true if every key in [smallestUserKey, largestUserKey] is covered
+     * by a tombstone not newer than the sequence number.
+     */
+    public boolean covers(Slice smallestUserKey, Slice largestUserKey, long sequence) {
+        int index = findFragment(smallestUserKey);
+        if (index < 0) {
+            return false;
+        }
+        while (visibleSequence(index, sequence) != 0) {
+            if (userComparator.compare(largestUserKey, ends[index]) < 0) {
+                return true;
+            }
+            // the next fragment must continue exactly where this one ends
+            index++;
+            if (index == starts.length || userComparator.compare(starts[index], ends[index - 1]) != 0) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private long visibleSequence(int index, long sequence) {
+        for (long tombstoneSequence : sequences[index]) {
+            if (tombstoneSequence <= sequence) {
+                return tombstoneSequence;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the index of the fragment containing the key, or -1 if there is none.
+     */
+    private int findFragment(Slice userKey) {
+        // find the last fragment starting at or before the key
+        int low = 0;
+        int high = starts.length - 1;
+        int index = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (userComparator.compare(starts[mid], userKey) <= 0) {
+                index = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (index < 0 || userComparator.compare(userKey, ends[index]) >= 0) {
+            return -1;
+        }
+        return index;
+    }
+}
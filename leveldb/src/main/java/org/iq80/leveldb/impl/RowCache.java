@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Maps;
+import org.iq80.leveldb.util.Slice;
+
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.iq80.leveldb.impl.SequenceNumber.MAX_SEQUENCE_NUMBER;
+import static org.iq80.leveldb.impl.ValueType.VALUE;
+
+/**
+ * Cache of point lookup results keyed by table file number and user key.  Each row
+ * holds the newest entry of the user key in the file, or records that the file does
+ * not contain the key.  Table files are immutable so rows never go stale; rows of
+ * deleted files are simply never asked for again and age out.
+ */
+public class RowCache {
+    // rough per row overhead of the cache entry, key and row objects
+    private static final int ROW_OVERHEAD = 96;
+
+    private final Cache<RowKey, Row> cache;
+    private final long capacity;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public RowCache(long capacity) {
+        checkArgument(capacity > 0, "capacity must be positive");
+        this.capacity = capacity;
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(capacity)
+                .weigher(new Weigher<RowKey, Row>() {
+                    @Override
+                    public int weigh(RowKey key, Row row) {
+                        return ROW_OVERHEAD + key.userKey.length() + row.size();
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Returns the first entry at or after the key in the file, like
+     * {@link TableCache#get(FileMetaData, InternalKey)}, but only opens the table
+     * when the row is not cached or is newer than the snapshot of the lookup.
+     */
+    public Entry<InternalKey, Slice> get(FileMetaData file, LookupKey key, TableCache tableCache) {
+        RowKey rowKey = new RowKey(file.getNumber(), key.getUserKey());
+        Row row = cache.getIfPresent(rowKey);
+        if (row == null) {
+            misses.incrementAndGet();
+
+            // the lookup key wraps the caller's array and the entry points into a block, so copy both
+            Slice userKey = key.getUserKey().copySlice();
+
+            // load the newest entry of the user key, it answers lookups at any later snapshot
+            Entry<InternalKey, Slice> entry = tableCache.get(file, new InternalKey(userKey, MAX_SEQUENCE_NUMBER, VALUE));
+            if (entry != null && entry.getKey().getUserKey().equals(userKey)) {
+                InternalKey internalKey = entry.getKey();
+                row = new Row(new InternalKey(userKey, internalKey.getSequenceNumber(), internalKey.getValueType()), entry.getValue().copySlice());
+            } else {
+                row = Row.ABSENT;
+            }
+            cache.put(new RowKey(file.getNumber(), userKey), row);
+        } else {
+            hits.incrementAndGet();
+        }
+
+        if (row == Row.ABSENT) {
+            return null;
+        }
+        if (row.key.getSequenceNumber() <= key.getInternalKey().getSequenceNumber()) {
+            return Maps.immutableEntry(row.key, row.value);
+        }
+
+        // the newest entry is not visible in the snapshot being read
+        return tableCache.get(file, key.getInternalKey());
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public long getUsage() {
+        long usage = 0;
+        for (Entry<RowKey, Row> entry : cache.asMap().entrySet()) {
+            usage += ROW_OVERHEAD + entry.getKey().userKey.length() + entry.getValue().size();
+        }
+        return usage;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("RowCache");
+        sb.append("{hits=").append(hits);
+        sb.append(", misses=").append(misses);
+        sb.append(", rows=").append(cache.size());
+        sb.append(", usage=").append(getUsage());
+        sb.append(", capacity=").append(capacity);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    private static final class RowKey {
+        private final long fileNumber;
+        private final Slice userKey;
+
+        private RowKey(long fileNumber, Slice userKey) {
+            this.fileNumber = fileNumber;
+            this.userKey = userKey;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            RowKey rowKey = (RowKey) o;
+            return fileNumber == rowKey.fileNumber && userKey.equals(rowKey.userKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (int) (fileNumber ^ (fileNumber >>> 32)) + userKey.hashCode();
+        }
+    }
+
+    private static final class Row {
+        private static final Row ABSENT = new Row(null, null);
+
+        private final InternalKey key;
+        private final Slice value;
+
+        private Row(InternalKey key, Slice value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        private int size() {
+            if (key == null) {
+                return 0;
+            }
+            return key.getUserKey().length() + value.length();
+        }
+    }
+}
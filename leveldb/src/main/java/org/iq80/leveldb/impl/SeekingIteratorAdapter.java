@@ -21,6 +21,7 @@ import org.iq80.leveldb.DBIterator;
 import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.Slices;
 
+import java.nio.ByteBuffer;
 import java.util.Map.Entry;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -122,6 +123,13 @@ public class SeekingIteratorAdapter implements DBIterator {
             return key;
         }
 
+        /**
+         * Returns a read-only view of the key without copying it.
+         */
+        public ByteBuffer getKeyBuffer() {
+            return key.toByteBuffer().slice().asReadOnlyBuffer();
+        }
+
         @Override
         public byte[] getValue() {
             return value.getBytes();
@@ -131,6 +139,13 @@ public class SeekingIteratorAdapter implements DBIterator {
             return value;
         }
 
+        /**
+         * Returns a read-only view of the value without copying it.
+         */
+        public ByteBuffer getValueBuffer() {
+            return value.toByteBuffer().slice().asReadOnlyBuffer();
+        }
+
         @Override
         public byte[] setValue(byte[] value) {
             throw new UnsupportedOperationException();
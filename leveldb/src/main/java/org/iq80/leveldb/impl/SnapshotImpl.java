@@ -28,10 +28,17 @@ public class SnapshotImpl implements Snapshot {
     private final AtomicBoolean closed = new AtomicBoolean();
     private final Version version;
     private final long lastSequence;
+    // the list the snapshot is tracked in, null for the implicit snapshots of single reads
+    private final SnapshotList snapshots;
 
     SnapshotImpl(Version version, long lastSequence) {
+        this(version, lastSequence, null);
+    }
+
+    SnapshotImpl(Version version, long lastSequence, SnapshotList snapshots) {
         this.version = version;
         this.lastSequence = lastSequence;
+        this.snapshots = snapshots;
         this.version.retain();
     }
 
@@ -41,6 +48,9 @@ public class SnapshotImpl implements Snapshot {
         // but we don't want the version reference count going bad.
         if (closed.compareAndSet(false, true)) {
             this.version.release();
+            if (snapshots != null) {
+                snapshots.release(lastSequence);
+            }
         }
     }
 
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import static org.iq80.leveldb.impl.SequenceNumber.MAX_SEQUENCE_NUMBER;
+
+/**
+ * The sequence numbers of the live snapshots, in order.  Snapshots are closed
+ * by readers without holding the db mutex, so the list is kept in a lock-free
+ * map from sequence number to the number of snapshots taken at it.
+ */
+final class SnapshotList {
+    private final ConcurrentSkipListMap<Long, Integer> snapshots = new ConcurrentSkipListMap<>();
+
+    public SnapshotImpl newSnapshot(Version version, long lastSequence) {
+        snapshots.merge(lastSequence, 1, Integer::sum);
+        return new SnapshotImpl(version, lastSequence, this);
+    }
+
+    void release(long lastSequence) {
+        snapshots.computeIfPresent(lastSequence, (sequence, count) -> count == 1 ? null : count - 1);
+    }
+
+    /**
+     * Returns the live snapshots, oldest first, with each sequence number once.
+     */
+    public long[] getSequences() {
+        return snapshots.keySet().stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * Returns the oldest snapshot that can see an entry with the given sequence
+     * number, or {@link SequenceNumber#MAX_SEQUENCE_NUMBER} when only reads of the
+     * latest state can.  Entries of one key with the same stripe are seen by the
+     * same snapshots, so only the newest of them needs to be kept.
+     */
+    public static long stripe(long[] sequences, long sequence) {
+        int low = 0;
+        int high = sequences.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (sequences[middle] < sequence) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low < sequences.length ? sequences[low] : MAX_SEQUENCE_NUMBER;
+    }
+}
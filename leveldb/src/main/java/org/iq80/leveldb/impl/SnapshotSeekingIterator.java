@@ -18,6 +18,7 @@
 package org.iq80.leveldb.impl;
 
 import com.google.common.collect.Maps;
+import org.iq80.leveldb.MergeOperator;
 import org.iq80.leveldb.util.AbstractSeekingIterator;
 import org.iq80.leveldb.util.DbIterator;
 import org.iq80.leveldb.util.Slice;
@@ -25,15 +26,33 @@ import org.iq80.leveldb.util.Slice;
 import java.util.Comparator;
 import java.util.Map.Entry;
 
+import static com.google.common.base.Preconditions.checkState;
+
 public final class SnapshotSeekingIterator extends AbstractSeekingIterator<Slice, Slice> {
     private final DbIterator iterator;
     private final SnapshotImpl snapshot;
     private final Comparator<Slice> userComparator;
+    private final MergeOperator mergeOperator;
+    private final RangeTombstones rangeTombstones;
+    // null when the database has no blob files
+    private final BlobFileCache blobFileCache;
 
     public SnapshotSeekingIterator(DbIterator iterator, SnapshotImpl snapshot, Comparator<Slice> userComparator) {
+        this(iterator, snapshot, userComparator, null, RangeTombstones.EMPTY);
+    }
+
+    public SnapshotSeekingIterator(DbIterator iterator, SnapshotImpl snapshot, Comparator<Slice> userComparator, MergeOperator mergeOperator, RangeTombstones rangeTombstones) {
+        this(iterator, snapshot, userComparator, mergeOperator, rangeTombstones, null);
+    }
+
+    public SnapshotSeekingIterator(DbIterator iterator, SnapshotImpl snapshot, Comparator<Slice> userComparator, MergeOperator mergeOperator, RangeTombstones rangeTombstones,
+            BlobFileCache blobFileCache) {
         this.iterator = iterator;
         this.snapshot = snapshot;
         this.userComparator = userComparator;
+        this.mergeOperator = mergeOperator;
+        this.rangeTombstones = rangeTombstones;
+        this.blobFileCache = blobFileCache;
         this.snapshot.getVersion().retain();
     }
 
@@ -60,11 +79,48 @@ public final class SnapshotSeekingIterator extends AbstractSeekingIterator<Slice
         }
 
         Entry<InternalKey, Slice> next = iterator.next();
+        Slice userKey = next.getKey().getUserKey();
+        Slice value = next.getValue();
+        if (next.getKey().getValueType() == ValueType.MERGE) {
+            value = mergeOperands(userKey, value);
+        } else if (next.getKey().getValueType() == ValueType.BLOB_INDEX) {
+            value = readBlob(value);
+        }
 
         // find the next user entry after the key we are about to return
-        findNextUserEntry(next.getKey().getUserKey());
+        findNextUserEntry(userKey);
 
-        return Maps.immutableEntry(next.getKey().getUserKey(), next.getValue());
+        return Maps.immutableEntry(userKey, value);
+    }
+
+    /**
+     * Folds the operand with the older entries of the key.  All of them are
+     * visible since the newest visible entry was an operand.
+     */
+    private Slice mergeOperands(Slice userKey, Slice operand) {
+        MergeContext mergeContext = new MergeContext(mergeOperator, userKey);
+        mergeContext.addOperand(operand);
+        while (iterator.hasNext() && userComparator.compare(iterator.peek().getKey().getUserKey(), userKey) == 0) {
+            Entry<InternalKey, Slice> entry = iterator.next();
+            ValueType valueType = entry.getKey().getValueType();
+            if (isCoveredByRangeTombstone(entry.getKey())) {
+                break;
+            } else if (valueType == ValueType.MERGE) {
+                mergeContext.addOperand(entry.getValue());
+            } else if (valueType == ValueType.VALUE) {
+                return mergeContext.fullMerge(entry.getValue());
+            } else if (valueType == ValueType.BLOB_INDEX) {
+                return mergeContext.fullMerge(readBlob(entry.getValue()));
+            } else {
+                break;
+            }
+        }
+        return mergeContext.fullMerge(null);
+    }
+
+    private Slice readBlob(Slice blobIndex) {
+        checkState(blobFileCache != null, "Found a blob reference but blob files are not readable");
+        return blobFileCache.get(blobIndex);
     }
 
     private void findNextUserEntry(Slice deletedKey) {
@@ -84,9 +140,9 @@ public final class SnapshotSeekingIterator extends AbstractSeekingIterator<Slice
             }
 
             // if the next entry is a deletion, skip all subsequent entries for that key
-            if (internalKey.getValueType() == ValueType.DELETION) {
+            if (internalKey.getValueType() == ValueType.DELETION || isCoveredByRangeTombstone(internalKey)) {
                 deletedKey = internalKey.getUserKey();
-            } else if (internalKey.getValueType() == ValueType.VALUE) {
+            } else if (internalKey.getValueType() == ValueType.VALUE || internalKey.getValueType() == ValueType.MERGE || internalKey.getValueType() == ValueType.BLOB_INDEX) {
                 // is this value masked by a prior deletion record?
                 if (deletedKey == null || userComparator.compare(internalKey.getUserKey(), deletedKey) > 0) {
                     return;
@@ -96,6 +152,13 @@ public final class SnapshotSeekingIterator extends AbstractSeekingIterator<Slice
         } while (iterator.hasNext());
     }
 
+    private boolean isCoveredByRangeTombstone(InternalKey internalKey) {
+        if (rangeTombstones.isEmpty()) {
+            return false;
+        }
+        return internalKey.getSequenceNumber() < rangeTombstones.maxCoveringSequence(internalKey.getUserKey(), snapshot.getLastSequence());
+    }
+
     @Override
     public String toString() {
         final StringBuilder sb = new StringBuilder();
@@ -18,19 +18,32 @@
 package org.iq80.leveldb.impl;
 
 import com.google.common.cache.*;
+import com.google.common.collect.Maps;
+import org.iq80.leveldb.table.BlockCache;
+import org.iq80.leveldb.table.BlockEntry;
 import org.iq80.leveldb.table.FileChannelTable;
+import org.iq80.leveldb.table.FilterPolicy;
+import org.iq80.leveldb.table.Footer;
 import org.iq80.leveldb.table.MMapTable;
+import org.iq80.leveldb.table.PlainTable;
 import org.iq80.leveldb.table.Table;
+import org.iq80.leveldb.table.TableBuilder;
+import org.iq80.leveldb.table.TableProperties;
 import org.iq80.leveldb.table.UserComparator;
 import org.iq80.leveldb.util.Closeables;
+import org.iq80.leveldb.util.DirectIoFileChannel;
 import org.iq80.leveldb.util.Finalizer;
 import org.iq80.leveldb.util.InternalTableIterator;
 import org.iq80.leveldb.util.Slice;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
 import java.util.concurrent.ExecutionException;
 
 import static java.util.Objects.requireNonNull;
@@ -39,8 +52,17 @@ public class TableCache {
     private final LoadingCache<Long, TableAndFile> cache;
     private final Finalizer<Table> finalizer = new Finalizer<>(1);
 
-    public TableCache(final File databaseDir, int tableCacheSize, final UserComparator userComparator, final boolean verifyChecksums) {
+    public TableCache(final File databaseDir, int tableCacheSize, final InternalKeyComparator internalKeyComparator, final boolean verifyChecksums, final BlockCache blockCache, final FilterPolicy filterPolicy) {
+        this(databaseDir, tableCacheSize, internalKeyComparator, verifyChecksums, blockCache, filterPolicy, false);
+    }
+
+    /**
+     * @param useDirectReads read the tables with direct I/O, bypassing the page cache
+     */
+    public TableCache(final File databaseDir, int tableCacheSize, final InternalKeyComparator internalKeyComparator, final boolean verifyChecksums, final BlockCache blockCache, final FilterPolicy filterPolicy,
+            final boolean useDirectReads) {
         requireNonNull(databaseDir, "databaseName is null");
+        final UserComparator userComparator = new InternalUserComparator(internalKeyComparator);
 
         cache = CacheBuilder.newBuilder()
                 .maximumSize(tableCacheSize)
@@ -55,27 +77,94 @@ public class TableCache {
                     @Override
                     public TableAndFile load(Long fileNumber)
                             throws IOException {
-                        return new TableAndFile(databaseDir, fileNumber, userComparator, verifyChecksums);
+                        return new TableAndFile(databaseDir, fileNumber, userComparator, internalKeyComparator.getUserComparator(), verifyChecksums, blockCache, filterPolicy, useDirectReads);
                     }
                 });
     }
 
     public InternalTableIterator newIterator(FileMetaData file) {
-        return newIterator(file.getNumber());
+        return newIterator(file, true);
+    }
+
+    /**
+     * @param fillCache whether the blocks read are added to the block cache
+     */
+    public InternalTableIterator newIterator(FileMetaData file, boolean fillCache) {
+        return new InternalTableIterator(getTableAndFile(file).getTable().iterator(fillCache));
     }
 
     public InternalTableIterator newIterator(long number) {
         return new InternalTableIterator(getTable(number).iterator());
     }
 
+    /**
+     * Returns the first entry at or after the key in the table, or null if the table
+     * can not contain the user key of the specified key.
+     */
+    public Entry<InternalKey, Slice> get(FileMetaData file, InternalKey key) {
+        BlockEntry entry = getTableAndFile(file).getTable().get(key.encode());
+        if (entry == null) {
+            return null;
+        }
+        return Maps.immutableEntry(new InternalKey(entry.getKey()), entry.getValue());
+    }
+
+    /**
+     * Like {@link #get(FileMetaData, InternalKey)} but without any disk I/O, see
+     * {@link Table#getIfCached(Slice)}.  A table that is not open counts as not cached.
+     */
+    public BlockEntry getIfCached(FileMetaData file, InternalKey key) {
+        TableAndFile tableAndFile = cache.getIfPresent(file.getNumber());
+        if (tableAndFile == null) {
+            return Table.NOT_CACHED;
+        }
+        keepRangeTombstones(file, tableAndFile);
+        return tableAndFile.getTable().getIfCached(key.encode());
+    }
+
+    /**
+     * Returns the range tombstones stored in the table.  They are kept with the file
+     * the first time the table is opened through it, after which the table is not
+     * needed for them any more.
+     */
+    public RangeTombstones getRangeTombstones(FileMetaData file) {
+        RangeTombstones rangeTombstones = file.getRangeTombstones();
+        if (rangeTombstones == null) {
+            rangeTombstones = getTableAndFile(file).getRangeTombstones();
+        }
+        return rangeTombstones;
+    }
+
+    /**
+     * Returns the properties of the table, or null if it was written without them.
+     */
+    public TableProperties getTableProperties(FileMetaData file) {
+        return getTableAndFile(file).getTable().getProperties();
+    }
+
     public long getApproximateOffsetOf(FileMetaData file, Slice key) {
-        return getTable(file.getNumber()).getApproximateOffsetOf(key);
+        return getTableAndFile(file).getTable().getApproximateOffsetOf(key);
     }
 
     private Table getTable(long number) {
-        Table table;
+        return getTableAndFile(number).getTable();
+    }
+
+    private TableAndFile getTableAndFile(FileMetaData file) {
+        TableAndFile tableAndFile = getTableAndFile(file.getNumber());
+        keepRangeTombstones(file, tableAndFile);
+        return tableAndFile;
+    }
+
+    private static void keepRangeTombstones(FileMetaData file, TableAndFile tableAndFile) {
+        if (file.getRangeTombstones() == null) {
+            file.setRangeTombstones(tableAndFile.getRangeTombstones());
+        }
+    }
+
+    private TableAndFile getTableAndFile(long number) {
         try {
-            table = cache.get(number).getTable();
+            return cache.get(number);
         } catch (ExecutionException e) {
             Throwable cause = e;
             if (e.getCause() != null) {
@@ -83,7 +172,6 @@ public class TableCache {
             }
             throw new RuntimeException("Could not open table " + number, cause);
         }
-        return table;
     }
 
     public void close() {
@@ -97,30 +185,54 @@ public class TableCache {
 
     private static final class TableAndFile {
         private final Table table;
+        private final RangeTombstones rangeTombstones;
 
-        private TableAndFile(File databaseDir, long fileNumber, UserComparator userComparator, boolean verifyChecksums)
+        private TableAndFile(File databaseDir, long fileNumber, UserComparator userComparator, UserComparator userKeyComparator, boolean verifyChecksums, BlockCache blockCache, FilterPolicy filterPolicy,
+                boolean useDirectReads)
                 throws IOException {
             String tableFileName = Filename.tableFileName(fileNumber);
             File tableFile = new File(databaseDir, tableFileName);
-            FileInputStream fis = null;
+            Closeable file = null;
             try {
-                fis = new FileInputStream(tableFile);
-                FileChannel fileChannel = fis.getChannel();
-                if (Iq80DBFactory.USE_MMAP) {
-                    table = new MMapTable(tableFile.getAbsolutePath(), fileChannel, userComparator, verifyChecksums);
+                FileChannel fileChannel;
+                if (useDirectReads) {
+                    fileChannel = DirectIoFileChannel.openForRead(tableFile);
+                    file = fileChannel;
+                } else {
+                    FileInputStream fis = new FileInputStream(tableFile);
+                    file = fis;
+                    fileChannel = fis.getChannel();
+                }
+                if (Footer.readMagicNumber(fileChannel) == TableBuilder.PLAIN_TABLE_MAGIC_NUMBER) {
+                    // plain tables are read into memory at once, the file is not needed afterwards
+                    table = new PlainTable(tableFile.getAbsolutePath(), fileChannel, userComparator, verifyChecksums);
+                    Closeables.closeQuietly(file);
+                } else if (Iq80DBFactory.USE_MMAP && !useDirectReads) {
+                    // a mapping would be read through the page cache
+                    table = new MMapTable(tableFile.getAbsolutePath(), fileChannel, userComparator, verifyChecksums, blockCache, fileNumber, filterPolicy);
                     // We can close the channel and input stream as the mapping does not need them
-                    Closeables.closeQuietly(fis);
+                    Closeables.closeQuietly(file);
                 } else {
-                    table = new FileChannelTable(tableFile.getAbsolutePath(), fileChannel, userComparator, verifyChecksums);
+                    table = new FileChannelTable(tableFile.getAbsolutePath(), fileChannel, userComparator, verifyChecksums, blockCache, fileNumber, filterPolicy);
                 }
             } catch (IOException ioe) {
-                Closeables.closeQuietly(fis);
+                Closeables.closeQuietly(file);
                 throw ioe;
             }
+
+            List<Entry<InternalKey, Slice>> tombstones = new ArrayList<>();
+            for (BlockEntry entry : table.getRangeTombstones()) {
+                tombstones.add(Maps.immutableEntry(new InternalKey(entry.getKey()), entry.getValue()));
+            }
+            rangeTombstones = RangeTombstones.fragment(userKeyComparator, tombstones);
         }
 
         public Table getTable() {
             return table;
         }
+
+        public RangeTombstones getRangeTombstones() {
+            return rangeTombstones;
+        }
     }
 }
@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.RateLimiter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Token bucket refilled every 100ms with a tenth of the rate.  A request is let
+ * through as soon as the bucket holds any tokens; large requests take the bucket
+ * into debt that the following refills pay off, so the average rate holds without
+ * splitting writes.  Compactions wait while a flush is waiting for tokens.
+ * <p>
+ * An auto tuned limiter treats the share of refills that found the bucket drained
+ * as the backlog of background work: the rate is raised while nearly every refill
+ * is drained and lowered while few are, staying between 5% and 100% of the
+ * configured rate.
+ */
+public class TokenBucketRateLimiter
+        implements RateLimiter {
+    private static final long REFILL_PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int REFILLS_PER_SECOND = (int) (TimeUnit.SECONDS.toNanos(1) / REFILL_PERIOD_NANOS);
+    // the rate is tuned every 10 seconds
+    private static final int TUNE_REFILLS = 100;
+
+    private final boolean autoTuned;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition refilled = lock.newCondition();
+    private final long[] totalBytesThrough = new long[Priority.values().length];
+
+    private long maxBytesPerSecond;
+    private long bytesPerSecond;
+    private long available;
+    private long nextRefillNanos;
+    private int waitingHighPriority;
+
+    private boolean drained;
+    private int refills;
+    private int drainedRefills;
+
+    public TokenBucketRateLimiter(long bytesPerSecond) {
+        this(bytesPerSecond, false);
+    }
+
+    public TokenBucketRateLimiter(long bytesPerSecond, boolean autoTuned) {
+        checkArgument(bytesPerSecond > 0, "bytesPerSecond must be positive");
+        this.maxBytesPerSecond = bytesPerSecond;
+        this.bytesPerSecond = bytesPerSecond;
+        this.autoTuned = autoTuned;
+        this.available = bytesPerRefill();
+        this.nextRefillNanos = System.nanoTime() + REFILL_PERIOD_NANOS;
+    }
+
+    @Override
+    public void request(long bytes, Priority priority) {
+        checkArgument(bytes >= 0, "bytes is negative");
+        requireNonNull(priority, "priority is null");
+        boolean highPriority = priority == Priority.HIGH;
+
+        lock.lock();
+        try {
+            if (highPriority) {
+                waitingHighPriority++;
+            }
+            try {
+                while (true) {
+                    refill();
+                    if (available > 0 && (highPriority || waitingHighPriority == 0)) {
+                        break;
+                    }
+                    drained = true;
+                    try {
+                        refilled.awaitNanos(nextRefillNanos - System.nanoTime());
+                    } catch (InterruptedException e) {
+                        // stop throttling, the thread is asked to finish
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                available -= bytes;
+                totalBytesThrough[priority.ordinal()] += bytes;
+            } finally {
+                if (highPriority) {
+                    waitingHighPriority--;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getBytesPerSecond() {
+        lock.lock();
+        try {
+            return bytesPerSecond;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void setBytesPerSecond(long bytesPerSecond) {
+        checkArgument(bytesPerSecond > 0, "bytesPerSecond must be positive");
+        lock.lock();
+        try {
+            this.maxBytesPerSecond = bytesPerSecond;
+            this.bytesPerSecond = bytesPerSecond;
+            refilled.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getTotalBytesThrough(Priority priority) {
+        lock.lock();
+        try {
+            return totalBytesThrough[priority.ordinal()];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long bytesPerRefill() {
+        return Math.max(1, bytesPerSecond / REFILLS_PER_SECOND);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (now - nextRefillNanos < 0) {
+            return;
+        }
+        long periods = (now - nextRefillNanos) / REFILL_PERIOD_NANOS + 1;
+        nextRefillNanos += periods * REFILL_PERIOD_NANOS;
+
+        // unused tokens do not pile up beyond one refill
+        long bytesPerRefill = bytesPerRefill();
+        available = Math.min(available + periods * bytesPerRefill, bytesPerRefill);
+        refilled.signalAll();
+
+        if (autoTuned) {
+            tune();
+        }
+    }
+
+    private void tune() {
+        refills++;
+        if (drained) {
+            drainedRefills++;
+            drained = false;
+        }
+        if (refills < TUNE_REFILLS) {
+            return;
+        }
+
+        int drainedPercent = drainedRefills * 100 / refills;
+        if (drainedPercent > 90) {
+            bytesPerSecond = Math.min(maxBytesPerSecond, bytesPerSecond + Math.max(1, bytesPerSecond / 20));
+        } else if (drainedPercent < 50) {
+            bytesPerSecond = Math.max(Math.max(1, maxBytesPerSecond / 20), bytesPerSecond - bytesPerSecond / 20);
+        }
+        refills = 0;
+        drainedRefills = 0;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.impl;
+
+import org.iq80.leveldb.CompactionFilter;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
+
+/**
+ * Removes entries whose value ends in a write timestamp older than the time to
+ * live.  Values must be written with {@link #appendTimestamp(byte[])} and read
+ * back with {@link #stripTimestamp(byte[])}; expired entries stay readable until
+ * a compaction reaches them.
+ */
+public class TtlCompactionFilter
+        implements CompactionFilter {
+    private final long ttlMillis;
+    private final LongSupplier clock;
+
+    public TtlCompactionFilter(long ttl, TimeUnit unit) {
+        this(ttl, unit, System::currentTimeMillis);
+    }
+
+    TtlCompactionFilter(long ttl, TimeUnit unit, LongSupplier clock) {
+        checkArgument(ttl > 0, "ttl must be positive");
+        requireNonNull(unit, "unit is null");
+        this.ttlMillis = unit.toMillis(ttl);
+        this.clock = requireNonNull(clock, "clock is null");
+    }
+
+    /**
+     * Returns a copy of the value with the current time appended.
+     */
+    public static byte[] appendTimestamp(byte[] value) {
+        return appendTimestamp(value, System.currentTimeMillis());
+    }
+
+    static byte[] appendTimestamp(byte[] value, long timestamp) {
+        byte[] result = Arrays.copyOf(value, value.length + SIZE_OF_LONG);
+        for (int i = 0; i < SIZE_OF_LONG; i++) {
+            result[value.length + i] = (byte) (timestamp >>> (i * 8));
+        }
+        return result;
+    }
+
+    public static byte[] stripTimestamp(byte[] value) {
+        checkArgument(value.length >= SIZE_OF_LONG, "value has no timestamp");
+        return Arrays.copyOf(value, value.length - SIZE_OF_LONG);
+    }
+
+    public static long getTimestamp(byte[] value) {
+        checkArgument(value.length >= SIZE_OF_LONG, "value has no timestamp");
+        long timestamp = 0;
+        for (int i = SIZE_OF_LONG - 1; i >= 0; i--) {
+            timestamp = (timestamp << 8) | (value[value.length - SIZE_OF_LONG + i] & 0xFF);
+        }
+        return timestamp;
+    }
+
+    @Override
+    public String name() {
+        return "leveldb.TtlCompactionFilter";
+    }
+
+    @Override
+    public byte[] filter(int level, byte[] key, byte[] existingValue) {
+        if (existingValue.length < SIZE_OF_LONG) {
+            // not written with a timestamp, never expires
+            return existingValue;
+        }
+        if (clock.getAsLong() - getTimestamp(existingValue) > ttlMillis) {
+            return null;
+        }
+        return existingValue;
+    }
+}
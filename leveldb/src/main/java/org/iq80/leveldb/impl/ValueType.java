@@ -21,7 +21,13 @@ public enum ValueType {
     //deletion 删除 0
     DELETION(0x00),
     // 1
-    VALUE(0x01);
+    VALUE(0x01),
+    // 2, an operand for the merge operator
+    MERGE(0x02),
+    // 17, a reference to a value in a blob file, see BlobIndex
+    BLOB_INDEX(0x11),
+    // 15, a range tombstone: the key is the start of the range and the value its exclusive end
+    RANGE_DELETION(0x0F);
 
     private final int persistentId;
 
@@ -35,6 +41,12 @@ public enum ValueType {
                 return DELETION;
             case 1:
                 return VALUE;
+            case 2:
+                return MERGE;
+            case 15:
+                return RANGE_DELETION;
+            case 17:
+                return BLOB_INDEX;
             default:
                 throw new IllegalArgumentException("Unknown persistentId " + persistentId);
         }
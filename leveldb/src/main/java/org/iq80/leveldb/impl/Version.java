@@ -19,13 +19,18 @@ package org.iq80.leveldb.impl;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableList.Builder;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Multimap;
+import org.iq80.leveldb.table.BlockEntry;
+import org.iq80.leveldb.table.Table;
 import org.iq80.leveldb.util.*;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.google.common.base.Preconditions.checkArgument;
@@ -35,7 +40,6 @@ import static java.util.Objects.requireNonNull;
 import static org.iq80.leveldb.impl.DbConstants.MAX_MEM_COMPACT_LEVEL;
 import static org.iq80.leveldb.impl.DbConstants.NUM_LEVELS;
 import static org.iq80.leveldb.impl.SequenceNumber.MAX_SEQUENCE_NUMBER;
-import static org.iq80.leveldb.impl.VersionSet.MAX_GRAND_PARENT_OVERLAP_BYTES;
 
 // todo this class should be immutable
 
@@ -63,17 +67,26 @@ public class Version implements SeekingIterable<InternalKey, Slice> {
     private FileMetaData fileToCompact;
     //file要合并_的 level
     private int fileToCompactLevel;
+    // file whose share of deletions is over Options.deletionCompactionRatio
+    private FileMetaData deletionCompactionFile;
+    private int deletionCompactionLevel;
+
+    // lazily built from all files, the set of files never changes
+    private volatile RangeTombstones rangeTombstones;
+
+    // blob files holding values referenced by the tables, by file number
+    private Map<Long, BlobFileMetaData> blobFiles = ImmutableMap.of();
 
     public Version(VersionSet versionSet) {
         this.versionSet = versionSet;
         checkArgument(NUM_LEVELS > 1, "levels must be at least 2");
 
-        this.level0 = new Level0(new ArrayList<FileMetaData>(), getTableCache(), getInternalKeyComparator());
+        this.level0 = new Level0(new ArrayList<FileMetaData>(), getTableCache(), versionSet.getRowCache(), getInternalKeyComparator());
 
         Builder<Level> builder = ImmutableList.builder();
         for (int i = 1; i < NUM_LEVELS; i++) {
             List<FileMetaData> files = new ArrayList<>();
-            builder.add(new Level(i, files, getTableCache(), getInternalKeyComparator()));
+            builder.add(new Level(i, files, getTableCache(), versionSet.getRowCache(), getInternalKeyComparator()));
         }
         this.levels = builder.build();
 
@@ -106,6 +119,29 @@ public class Version implements SeekingIterable<InternalKey, Slice> {
         }
     }
 
+    /**
+     * Returns the range tombstones of all files in this version.  The tables are
+     * only opened for files whose tombstones are not known yet, which are the
+     * files recovered from the manifest.
+     */
+    public RangeTombstones getRangeTombstones() {
+        RangeTombstones result = rangeTombstones;
+        if (result == null) {
+            List<Entry<InternalKey, Slice>> tombstones = new ArrayList<>();
+            for (FileMetaData file : level0.getFiles()) {
+                tombstones.addAll(getTableCache().getRangeTombstones(file).getTombstones());
+            }
+            for (Level level : levels) {
+                for (FileMetaData file : level.getFiles()) {
+                    tombstones.addAll(getTableCache().getRangeTombstones(file).getTombstones());
+                }
+            }
+            result = RangeTombstones.fragment(getInternalKeyComparator().getUserComparator(), tombstones);
+            rangeTombstones = result;
+        }
+        return result;
+    }
+
     private TableCache getTableCache() {
         return versionSet.getTableCache();
     }
@@ -122,6 +158,19 @@ public class Version implements SeekingIterable<InternalKey, Slice> {
         this.compactionLevel = compactionLevel;
     }
 
+    public synchronized FileMetaData getDeletionCompactionFile() {
+        return deletionCompactionFile;
+    }
+
+    public synchronized int getDeletionCompactionLevel() {
+        return deletionCompactionLevel;
+    }
+
+    public synchronized void setDeletionCompactionFile(int level, FileMetaData file) {
+        this.deletionCompactionLevel = level;
+        this.deletionCompactionFile = file;
+    }
+
     public synchronized double getCompactionScore() {
         return compactionScore;
     }
@@ -157,14 +206,18 @@ public class Version implements SeekingIterable<InternalKey, Slice> {
     }
 
     public LookupResult get(LookupKey key) {
+        return get(key, new MergeContext(null, key.getUserKey()));
+    }
+
+    public LookupResult get(LookupKey key, MergeContext mergeContext) {
         // We can search level-by-level since entries never hop across
         // levels.  Therefore we are guaranteed that if we find data
         // in an smaller level, later levels are irrelevant.
         ReadStats readStats = new ReadStats();
-        LookupResult lookupResult = level0.get(key, readStats);
+        LookupResult lookupResult = level0.get(key, readStats, mergeContext);
         if (lookupResult == null) {
             for (Level level : levels) {
-                lookupResult = level.get(key, readStats);
+                lookupResult = level.get(key, readStats, mergeContext);
                 if (lookupResult != null) {
                     break;
                 }
@@ -174,8 +227,50 @@ public class Version implements SeekingIterable<InternalKey, Slice> {
         return lookupResult;
     }
 
+    /**
+     * Memory only variant of {@link #get(LookupKey)} that never reads a table file.
+     * Returns null if no table can contain the key, a deleted result if the newest
+     * entry found is a deletion, and otherwise an ok result whose value is null
+     * when finding it would require reading a block or a blob file.  Merge operands
+     * are not followed, a cached operand counts as a possible match.
+     */
+    public LookupResult keyMayExist(LookupKey key) {
+        return keyMayExist(key, new MergeContext(null, key.getUserKey()));
+    }
+
+    public LookupResult keyMayExist(LookupKey key, MergeContext mergeContext) {
+        List<FileMetaData> files = new ArrayList<>(level0.getFilesForKey(key));
+        for (Level level : levels) {
+            files.addAll(level.getFilesForKey(key));
+        }
+
+        for (FileMetaData file : files) {
+            BlockEntry entry = getTableCache().getIfCached(file, key.getInternalKey());
+            if (entry == Table.NOT_CACHED) {
+                // this table may hold the newest entry, so older tables can not answer either
+                return LookupResult.ok(key, null);
+            }
+            // finding the table open kept its range tombstones with the file
+            mergeContext.addRangeTombstones(file.getRangeTombstones(), key);
+            if (entry != null) {
+                InternalKey internalKey = new InternalKey(entry.getKey());
+                if (key.getUserKey().equals(internalKey.getUserKey())) {
+                    if (internalKey.getValueType() == ValueType.MERGE || internalKey.getValueType() == ValueType.BLOB_INDEX) {
+                        return LookupResult.ok(key, null);
+                    }
+                    return mergeContext.complete(key, internalKey, entry.getValue());
+                }
+            }
+        }
+        return null;
+    }
+
     int pickLevelForMemTableOutput(Slice smallestUserKey, Slice largestUserKey) {
         int level = 0;
+        if (!versionSet.canPushMemTableOutput()) {
+            // levels above the base level must stay empty
+            return level;
+        }
         if (!overlapInLevel(0, smallestUserKey, largestUserKey)) {
             // Push to next level if there is no overlap in next level,
             // and the #bytes overlapping in the level after that are limited.
@@ -186,7 +281,7 @@ public class Version implements SeekingIterable<InternalKey, Slice> {
                     break;
                 }
                 long sum = Compaction.totalFileSize(versionSet.getOverlappingInputs(level + 2, start, limit));
-                if (sum > MAX_GRAND_PARENT_OVERLAP_BYTES) {
+                if (sum > versionSet.maxGrandParentOverlapBytes(level + 1)) {
                     break;
                 }
                 level++;
@@ -238,6 +333,14 @@ public class Version implements SeekingIterable<InternalKey, Slice> {
         }
     }
 
+    public Map<Long, BlobFileMetaData> getBlobFiles() {
+        return blobFiles;
+    }
+
+    public void setBlobFiles(Map<Long, BlobFileMetaData> blobFiles) {
+        this.blobFiles = ImmutableMap.copyOf(blobFiles);
+    }
+
     public void addFile(int level, FileMetaData fileMetaData) {
         if (level == 0) {
             level0.addFile(fileMetaData);
@@ -26,6 +26,7 @@ import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.SliceInput;
 import org.iq80.leveldb.util.VariableLengthQuantity;
 
+import java.util.Collection;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -40,6 +41,9 @@ public class VersionEdit {
     private final Multimap<Integer, FileMetaData> newFiles = ArrayListMultimap.create();
     //要删除的FileMetaData，键是level,  值是文件编号
     private final Multimap<Integer, Long> deletedFiles = ArrayListMultimap.create();
+    // blob files written by the edit, and the values of older ones it dropped
+    private final Map<Long, BlobFileMetaData> newBlobFiles = new TreeMap<>();
+    private final Map<Long, BlobGarbage> blobGarbage = new TreeMap<>();
     private String comparatorName;
     private Long logNumber;
     private Long nextFileNumber;
@@ -136,6 +140,21 @@ public class VersionEdit {
         newFiles.putAll(files);
     }
 
+    /**
+     * Attaches stats to a file added earlier in this edit.
+     */
+    public void setFileStats(long fileNumber, FileStats stats) {
+        for (Map.Entry<Integer, FileMetaData> entry : newFiles.entries()) {
+            FileMetaData file = entry.getValue();
+            if (file.getNumber() == fileNumber) {
+                newFiles.remove(entry.getKey(), file);
+                newFiles.put(entry.getKey(), new FileMetaData(file.getNumber(), file.getFileSize(), file.getSmallest(), file.getLargest(), stats));
+                return;
+            }
+        }
+        throw new IllegalArgumentException(String.format("File %d is not added by the edit", fileNumber));
+    }
+
     public Multimap<Integer, Long> getDeletedFiles() {
         return ImmutableMultimap.copyOf(deletedFiles);
     }
@@ -145,9 +164,50 @@ public class VersionEdit {
         deletedFiles.put(level, fileNumber);
     }
 
+    public Map<Long, BlobFileMetaData> getNewBlobFiles() {
+        return ImmutableMap.copyOf(newBlobFiles);
+    }
+
+    public void addBlobFile(BlobFileMetaData blobFile) {
+        newBlobFiles.put(blobFile.getNumber(), blobFile);
+    }
+
+    public void addBlobFiles(Collection<BlobFileMetaData> blobFiles) {
+        for (BlobFileMetaData blobFile : blobFiles) {
+            addBlobFile(blobFile);
+        }
+    }
+
+    public Map<Long, BlobGarbage> getBlobGarbage() {
+        return ImmutableMap.copyOf(blobGarbage);
+    }
+
+    /**
+     * Records that values of the blob file are no longer referenced.
+     */
+    public void addBlobGarbage(long fileNumber, long count, long bytes) {
+        BlobGarbage garbage = blobGarbage.get(fileNumber);
+        if (garbage != null) {
+            count += garbage.getCount();
+            bytes += garbage.getBytes();
+        }
+        blobGarbage.put(fileNumber, new BlobGarbage(count, bytes));
+    }
+
     public Slice encode() {
+        return encode(false);
+    }
+
+    /**
+     * @param fileStats whether to write the stats of the new files, which the
+     * C++ implementation can not read
+     */
+    public Slice encode(boolean fileStats) {
         DynamicSliceOutput dynamicSliceOutput = new DynamicSliceOutput(4096);
         for (VersionEditTag versionEditTag : VersionEditTag.values()) {
+            if (versionEditTag == VersionEditTag.FILE_STATS && !fileStats) {
+                continue;
+            }
             versionEditTag.writeValue(dynamicSliceOutput, this);
         }
         return dynamicSliceOutput.slice();
@@ -164,7 +224,32 @@ public class VersionEdit {
         sb.append(", compactPointers=").append(compactPointers);
         sb.append(", newFiles=").append(newFiles);
         sb.append(", deletedFiles=").append(deletedFiles);
+        sb.append(", newBlobFiles=").append(newBlobFiles);
+        sb.append(", blobGarbage=").append(blobGarbage);
         sb.append('}');
         return sb.toString();
     }
+
+    public static final class BlobGarbage {
+        private final long count;
+        private final long bytes;
+
+        public BlobGarbage(long count, long bytes) {
+            this.count = count;
+            this.bytes = bytes;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            return "BlobGarbage{count=" + count + ", bytes=" + bytes + '}';
+        }
+    }
 }
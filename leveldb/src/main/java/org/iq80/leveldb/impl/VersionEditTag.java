@@ -217,6 +217,87 @@ public enum VersionEditTag {
                 writeLengthPrefixedBytes(sliceOutput, fileMetaData.getLargest().encode());
             }
         }
+    },
+
+    // stats of a file added by the same edit, unknown to the C++ implementation and
+    // therefore only written when enabled by Options.persistFileStats
+    FILE_STATS(100) {
+        @Override
+        public void readValue(SliceInput sliceInput, VersionEdit versionEdit) {
+            long fileNumber = VariableLengthQuantity.readVariableLengthLong(sliceInput);
+            long entries = VariableLengthQuantity.readVariableLengthLong(sliceInput);
+            long deletions = VariableLengthQuantity.readVariableLengthLong(sliceInput);
+            long rawKeySize = VariableLengthQuantity.readVariableLengthLong(sliceInput);
+            long rawValueSize = VariableLengthQuantity.readVariableLengthLong(sliceInput);
+            long largestSequence = VariableLengthQuantity.readVariableLengthLong(sliceInput);
+
+            versionEdit.setFileStats(fileNumber, new FileStats(entries, deletions, rawKeySize, rawValueSize, largestSequence));
+        }
+
+        @Override
+        public void writeValue(SliceOutput sliceOutput, VersionEdit versionEdit) {
+            for (FileMetaData fileMetaData : versionEdit.getNewFiles().values()) {
+                FileStats stats = fileMetaData.getStats();
+                if (!stats.isKnown()) {
+                    continue;
+                }
+                VariableLengthQuantity.writeVariableLengthInt(getPersistentId(), sliceOutput);
+                VariableLengthQuantity.writeVariableLengthLong(fileMetaData.getNumber(), sliceOutput);
+                VariableLengthQuantity.writeVariableLengthLong(stats.getEntries(), sliceOutput);
+                VariableLengthQuantity.writeVariableLengthLong(stats.getDeletions(), sliceOutput);
+                VariableLengthQuantity.writeVariableLengthLong(stats.getRawKeySize(), sliceOutput);
+                VariableLengthQuantity.writeVariableLengthLong(stats.getRawValueSize(), sliceOutput);
+                VariableLengthQuantity.writeVariableLengthLong(stats.getLargestSequence(), sliceOutput);
+            }
+        }
+    },
+
+    // blob file, only written by databases with Options.enableBlobFiles
+    BLOB_FILE(101) {
+        @Override
+        public void readValue(SliceInput sliceInput, VersionEdit versionEdit) {
+            long fileNumber = VariableLengthQuantity.readVariableLengthLong(sliceInput);
+            long blobCount = VariableLengthQuantity.readVariableLengthLong(sliceInput);
+            long blobBytes = VariableLengthQuantity.readVariableLengthLong(sliceInput);
+            long garbageCount = VariableLengthQuantity.readVariableLengthLong(sliceInput);
+            long garbageBytes = VariableLengthQuantity.readVariableLengthLong(sliceInput);
+
+            versionEdit.addBlobFile(new BlobFileMetaData(fileNumber, blobCount, blobBytes, garbageCount, garbageBytes));
+        }
+
+        @Override
+        public void writeValue(SliceOutput sliceOutput, VersionEdit versionEdit) {
+            for (BlobFileMetaData blobFile : versionEdit.getNewBlobFiles().values()) {
+                VariableLengthQuantity.writeVariableLengthInt(getPersistentId(), sliceOutput);
+                VariableLengthQuantity.writeVariableLengthLong(blobFile.getNumber(), sliceOutput);
+                VariableLengthQuantity.writeVariableLengthLong(blobFile.getBlobCount(), sliceOutput);
+                VariableLengthQuantity.writeVariableLengthLong(blobFile.getBlobBytes(), sliceOutput);
+                VariableLengthQuantity.writeVariableLengthLong(blobFile.getGarbageCount(), sliceOutput);
+                VariableLengthQuantity.writeVariableLengthLong(blobFile.getGarbageBytes(), sliceOutput);
+            }
+        }
+    },
+
+    // values of a blob file that are no longer referenced, must follow BLOB_FILE
+    BLOB_GARBAGE(102) {
+        @Override
+        public void readValue(SliceInput sliceInput, VersionEdit versionEdit) {
+            long fileNumber = VariableLengthQuantity.readVariableLengthLong(sliceInput);
+            long count = VariableLengthQuantity.readVariableLengthLong(sliceInput);
+            long bytes = VariableLengthQuantity.readVariableLengthLong(sliceInput);
+
+            versionEdit.addBlobGarbage(fileNumber, count, bytes);
+        }
+
+        @Override
+        public void writeValue(SliceOutput sliceOutput, VersionEdit versionEdit) {
+            for (Entry<Long, VersionEdit.BlobGarbage> entry : versionEdit.getBlobGarbage().entrySet()) {
+                VariableLengthQuantity.writeVariableLengthInt(getPersistentId(), sliceOutput);
+                VariableLengthQuantity.writeVariableLengthLong(entry.getKey(), sliceOutput);
+                VariableLengthQuantity.writeVariableLengthLong(entry.getValue().getCount(), sliceOutput);
+                VariableLengthQuantity.writeVariableLengthLong(entry.getValue().getBytes(), sliceOutput);
+            }
+        }
     };
 
     private final int persistentId;
@@ -20,9 +20,15 @@ package org.iq80.leveldb.impl;
 import com.google.common.base.Joiner;
 import com.google.common.collect.*;
 import com.google.common.io.Files;
+import org.iq80.leveldb.CompactionPriority;
+import org.iq80.leveldb.CompactionStyle;
+import org.iq80.leveldb.CompressionType;
+import org.iq80.leveldb.Options;
+import org.iq80.leveldb.table.TableProperties;
 import org.iq80.leveldb.table.UserComparator;
 import org.iq80.leveldb.util.InternalIterator;
 import org.iq80.leveldb.util.Level0Iterator;
+import org.iq80.leveldb.util.LevelIterator;
 import org.iq80.leveldb.util.MergingIterator;
 import org.iq80.leveldb.util.Slice;
 
@@ -38,6 +44,7 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
+import static org.iq80.leveldb.impl.DbConstants.L0_SLOWDOWN_WRITES_TRIGGER;
 import static org.iq80.leveldb.impl.DbConstants.NUM_LEVELS;
 import static org.iq80.leveldb.impl.LogMonitors.throwExceptionMonitor;
 
@@ -49,19 +56,39 @@ import static org.iq80.leveldb.impl.LogMonitors.throwExceptionMonitor;
 public class VersionSet implements SeekingIterable<InternalKey, Slice> {
     //target_file_size ： 目标文件大小
     public static final int TARGET_FILE_SIZE = 2 * 1048576;
-    // Maximum bytes of overlaps in grandparent (i.e., level+2) before we stop building a single file in a level.level+1 compaction.
-    // 在我们停止在关卡中创建单个文件之前，祖父母(即关卡+2)中重叠的最大字节数。级+ 1压实。
-    //max_grand_parent_overlap_bytes ：最大父级重叠字节数
-    public static final long MAX_GRAND_PARENT_OVERLAP_BYTES = 10 * TARGET_FILE_SIZE;
     //l0_compaction_trigger：level0比较触发器
     private static final int L0_COMPACTION_TRIGGER = 4;
+    // a level-0 to level-0 compaction must merge at least this many files
+    private static final int MIN_INTRA_L0_COMPACTION_FILES = 4;
+    // tables opened on recovery for the stats the manifest lacks, so large databases still open quickly
+    private static final int MAX_FILE_STATS_TO_LOAD = 20;
     //下一个文件编号
     private final AtomicLong nextFileNumber = new AtomicLong(2);
     //
     private final Map<Version, Object> activeVersions = new MapMaker().weakKeys().makeMap();
     private final File databaseDir;
     private final TableCache tableCache;
+    // optional, null when disabled
+    private final RowCache rowCache;
     private final InternalKeyComparator internalKeyComparator;
+    private final long maxBytesForLevelBase;
+    private final double maxBytesForLevelMultiplier;
+    private final long targetFileSize;
+    private final int targetFileSizeMultiplier;
+    private final boolean dynamicLevelBytes;
+    private final CompactionStyle compactionStyle;
+    private final CompactionPriority compactionPriority;
+    private final double deletionCompactionRatio;
+    private final boolean persistFileStats;
+    private final int universalSizeRatio;
+    private final int universalMinMergeWidth;
+    private final int universalMaxSizeAmplificationPercent;
+    private final CompressionType compressionType;
+    private final List<CompressionType> compressionPerLevel;
+    private final CompressionType bottommostCompressionType;
+    // level size limits of the current version, levels above the base level are kept empty
+    private final long[] levelMaxBytes = new long[NUM_LEVELS];
+    private int baseLevel = 1;
     // 为了尽量均匀 compact 每个 level，所以会将这一次 compact 的 end-key 作为下一次 compact 的 start-key。compactor_pointer_就保存着每个 level
     // 下一次 compact 的 start-key.除了 current_外的 Version，并不会做 compact，所以这个值并不保存在 Version 中。
     private final Map<Integer, InternalKey> compactPointers = new TreeMap<>();
@@ -77,12 +104,29 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice> {
     private long prevLogNumber;
     private LogWriter descriptorLog;
 
-    public VersionSet(File databaseDir, TableCache tableCache, InternalKeyComparator internalKeyComparator)
+    public VersionSet(Options options, File databaseDir, TableCache tableCache, RowCache rowCache, InternalKeyComparator internalKeyComparator)
             throws IOException {
         this.databaseDir = databaseDir;
         this.tableCache = tableCache;
+        this.rowCache = rowCache;
         this.internalKeyComparator = internalKeyComparator;
+        this.maxBytesForLevelBase = options.maxBytesForLevelBase();
+        this.maxBytesForLevelMultiplier = options.maxBytesForLevelMultiplier();
+        this.targetFileSize = options.targetFileSize();
+        this.targetFileSizeMultiplier = options.targetFileSizeMultiplier();
+        this.dynamicLevelBytes = options.dynamicLevelBytes();
+        this.compactionStyle = options.compactionStyle();
+        this.compactionPriority = options.compactionPriority();
+        this.deletionCompactionRatio = options.deletionCompactionRatio();
+        this.persistFileStats = options.persistFileStats();
+        this.universalSizeRatio = options.universalSizeRatio();
+        this.universalMinMergeWidth = options.universalMinMergeWidth();
+        this.universalMaxSizeAmplificationPercent = options.universalMaxSizeAmplificationPercent();
+        this.compressionType = options.compressionType();
+        this.compressionPerLevel = options.compressionPerLevel();
+        this.bottommostCompressionType = options.bottommostCompressionType();
         appendVersion(new Version(this));
+        calculateLevelMaxBytes(current);
 
         initializeIfNeeded();
     }
@@ -96,19 +140,67 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice> {
         return null;
     }
 
-    private static double maxBytesForLevel(int level) {
-        // Note: the result for level zero is not really used since we set
-        // the level-0 compaction threshold based on number of files.
-        double result = 10 * 1048576.0;  // Result for both level-0 and level-1
-        while (level > 1) {
-            result *= 10;
-            level--;
+    /**
+     * Size limit of the level in the current version.  The result for level zero is
+     * not used since the level-0 compaction threshold is based on the number of files.
+     */
+    public long maxBytesForLevel(int level) {
+        return levelMaxBytes[level];
+    }
+
+    /**
+     * Target size of the files written to the level, which grows by the multiplier
+     * for each level below the base level.
+     */
+    public long maxFileSizeForLevel(int level) {
+        long result = targetFileSize;
+        for (int i = baseLevel; i < level; i++) {
+            result *= targetFileSizeMultiplier;
         }
         return result;
     }
 
-    public static long maxFileSizeForLevel(int level) {
-        return TARGET_FILE_SIZE;  // We could vary per level to reduce number of files?
+    /**
+     * Maximum bytes of overlaps in grandparent (i.e., level+1) before we stop building
+     * a single file written to the level.
+     */
+    public long maxGrandParentOverlapBytes(int level) {
+        return 10 * maxFileSizeForLevel(level);
+    }
+
+    /**
+     * The level that level-0 compacts into.  Always 1 for leveled compaction unless
+     * dynamicLevelBytes is enabled.
+     */
+    public int getBaseLevel() {
+        return baseLevel;
+    }
+
+    /**
+     * Compression of the tables written to the level.  Outputs with no files in the
+     * levels below them use the bottommost compression when it is set.
+     */
+    public CompressionType compressionTypeForLevel(int level, boolean bottommost) {
+        if (bottommost && bottommostCompressionType != null) {
+            return bottommostCompressionType;
+        }
+        if (compressionPerLevel.isEmpty()) {
+            return compressionType;
+        }
+        // the levels between level-0 and the base level are empty, so the entry after level-0 goes to the base level
+        int index = level;
+        if (dynamicLevelBytes && level > 0) {
+            index = level - baseLevel + 1;
+        }
+        return compressionPerLevel.get(Math.max(0, Math.min(index, compressionPerLevel.size() - 1)));
+    }
+
+    /**
+     * Returns true if a memtable may be written below level-0 when it does not
+     * overlap, which requires every level to be compacted into the next one.
+     */
+    public boolean canPushMemTableOutput() {
+        return compactionStyle == CompactionStyle.LEVEL && !dynamicLevelBytes;
     }
 
     private void initializeIfNeeded()
@@ -125,7 +217,7 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice> {
             LogWriter log = Logs.createLogWriter(new File(databaseDir, Filename.descriptorFileName(manifestFileNumber)), manifestFileNumber);
             try {
                 writeSnapshot(log);
-                log.addRecord(edit.encode(), false);
+                log.addRecord(edit.encode(persistFileStats), false);
             } finally {
                 log.close();
             }
@@ -178,6 +270,10 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice> {
         return tableCache;
     }
 
+    public RowCache getRowCache() {
+        return rowCache;
+    }
+
     public Version getCurrent() {
         return current;
     }
@@ -204,18 +300,28 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice> {
     }
 
     public MergingIterator makeInputIterator(Compaction c) {
+        return makeInputIterator(c, c.getLevelUpInputs());
+    }
+
+    /**
+     * Creates the input iterator of the compaction reading only the given subset
+     * of the files from the output level.
+     */
+    public MergingIterator makeInputIterator(Compaction c, List<FileMetaData> levelUpInputs) {
         // Level-0 files have to be merged together.  For other levels,
         // we will make a concatenating iterator per level.
+        // The inputs are read once, so their blocks are not added to the block cache.
         // TODO(opt): use concatenating iterator for level-0 if there is no overlap
         List<InternalIterator> list = new ArrayList<>();
+        List<FileMetaData>[] inputs = new List[]{c.getLevelInputs(), levelUpInputs};
         for (int which = 0; which < 2; which++) {
-            if (!c.getInputs()[which].isEmpty()) {
+            if (!inputs[which].isEmpty()) {
                 if (c.getLevel() + which == 0) {
-                    List<FileMetaData> files = c.getInputs()[which];
-                    list.add(new Level0Iterator(tableCache, files, internalKeyComparator));
+                    List<FileMetaData> files = inputs[which];
+                    list.add(new Level0Iterator(tableCache, files, internalKeyComparator, false));
                 } else {
                     // Create concatenating iterator for the files from this level
-                    list.add(Level.createLevelConcatIterator(tableCache, c.getInputs()[which], internalKeyComparator));
+                    list.add(new LevelIterator(tableCache, inputs[which], internalKeyComparator, false));
                 }
             }
         }
@@ -226,6 +332,10 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice> {
         return current.get(key);
     }
 
+    public LookupResult get(LookupKey key, MergeContext mergeContext) {
+        return current.get(key, mergeContext);
+    }
+
     public boolean overlapInLevel(int level, Slice smallestUserKey, Slice largestUserKey) {
         return current.overlapInLevel(level, smallestUserKey, largestUserKey);
     }
@@ -282,7 +392,7 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice> {
             }
 
             // Write new record to MANIFEST log
-            Slice record = edit.encode();
+            Slice record = edit.encode(persistFileStats);
             descriptorLog.addRecord(record, true);
 
             // If we just created a new descriptor file, install it by writing a
@@ -318,8 +428,9 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice> {
 
         // Save files
         edit.addFiles(current.getFiles());
+        edit.addBlobFiles(current.getBlobFiles().values());
 
-        Slice record = edit.encode();
+        Slice record = edit.encode(persistFileStats);
         log.addRecord(record, false);
     }
 
@@ -387,6 +498,7 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice> {
 
             Version newVersion = new Version(this);
             builder.saveTo(newVersion);
+            loadFileStats(newVersion);
 
             // Install recovered version
             finalizeVersion(newVersion);
@@ -400,14 +512,131 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice> {
         }
     }
 
+    private void calculateLevelMaxBytes(Version version) {
+        if (compactionStyle == CompactionStyle.UNIVERSAL) {
+            // level-0 merges into the first non empty level, which holds the oldest sorted run
+            baseLevel = NUM_LEVELS - 1;
+            for (int level = 1; level < NUM_LEVELS; level++) {
+                if (!version.getFiles(level).isEmpty()) {
+                    baseLevel = level;
+                    break;
+                }
+            }
+            // levels are not sized, only the runs are compared
+            Arrays.fill(levelMaxBytes, Long.MAX_VALUE);
+            return;
+        }
+        if (!dynamicLevelBytes) {
+            double levelSize = maxBytesForLevelBase;
+            for (int level = 1; level < NUM_LEVELS; level++) {
+                if (level > 1) {
+                    levelSize *= maxBytesForLevelMultiplier;
+                }
+                levelMaxBytes[level] = (long) levelSize;
+            }
+            levelMaxBytes[0] = levelMaxBytes[1];
+            baseLevel = 1;
+            return;
+        }
+
+        int lastLevel = NUM_LEVELS - 1;
+        int firstNonEmptyLevel = -1;
+        long maxLevelSize = 0;
+        for (int level = 1; level < NUM_LEVELS; level++) {
+            long levelSize = Compaction.totalFileSize(version.getFiles(level));
+            if (levelSize > 0 && firstNonEmptyLevel < 0) {
+                firstNonEmptyLevel = level;
+            }
+            maxLevelSize = Math.max(maxLevelSize, levelSize);
+        }
+
+        Arrays.fill(levelMaxBytes, 0);
+        if (maxLevelSize == 0) {
+            // empty database, level-0 compacts straight into the last level
+            baseLevel = lastLevel;
+            levelMaxBytes[lastLevel] = maxBytesForLevelBase;
+            return;
+        }
+
+        // work back from the size of the largest level to the first non empty level
+        double baseBytesMax = maxBytesForLevelBase;
+        double baseBytesMin = baseBytesMax / maxBytesForLevelMultiplier;
+        double currentLevelSize = maxLevelSize;
+        for (int level = lastLevel - 1; level >= firstNonEmptyLevel; level--) {
+            currentLevelSize /= maxBytesForLevelMultiplier;
+        }
+
+        double baseLevelSize;
+        baseLevel = firstNonEmptyLevel;
+        if (currentLevelSize <= baseBytesMin) {
+            // the first non empty level is too small to be a base level of its own
+            baseLevelSize = baseBytesMin + 1;
+        } else {
+            // open up levels above the first non empty level until the base fits
+            while (baseLevel > 1 && currentLevelSize > baseBytesMax) {
+                baseLevel--;
+                currentLevelSize /= maxBytesForLevelMultiplier;
+            }
+            baseLevelSize = Math.min(baseBytesMax, currentLevelSize);
+        }
+
+        double levelSize = baseLevelSize;
+        for (int level = baseLevel; level < NUM_LEVELS; level++) {
+            if (level > baseLevel) {
+                levelSize *= maxBytesForLevelMultiplier;
+            }
+            // never let a level drop below the base size, which would give the tree an hourglass shape
+            levelMaxBytes[level] = (long) Math.max(levelSize, baseBytesMax);
+        }
+    }
+
+    /**
+     * Fills in the stats of files written without them in the manifest from the
+     * properties of their tables, starting with the newest levels.
+     */
+    private void loadFileStats(Version version) {
+        int loaded = 0;
+        for (int level = 0; level < version.numberOfLevels(); level++) {
+            for (FileMetaData file : version.getFiles(level)) {
+                if (file.getStats().isKnown()) {
+                    continue;
+                }
+                if (loaded++ >= MAX_FILE_STATS_TO_LOAD) {
+                    return;
+                }
+                TableProperties properties;
+                try {
+                    properties = tableCache.getTableProperties(file);
+                } catch (RuntimeException e) {
+                    // the stats only guide compactions, reads of the table report the problem
+                    continue;
+                }
+                if (properties != null) {
+                    file.setStats(FileStats.of(properties));
+                }
+            }
+        }
+    }
+
     private void finalizeVersion(Version version) {
+        calculateLevelMaxBytes(version);
+
+        if (compactionStyle == CompactionStyle.UNIVERSAL) {
+            version.setCompactionLevel(0);
+            version.setCompactionScore(universalCompactionScore(version));
+            return;
+        }
+
         // Precomputed best level for next compaction
         int bestLevel = -1;
         double bestScore = -1;
 
         for (int level = 0; level < version.numberOfLevels() - 1; level++) {
             double score;
-            if (level == 0) {
+            if (level > 0 && level < baseLevel) {
+                // levels above the base level are always empty
+                continue;
+            } else if (level == 0) {
                 // We treat level-0 specially by bounding the number of files
                 // instead of number of bytes for two reasons:
                 //
@@ -426,7 +655,7 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice> {
                 for (FileMetaData fileMetaData : version.getFiles(level)) {
                     levelBytes += fileMetaData.getFileSize();
                 }
-                score = 1.0 * levelBytes / maxBytesForLevel(level);
+                score = 1.0 * levelBytes / levelMaxBytes[level];
             }
 
             if (score > bestScore) {
@@ -437,6 +666,22 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice> {
 
         version.setCompactionLevel(bestLevel);
         version.setCompactionScore(bestScore);
+
+        if (deletionCompactionRatio > 0) {
+            // deletions in the last level are dropped by compactions of the level above
+            FileMetaData bestFile = null;
+            int bestFileLevel = -1;
+            for (int level = 0; level < version.numberOfLevels() - 1; level++) {
+                for (FileMetaData fileMetaData : version.getFiles(level)) {
+                    double ratio = fileMetaData.getStats().getDeletionRatio();
+                    if (ratio > deletionCompactionRatio && (bestFile == null || ratio > bestFile.getStats().getDeletionRatio())) {
+                        bestFile = fileMetaData;
+                        bestFileLevel = level;
+                    }
+                }
+            }
+            version.setDeletionCompactionFile(bestFileLevel, bestFile);
+        }
     }
 
     public List<FileMetaData> getLiveFiles() {
@@ -447,8 +692,23 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice> {
         return builder.build();
     }
 
+    /**
+     * Returns the numbers of the blob files of all versions in use.
+     */
+    public Set<Long> getLiveBlobFiles() {
+        Set<Long> live = new HashSet<>();
+        for (Version activeVersion : activeVersions.keySet()) {
+            live.addAll(activeVersion.getBlobFiles().keySet());
+        }
+        return live;
+    }
+
     public boolean needsCompaction() {
-        return current.getCompactionScore() >= 1 || current.getFileToCompact() != null;
+        if (compactionStyle == CompactionStyle.UNIVERSAL) {
+            // universal compaction never compacts single files for seeks
+            return current.getCompactionScore() >= 1;
+        }
+        return current.getCompactionScore() >= 1 || current.getFileToCompact() != null || current.getDeletionCompactionFile() != null;
     }
 
     public Compaction compactRange(int level, InternalKey begin, InternalKey end) {
@@ -460,12 +720,79 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice> {
         return setupOtherInputs(level, levelInputs);
     }
 
+    /**
+     * Splits a manual compaction of {@code level} into compactions that share
+     * no input files, so they can run at the same time.  Each chunk takes
+     * about {@code targetChunkSize} bytes of {@code level}, and is only cut
+     * between two files when no file of the output level overlaps both.
+     * Level-0 files overlap each other and universal compactions pick whole
+     * runs, so those are never split.
+     */
+    public List<Compaction> compactRangeChunks(int level, InternalKey begin, InternalKey end, long targetChunkSize) {
+        List<FileMetaData> levelInputs = getOverlappingInputs(level, begin, end);
+        if (levelInputs.isEmpty()) {
+            return ImmutableList.of();
+        }
+        if (level == 0 || compactionStyle == CompactionStyle.UNIVERSAL) {
+            return ImmutableList.of(compactRange(level, begin, end));
+        }
+
+        int outputLevel = level + 1;
+        List<Compaction> compactions = new ArrayList<>();
+        List<FileMetaData> chunk = new ArrayList<>();
+        long chunkSize = 0;
+        for (int i = 0; i < levelInputs.size(); i++) {
+            FileMetaData fileMetaData = levelInputs.get(i);
+            chunk.add(fileMetaData);
+            chunkSize += fileMetaData.getFileSize();
+            if (i + 1 == levelInputs.size() ||
+                    (chunkSize >= targetChunkSize && canSplitBetween(outputLevel, fileMetaData, levelInputs.get(i + 1)))) {
+                Entry<InternalKey, InternalKey> range = getRange(chunk);
+                List<FileMetaData> levelUpInputs = getOverlappingInputs(outputLevel, range.getKey(), range.getValue());
+
+                range = getRange(chunk, levelUpInputs);
+                List<FileMetaData> grandparents = ImmutableList.of();
+                if (outputLevel + 1 < NUM_LEVELS) {
+                    grandparents = getOverlappingInputs(outputLevel + 1, range.getKey(), range.getValue());
+                }
+                compactions.add(new Compaction(current, level, outputLevel, chunk, levelUpInputs, grandparents,
+                        maxFileSizeForLevel(outputLevel), maxGrandParentOverlapBytes(outputLevel)));
+
+                chunk = new ArrayList<>();
+                chunkSize = 0;
+            }
+        }
+        return compactions;
+    }
+
+    private boolean canSplitBetween(int outputLevel, FileMetaData left, FileMetaData right) {
+        UserComparator userComparator = internalKeyComparator.getUserComparator();
+        Slice leftLargest = left.getLargest().getUserKey();
+        Slice rightSmallest = right.getSmallest().getUserKey();
+        if (userComparator.compare(leftLargest, rightSmallest) >= 0) {
+            // versions of one user key must be compacted together
+            return false;
+        }
+        for (FileMetaData fileMetaData : current.getFiles(outputLevel)) {
+            if (userComparator.compare(fileMetaData.getSmallest().getUserKey(), leftLargest) <= 0 &&
+                    userComparator.compare(fileMetaData.getLargest().getUserKey(), rightSmallest) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     //选择压实
     public Compaction pickCompaction() {
+        if (compactionStyle == CompactionStyle.UNIVERSAL) {
+            return pickUniversalCompaction();
+        }
+
         // We prefer compactions triggered by too much data in a level over the compactions triggered by seeks.
         // 我们更喜欢在一个层次中由太多数据触发的压实，而不是由seeking触发的压实。
         boolean sizeCompaction = (current.getCompactionScore() >= 1);
         boolean seekCompaction = (current.getFileToCompact() != null);
+        boolean deletionCompaction = (current.getDeletionCompactionFile() != null);
 
         int level;
         List<FileMetaData> levelInputs;
@@ -474,22 +801,29 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice> {
             checkState(level >= 0);
             checkState(level + 1 < NUM_LEVELS);
 
-            // Pick the first file that comes after compact_pointer_[level]
             levelInputs = new ArrayList<>();
-            for (FileMetaData fileMetaData : current.getFiles(level)) {
-                if (!compactPointers.containsKey(level) ||
-                        internalKeyComparator.compare(fileMetaData.getLargest(), compactPointers.get(level)) > 0) {
-                    levelInputs.add(fileMetaData);
-                    break;
+            if (compactionPriority == CompactionPriority.ROUND_ROBIN) {
+                // Pick the first file that comes after compact_pointer_[level]
+                for (FileMetaData fileMetaData : current.getFiles(level)) {
+                    if (!compactPointers.containsKey(level) ||
+                            internalKeyComparator.compare(fileMetaData.getLargest(), compactPointers.get(level)) > 0) {
+                        levelInputs.add(fileMetaData);
+                        break;
+                    }
                 }
-            }
-            if (levelInputs.isEmpty()) {
-                // Wrap-around to the beginning of the key space
-                levelInputs.add(current.getFiles(level).get(0));
+                if (levelInputs.isEmpty()) {
+                    // Wrap-around to the beginning of the key space
+                    levelInputs.add(current.getFiles(level).get(0));
+                }
+            } else {
+                levelInputs.add(pickFileByPriority(level));
             }
         } else if (seekCompaction) {
             level = current.getFileToCompactLevel();
             levelInputs = ImmutableList.of(current.getFileToCompact());
+        } else if (deletionCompaction) {
+            level = current.getDeletionCompactionLevel();
+            levelInputs = ImmutableList.of(current.getDeletionCompactionFile());
         } else {
             return null;
         }
@@ -504,18 +838,172 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice> {
             levelInputs = getOverlappingInputs(0, range.getKey(), range.getValue());
 
             checkState(!levelInputs.isEmpty());
+
+            // Merging into a large base level takes long while writes are already slowed
+            // down, so merge the newest level-0 files with each other first.
+            if (sizeCompaction) {
+                range = getRange(levelInputs);
+                long baseLevelBytes = Compaction.totalFileSize(getOverlappingInputs(baseLevel, range.getKey(), range.getValue()));
+                if (baseLevelBytes > maxCompactionBytes()) {
+                    Compaction compaction = pickIntraLevel0Compaction();
+                    if (compaction != null) {
+                        return compaction;
+                    }
+                }
+            }
         }
 
         Compaction compaction = setupOtherInputs(level, levelInputs);
+        compaction.setDeletionTriggered(!sizeCompaction && !seekCompaction);
+        return compaction;
+    }
+
+    /**
+     * Picks a compaction that merges the newest level-0 files into one level-0 file,
+     * which cuts the number of files a read has to look at without touching the base
+     * level.  Only done once level-0 has enough files to slow down writes and at least
+     * {@value #MIN_INTRA_L0_COMPACTION_FILES} of the newest files fit in a compaction.
+     */
+    public Compaction pickIntraLevel0Compaction() {
+        if (compactionStyle != CompactionStyle.LEVEL || current.numberOfFilesInLevel(0) < L0_SLOWDOWN_WRITES_TRIGGER) {
+            return null;
+        }
+        List<FileMetaData> level0 = new ArrayList<>(current.getFiles(0));
+        Collections.sort(level0, Level0.NEWEST_FIRST);
+
+        // the picked files must be the newest ones, the output is numbered after all of them
+        long maxBytes = maxCompactionBytes();
+        long pickedBytes = 0;
+        int picked = 0;
+        while (picked < level0.size() && pickedBytes + level0.get(picked).getFileSize() <= maxBytes) {
+            pickedBytes += level0.get(picked).getFileSize();
+            picked++;
+        }
+        if (picked < MIN_INTRA_L0_COMPACTION_FILES) {
+            return null;
+        }
+        return newLevel0Compaction(level0.subList(0, picked));
+    }
+
+    private long maxCompactionBytes() {
+        return 25 * maxFileSizeForLevel(baseLevel);
+    }
+
+    /**
+     * Picks the file of the level with the lowest cost under the compaction priority.
+     * Files without stats are treated as holding no deletions and no data newer
+     * than sequence 0.
+     */
+    private FileMetaData pickFileByPriority(int level) {
+        int outputLevel = level == 0 ? baseLevel : level + 1;
+        FileMetaData best = null;
+        double bestCost = 0;
+        for (FileMetaData fileMetaData : current.getFiles(level)) {
+            double cost;
+            switch (compactionPriority) {
+                case MIN_OVERLAPPING_RATIO:
+                    long overlappingBytes = Compaction.totalFileSize(getOverlappingInputs(outputLevel, fileMetaData.getSmallest(), fileMetaData.getLargest()));
+                    cost = 1.0 * overlappingBytes / Math.max(1, fileMetaData.getFileSize());
+                    break;
+                case OLDEST_LARGEST_SEQ_FIRST:
+                    cost = fileMetaData.getStats().getLargestSequence();
+                    break;
+                case DELETION_DENSITY:
+                    cost = -fileMetaData.getStats().getDeletionRatio();
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected compaction priority " + compactionPriority);
+            }
+            if (best == null || cost < bestCost) {
+                best = fileMetaData;
+                bestCost = cost;
+            }
+        }
+        checkState(best != null, "level %s has no files", level);
+        return best;
+    }
+
+    /**
+     * The sorted runs of universal compaction are the level-0 files, newest first,
+     * followed by the base level.  Only the newest runs are merged with each other,
+     * so the output of a level-0 merge stays ordered by file number; merges that
+     * reach the oldest run go to the base level.
+     */
+    private Compaction pickUniversalCompaction() {
+        List<FileMetaData> level0 = new ArrayList<>(current.getFiles(0));
+        if (level0.isEmpty()) {
+            return null;
+        }
+        Collections.sort(level0, Level0.NEWEST_FIRST);
+        List<FileMetaData> base = current.getFiles(baseLevel);
+
+        // too much space is taken by newer versions of the data, merge everything
+        if (exceedsSizeAmplification(level0, base)) {
+            return setupOtherInputs(0, level0);
+        }
+
+        // add older runs while each one is not much larger than the runs picked so far
+        long pickedBytes = level0.get(0).getFileSize();
+        int picked = 1;
+        while (picked < level0.size() && level0.get(picked).getFileSize() * 100 <= pickedBytes * (100 + universalSizeRatio)) {
+            pickedBytes += level0.get(picked).getFileSize();
+            picked++;
+        }
+        if (picked == level0.size() && (base.isEmpty() || Compaction.totalFileSize(base) * 100 <= pickedBytes * (100 + universalSizeRatio))) {
+            return setupOtherInputs(0, level0);
+        }
+        if (picked >= universalMinMergeWidth) {
+            return newLevel0Compaction(level0.subList(0, picked));
+        }
+
+        // no runs of a similar size, merge the newest ones to get below the trigger
+        int runs = level0.size() + (base.isEmpty() ? 0 : 1);
+        if (runs < L0_COMPACTION_TRIGGER) {
+            return null;
+        }
+        picked = Math.max(universalMinMergeWidth, runs - L0_COMPACTION_TRIGGER + 1);
+        if (picked >= level0.size()) {
+            return setupOtherInputs(0, level0);
+        }
+        return newLevel0Compaction(level0.subList(0, picked));
+    }
+
+    private double universalCompactionScore(Version version) {
+        List<FileMetaData> level0 = version.getFiles(0);
+        List<FileMetaData> base = version.getFiles(baseLevel);
+        int runs = level0.size() + (base.isEmpty() ? 0 : 1);
+        double score = 1.0 * runs / L0_COMPACTION_TRIGGER;
+        if (exceedsSizeAmplification(level0, base)) {
+            score = Math.max(score, 1);
+        }
+        return score;
+    }
+
+    private boolean exceedsSizeAmplification(List<FileMetaData> level0, List<FileMetaData> base) {
+        return !base.isEmpty() &&
+                Compaction.totalFileSize(level0) * 100 > Compaction.totalFileSize(base) * universalMaxSizeAmplificationPercent;
+    }
+
+    /**
+     * Merges the newest level-0 files into a single level-0 file.
+     */
+    private Compaction newLevel0Compaction(List<FileMetaData> levelInputs) {
+        Compaction compaction = new Compaction(current, 0, 0, ImmutableList.copyOf(levelInputs), ImmutableList.<FileMetaData>of(), ImmutableList.<FileMetaData>of(),
+                Long.MAX_VALUE, 0);
+        // take the number now so the output is older than any file flushed while the compaction runs
+        compaction.setOutputFileNumber(getNextFileNumber());
         return compaction;
     }
 
     private Compaction setupOtherInputs(int level, List<FileMetaData> levelInputs) {
+        // level-0 skips the empty levels above the base level
+        int outputLevel = level == 0 ? baseLevel : level + 1;
+
         Entry<InternalKey, InternalKey> range = getRange(levelInputs);
         InternalKey smallest = range.getKey();
         InternalKey largest = range.getValue();
 
-        List<FileMetaData> levelUpInputs = getOverlappingInputs(level + 1, smallest, largest);
+        List<FileMetaData> levelUpInputs = getOverlappingInputs(outputLevel, smallest, largest);
 
         // Get entire range covered by compaction
         range = getRange(levelInputs, levelUpInputs);
@@ -532,7 +1020,7 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice> {
                 InternalKey newStart = range.getKey();
                 InternalKey newLimit = range.getValue();
 
-                List<FileMetaData> expanded1 = getOverlappingInputs(level + 1, newStart, newLimit);
+                List<FileMetaData> expanded1 = getOverlappingInputs(outputLevel, newStart, newLimit);
                 if (expanded1.size() == levelUpInputs.size()) {
 //              Log(options_->info_log,
 //                  "Expanding@%d %d+%d to %d+%d\n",
@@ -554,10 +1042,10 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice> {
         }
 
         // Compute the set of grandparent files that overlap this compaction
-        // (parent == level+1; grandparent == level+2)
+        // (parent == outputLevel; grandparent == outputLevel+1)
         List<FileMetaData> grandparents = ImmutableList.of();
-        if (level + 2 < NUM_LEVELS) {
-            grandparents = getOverlappingInputs(level + 2, allStart, allLimit);
+        if (outputLevel + 1 < NUM_LEVELS) {
+            grandparents = getOverlappingInputs(outputLevel + 1, allStart, allLimit);
         }
 
 //        if (false) {
@@ -567,7 +1055,8 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice> {
 //                    EscapeString(largest.Encode()).c_str());
 //        }
 
-        Compaction compaction = new Compaction(current, level, levelInputs, levelUpInputs, grandparents);
+        Compaction compaction = new Compaction(current, level, outputLevel, levelInputs, levelUpInputs, grandparents,
+                maxFileSizeForLevel(outputLevel), maxGrandParentOverlapBytes(outputLevel));
 
         // Update the place where we will do the next compaction for this level.
         // We update this immediately instead of waiting for the VersionEdit
@@ -639,10 +1128,12 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice> {
         private final VersionSet versionSet;
         private final Version baseVersion;
         private final List<LevelState> levels;
+        private final Map<Long, BlobFileMetaData> blobFiles;
 
         private Builder(VersionSet versionSet, Version baseVersion) {
             this.versionSet = versionSet;
             this.baseVersion = baseVersion;
+            this.blobFiles = new HashMap<>(baseVersion.getBlobFiles());
 
             levels = new ArrayList<>(baseVersion.numberOfLevels());
             for (int i = 0; i < baseVersion.numberOfLevels(); i++) {
@@ -696,6 +1187,16 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice> {
                 levels.get(level).deletedFiles.remove(fileMetaData.getNumber());
                 levels.get(level).addedFiles.add(fileMetaData);
             }
+
+            // Add new blob files, then account for the values no table references any more
+            for (BlobFileMetaData blobFile : edit.getNewBlobFiles().values()) {
+                blobFiles.put(blobFile.getNumber(), blobFile);
+            }
+            for (Entry<Long, VersionEdit.BlobGarbage> entry : edit.getBlobGarbage().entrySet()) {
+                BlobFileMetaData blobFile = blobFiles.get(entry.getKey());
+                checkState(blobFile != null, "Garbage recorded for unknown blob file %s", entry.getKey());
+                blobFiles.put(blobFile.getNumber(), blobFile.addGarbage(entry.getValue().getCount(), entry.getValue().getBytes()));
+            }
         }
 
         /**
@@ -732,6 +1233,15 @@ public class VersionSet implements SeekingIterable<InternalKey, Slice> {
                 version.assertNoOverlappingFiles();
                 //#endif
             }
+
+            // blob files without referenced values are dropped
+            Map<Long, BlobFileMetaData> liveBlobFiles = new TreeMap<>();
+            for (BlobFileMetaData blobFile : blobFiles.values()) {
+                if (!blobFile.isObsolete()) {
+                    liveBlobFiles.put(blobFile.getNumber(), blobFile);
+                }
+            }
+            version.setBlobFiles(liveBlobFiles);
         }
 
         private void maybeAddFile(Version version, int level, FileMetaData fileMetaData)
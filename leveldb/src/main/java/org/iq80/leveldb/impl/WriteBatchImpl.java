@@ -17,14 +17,12 @@
  */
 package org.iq80.leveldb.impl;
 
-import com.google.common.collect.Maps;
 import org.iq80.leveldb.WriteBatch;
 import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.Slices;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map.Entry;
 
 import static java.util.Objects.requireNonNull;
 
@@ -32,13 +30,18 @@ import static java.util.Objects.requireNonNull;
  * 批量写实现类
  */
 public class WriteBatchImpl implements WriteBatch {
-    private final List<Entry<Slice, Slice>> batch = new ArrayList<>();
+    private final List<Record> batch = new ArrayList<>();
     private int approximateSize;
+    private boolean hasMerges;
 
     public int getApproximateSize() {
         return approximateSize;
     }
 
+    public boolean hasMerges() {
+        return hasMerges;
+    }
+
     public int size() {
         return batch.size();
     }
@@ -47,15 +50,13 @@ public class WriteBatchImpl implements WriteBatch {
     public WriteBatchImpl put(byte[] key, byte[] value) {
         requireNonNull(key, "key is null");
         requireNonNull(value, "value is null");
-        batch.add(Maps.immutableEntry(Slices.wrappedBuffer(key), Slices.wrappedBuffer(value)));
-        approximateSize += 12 + key.length + value.length;
-        return this;
+        return put(Slices.wrappedBuffer(key), Slices.wrappedBuffer(value));
     }
 
     public WriteBatchImpl put(Slice key, Slice value) {
         requireNonNull(key, "key is null");
         requireNonNull(value, "value is null");
-        batch.add(Maps.immutableEntry(key, value));
+        batch.add(new Record(ValueType.VALUE, key, value));
         approximateSize += 12 + key.length() + value.length();
         return this;
     }
@@ -63,30 +64,68 @@ public class WriteBatchImpl implements WriteBatch {
     @Override
     public WriteBatchImpl delete(byte[] key) {
         requireNonNull(key, "key is null");
-        batch.add(Maps.immutableEntry(Slices.wrappedBuffer(key), (Slice) null));
-        approximateSize += 6 + key.length;
-        return this;
+        return delete(Slices.wrappedBuffer(key));
     }
 
     public WriteBatchImpl delete(Slice key) {
         requireNonNull(key, "key is null");
-        batch.add(Maps.immutableEntry(key, (Slice) null));
+        batch.add(new Record(ValueType.DELETION, key, null));
         approximateSize += 6 + key.length();
         return this;
     }
 
+    @Override
+    public WriteBatchImpl merge(byte[] key, byte[] value) {
+        requireNonNull(key, "key is null");
+        requireNonNull(value, "value is null");
+        return merge(Slices.wrappedBuffer(key), Slices.wrappedBuffer(value));
+    }
+
+    public WriteBatchImpl merge(Slice key, Slice value) {
+        requireNonNull(key, "key is null");
+        requireNonNull(value, "value is null");
+        batch.add(new Record(ValueType.MERGE, key, value));
+        hasMerges = true;
+        approximateSize += 12 + key.length() + value.length();
+        return this;
+    }
+
+    @Override
+    public WriteBatchImpl deleteRange(byte[] begin, byte[] end) {
+        requireNonNull(begin, "begin is null");
+        requireNonNull(end, "end is null");
+        return deleteRange(Slices.wrappedBuffer(begin), Slices.wrappedBuffer(end));
+    }
+
+    public WriteBatchImpl deleteRange(Slice begin, Slice end) {
+        requireNonNull(begin, "begin is null");
+        requireNonNull(end, "end is null");
+        batch.add(new Record(ValueType.RANGE_DELETION, begin, end));
+        approximateSize += 12 + begin.length() + end.length();
+        return this;
+    }
+
     @Override
     public void close() {
     }
 
     public void forEach(Handler handler) {
-        for (Entry<Slice, Slice> entry : batch) {
-            Slice key = entry.getKey();
-            Slice value = entry.getValue();
-            if (value != null) {
-                handler.put(key, value);
-            } else {
-                handler.delete(key);
+        for (Record record : batch) {
+            switch (record.valueType) {
+                case VALUE:
+                    handler.put(record.key, record.value);
+                    break;
+                case DELETION:
+                    handler.delete(record.key);
+                    break;
+                case MERGE:
+                    handler.merge(record.key, record.value);
+                    break;
+                case RANGE_DELETION:
+                    handler.deleteRange(record.key, record.value);
+                    break;
+                default:
+                    throw new IllegalStateException("Unexpected value type " + record.valueType);
             }
         }
     }
@@ -95,5 +134,21 @@ public class WriteBatchImpl implements WriteBatch {
         void put(Slice key, Slice value);
 
         void delete(Slice key);
+
+        void merge(Slice key, Slice value);
+
+        void deleteRange(Slice begin, Slice end);
+    }
+
+    private static final class Record {
+        private final ValueType valueType;
+        private final Slice key;
+        private final Slice value;
+
+        private Record(ValueType valueType, Slice key, Slice value) {
+            this.valueType = valueType;
+            this.key = key;
+            this.value = value;
+        }
     }
 }
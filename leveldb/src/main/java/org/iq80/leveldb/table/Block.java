@@ -26,6 +26,7 @@ import java.util.Comparator;
 import static com.google.common.base.Preconditions.checkArgument;
 import static java.util.Objects.requireNonNull;
 import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_SHORT;
 
 /**
  * Binary Structure
@@ -53,6 +54,18 @@ import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
  * <td>Index of prefix compression restarts</td>
  * </tr>
  * <tr>
+ * <td>hash buckets</td>
+ * <td>vary</td>
+ * <td>bucket count</td>
+ * <td>Optional {@link DataBlockHashIndex}, present when the high bit of the restart count is set</td>
+ * </tr>
+ * <tr>
+ * <td>bucket count</td>
+ * <td>vary</td>
+ * <td>2</td>
+ * <td>Number of hash buckets, only present with the hash index</td>
+ * </tr>
+ * <tr>
  * <td>restart count</td>
  * <td>0</td>
  * <td>4</td>
@@ -67,6 +80,7 @@ public class Block implements SeekingIterable<Slice, Slice> {
 
     private final Slice data;
     private final Slice restartPositions;
+    private final DataBlockHashIndex hashIndex;
 
     public Block(Slice block, Comparator<Slice> comparator) {
         requireNonNull(block, "block is null");
@@ -81,13 +95,26 @@ public class Block implements SeekingIterable<Slice, Slice> {
         // These "restart" locations are written at the end of the file, so you can seek to key without having to read the
         // entire file sequentially.
 
-        // key restart count is the last int of the block
-        int restartCount = block.getInt(block.length() - SIZE_OF_INT);
+        // key restart count is the last int of the block, the high bit flags a hash index
+        int footer = block.getInt(block.length() - SIZE_OF_INT);
+        int restartCount = footer & ~DataBlockHashIndex.HASH_INDEX_FLAG;
+
+        int restartEnd = block.length() - SIZE_OF_INT;
+        if ((footer & DataBlockHashIndex.HASH_INDEX_FLAG) != 0) {
+            // the hash buckets sit between the restarts and the restart count
+            checkArgument(restartEnd >= SIZE_OF_SHORT, "Block is corrupt: missing hash index");
+            int bucketCount = block.getShort(restartEnd - SIZE_OF_SHORT) & 0xFFFF;
+            restartEnd -= SIZE_OF_SHORT + bucketCount;
+            checkArgument(restartEnd >= 0, "Block is corrupt: hash index is larger than block size");
+            hashIndex = new DataBlockHashIndex(block.slice(restartEnd, bucketCount), DataBlockHashIndex.hashesUserKey(comparator));
+        } else {
+            hashIndex = null;
+        }
 
         if (restartCount > 0) {
             // restarts are written at the end of the block
-            int restartOffset = block.length() - (1 + restartCount) * SIZE_OF_INT;
-            checkArgument(restartOffset < block.length() - SIZE_OF_INT, "Block is corrupt: restart offset count is greater than block size");
+            int restartOffset = restartEnd - restartCount * SIZE_OF_INT;
+            checkArgument(restartOffset >= 0 && restartOffset < restartEnd, "Block is corrupt: restart offset count is greater than block size");
             restartPositions = block.slice(restartOffset, restartCount * SIZE_OF_INT);
 
             // data starts at 0 and extends to the restart index
@@ -104,6 +131,6 @@ public class Block implements SeekingIterable<Slice, Slice> {
 
     @Override
     public BlockIterator iterator() {
-        return new BlockIterator(data, restartPositions, comparator);
+        return new BlockIterator(data, restartPositions, hashIndex, comparator);
     }
 }
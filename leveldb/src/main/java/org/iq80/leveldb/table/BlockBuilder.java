@@ -34,12 +34,21 @@ public class BlockBuilder {
     private final IntVector restartPositions;
     private final Comparator<Slice> comparator;
     private final DynamicSliceOutput block;
+    private final DataBlockHashIndexBuilder hashIndexBuilder;
     private int entryCount;
     private int restartBlockEntryCount;
     private boolean finished;
     private Slice lastKey;
 
     public BlockBuilder(int estimatedSize, int blockRestartInterval, Comparator<Slice> comparator) {
+        this(estimatedSize, blockRestartInterval, comparator, false);
+    }
+
+    /**
+     * @param hashIndex append a {@link DataBlockHashIndex} so point lookups can
+     * skip the binary search over restart positions
+     */
+    public BlockBuilder(int estimatedSize, int blockRestartInterval, Comparator<Slice> comparator, boolean hashIndex) {
         checkArgument(estimatedSize >= 0, "estimatedSize is negative");
         checkArgument(blockRestartInterval >= 0, "blockRestartInterval is negative");
         requireNonNull(comparator, "comparator is null");
@@ -47,6 +56,7 @@ public class BlockBuilder {
         this.block = new DynamicSliceOutput(estimatedSize);
         this.blockRestartInterval = blockRestartInterval;
         this.comparator = comparator;
+        this.hashIndexBuilder = hashIndex ? new DataBlockHashIndexBuilder(DataBlockHashIndex.DEFAULT_UTIL_RATIO, DataBlockHashIndex.hashesUserKey(comparator)) : null;
 
         restartPositions = new IntVector(32);
         restartPositions.add(0);  // first restart point must be 0
@@ -73,6 +83,9 @@ public class BlockBuilder {
         restartBlockEntryCount = 0;
         lastKey = null;
         finished = false;
+        if (hashIndexBuilder != null) {
+            hashIndexBuilder.reset();
+        }
     }
 
     public int getEntryCount() {
@@ -96,9 +109,17 @@ public class BlockBuilder {
 
         return block.size() +                              // raw data buffer
                 restartPositions.size() * SIZE_OF_INT +    // restart positions
+                hashIndexSizeEstimate() +                  // optional hash index
                 SIZE_OF_INT;                               // restart position size
     }
 
+    private int hashIndexSizeEstimate() {
+        if (hashIndexBuilder == null) {
+            return 0;
+        }
+        return hashIndexBuilder.estimateSize();
+    }
+
     public void add(BlockEntry blockEntry) {
         requireNonNull(blockEntry, "blockEntry is null");
         add(blockEntry.getKey(), blockEntry.getValue());
@@ -134,6 +155,10 @@ public class BlockBuilder {
         // write value bytes
         block.writeBytes(value, 0, value.length());
 
+        if (hashIndexBuilder != null) {
+            hashIndexBuilder.add(key, restartPositions.size() - 1);
+        }
+
         // update last key
         lastKey = key;
 
@@ -148,7 +173,12 @@ public class BlockBuilder {
 
             if (entryCount > 0) {
                 restartPositions.write(block);
-                block.writeInt(restartPositions.size());
+                if (hashIndexBuilder != null && hashIndexBuilder.isValid()) {
+                    hashIndexBuilder.finish(block);
+                    block.writeInt(restartPositions.size() | DataBlockHashIndex.HASH_INDEX_FLAG);
+                } else {
+                    block.writeInt(restartPositions.size());
+                }
             } else {
                 block.writeInt(0);
             }
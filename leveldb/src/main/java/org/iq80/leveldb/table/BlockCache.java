@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Cache of uncompressed blocks shared by all open tables, bounded by the total
+ * size of the cached blocks.  Blocks are keyed by the number of their table file,
+ * so a table closed by the table cache and opened again finds its blocks.  Tables
+ * opened without a file number draw a unique id from {@link #newId()}.
+ */
+public class BlockCache {
+    private final Cache<CacheKey, Block> cache;
+    private final AtomicLong nextId = new AtomicLong();
+
+    public BlockCache(long capacity) {
+        checkArgument(capacity > 0, "capacity must be positive");
+        cache = CacheBuilder.newBuilder()
+                .maximumWeight(capacity)
+                .weigher(new Weigher<CacheKey, Block>() {
+                    @Override
+                    public int weigh(CacheKey key, Block block) {
+                        return (int) block.size();
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Returns a new id for a table opened without a file number; the ids are negative
+     * so they never collide with file numbers.
+     */
+    public long newId() {
+        return nextId.decrementAndGet();
+    }
+
+    public Block getBlock(long cacheId, long offset, Callable<Block> loader) {
+        try {
+            return cache.get(new CacheKey(cacheId, offset), loader);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * @return the cached block, or null if it is not in the cache
+     */
+    public Block getIfPresent(long cacheId, long offset) {
+        return cache.getIfPresent(new CacheKey(cacheId, offset));
+    }
+
+    private static final class CacheKey {
+        private final long cacheId;
+        private final long offset;
+
+        private CacheKey(long cacheId, long offset) {
+            this.cacheId = cacheId;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            CacheKey cacheKey = (CacheKey) o;
+            return cacheId == cacheKey.cacheId && offset == cacheKey.offset;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (cacheId ^ (cacheId >>> 32));
+            result = 31 * result + (int) (offset ^ (offset >>> 32));
+            return result;
+        }
+    }
+}
@@ -31,11 +31,16 @@ public class BlockIterator implements SeekingIterator<Slice, Slice> {
     private final SliceInput data;
     private final Slice restartPositions;
     private final int restartCount;
+    private final DataBlockHashIndex hashIndex;
     private final Comparator<Slice> comparator;
 
     private BlockEntry nextEntry;
 
     public BlockIterator(Slice data, Slice restartPositions, Comparator<Slice> comparator) {
+        this(data, restartPositions, null, comparator);
+    }
+
+    public BlockIterator(Slice data, Slice restartPositions, DataBlockHashIndex hashIndex, Comparator<Slice> comparator) {
         requireNonNull(data, "data is null");
         requireNonNull(restartPositions, "restartPositions is null");
         checkArgument(restartPositions.length() % SIZE_OF_INT == 0, "restartPositions.readableBytes() must be a multiple of %s", SIZE_OF_INT);
@@ -46,6 +51,7 @@ public class BlockIterator implements SeekingIterator<Slice, Slice> {
         this.restartPositions = restartPositions.slice();
         restartCount = this.restartPositions.length() / SIZE_OF_INT;
 
+        this.hashIndex = hashIndex;
         this.comparator = comparator;
 
         seekToFirst();
@@ -167,6 +173,40 @@ public class BlockIterator implements SeekingIterator<Slice, Slice> {
 
     }
 
+    /**
+     * Repositions the iterator for a point lookup of the specified targetKey.  If the key
+     * is in this block the next element returned is the first one greater than or equal
+     * to targetKey, as with {@link #seek(Slice)}.  Otherwise the iterator may be left
+     * exhausted or positioned anywhere past the target, which is what allows the
+     * hash index to answer without a binary search.
+     */
+    public void seekForGet(Slice targetKey) {
+        if (hashIndex == null || restartCount == 0) {
+            seek(targetKey);
+            return;
+        }
+
+        int restartIndex = hashIndex.lookup(targetKey);
+        if (restartIndex == DataBlockHashIndex.NO_ENTRY) {
+            // the key is not in this block
+            data.setPosition(data.position() + data.available());
+            nextEntry = null;
+            return;
+        }
+        if (restartIndex == DataBlockHashIndex.COLLISION || restartIndex >= restartCount) {
+            seek(targetKey);
+            return;
+        }
+
+        // every key before this restart interval is smaller than the target, so a
+        // linear scan from here finds the first key greater than or equal to it
+        for (seekToRestartPosition(restartIndex); nextEntry != null; next()) {
+            if (comparator.compare(peek().getKey(), targetKey) >= 0) {
+                break;
+            }
+        }
+    }
+
     /**
      * Seeks to and reads the entry at the specified restart position.
      * <p/>
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import org.iq80.leveldb.util.Hash;
+import org.iq80.leveldb.util.Slice;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Bloom filter compatible with the builtin filter of the C++ leveldb.  With 10
+ * bits per key the false positive rate is about 1%.
+ */
+public class BloomFilterPolicy
+        implements FilterPolicy {
+    private static final int SEED = 0xbc9f1d34;
+
+    private final int bitsPerKey;
+    private final int probes;
+
+    public BloomFilterPolicy(int bitsPerKey) {
+        checkArgument(bitsPerKey > 0, "bitsPerKey must be positive");
+        this.bitsPerKey = bitsPerKey;
+        // bitsPerKey * ln(2) minimizes the false positive rate
+        this.probes = Math.max(1, Math.min(30, (int) (bitsPerKey * 0.69)));
+    }
+
+    @Override
+    public String name() {
+        return "leveldb.BuiltinBloomFilter2";
+    }
+
+    @Override
+    public byte[] createFilter(List<Slice> keys) {
+        // small filters have a very high false positive rate, so use at least 64 bits
+        int bits = Math.max(64, keys.size() * bitsPerKey);
+        int bytes = (bits + 7) / 8;
+        bits = bytes * 8;
+
+        byte[] filter = new byte[bytes + 1];
+        // remember the number of probes so filters remain readable if bitsPerKey changes
+        filter[bytes] = (byte) probes;
+        for (Slice key : keys) {
+            // double hashing generates the probe sequence from a single hash
+            int h = Hash.hash(key, SEED);
+            int delta = Integer.rotateRight(h, 17);
+            for (int j = 0; j < probes; j++) {
+                int bit = Integer.remainderUnsigned(h, bits);
+                filter[bit / 8] |= 1 << (bit % 8);
+                h += delta;
+            }
+        }
+        return filter;
+    }
+
+    @Override
+    public boolean keyMayMatch(Slice key, Slice filter) {
+        int length = filter.length();
+        if (length < 2) {
+            return false;
+        }
+
+        int bits = (length - 1) * 8;
+        int filterProbes = filter.getUnsignedByte(length - 1);
+        if (filterProbes > 30) {
+            // reserved for new encodings of short bloom filters, consider it a match
+            return true;
+        }
+
+        int h = Hash.hash(key, SEED);
+        int delta = Integer.rotateRight(h, 17);
+        for (int j = 0; j < filterProbes; j++) {
+            int bit = Integer.remainderUnsigned(h, bits);
+            if ((filter.getByte(bit / 8) & (1 << (bit % 8))) == 0) {
+                return false;
+            }
+            h += delta;
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("BloomFilterPolicy");
+        sb.append("{bitsPerKey=").append(bitsPerKey);
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import org.iq80.leveldb.util.DynamicSliceOutput;
+import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.Slices;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Builds a raw content compression dictionary from the data blocks of a table.
+ * Blocks are taken evenly over the expected size of the table, so the dictionary
+ * holds data from its whole key range rather than just the start.
+ */
+public class CompressionDictionarySampler {
+    private final int maxDictionaryBytes;
+    private final long expectedBytes;
+    private final DynamicSliceOutput samples;
+    private long seenBytes;
+
+    /**
+     * @param expectedBytes uncompressed size of the blocks expected to be added
+     */
+    public CompressionDictionarySampler(int maxDictionaryBytes, long expectedBytes) {
+        checkArgument(maxDictionaryBytes > 0, "maxDictionaryBytes must be positive");
+        checkArgument(expectedBytes > 0, "expectedBytes must be positive");
+        this.maxDictionaryBytes = maxDictionaryBytes;
+        this.expectedBytes = expectedBytes;
+        this.samples = new DynamicSliceOutput(Math.min(maxDictionaryBytes, 64 * 1024));
+    }
+
+    public void addBlock(Slice block) {
+        // take the block if the samples are behind the share of the input seen so far
+        seenBytes += block.length();
+        int room = maxDictionaryBytes - samples.size();
+        if (room > 0 && (double) samples.size() * expectedBytes <= (double) seenBytes * maxDictionaryBytes) {
+            samples.writeBytes(block, 0, Math.min(room, block.length()));
+        }
+    }
+
+    /**
+     * Returns the dictionary, or null if no block was sampled.
+     */
+    public Slice finish() {
+        if (samples.size() == 0) {
+            return null;
+        }
+        // copied so the dictionary covers its whole array, codecs then need no copy of their own
+        return Slices.wrappedBuffer(samples.slice().getBytes());
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import org.iq80.leveldb.impl.InternalUserComparator;
+import org.iq80.leveldb.util.Hash;
+import org.iq80.leveldb.util.Slice;
+
+import java.util.Comparator;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_LONG;
+
+/**
+ * Optional hash index appended to a data block after the restart array.  Each
+ * bucket holds the restart interval containing the hashed user key so a point
+ * lookup can skip the binary search over restart positions.
+ * <p/>
+ * The layout matches RocksDB's data block hash index: {@code num_buckets}
+ * one byte buckets followed by a 16 bit bucket count, with the high bit of
+ * the trailing restart count marking the block as hashed.
+ */
+public final class DataBlockHashIndex {
+    // restart indexes must fit in a byte next to the two markers
+    public static final int MAX_RESTART_SUPPORTED = 253;
+    public static final int NO_ENTRY = 255;
+    public static final int COLLISION = 254;
+
+    public static final int HASH_INDEX_FLAG = 1 << 31;
+    public static final double DEFAULT_UTIL_RATIO = 0.75;
+
+    private static final int HASH_SEED = 397;
+
+    private final Slice buckets;
+    private final boolean internalKeys;
+
+    public DataBlockHashIndex(Slice buckets, boolean internalKeys) {
+        requireNonNull(buckets, "buckets is null");
+        checkArgument(buckets.length() > 0, "Block is corrupt: hash index has no buckets");
+        this.buckets = buckets;
+        this.internalKeys = internalKeys;
+    }
+
+    /**
+     * Data blocks of the database tables are keyed by internal keys; only the user
+     * key portion is hashed so all versions of a key land in the same bucket.
+     */
+    public static boolean hashesUserKey(Comparator<Slice> comparator) {
+        return comparator instanceof InternalUserComparator;
+    }
+
+    static int hash(Slice key, boolean internalKeys) {
+        int length = key.length();
+        if (internalKeys) {
+            checkArgument(length >= SIZE_OF_LONG, "Internal key is too short");
+            length -= SIZE_OF_LONG;
+        }
+        return Hash.hash(key.getRawArray(), key.getRawOffset(), length, HASH_SEED);
+    }
+
+    /**
+     * @return the restart index holding the key, {@link #NO_ENTRY} if the key is
+     * not in the block or {@link #COLLISION} if the bucket can not tell
+     */
+    public int lookup(Slice key) {
+        int bucket = Integer.remainderUnsigned(hash(key, internalKeys), buckets.length());
+        return buckets.getUnsignedByte(bucket);
+    }
+
+    public int getBucketCount() {
+        return buckets.length();
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import org.iq80.leveldb.util.IntVector;
+import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.SliceOutput;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static org.iq80.leveldb.table.DataBlockHashIndex.COLLISION;
+import static org.iq80.leveldb.table.DataBlockHashIndex.MAX_RESTART_SUPPORTED;
+import static org.iq80.leveldb.table.DataBlockHashIndex.NO_ENTRY;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_SHORT;
+
+public class DataBlockHashIndexBuilder {
+    private static final int MAX_BUCKETS = 0xFFFF;
+
+    private final double bucketsPerKey;
+    private final boolean internalKeys;
+    private final IntVector hashes = new IntVector(64);
+    private final IntVector restartIndexes = new IntVector(64);
+    private boolean valid = true;
+
+    public DataBlockHashIndexBuilder(double utilRatio, boolean internalKeys) {
+        checkArgument(utilRatio > 0, "utilRatio must be positive");
+        this.bucketsPerKey = 1 / utilRatio;
+        this.internalKeys = internalKeys;
+    }
+
+    public void add(Slice key, int restartIndex) {
+        if (restartIndex > MAX_RESTART_SUPPORTED) {
+            // the block has too many restarts to be indexed
+            valid = false;
+            return;
+        }
+        hashes.add(DataBlockHashIndex.hash(key, internalKeys));
+        restartIndexes.add(restartIndex);
+    }
+
+    /**
+     * @return false if the block can not carry a hash index and must be written
+     * in the plain format
+     */
+    public boolean isValid() {
+        return valid && hashes.size() > 0;
+    }
+
+    private int bucketCount() {
+        int buckets = (int) Math.min(MAX_BUCKETS, hashes.size() * bucketsPerKey);
+        // an odd number of buckets spreads the hashes better
+        return Math.max(1, buckets) | 1;
+    }
+
+    public int estimateSize() {
+        if (!isValid()) {
+            return 0;
+        }
+        return bucketCount() + SIZE_OF_SHORT;
+    }
+
+    public void finish(SliceOutput output) {
+        checkState(isValid(), "hash index is not valid");
+        int bucketCount = bucketCount();
+        byte[] buckets = new byte[bucketCount];
+        Arrays.fill(buckets, (byte) NO_ENTRY);
+        for (int i = 0; i < hashes.size(); i++) {
+            int bucket = Integer.remainderUnsigned(hashes.get(i), bucketCount);
+            int restartIndex = restartIndexes.get(i);
+            int current = buckets[bucket] & 0xFF;
+            if (current == NO_ENTRY) {
+                buckets[bucket] = (byte) restartIndex;
+            } else if (current != restartIndex) {
+                buckets[bucket] = (byte) COLLISION;
+            }
+        }
+        output.writeBytes(buckets);
+        output.writeShort(bucketCount);
+    }
+
+    public void reset() {
+        hashes.clear();
+        restartIndexes.clear();
+        valid = true;
+    }
+}
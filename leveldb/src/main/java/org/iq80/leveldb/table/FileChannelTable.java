@@ -19,19 +19,31 @@ package org.iq80.leveldb.table;
 
 import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.Slices;
-import org.iq80.leveldb.util.Snappy;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Comparator;
 
-import static org.iq80.leveldb.CompressionType.SNAPPY;
-
 public class FileChannelTable extends Table {
     public FileChannelTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums)
             throws IOException {
-        super(name, fileChannel, comparator, verifyChecksums);
+        this(name, fileChannel, comparator, verifyChecksums, null);
+    }
+
+    public FileChannelTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums, BlockCache blockCache)
+            throws IOException {
+        this(name, fileChannel, comparator, verifyChecksums, blockCache, null);
+    }
+
+    public FileChannelTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums, BlockCache blockCache, FilterPolicy filterPolicy)
+            throws IOException {
+        super(name, fileChannel, comparator, verifyChecksums, blockCache, filterPolicy);
+    }
+
+    public FileChannelTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums, BlockCache blockCache, long cacheId, FilterPolicy filterPolicy)
+            throws IOException {
+        super(name, fileChannel, comparator, verifyChecksums, blockCache, cacheId, filterPolicy);
     }
 
     @Override
@@ -42,45 +54,23 @@ public class FileChannelTable extends Table {
         return Footer.readFooter(Slices.copiedBuffer(footerData));
     }
 
-    @SuppressWarnings({"AssignmentToStaticFieldFromInstanceMethod", "NonPrivateFieldAccessedInSynchronizedContext"})
     @Override
-    protected Block readBlock(BlockHandle blockHandle)
+    protected Slice readBlockContents(BlockHandle blockHandle)
             throws IOException {
-        // read block trailer
-        ByteBuffer trailerData = read(blockHandle.getOffset() + blockHandle.getDataSize(), BlockTrailer.ENCODED_LENGTH);
+        // read the block and its trailer at once
+        ByteBuffer blockData = read(blockHandle.getOffset(), blockHandle.getDataSize() + BlockTrailer.ENCODED_LENGTH);
+        ByteBuffer trailerData = (ByteBuffer) blockData.duplicate().position(blockHandle.getDataSize());
         BlockTrailer blockTrailer = BlockTrailer.readBlockTrailer(Slices.copiedBuffer(trailerData));
 
-// todo re-enable crc check when ported to support direct buffers
-//        // only verify check sums if explicitly asked by the user
-//        if (verifyChecksums) {
-//            // checksum data and the compression type in the trailer
-//            PureJavaCrc32C checksum = new PureJavaCrc32C();
-//            checksum.update(data.getRawArray(), data.getRawOffset(), blockHandle.getDataSize() + 1);
-//            int actualCrc32c = checksum.getMaskedValue();
-//
-//            checkState(blockTrailer.getCrc32c() == actualCrc32c, "Block corrupted: checksum mismatch");
-//        }
-
-        // decompress data
-
-        ByteBuffer uncompressedBuffer = read(blockHandle.getOffset(), blockHandle.getDataSize());
-        Slice uncompressedData;
-        if (blockTrailer.getCompressionType() == SNAPPY) {
-            synchronized (FileChannelTable.class) {
-                int uncompressedLength = uncompressedLength(uncompressedBuffer);
-                if (uncompressedScratch.capacity() < uncompressedLength) {
-                    uncompressedScratch = ByteBuffer.allocateDirect(uncompressedLength);
-                }
-                uncompressedScratch.clear();
-
-                Snappy.uncompress(uncompressedBuffer, uncompressedScratch);
-                uncompressedData = Slices.copiedBuffer(uncompressedScratch);
-            }
-        } else {
-            uncompressedData = Slices.copiedBuffer(uncompressedBuffer);
+        // only verify check sums if explicitly asked by the user
+        if (verifyChecksums) {
+            // checksum data and the compression type in the trailer
+            verifyBlockChecksum((ByteBuffer) blockData.duplicate().limit(blockHandle.getDataSize() + 1), blockTrailer);
         }
 
-        return new Block(uncompressedData, comparator);
+        // decompress data
+        ByteBuffer compressedBuffer = (ByteBuffer) blockData.duplicate().limit(blockHandle.getDataSize());
+        return uncompressBlock(compressedBuffer, blockTrailer.getCompressionType());
     }
 
     private ByteBuffer read(long offset, int length)
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import org.iq80.leveldb.util.DynamicSliceOutput;
+import org.iq80.leveldb.util.IntVector;
+import org.iq80.leveldb.util.Slice;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Builds the filter block of a table: a filter for every {@code 1 << BASE_LG}
+ * bytes of data blocks, followed by the offset of each filter, the offset of
+ * that array and the base.  The format is shared with the C++ leveldb.
+ */
+public class FilterBlockBuilder {
+    public static final int BASE_LG = 11;
+    private static final int BASE = 1 << BASE_LG;
+
+    private final FilterPolicy policy;
+    private final List<Slice> keys = new ArrayList<>();
+    private final DynamicSliceOutput result = new DynamicSliceOutput(1024);
+    private final IntVector filterOffsets = new IntVector(32);
+
+    public FilterBlockBuilder(FilterPolicy policy) {
+        this.policy = requireNonNull(policy, "policy is null");
+    }
+
+    /**
+     * Called before the first key of the data block starting at the offset is added.
+     */
+    public void startBlock(long blockOffset) {
+        long filterIndex = blockOffset / BASE;
+        checkArgument(filterIndex >= filterOffsets.size(), "block offsets must increase");
+        while (filterIndex > filterOffsets.size()) {
+            generateFilter();
+        }
+    }
+
+    public void addKey(Slice key) {
+        keys.add(key);
+    }
+
+    public Slice finish() {
+        if (!keys.isEmpty()) {
+            generateFilter();
+        }
+
+        int arrayOffset = result.size();
+        for (int i = 0; i < filterOffsets.size(); i++) {
+            result.writeInt(filterOffsets.get(i));
+        }
+        result.writeInt(arrayOffset);
+        result.writeByte(BASE_LG);
+        return result.slice();
+    }
+
+    private void generateFilter() {
+        filterOffsets.add(result.size());
+        if (keys.isEmpty()) {
+            // fast path, the filter is empty and matches nothing
+            return;
+        }
+
+        result.writeBytes(policy.createFilter(keys));
+        keys.clear();
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import org.iq80.leveldb.util.Slice;
+
+import static java.util.Objects.requireNonNull;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
+
+public class FilterBlockReader {
+    private final FilterPolicy policy;
+    private final Slice data;
+    private final int offset;
+    private final int filterCount;
+    private final int baseLg;
+
+    public FilterBlockReader(FilterPolicy policy, Slice contents) {
+        this.policy = requireNonNull(policy, "policy is null");
+        requireNonNull(contents, "contents is null");
+
+        int length = contents.length();
+        int arrayOffset = length >= SIZE_OF_INT + 1 ? contents.getInt(length - SIZE_OF_INT - 1) : -1;
+        if (arrayOffset < 0 || arrayOffset > length - SIZE_OF_INT - 1) {
+            // malformed block, every key may match
+            this.data = null;
+            this.offset = 0;
+            this.filterCount = 0;
+            this.baseLg = 0;
+            return;
+        }
+        this.data = contents;
+        this.offset = arrayOffset;
+        this.filterCount = (length - SIZE_OF_INT - 1 - arrayOffset) / SIZE_OF_INT;
+        this.baseLg = contents.getUnsignedByte(length - 1);
+    }
+
+    /**
+     * @return false only if no key of the data block at the offset matches the key
+     */
+    public boolean keyMayMatch(long blockOffset, Slice key) {
+        if (data == null) {
+            return true;
+        }
+        long index = blockOffset >> baseLg;
+        if (index < filterCount) {
+            int start = data.getInt(offset + (int) index * SIZE_OF_INT);
+            int limit = data.getInt(offset + (int) index * SIZE_OF_INT + SIZE_OF_INT);
+            if (start <= limit && limit <= offset) {
+                return policy.keyMayMatch(key, data.slice(start, limit - start));
+            }
+            if (start == limit) {
+                // empty filters do not match any keys
+                return false;
+            }
+        }
+        // errors are treated as potential matches
+        return true;
+    }
+}
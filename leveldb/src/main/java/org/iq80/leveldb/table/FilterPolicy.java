@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import org.iq80.leveldb.DBFilterPolicy;
+import org.iq80.leveldb.util.Slice;
+
+import java.util.List;
+
+public interface FilterPolicy
+        extends DBFilterPolicy {
+    /**
+     * Returns a filter summarizing the keys, which may contain duplicates.
+     */
+    byte[] createFilter(List<Slice> keys);
+
+    /**
+     * Returns true if the key was in the list passed to {@link #createFilter(List)}
+     * and may, but should rarely, return true for keys that were not.
+     */
+    boolean keyMayMatch(Slice key, Slice filter);
+}
@@ -22,6 +22,10 @@ import org.iq80.leveldb.util.SliceInput;
 import org.iq80.leveldb.util.SliceOutput;
 import org.iq80.leveldb.util.Slices;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
 import static com.google.common.base.Preconditions.checkArgument;
 import static java.util.Objects.requireNonNull;
 import static org.iq80.leveldb.table.BlockHandle.readBlockHandle;
@@ -33,13 +37,26 @@ public class Footer {
 
     private final BlockHandle metaindexBlockHandle;
     private final BlockHandle indexBlockHandle;
+    private final long magicNumber;
 
     Footer(BlockHandle metaindexBlockHandle, BlockHandle indexBlockHandle) {
+        this(metaindexBlockHandle, indexBlockHandle, TableBuilder.TABLE_MAGIC_NUMBER);
+    }
+
+    Footer(BlockHandle metaindexBlockHandle, BlockHandle indexBlockHandle, long magicNumber) {
         this.metaindexBlockHandle = metaindexBlockHandle;
         this.indexBlockHandle = indexBlockHandle;
+        this.magicNumber = magicNumber;
     }
 
     public static Footer readFooter(Slice slice) {
+        return readFooter(slice, TableBuilder.TABLE_MAGIC_NUMBER);
+    }
+
+    /**
+     * Reads the footer of a table whose magic number must be the expected one.
+     */
+    public static Footer readFooter(Slice slice, long expectedMagicNumber) {
         requireNonNull(slice, "slice is null");
         checkArgument(slice.length() == ENCODED_LENGTH, "Expected slice.size to be %s but was %s", ENCODED_LENGTH, slice.length());
 
@@ -53,10 +70,30 @@ public class Footer {
         sliceInput.setPosition(ENCODED_LENGTH - SIZE_OF_LONG);
 
         // verify magic number
-        long magicNumber = sliceInput.readUnsignedInt() | (sliceInput.readUnsignedInt() << 32);
-        checkArgument(magicNumber == TableBuilder.TABLE_MAGIC_NUMBER, "File is not a table (bad magic number)");
+        long magicNumber = readMagicNumber(sliceInput);
+        checkArgument(magicNumber == expectedMagicNumber, "File is not a table (bad magic number)");
 
-        return new Footer(metaindexBlockHandle, indexBlockHandle);
+        return new Footer(metaindexBlockHandle, indexBlockHandle, magicNumber);
+    }
+
+    /**
+     * Reads the magic number of the footer, which tells the format of the table.
+     */
+    public static long readMagicNumber(FileChannel fileChannel)
+            throws IOException {
+        long size = fileChannel.size();
+        checkArgument(size >= ENCODED_LENGTH, "File is corrupt: size must be at least %s bytes", ENCODED_LENGTH);
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE_OF_LONG);
+        fileChannel.read(buffer, size - SIZE_OF_LONG);
+        if (buffer.hasRemaining()) {
+            throw new IOException("Could not read all the data");
+        }
+        buffer.flip();
+        return readMagicNumber(Slices.copiedBuffer(buffer).input());
+    }
+
+    private static long readMagicNumber(SliceInput sliceInput) {
+        return sliceInput.readUnsignedInt() | (sliceInput.readUnsignedInt() << 32);
     }
 
     public static Slice writeFooter(Footer footer) {
@@ -77,8 +114,8 @@ public class Footer {
         sliceOutput.writeZero(ENCODED_LENGTH - SIZE_OF_LONG - (sliceOutput.size() - startingWriteIndex));
 
         // write magic number as two (little endian) integers
-        sliceOutput.writeInt((int) TableBuilder.TABLE_MAGIC_NUMBER);
-        sliceOutput.writeInt((int) (TableBuilder.TABLE_MAGIC_NUMBER >>> 32));
+        sliceOutput.writeInt((int) footer.getMagicNumber());
+        sliceOutput.writeInt((int) (footer.getMagicNumber() >>> 32));
     }
 
     public BlockHandle getMetaindexBlockHandle() {
@@ -88,4 +125,8 @@ public class Footer {
     public BlockHandle getIndexBlockHandle() {
         return indexBlockHandle;
     }
+
+    public long getMagicNumber() {
+        return magicNumber;
+    }
 }
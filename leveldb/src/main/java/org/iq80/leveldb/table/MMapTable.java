@@ -22,38 +22,39 @@ import org.iq80.leveldb.util.*;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.channels.FileChannel.MapMode;
 import java.util.Comparator;
 import java.util.concurrent.Callable;
 
-import static com.google.common.base.Preconditions.checkArgument;
-import static org.iq80.leveldb.CompressionType.SNAPPY;
-
 public class MMapTable extends Table {
-    private MappedByteBuffer data;
+    private MappedSegments data;
 
     public MMapTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums)
             throws IOException {
-        super(name, fileChannel, comparator, verifyChecksums);
-        checkArgument(fileChannel.size() <= Integer.MAX_VALUE, "File must be smaller than %s bytes", Integer.MAX_VALUE);
+        this(name, fileChannel, comparator, verifyChecksums, null);
+    }
+
+    public MMapTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums, BlockCache blockCache)
+            throws IOException {
+        this(name, fileChannel, comparator, verifyChecksums, blockCache, null);
     }
 
-    public static ByteBuffer read(MappedByteBuffer data, int offset, int length)
+    public MMapTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums, BlockCache blockCache, FilterPolicy filterPolicy)
             throws IOException {
-        int newPosition = data.position() + offset;
-        ByteBuffer block = (ByteBuffer) data.duplicate().order(ByteOrder.LITTLE_ENDIAN).clear().limit(newPosition + length).position(newPosition);
-        return block;
+        super(name, fileChannel, comparator, verifyChecksums, blockCache, filterPolicy);
+    }
+
+    public MMapTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums, BlockCache blockCache, long cacheId, FilterPolicy filterPolicy)
+            throws IOException {
+        super(name, fileChannel, comparator, verifyChecksums, blockCache, cacheId, filterPolicy);
     }
 
     @Override
     protected Footer init()
             throws IOException {
-        long size = fileChannel.size();
-        data = fileChannel.map(MapMode.READ_ONLY, 0, size);
-        Slice footerSlice = Slices.copiedBuffer(data, (int) size - Footer.ENCODED_LENGTH, Footer.ENCODED_LENGTH);
+        // tables of more than 2GB are mapped in several segments
+        data = new MappedSegments(fileChannel);
+        Slice footerSlice = data.copy(data.size() - Footer.ENCODED_LENGTH, Footer.ENCODED_LENGTH);
         return Footer.readFooter(footerSlice);
     }
 
@@ -62,61 +63,37 @@ public class MMapTable extends Table {
         return new Closer(name, fileChannel, data);
     }
 
-    @SuppressWarnings({"NonPrivateFieldAccessedInSynchronizedContext", "AssignmentToStaticFieldFromInstanceMethod"})
     @Override
-    protected Block readBlock(BlockHandle blockHandle)
+    protected Slice readBlockContents(BlockHandle blockHandle)
             throws IOException {
         // read block trailer
-        BlockTrailer blockTrailer = BlockTrailer.readBlockTrailer(Slices.copiedBuffer(this.data,
-                (int) blockHandle.getOffset() + blockHandle.getDataSize(),
-                BlockTrailer.ENCODED_LENGTH));
-
-// todo re-enable crc check when ported to support direct buffers
-//        // only verify check sums if explicitly asked by the user
-//        if (verifyChecksums) {
-//            // checksum data and the compression type in the trailer
-//            PureJavaCrc32C checksum = new PureJavaCrc32C();
-//            checksum.update(data.getRawArray(), data.getRawOffset(), blockHandle.getDataSize() + 1);
-//            int actualCrc32c = checksum.getMaskedValue();
-//
-//            checkState(blockTrailer.getCrc32c() == actualCrc32c, "Block corrupted: checksum mismatch");
-//        }
+        BlockTrailer blockTrailer = BlockTrailer.readBlockTrailer(data.copy(blockHandle.getOffset() + blockHandle.getDataSize(), BlockTrailer.ENCODED_LENGTH));
 
-        // decompress data
-        Slice uncompressedData;
-        ByteBuffer uncompressedBuffer = read(this.data, (int) blockHandle.getOffset(), blockHandle.getDataSize());
-        if (blockTrailer.getCompressionType() == SNAPPY) {
-            synchronized (MMapTable.class) {
-                int uncompressedLength = uncompressedLength(uncompressedBuffer);
-                if (uncompressedScratch.capacity() < uncompressedLength) {
-                    uncompressedScratch = ByteBuffer.allocateDirect(uncompressedLength);
-                }
-                uncompressedScratch.clear();
-
-                Snappy.uncompress(uncompressedBuffer, uncompressedScratch);
-                uncompressedData = Slices.copiedBuffer(uncompressedScratch);
-            }
-        } else {
-            uncompressedData = Slices.copiedBuffer(uncompressedBuffer);
+        // only verify check sums if explicitly asked by the user
+        if (verifyChecksums) {
+            // checksum data and the compression type in the trailer, straight from the mapping
+            verifyBlockChecksum(data.read(blockHandle.getOffset(), blockHandle.getDataSize() + 1), blockTrailer);
         }
 
-        return new Block(uncompressedData, comparator);
+        // decompress data
+        ByteBuffer compressedBuffer = data.read(blockHandle.getOffset(), blockHandle.getDataSize());
+        return uncompressBlock(compressedBuffer, blockTrailer.getCompressionType());
     }
 
     private static class Closer
             implements Callable<Void> {
         private final String name;
         private final Closeable closeable;
-        private final MappedByteBuffer data;
+        private final MappedSegments data;
 
-        public Closer(String name, Closeable closeable, MappedByteBuffer data) {
+        public Closer(String name, Closeable closeable, MappedSegments data) {
             this.name = name;
             this.closeable = closeable;
             this.data = data;
         }
 
         public Void call() {
-            ByteBufferSupport.unmap(data);
+            data.close();
             Closeables.closeQuietly(closeable);
             return null;
         }
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import org.iq80.leveldb.CompressionType;
+import org.iq80.leveldb.impl.SeekingIterator;
+import org.iq80.leveldb.util.AbstractSeekingIterator;
+import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.SliceInput;
+import org.iq80.leveldb.util.VariableLengthQuantity;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Comparator;
+import java.util.Map.Entry;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
+
+/**
+ * Reader of the tables written in the {@link org.iq80.leveldb.TableFormat#PLAIN}
+ * format.  The whole file is read into memory when the table is opened, lookups
+ * binary search the offsets of the entries and return keys and values that are
+ * slices of the file contents, so nothing is copied or decoded ahead of use.
+ */
+public class PlainTable extends Table {
+    // set by init and readIndexBlock, which are called by the constructor of the table
+    private byte[] data;
+    private Slice offsets;
+    private int entryCount;
+    private int entriesSize;
+
+    public PlainTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums)
+            throws IOException {
+        super(name, fileChannel, comparator, verifyChecksums, null, null);
+    }
+
+    @Override
+    protected Footer init()
+            throws IOException {
+        long size = fileChannel.size();
+        checkArgument(size <= Integer.MAX_VALUE, "Plain table %s is larger than 2GB", name);
+        data = new byte[(int) size];
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            if (fileChannel.read(buffer, buffer.position()) < 0) {
+                throw new IOException("Could not read all the data");
+            }
+        }
+        return Footer.readFooter(new Slice(data, data.length - Footer.ENCODED_LENGTH, Footer.ENCODED_LENGTH), TableBuilder.PLAIN_TABLE_MAGIC_NUMBER);
+    }
+
+    @Override
+    protected Block readIndexBlock(BlockHandle indexBlockHandle)
+            throws IOException {
+        offsets = readBlockContents(indexBlockHandle);
+        entryCount = offsets.length() / SIZE_OF_INT;
+
+        // the entries are a single block, from the start of the file to the index
+        entriesSize = (int) indexBlockHandle.getOffset() - BlockTrailer.ENCODED_LENGTH;
+        checkState(entriesSize >= 0, "Plain table %s is corrupt: bad index offset", name);
+        readBlockContents(new BlockHandle(0, entriesSize));
+        return null;
+    }
+
+    @Override
+    protected Slice readBlockContents(BlockHandle blockHandle)
+            throws IOException {
+        int offset = (int) blockHandle.getOffset();
+        int dataSize = blockHandle.getDataSize();
+        checkState(offset + dataSize + BlockTrailer.ENCODED_LENGTH <= data.length, "Plain table %s is corrupt: block past the end of the file", name);
+        BlockTrailer blockTrailer = BlockTrailer.readBlockTrailer(new Slice(data, offset + dataSize, BlockTrailer.ENCODED_LENGTH));
+
+        // only verify check sums if explicitly asked by the user
+        if (verifyChecksums) {
+            verifyBlockChecksum(ByteBuffer.wrap(data, offset, dataSize + 1), blockTrailer);
+        }
+
+        if (blockTrailer.getCompressionType() == CompressionType.NONE) {
+            return new Slice(data, offset, dataSize);
+        }
+        return uncompressBlock(ByteBuffer.wrap(data, offset, dataSize), blockTrailer.getCompressionType());
+    }
+
+    @Override
+    public SeekingIterator<Slice, Slice> iterator(boolean fillCache) {
+        // the whole table is in memory, there is no block cache to fill
+        return new PlainTableIterator();
+    }
+
+    @Override
+    public BlockEntry get(Slice key) {
+        int index = lowerBound(key);
+        if (index < entryCount) {
+            return entryAt(index);
+        }
+        return null;
+    }
+
+    @Override
+    public BlockEntry getIfCached(Slice key) {
+        // the whole table is in memory
+        return get(key);
+    }
+
+    @Override
+    public long getApproximateOffsetOf(Slice key) {
+        int index = lowerBound(key);
+        if (index < entryCount) {
+            return entryOffset(index);
+        }
+        // past the last key, the end of the entries and their trailer
+        return entriesSize + BlockTrailer.ENCODED_LENGTH;
+    }
+
+    /**
+     * Returns the index of the first entry whose key is greater than or equal to
+     * the key, or the number of entries if there is none.
+     */
+    private int lowerBound(Slice key) {
+        int left = 0;
+        int right = entryCount;
+        while (left < right) {
+            int mid = (left + right) >>> 1;
+            if (comparator.compare(entryAt(mid).getKey(), key) < 0) {
+                left = mid + 1;
+            } else {
+                right = mid;
+            }
+        }
+        return left;
+    }
+
+    private int entryOffset(int index) {
+        return offsets.getInt(index * SIZE_OF_INT);
+    }
+
+    private BlockEntry entryAt(int index) {
+        int offset = entryOffset(index);
+        SliceInput input = new Slice(data, offset, entriesSize - offset).input();
+        int keyLength = VariableLengthQuantity.readVariableLengthInt(input);
+        int valueLength = VariableLengthQuantity.readVariableLengthInt(input);
+        int keyOffset = offset + input.position();
+        return new BlockEntry(new Slice(data, keyOffset, keyLength), new Slice(data, keyOffset + keyLength, valueLength));
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("PlainTable");
+        sb.append("{name='").append(name).append('\'');
+        sb.append(", comparator=").append(comparator);
+        sb.append(", verifyChecksums=").append(verifyChecksums);
+        sb.append(", entryCount=").append(entryCount);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    private class PlainTableIterator
+            extends AbstractSeekingIterator<Slice, Slice> {
+        private int next;
+
+        @Override
+        protected void seekToFirstInternal() {
+            next = 0;
+        }
+
+        @Override
+        protected void seekInternal(Slice targetKey) {
+            next = lowerBound(targetKey);
+        }
+
+        @Override
+        protected Entry<Slice, Slice> getNextElement() {
+            if (next < entryCount) {
+                return entryAt(next++);
+            }
+            return null;
+        }
+    }
+}
@@ -18,33 +18,84 @@
 package org.iq80.leveldb.table;
 
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import org.iq80.leveldb.CompressionType;
 import org.iq80.leveldb.impl.SeekingIterable;
+import org.iq80.leveldb.impl.SeekingIterator;
 import org.iq80.leveldb.util.Closeables;
+import org.iq80.leveldb.util.CompressionCodec;
+import org.iq80.leveldb.util.CompressionCodecs;
+import org.iq80.leveldb.util.Crc32C;
 import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.Slices;
 import org.iq80.leveldb.util.TableIterator;
-import org.iq80.leveldb.util.VariableLengthQuantity;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Comparator;
+import java.util.List;
 import java.util.concurrent.Callable;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
 
 public abstract class Table implements SeekingIterable<Slice, Slice> {
-    protected static ByteBuffer uncompressedScratch = ByteBuffer.allocateDirect(4 * 1024 * 1024);
+    /**
+     * Returned by {@link #getIfCached(Slice)} when the lookup would have to read a block.
+     */
+    public static final BlockEntry NOT_CACHED = new BlockEntry(Slices.EMPTY_SLICE, Slices.EMPTY_SLICE);
+
     protected final String name;
     protected final FileChannel fileChannel;
     protected final Comparator<Slice> comparator;
     protected final boolean verifyChecksums;
+    // the top level index when the index is partitioned
     protected final Block indexBlock;
+    protected final boolean partitionedIndex;
     protected final BlockHandle metaindexBlockHandle;
+    private final BlockCache blockCache;
+    private final long cacheId;
+    private final FilterBlockReader filter;
+    private final List<BlockEntry> rangeTombstones;
+    // null for tables written without properties
+    private final TableProperties properties;
+    // set once the meta index has been read, when the table has a dictionary
+    private Slice compressionDictionary;
 
     public Table(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums)
             throws IOException {
+        this(name, fileChannel, comparator, verifyChecksums, null);
+    }
+
+    /**
+     * @param blockCache cache for data blocks and index partitions, may be null
+     */
+    public Table(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums, BlockCache blockCache)
+            throws IOException {
+        this(name, fileChannel, comparator, verifyChecksums, blockCache, null);
+    }
+
+    /**
+     * @param blockCache cache for data blocks and index partitions, may be null
+     * @param filterPolicy policy of the filter block to use for point lookups, may be null
+     */
+    public Table(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums, BlockCache blockCache, FilterPolicy filterPolicy)
+            throws IOException {
+        this(name, fileChannel, comparator, verifyChecksums, blockCache, blockCache != null ? blockCache.newId() : 0, filterPolicy);
+    }
+
+    /**
+     * @param blockCache cache for data blocks and index partitions, may be null
+     * @param cacheId key of the blocks of the table in the block cache, the number of the
+     * table file so a table opened again finds the blocks cached for it before
+     * @param filterPolicy policy of the filter block to use for point lookups, may be null
+     */
+    public Table(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums, BlockCache blockCache, long cacheId, FilterPolicy filterPolicy)
+            throws IOException {
         requireNonNull(name, "name is null");
         requireNonNull(fileChannel, "fileChannel is null");
         long size = fileChannel.size();
@@ -55,22 +106,236 @@ public abstract class Table implements SeekingIterable<Slice, Slice> {
         this.fileChannel = fileChannel;
         this.verifyChecksums = verifyChecksums;
         this.comparator = comparator;
+        this.blockCache = blockCache;
+        this.cacheId = cacheId;
 
         Footer footer = init();
-        indexBlock = readBlock(footer.getIndexBlockHandle());
         metaindexBlockHandle = footer.getMetaindexBlockHandle();
+        Block metaindexBlock = readBlock(metaindexBlockHandle);
+
+        // the other blocks may be compressed with the dictionary, so it is loaded first
+        Slice compressionDictHandle = findMetaBlock(metaindexBlock, TableBuilder.COMPRESSION_DICT_KEY);
+        if (compressionDictHandle != null) {
+            Slice dictionary = readBlockContents(BlockHandle.readBlockHandle(compressionDictHandle.input()));
+            compressionDictionary = Slices.wrappedBuffer(dictionary.getBytes());
+        }
+        indexBlock = readIndexBlock(footer.getIndexBlockHandle());
+        partitionedIndex = findMetaBlock(metaindexBlock, TableBuilder.PARTITIONED_INDEX_KEY) != null;
+
+        // the filter is kept in memory for the life of the table, tables written with another policy are not filtered
+        Slice filterHandle = null;
+        if (filterPolicy != null) {
+            filterHandle = findMetaBlock(metaindexBlock, Slices.copiedBuffer(TableBuilder.FILTER_KEY_PREFIX + filterPolicy.name(), UTF_8));
+        }
+        if (filterHandle != null) {
+            filter = new FilterBlockReader(filterPolicy, readBlockContents(BlockHandle.readBlockHandle(filterHandle.input())));
+        } else {
+            filter = null;
+        }
+
+        // range tombstones are needed by every lookup, so they are read up front
+        Slice rangeDelHandle = findMetaBlock(metaindexBlock, TableBuilder.RANGE_DEL_KEY);
+        if (rangeDelHandle != null) {
+            ImmutableList.Builder<BlockEntry> builder = ImmutableList.builder();
+            for (BlockIterator iterator = readBlock(BlockHandle.readBlockHandle(rangeDelHandle.input())).iterator(); iterator.hasNext(); ) {
+                BlockEntry entry = iterator.next();
+                builder.add(new BlockEntry(entry.getKey().copySlice(), entry.getValue().copySlice()));
+            }
+            rangeTombstones = builder.build();
+        } else {
+            rangeTombstones = ImmutableList.of();
+        }
+
+        Slice propertiesHandle = findMetaBlock(metaindexBlock, TableBuilder.PROPERTIES_KEY);
+        if (propertiesHandle != null) {
+            properties = TableProperties.read(readBlock(BlockHandle.readBlockHandle(propertiesHandle.input())));
+        } else {
+            properties = null;
+        }
+    }
+
+    /**
+     * Returns the properties of the table, or null if it was written without them.
+     */
+    public TableProperties getProperties() {
+        return properties;
+    }
+
+    /**
+     * Returns the range tombstones of the table, keyed by the start of each range
+     * and valued with its exclusive end.
+     */
+    public List<BlockEntry> getRangeTombstones() {
+        return rangeTombstones;
+    }
+
+    /**
+     * Returns the value of the meta index entry with the name, or null if there is none.
+     */
+    private static Slice findMetaBlock(Block metaindexBlock, Slice name) {
+        // the meta index is tiny and sorted bytewise rather than with the table comparator
+        for (BlockIterator iterator = metaindexBlock.iterator(); iterator.hasNext(); ) {
+            BlockEntry entry = iterator.next();
+            if (entry.getKey().equals(name)) {
+                return entry.getValue();
+            }
+        }
+        return null;
     }
 
     protected abstract Footer init()
             throws IOException;
 
+    /**
+     * Reads the block the footer points at as the index of the data blocks.
+     */
+    protected Block readIndexBlock(BlockHandle indexBlockHandle)
+            throws IOException {
+        return readBlock(indexBlockHandle);
+    }
+
     @Override
-    public TableIterator iterator() {
-        return new TableIterator(this, indexBlock.iterator());
+    public SeekingIterator<Slice, Slice> iterator() {
+        return iterator(true);
+    }
+
+    /**
+     * @param fillCache whether the blocks read are added to the block cache; scans
+     * reading every block once, like compactions, leave the cache to the hot blocks
+     */
+    public SeekingIterator<Slice, Slice> iterator(boolean fillCache) {
+        if (partitionedIndex) {
+            // the entries of the partitions form the index of the data blocks
+            return new TableIterator(this, new TableIterator(this, indexBlock.iterator(), fillCache), fillCache);
+        }
+        return new TableIterator(this, indexBlock.iterator(), fillCache);
+    }
+
+    /**
+     * Returns the index entry of the data block that may contain the key.
+     */
+    private BlockEntry seekIndex(Slice key) {
+        BlockIterator iterator = indexBlock.iterator();
+        iterator.seek(key);
+        if (!iterator.hasNext()) {
+            return null;
+        }
+        BlockEntry indexEntry = iterator.next();
+        if (!partitionedIndex) {
+            return indexEntry;
+        }
+
+        iterator = openBlock(indexEntry.getValue()).iterator();
+        iterator.seek(key);
+        if (!iterator.hasNext()) {
+            return null;
+        }
+        return iterator.next();
+    }
+
+    /**
+     * Point lookup of the specified key.  Returns the first entry greater than or equal
+     * to the key in the block the index maps it to, or null if there is none.  Unlike
+     * seeking an iterator this never moves on to the following block: the index keys
+     * separate the user keys of adjacent blocks, so that entry could never share the
+     * user key of the target.
+     */
+    public BlockEntry get(Slice key) {
+        BlockEntry indexEntry = seekIndex(key);
+        if (indexEntry == null) {
+            return null;
+        }
+
+        BlockHandle blockHandle = BlockHandle.readBlockHandle(indexEntry.getValue().input());
+        if (filter != null && !filter.keyMayMatch(blockHandle.getOffset(), key)) {
+            return null;
+        }
+
+        BlockIterator dataIterator = openBlock(blockHandle).iterator();
+        dataIterator.seekForGet(key);
+        if (dataIterator.hasNext()) {
+            return dataIterator.next();
+        }
+        return null;
+    }
+
+    /**
+     * Variant of {@link #get(Slice)} that never reads the file.  It only uses the
+     * index, the filter and blocks that are already in the block cache.
+     *
+     * @return the entry {@link #get(Slice)} would return, null if the table can not
+     * contain the key, or {@link #NOT_CACHED} if the answer requires reading a block
+     */
+    public BlockEntry getIfCached(Slice key) {
+        BlockIterator iterator = indexBlock.iterator();
+        iterator.seek(key);
+        if (!iterator.hasNext()) {
+            return null;
+        }
+        BlockEntry indexEntry = iterator.next();
+        if (partitionedIndex) {
+            Block partition = getCachedBlock(BlockHandle.readBlockHandle(indexEntry.getValue().input()));
+            if (partition == null) {
+                return NOT_CACHED;
+            }
+            iterator = partition.iterator();
+            iterator.seek(key);
+            if (!iterator.hasNext()) {
+                return null;
+            }
+            indexEntry = iterator.next();
+        }
+
+        BlockHandle blockHandle = BlockHandle.readBlockHandle(indexEntry.getValue().input());
+        if (filter != null && !filter.keyMayMatch(blockHandle.getOffset(), key)) {
+            return null;
+        }
+
+        Block dataBlock = getCachedBlock(blockHandle);
+        if (dataBlock == null) {
+            return NOT_CACHED;
+        }
+        BlockIterator dataIterator = dataBlock.iterator();
+        dataIterator.seekForGet(key);
+        if (dataIterator.hasNext()) {
+            return dataIterator.next();
+        }
+        return null;
+    }
+
+    private Block getCachedBlock(BlockHandle blockHandle) {
+        if (blockCache == null) {
+            return null;
+        }
+        return blockCache.getIfPresent(cacheId, blockHandle.getOffset());
     }
 
     public Block openBlock(Slice blockEntry) {
-        BlockHandle blockHandle = BlockHandle.readBlockHandle(blockEntry.input());
+        return openBlock(blockEntry, true);
+    }
+
+    /**
+     * @param fillCache whether a block that is not cached yet is added to the block cache
+     */
+    public Block openBlock(Slice blockEntry, boolean fillCache) {
+        return openBlock(BlockHandle.readBlockHandle(blockEntry.input()), fillCache);
+    }
+
+    private Block openBlock(BlockHandle blockHandle) {
+        return openBlock(blockHandle, true);
+    }
+
+    private Block openBlock(final BlockHandle blockHandle, boolean fillCache) {
+        if (blockCache != null) {
+            if (fillCache) {
+                return blockCache.getBlock(cacheId, blockHandle.getOffset(), () -> readBlock(blockHandle));
+            }
+            Block cachedBlock = blockCache.getIfPresent(cacheId, blockHandle.getOffset());
+            if (cachedBlock != null) {
+                return cachedBlock;
+            }
+        }
+
         Block dataBlock;
         try {
             dataBlock = readBlock(blockHandle);
@@ -80,13 +345,45 @@ public abstract class Table implements SeekingIterable<Slice, Slice> {
         return dataBlock;
     }
 
-    protected abstract Block readBlock(BlockHandle blockHandle)
+    protected Block readBlock(BlockHandle blockHandle)
+            throws IOException {
+        return new Block(readBlockContents(blockHandle), comparator);
+    }
+
+    /**
+     * Reads and uncompresses the contents of the block, without the trailer.
+     */
+    protected abstract Slice readBlockContents(BlockHandle blockHandle)
             throws IOException;
 
-    protected int uncompressedLength(ByteBuffer data)
+    /**
+     * Checks the block against the crc of its trailer.  The buffer holds the block
+     * contents followed by the compression type, the first byte of the trailer.
+     */
+    protected void verifyBlockChecksum(ByteBuffer contentsAndType, BlockTrailer blockTrailer) {
+        Crc32C checksum = new Crc32C();
+        checksum.update(contentsAndType);
+        int actualCrc32c = checksum.getMaskedValue();
+        checkState(blockTrailer.getCrc32c() == actualCrc32c, "Block corrupted: checksum mismatch in %s", name);
+    }
+
+    /**
+     * Uncompresses the block contents, without the trailer, with the codec of the
+     * compression type in the trailer.
+     */
+    protected Slice uncompressBlock(ByteBuffer blockContents, CompressionType compressionType)
             throws IOException {
-        int length = VariableLengthQuantity.readVariableLengthInt(data.duplicate());
-        return length;
+        if (compressionType == CompressionType.NONE) {
+            return Slices.copiedBuffer(blockContents);
+        }
+        CompressionCodec codec = CompressionCodecs.getCodec(compressionType);
+        if (codec == null) {
+            throw new IOException(String.format("Block of %s is compressed with %s, which is not available", name, compressionType));
+        }
+        if (compressionDictionary != null) {
+            return codec.uncompress(blockContents, compressionDictionary);
+        }
+        return codec.uncompress(blockContents);
     }
 
     /**
@@ -98,16 +395,18 @@ public abstract class Table implements SeekingIterable<Slice, Slice> {
      * be close to the file length.
      */
     public long getApproximateOffsetOf(Slice key) {
-        BlockIterator iterator = indexBlock.iterator();
-        iterator.seek(key);
-        if (iterator.hasNext()) {
-            BlockHandle blockHandle = BlockHandle.readBlockHandle(iterator.next().getValue().input());
+        BlockEntry indexEntry = seekIndex(key);
+        if (indexEntry != null) {
+            BlockHandle blockHandle = BlockHandle.readBlockHandle(indexEntry.getValue().input());
             return blockHandle.getOffset();
         }
 
-        // key is past the last key in the file.  Approximate the offset
-        // by returning the offset of the metaindex block (which is
-        // right near the end of the file).
+        // key is past the last key in the file.  Approximate the offset by the end of
+        // the data blocks, and of the index partitions between them, when known, or else
+        // by returning the offset of the metaindex block (which is right near the end of the file).
+        if (properties != null) {
+            return properties.getDataSize() + (partitionedIndex ? properties.getIndexSize() : 0);
+        }
         return metaindexBlockHandle.getOffset();
     }
 
@@ -118,6 +417,8 @@ public abstract class Table implements SeekingIterable<Slice, Slice> {
         sb.append("{name='").append(name).append('\'');
         sb.append(", comparator=").append(comparator);
         sb.append(", verifyChecksums=").append(verifyChecksums);
+        sb.append(", partitionedIndex=").append(partitionedIndex);
+        sb.append(", filter=").append(filter != null);
         sb.append('}');
         return sb.toString();
     }
@@ -18,20 +18,40 @@
 package org.iq80.leveldb.table;
 
 import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.iq80.leveldb.CompressionType;
+import org.iq80.leveldb.DBFilterPolicy;
 import org.iq80.leveldb.Options;
-import org.iq80.leveldb.util.PureJavaCrc32C;
+import org.iq80.leveldb.RateLimiter;
+import org.iq80.leveldb.TableFormat;
+import org.iq80.leveldb.util.CompressionCodec;
+import org.iq80.leveldb.util.CompressionCodecs;
+import org.iq80.leveldb.util.Crc32C;
+import org.iq80.leveldb.util.DynamicSliceOutput;
 import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.Slices;
-import org.iq80.leveldb.util.Snappy;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
 import static org.iq80.leveldb.impl.VersionSet.TARGET_FILE_SIZE;
+import static org.iq80.leveldb.util.SizeOf.SIZE_OF_INT;
+import static org.iq80.leveldb.util.VariableLengthQuantity.writeVariableLengthInt;
 
 /**
  * 通过这个builder的类，可以实现Version1+VersionEdit=Version2。由此来产生新的version。
@@ -46,16 +66,86 @@ public class TableBuilder {
      */
     public static final long TABLE_MAGIC_NUMBER = 0xdb4775248b80fb57L;
 
+    /**
+     * Magic number of the tables written in the {@link TableFormat#PLAIN} format.
+     * Their entries are stored uncompressed one after the other, in a single block
+     * starting at the beginning of the file, and the index block the footer points
+     * at holds the offset of every entry as a fixed 32 bit integer.
+     */
+    public static final long PLAIN_TABLE_MAGIC_NUMBER = 0x8242229663bf9564L;
+
+    /**
+     * Meta index entry marking a table whose index block is the top level of a
+     * partitioned index.  Each top level entry maps the last key of a partition
+     * to the partition, which in turn is an ordinary index block.
+     */
+    public static final Slice PARTITIONED_INDEX_KEY = Slices.copiedBuffer("leveldb.index.partitioned", UTF_8);
+
+    /**
+     * Prefix of the meta index entry pointing at the filter block, followed by the
+     * name of the filter policy.
+     */
+    public static final String FILTER_KEY_PREFIX = "filter.";
+
+    /**
+     * Meta index entry pointing at the block of range tombstones.  The block maps
+     * the start key of each range to its exclusive end.
+     */
+    public static final Slice RANGE_DEL_KEY = Slices.copiedBuffer("leveldb.range_del", UTF_8);
+
+    /**
+     * Meta index entry pointing at the raw content dictionary the blocks of the table
+     * are compressed with.  Only the meta index block is written without it.
+     */
+    public static final Slice COMPRESSION_DICT_KEY = Slices.copiedBuffer("leveldb.compression_dict", UTF_8);
+
+    /**
+     * Meta index entry pointing at the {@link TableProperties} of the table.
+     */
+    public static final Slice PROPERTIES_KEY = Slices.copiedBuffer("leveldb.properties", UTF_8);
+
     private final int blockRestartInterval;
     private final int blockSize;
     private final CompressionType compressionType;
+    // null when the codec of the compression type is not available, blocks are then stored uncompressed
+    private final CompressionCodec compressionCodec;
+    private Slice compressionDictionary;
+    private CompressionDictionarySampler dictionarySampler;
 
     private final FileChannel fileChannel;
+    private final RateLimiter rateLimiter;
+    private final RateLimiter.Priority ioPriority;
+    private final long bytesPerSync;
     private final BlockBuilder dataBlockBuilder;
     private final BlockBuilder indexBlockBuilder;
+    // only set when the index is partitioned, indexBlockBuilder then holds the current partition
+    private final BlockBuilder topLevelIndexBuilder;
+    private final int indexPartitionSize;
+    private Slice lastIndexKey;
+    private final FilterPolicy filterPolicy;
+    private final FilterBlockBuilder filterBlockBuilder;
     private final UserComparator userComparator;
     private Slice lastKey;
     private long entryCount;
+    private final List<BlockEntry> rangeTombstones = new ArrayList<>();
+
+    // only set for plain tables, the entries not written yet and the offsets of all entries
+    private final DynamicSliceOutput plainEntries;
+    private final DynamicSliceOutput plainOffsets;
+    private final Crc32C plainChecksum;
+
+    // sizes of what has been written, for the table properties
+    private long rawKeySize;
+    private long rawValueSize;
+    private long numDataBlocks;
+    private long dataSize;
+    private long indexSize;
+    // set by the database, which knows the entries are internal keys
+    private long numDeletions;
+    private long smallestSequence;
+    private long largestSequence;
+    private long creationTime;
+    private TableProperties properties;
 
     // Either Finish() or Abandon() has been called.
     private boolean closed;
@@ -73,11 +163,42 @@ public class TableBuilder {
 
     private Slice compressedOutput;
 
+    // set when the data blocks are compressed in parallel, they are then written in order as they complete
+    private Executor compressionExecutor;
+    private int maxBlocksInFlight;
+    private final Deque<PendingBlock> pendingBlocks = new ArrayDeque<>();
+    private long pendingBlockBytes;
+    // keys of the current data block, added to the filter once the position of the block is known
+    private List<Slice> pendingBlockKeys;
+
     private long position;
+    private long syncedPosition;
 
     public TableBuilder(Options options, FileChannel fileChannel, UserComparator userComparator) {
+        this(options, fileChannel, userComparator, toFilterPolicy(options.filterPolicy()));
+    }
+
+    public TableBuilder(Options options, FileChannel fileChannel, UserComparator userComparator, FilterPolicy filterPolicy) {
+        this(options, fileChannel, userComparator, filterPolicy, RateLimiter.Priority.LOW);
+    }
+
+    /**
+     * @param filterPolicy policy applied to the keys as they are added, may be null
+     * @param ioPriority priority of the writes at the rate limiter of the options
+     */
+    public TableBuilder(Options options, FileChannel fileChannel, UserComparator userComparator, FilterPolicy filterPolicy, RateLimiter.Priority ioPriority) {
+        this(options, fileChannel, userComparator, filterPolicy, ioPriority, options.compressionType());
+    }
+
+    /**
+     * @param compressionType compression of the blocks, overriding the one of the options
+     */
+    public TableBuilder(Options options, FileChannel fileChannel, UserComparator userComparator, FilterPolicy filterPolicy, RateLimiter.Priority ioPriority,
+            CompressionType compressionType) {
         requireNonNull(options, "options is null");
         requireNonNull(fileChannel, "fileChannel is null");
+        requireNonNull(ioPriority, "ioPriority is null");
+        requireNonNull(compressionType, "compressionType is null");
         try {
             checkState(position == fileChannel.position(), "Expected position %s to equal fileChannel.position %s", position, fileChannel.position());
         } catch (IOException e) {
@@ -86,58 +207,156 @@ public class TableBuilder {
 
         this.fileChannel = fileChannel;
         this.userComparator = userComparator;
+        this.rateLimiter = options.rateLimiter();
+        this.ioPriority = ioPriority;
+        this.bytesPerSync = options.bytesPerSync();
 
         blockRestartInterval = options.blockRestartInterval();
         blockSize = options.blockSize();
-        compressionType = options.compressionType();
+        boolean plainTable = options.tableFormat() == TableFormat.PLAIN;
+        if (plainTable) {
+            // plain tables are never compressed, filtered or partitioned
+            compressionType = CompressionType.NONE;
+            filterPolicy = null;
+            plainEntries = new DynamicSliceOutput(blockSize + 64);
+            plainOffsets = new DynamicSliceOutput(1024);
+            plainChecksum = new Crc32C();
+        } else {
+            plainEntries = null;
+            plainOffsets = null;
+            plainChecksum = null;
+        }
+        this.compressionType = compressionType;
+        compressionCodec = compressionType == CompressionType.NONE ? null : CompressionCodecs.getCodec(compressionType);
 
-        dataBlockBuilder = new BlockBuilder((int) Math.min(blockSize * 1.1, TARGET_FILE_SIZE), blockRestartInterval, userComparator);
+        dataBlockBuilder = new BlockBuilder((int) Math.min(blockSize * 1.1, TARGET_FILE_SIZE), blockRestartInterval, userComparator, options.dataBlockHashIndex());
 
         // with expected 50% compression
         int expectedNumberOfBlocks = 1024;
         indexBlockBuilder = new BlockBuilder(BlockHandle.MAX_ENCODED_LENGTH * expectedNumberOfBlocks, 1, userComparator);
 
+        indexPartitionSize = options.indexPartitionSize();
+        if (indexPartitionSize > 0 && !plainTable) {
+            topLevelIndexBuilder = new BlockBuilder(256, 1, userComparator);
+        } else {
+            topLevelIndexBuilder = null;
+        }
+
+        this.filterPolicy = filterPolicy;
+        if (filterPolicy != null) {
+            filterBlockBuilder = new FilterBlockBuilder(filterPolicy);
+            filterBlockBuilder.startBlock(0);
+        } else {
+            filterBlockBuilder = null;
+        }
+
         lastKey = Slices.EMPTY_SLICE;
     }
 
-    private static int maxCompressedLength(int length) {
-        // Compressed data can be defined as:
-        //    compressed := item* literal*
-        //    item       := literal* copy
-        //
-        // The trailing literal sequence has a space blowup of at most 62/60
-        // since a literal of length 60 needs one tag byte + one extra byte
-        // for length information.
-        //
-        // Item blowup is trickier to measure.  Suppose the "copy" op copies
-        // 4 bytes of data.  Because of a special check in the encoding code,
-        // we produce a 4-byte copy only if the offset is < 65536.  Therefore
-        // the copy op takes 3 bytes to encode, and this type of item leads
-        // to at most the 62/60 blowup for representing literals.
-        //
-        // Suppose the "copy" op copies 5 bytes of data.  If the offset is big
-        // enough, it will take 5 bytes to encode the copy op.  Therefore the
-        // worst case here is a one-byte literal followed by a five-byte copy.
-        // I.e., 6 bytes of input turn into 7 bytes of "compressed" data.
-        //
-        // This last factor dominates the blowup, so the final estimate is:
-        return 32 + length + (length / 6);
+    private static FilterPolicy toFilterPolicy(DBFilterPolicy filterPolicy) {
+        if (filterPolicy == null) {
+            return null;
+        }
+        checkArgument(filterPolicy instanceof FilterPolicy, "filterPolicy must implement %s", FilterPolicy.class.getName());
+        return (FilterPolicy) filterPolicy;
     }
 
     public static int crc32c(Slice data, CompressionType type) {
-        PureJavaCrc32C crc32c = new PureJavaCrc32C();
-        crc32c.update(data.getRawArray(), data.getRawOffset(), data.length());
+        Crc32C crc32c = new Crc32C();
+        crc32c.update(data);
         crc32c.update(type.persistentId() & 0xFF);
         return crc32c.getMaskedValue();
     }
 
+    /**
+     * Compresses the blocks of the table with the dictionary.  Ignored when the codec
+     * does not support dictionaries.
+     */
+    public void setCompressionDictionary(Slice compressionDictionary) {
+        requireNonNull(compressionDictionary, "compressionDictionary is null");
+        checkState(position == 0 && pendingBlocks.isEmpty(), "blocks have already been written");
+        if (compressionCodec != null && compressionCodec.supportsDictionary()) {
+            this.compressionDictionary = compressionDictionary;
+        }
+    }
+
+    /**
+     * Hands the uncompressed data blocks to the sampler as they are written.
+     */
+    public void sampleDataBlocks(CompressionDictionarySampler dictionarySampler) {
+        this.dictionarySampler = requireNonNull(dictionarySampler, "dictionarySampler is null");
+    }
+
+    /**
+     * Compresses the data blocks in the executor, with at most maxBlocksInFlight of them
+     * waiting to be written.  The blocks are still written in order, by the thread adding
+     * the entries.  Ignored when the blocks are not compressed.
+     */
+    public void compressBlocksIn(Executor compressionExecutor, int maxBlocksInFlight) {
+        requireNonNull(compressionExecutor, "compressionExecutor is null");
+        checkArgument(maxBlocksInFlight > 0, "maxBlocksInFlight must be positive");
+        checkState(entryCount == 0, "entries have already been added");
+        if (compressionCodec != null) {
+            this.compressionExecutor = compressionExecutor;
+            this.maxBlocksInFlight = maxBlocksInFlight;
+            if (filterBlockBuilder != null) {
+                pendingBlockKeys = new ArrayList<>();
+            }
+        }
+    }
+
+    /**
+     * Sets the properties of the entries that only the caller can tell apart.
+     */
+    public void setInternalKeyStats(long numDeletions, long smallestSequence, long largestSequence) {
+        this.numDeletions = numDeletions;
+        this.smallestSequence = smallestSequence;
+        this.largestSequence = largestSequence;
+    }
+
+    /**
+     * @param creationTime seconds since the epoch
+     */
+    public void setCreationTime(long creationTime) {
+        this.creationTime = creationTime;
+    }
+
+    /**
+     * Returns the properties written into the table, available once it is finished.
+     */
+    public TableProperties getProperties() {
+        checkState(properties != null, "table is not finished");
+        return properties;
+    }
+
     public long getEntryCount() {
         return entryCount;
     }
 
+    public int getRangeTombstoneCount() {
+        return rangeTombstones.size();
+    }
+
+    /**
+     * Adds a range tombstone.  Unlike entries, tombstones may be added in any order.
+     */
+    public void addRangeTombstone(Slice startKey, Slice endKey) {
+        requireNonNull(startKey, "startKey is null");
+        requireNonNull(endKey, "endKey is null");
+        checkState(!closed, "table is finished");
+        rangeTombstones.add(new BlockEntry(startKey, endKey));
+    }
+
     public long getFileSize()
             throws IOException {
-        return position + dataBlockBuilder.currentSizeEstimate();
+        if (closed) {
+            // the empty data block builder still estimates the size of its restart array
+            return position;
+        }
+        if (plainEntries != null) {
+            return position + plainEntries.size();
+        }
+        return position + pendingBlockBytes + dataBlockBuilder.currentSizeEstimate();
     }
 
     public void add(BlockEntry blockEntry)
@@ -157,20 +376,34 @@ public class TableBuilder {
             assert (userComparator.compare(key, lastKey) > 0) : "key must be greater than last key";
         }
 
+        if (plainEntries != null) {
+            addPlainEntry(key, value);
+            return;
+        }
+
         // If we just wrote a block, we can now add the handle to index block
         if (pendingIndexEntry) {
             checkState(dataBlockBuilder.isEmpty(), "Internal error: Table has a pending index entry but data block builder is empty");
 
             Slice shortestSeparator = userComparator.findShortestSeparator(lastKey, key);
 
-            Slice handleEncoding = BlockHandle.writeBlockHandle(pendingHandle);
-            indexBlockBuilder.add(shortestSeparator, handleEncoding);
+            addIndexEntry(shortestSeparator, pendingHandle);
             pendingIndexEntry = false;
+        } else if (!pendingBlocks.isEmpty() && pendingBlocks.peekLast().indexKey == null) {
+            pendingBlocks.peekLast().indexKey = userComparator.findShortestSeparator(lastKey, key);
+            writePendingBlocks(false);
         }
 
         lastKey = key;
         entryCount++;
+        rawKeySize += key.length();
+        rawValueSize += value.length();
         dataBlockBuilder.add(key, value);
+        if (pendingBlockKeys != null) {
+            pendingBlockKeys.add(key);
+        } else if (filterBlockBuilder != null) {
+            filterBlockBuilder.addKey(key);
+        }
 
         int estimatedBlockSize = dataBlockBuilder.currentSizeEstimate();
         if (estimatedBlockSize >= blockSize) {
@@ -178,6 +411,53 @@ public class TableBuilder {
         }
     }
 
+    private void addPlainEntry(Slice key, Slice value)
+            throws IOException {
+        long offset = position + plainEntries.size();
+        checkState(offset <= Integer.MAX_VALUE, "plain tables are limited to 2GB of entries");
+        plainOffsets.writeInt((int) offset);
+
+        lastKey = key;
+        entryCount++;
+        rawKeySize += key.length();
+        rawValueSize += value.length();
+        writeVariableLengthInt(key.length(), plainEntries);
+        writeVariableLengthInt(value.length(), plainEntries);
+        plainEntries.writeBytes(key);
+        plainEntries.writeBytes(value);
+
+        if (plainEntries.size() >= blockSize) {
+            writePlainEntries();
+        }
+    }
+
+    private void writePlainEntries()
+            throws IOException {
+        Slice entries = plainEntries.slice();
+        plainChecksum.update(entries);
+        write(entries.toByteBuffer());
+        plainEntries.reset();
+    }
+
+    /**
+     * Ends the block of entries of a plain table with its trailer and writes the
+     * offsets of the entries as the index block.
+     */
+    private BlockHandle finishPlainEntries()
+            throws IOException {
+        writePlainEntries();
+        plainChecksum.update(CompressionType.NONE.persistentId() & 0xFF);
+        BlockTrailer trailer = new BlockTrailer(CompressionType.NONE, plainChecksum.getMaskedValue());
+        write(BlockTrailer.writeBlockTrailer(trailer).toByteBuffer());
+        numDataBlocks = 1;
+        dataSize = position;
+
+        BlockHandle indexBlockHandle = writeRawBlock(plainOffsets.slice(), CompressionType.NONE);
+        indexSize = indexBlockHandle.getDataSize() + BlockTrailer.ENCODED_LENGTH;
+        checkState(indexBlockHandle.getDataSize() == entryCount * SIZE_OF_INT, "Internal error: plain table has %s offsets for %s entries", indexBlockHandle.getDataSize() / SIZE_OF_INT, entryCount);
+        return indexBlockHandle;
+    }
+
     private void flush()
             throws IOException {
         checkState(!closed, "table is finished");
@@ -187,45 +467,167 @@ public class TableBuilder {
 
         checkState(!pendingIndexEntry, "Internal error: Table already has a pending index entry to flush");
 
-        pendingHandle = writeBlock(dataBlockBuilder);
+        if (dictionarySampler != null) {
+            dictionarySampler.addBlock(dataBlockBuilder.finish());
+        }
+        if (compressionExecutor != null) {
+            submitBlock();
+            return;
+        }
+        pendingHandle = writeDataBlock(dataBlockBuilder);
         pendingIndexEntry = true;
+        if (filterBlockBuilder != null) {
+            filterBlockBuilder.startBlock(position);
+        }
+    }
+
+    private void submitBlock()
+            throws IOException {
+        // the builder reuses its buffer for the next block
+        Slice raw = dataBlockBuilder.finish().copySlice();
+        dataBlockBuilder.reset();
+
+        FutureTask<CompressedBlock> task = new FutureTask<>(() -> compressBlock(raw, Slices.allocate(compressionCodec.maxCompressedLength(raw.length()))));
+        compressionExecutor.execute(task);
+        pendingBlocks.add(new PendingBlock(task, raw.length(), pendingBlockKeys));
+        pendingBlockBytes += raw.length();
+        if (pendingBlockKeys != null) {
+            pendingBlockKeys = new ArrayList<>();
+        }
+
+        // the index key of every block but the last submitted one is known
+        while (pendingBlocks.size() > maxBlocksInFlight) {
+            writePendingBlock(pendingBlocks.removeFirst());
+        }
+    }
+
+    /**
+     * Writes the blocks at the head of the queue whose index key is known, stopping at
+     * the first one still being compressed unless waitForCompression is set.
+     */
+    private void writePendingBlocks(boolean waitForCompression)
+            throws IOException {
+        while (!pendingBlocks.isEmpty()) {
+            PendingBlock block = pendingBlocks.peekFirst();
+            if (block.indexKey == null || (!waitForCompression && !block.compressedBlock.isDone())) {
+                return;
+            }
+            writePendingBlock(pendingBlocks.removeFirst());
+        }
+    }
+
+    private void writePendingBlock(PendingBlock block)
+            throws IOException {
+        CompressedBlock compressedBlock;
+        try {
+            compressedBlock = Uninterruptibles.getUninterruptibly(block.compressedBlock);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+        pendingBlockBytes -= block.rawLength;
+
+        if (block.keys != null) {
+            for (Slice key : block.keys) {
+                filterBlockBuilder.addKey(key);
+            }
+        }
+        BlockHandle blockHandle = writeBlock(compressedBlock);
+        numDataBlocks++;
+        dataSize += blockHandle.getDataSize() + BlockTrailer.ENCODED_LENGTH;
+        if (filterBlockBuilder != null) {
+            filterBlockBuilder.startBlock(position);
+        }
+        addIndexEntry(block.indexKey, blockHandle);
+    }
+
+    private void addIndexEntry(Slice key, BlockHandle blockHandle)
+            throws IOException {
+        indexBlockBuilder.add(key, BlockHandle.writeBlockHandle(blockHandle));
+        lastIndexKey = key;
+
+        if (topLevelIndexBuilder != null && indexBlockBuilder.currentSizeEstimate() >= indexPartitionSize) {
+            flushIndexPartition();
+        }
+    }
+
+    private void flushIndexPartition()
+            throws IOException {
+        // the last key of the partition is >= every key it indexes and < every key of the next one
+        BlockHandle partitionHandle = writeBlock(indexBlockBuilder);
+        indexSize += partitionHandle.getDataSize() + BlockTrailer.ENCODED_LENGTH;
+        topLevelIndexBuilder.add(lastIndexKey, BlockHandle.writeBlockHandle(partitionHandle));
+    }
+
+    private BlockHandle writeDataBlock(BlockBuilder blockBuilder)
+            throws IOException {
+        BlockHandle blockHandle = writeBlock(blockBuilder);
+        numDataBlocks++;
+        dataSize += blockHandle.getDataSize() + BlockTrailer.ENCODED_LENGTH;
+        return blockHandle;
     }
 
     private BlockHandle writeBlock(BlockBuilder blockBuilder)
             throws IOException {
         // close the block
         Slice raw = blockBuilder.finish();
+        BlockHandle blockHandle = writeBlock(raw);
+
+        // clean up state
+        blockBuilder.reset();
 
+        return blockHandle;
+    }
+
+    private BlockHandle writeBlock(Slice raw)
+            throws IOException {
+        Slice output = null;
+        if (compressionCodec != null) {
+            ensureCompressedOutputCapacity(compressionCodec.maxCompressedLength(raw.length()));
+            output = compressedOutput;
+        }
+        return writeBlock(compressBlock(raw, output));
+    }
+
+    /**
+     * Compresses the block into the output, which must hold the maximum compressed length
+     * of the block.  Called by the compression threads in parallel.
+     */
+    private CompressedBlock compressBlock(Slice raw, Slice output) {
         // attempt to compress the block
-        Slice blockContents = raw;
-        CompressionType blockCompressionType = CompressionType.NONE;
-        if (compressionType == CompressionType.SNAPPY) {
-            ensureCompressedOutputCapacity(maxCompressedLength(raw.length()));
+        if (compressionCodec != null) {
             try {
-                int compressedSize = Snappy.compress(raw.getRawArray(), raw.getRawOffset(), raw.length(), compressedOutput.getRawArray(), 0);
+                int compressedSize;
+                if (compressionDictionary != null) {
+                    compressedSize = compressionCodec.compress(raw.getRawArray(), raw.getRawOffset(), raw.length(), output.getRawArray(), output.getRawOffset(), compressionDictionary);
+                } else {
+                    compressedSize = compressionCodec.compress(raw.getRawArray(), raw.getRawOffset(), raw.length(), output.getRawArray(), output.getRawOffset());
+                }
 
                 // Don't use the compressed data if compressed less than 12.5%,
                 if (compressedSize < raw.length() - (raw.length() / 8)) {
-                    blockContents = compressedOutput.slice(0, compressedSize);
-                    blockCompressionType = CompressionType.SNAPPY;
+                    return new CompressedBlock(output.slice(0, compressedSize), compressionType);
                 }
             } catch (IOException ignored) {
                 // compression failed, so just store uncompressed form
             }
         }
+        return new CompressedBlock(raw, CompressionType.NONE);
+    }
+
+    private BlockHandle writeRawBlock(Slice blockContents, CompressionType blockCompressionType)
+            throws IOException {
+        return writeBlock(new CompressedBlock(blockContents, blockCompressionType));
+    }
 
-        // create block trailer
-        BlockTrailer blockTrailer = new BlockTrailer(blockCompressionType, crc32c(blockContents, blockCompressionType));
-        Slice trailer = BlockTrailer.writeBlockTrailer(blockTrailer);
+    private BlockHandle writeBlock(CompressedBlock block)
+            throws IOException {
+        Slice trailer = BlockTrailer.writeBlockTrailer(block.trailer);
 
         // create a handle to this block
-        BlockHandle blockHandle = new BlockHandle(position, blockContents.length());
+        BlockHandle blockHandle = new BlockHandle(position, block.contents.length());
 
         // write data and trailer
-        position += fileChannel.write(new ByteBuffer[]{blockContents.toByteBuffer(), trailer.toByteBuffer()});
-
-        // clean up state
-        blockBuilder.reset();
+        write(block.contents.toByteBuffer(), trailer.toByteBuffer());
 
         return blockHandle;
     }
@@ -236,36 +638,151 @@ public class TableBuilder {
 
         // flush current data block
         flush();
+        if (!pendingBlocks.isEmpty()) {
+            if (pendingBlocks.peekLast().indexKey == null) {
+                pendingBlocks.peekLast().indexKey = userComparator.findShortSuccessor(lastKey);
+            }
+            writePendingBlocks(true);
+        }
 
         // mark table as closed
         closed = true;
 
-        // write (empty) meta index block
-        BlockBuilder metaIndexBlockBuilder = new BlockBuilder(256, blockRestartInterval, new BytewiseComparator());
-        // TODO(postrelease): Add stats and other meta blocks
-        BlockHandle metaindexBlockHandle = writeBlock(metaIndexBlockBuilder);
+        // the offsets of a plain table directly follow its entries
+        BlockHandle plainIndexBlockHandle = null;
+        if (plainEntries != null) {
+            plainIndexBlockHandle = finishPlainEntries();
+        }
 
         // add last handle to index block
         if (pendingIndexEntry) {
             Slice shortSuccessor = userComparator.findShortSuccessor(lastKey);
 
-            Slice handleEncoding = BlockHandle.writeBlockHandle(pendingHandle);
-            indexBlockBuilder.add(shortSuccessor, handleEncoding);
+            addIndexEntry(shortSuccessor, pendingHandle);
             pendingIndexEntry = false;
         }
+        if (topLevelIndexBuilder != null && !indexBlockBuilder.isEmpty()) {
+            flushIndexPartition();
+        }
+
+        // write the filter block uncompressed, it is read once when the table is opened
+        BlockHandle filterBlockHandle = null;
+        if (filterBlockBuilder != null) {
+            filterBlockHandle = writeRawBlock(filterBlockBuilder.finish(), CompressionType.NONE);
+        }
+
+        BlockHandle rangeDelBlockHandle = null;
+        if (!rangeTombstones.isEmpty()) {
+            rangeDelBlockHandle = writeRangeTombstones();
+        }
+
+        BlockHandle compressionDictBlockHandle = null;
+        if (compressionDictionary != null) {
+            compressionDictBlockHandle = writeRawBlock(compressionDictionary, CompressionType.NONE);
+        }
+
+        // write index block, or the top level of the partitioned index, ahead of the properties holding its size
+        BlockHandle indexBlockHandle;
+        if (plainIndexBlockHandle != null) {
+            indexBlockHandle = plainIndexBlockHandle;
+        } else {
+            indexBlockHandle = writeBlock(topLevelIndexBuilder != null ? topLevelIndexBuilder : indexBlockBuilder);
+            indexSize += indexBlockHandle.getDataSize() + BlockTrailer.ENCODED_LENGTH;
+        }
 
-        // write index block
-        BlockHandle indexBlockHandle = writeBlock(indexBlockBuilder);
+        // write the properties uncompressed, they are read once when the table is opened
+        properties = new TableProperties.Builder()
+                .dataSize(dataSize)
+                .indexSize(indexSize)
+                .filterSize(filterBlockHandle != null ? filterBlockHandle.getDataSize() + BlockTrailer.ENCODED_LENGTH : 0)
+                .rawKeySize(rawKeySize)
+                .rawValueSize(rawValueSize)
+                .numDataBlocks(numDataBlocks)
+                .numEntries(entryCount)
+                .numDeletions(numDeletions)
+                .numRangeDeletions(rangeTombstones.size())
+                .compressionType(compressionCodec != null ? compressionType : CompressionType.NONE)
+                .creationTime(creationTime)
+                .sequenceRange(smallestSequence, largestSequence)
+                .build();
+        BlockBuilder propertiesBlockBuilder = new BlockBuilder(256, blockRestartInterval, new BytewiseComparator());
+        properties.writeTo(propertiesBlockBuilder);
+        BlockHandle propertiesBlockHandle = writeRawBlock(propertiesBlockBuilder.finish(), CompressionType.NONE);
+
+        // write meta index block, the entries must be added in bytewise order
+        BlockBuilder metaIndexBlockBuilder = new BlockBuilder(256, blockRestartInterval, new BytewiseComparator());
+        if (filterBlockHandle != null) {
+            metaIndexBlockBuilder.add(Slices.copiedBuffer(FILTER_KEY_PREFIX + filterPolicy.name(), UTF_8), BlockHandle.writeBlockHandle(filterBlockHandle));
+        }
+        if (compressionDictBlockHandle != null) {
+            metaIndexBlockBuilder.add(COMPRESSION_DICT_KEY, BlockHandle.writeBlockHandle(compressionDictBlockHandle));
+        }
+        if (topLevelIndexBuilder != null) {
+            metaIndexBlockBuilder.add(PARTITIONED_INDEX_KEY, Slices.EMPTY_SLICE);
+        }
+        metaIndexBlockBuilder.add(PROPERTIES_KEY, BlockHandle.writeBlockHandle(propertiesBlockHandle));
+        if (rangeDelBlockHandle != null) {
+            metaIndexBlockBuilder.add(RANGE_DEL_KEY, BlockHandle.writeBlockHandle(rangeDelBlockHandle));
+        }
+        BlockHandle metaindexBlockHandle;
+        if (compressionDictionary != null) {
+            // the meta index is read before the dictionary
+            metaindexBlockHandle = writeRawBlock(metaIndexBlockBuilder.finish(), CompressionType.NONE);
+        } else {
+            metaindexBlockHandle = writeBlock(metaIndexBlockBuilder);
+        }
 
         // write footer
-        Footer footer = new Footer(metaindexBlockHandle, indexBlockHandle);
+        Footer footer = new Footer(metaindexBlockHandle, indexBlockHandle, plainEntries != null ? PLAIN_TABLE_MAGIC_NUMBER : TABLE_MAGIC_NUMBER);
         Slice footerEncoding = Footer.writeFooter(footer);
-        position += fileChannel.write(footerEncoding.toByteBuffer());
+        write(footerEncoding.toByteBuffer());
+    }
+
+    private void write(ByteBuffer... buffers)
+            throws IOException {
+        if (rateLimiter != null) {
+            long length = 0;
+            for (ByteBuffer buffer : buffers) {
+                length += buffer.remaining();
+            }
+            rateLimiter.request(length, ioPriority);
+        }
+        position += fileChannel.write(buffers);
+
+        if (bytesPerSync > 0 && position - syncedPosition >= bytesPerSync) {
+            // write back what we have so far, so the sync of the finished file is short
+            fileChannel.force(false);
+            syncedPosition = position;
+        }
+    }
+
+    private BlockHandle writeRangeTombstones()
+            throws IOException {
+        Collections.sort(rangeTombstones, new Comparator<BlockEntry>() {
+            @Override
+            public int compare(BlockEntry left, BlockEntry right) {
+                return userComparator.compare(left.getKey(), right.getKey());
+            }
+        });
+        BlockBuilder blockBuilder = new BlockBuilder(256, blockRestartInterval, userComparator);
+        Slice lastStartKey = null;
+        for (BlockEntry rangeTombstone : rangeTombstones) {
+            // the same tombstone can reach a table through more than one input
+            if (lastStartKey == null || userComparator.compare(rangeTombstone.getKey(), lastStartKey) != 0) {
+                blockBuilder.add(rangeTombstone);
+                lastStartKey = rangeTombstone.getKey();
+            }
+        }
+        return writeBlock(blockBuilder);
     }
 
     public void abandon() {
         checkState(!closed, "table is finished");
         closed = true;
+        for (PendingBlock block : pendingBlocks) {
+            block.compressedBlock.cancel(false);
+        }
+        pendingBlocks.clear();
     }
 
     public void ensureCompressedOutputCapacity(int capacity) {
@@ -274,4 +791,32 @@ public class TableBuilder {
         }
         compressedOutput = Slices.allocate(capacity);
     }
+
+    /**
+     * Block contents as written, with the trailer covering them.
+     */
+    private static final class CompressedBlock {
+        private final Slice contents;
+        private final BlockTrailer trailer;
+
+        private CompressedBlock(Slice contents, CompressionType compressionType) {
+            this.contents = contents;
+            this.trailer = new BlockTrailer(compressionType, crc32c(contents, compressionType));
+        }
+    }
+
+    private static final class PendingBlock {
+        private final Future<CompressedBlock> compressedBlock;
+        private final int rawLength;
+        // keys for the filter, null without one
+        private final List<Slice> keys;
+        // set once the first key of the next block, or the end of the table, is seen
+        private Slice indexKey;
+
+        private PendingBlock(Future<CompressedBlock> compressedBlock, int rawLength, List<Slice> keys) {
+            this.compressedBlock = compressedBlock;
+            this.rawLength = rawLength;
+            this.keys = keys;
+        }
+    }
 }
@@ -0,0 +1,375 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import org.iq80.leveldb.CompressionType;
+import org.iq80.leveldb.util.DynamicSliceOutput;
+import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.Slices;
+import org.iq80.leveldb.util.VariableLengthQuantity;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Entry counts and sizes of a table, written by {@link TableBuilder} into the
+ * properties meta block.  Every property is a variable length long keyed by its
+ * name; properties unknown to the reader are skipped, missing ones read as 0.
+ */
+public final class TableProperties {
+    private static final String COMPRESSION = "leveldb.compression";
+    private static final String CREATION_TIME = "leveldb.creation.time";
+    private static final String DATA_SIZE = "leveldb.data.size";
+    private static final String FILTER_SIZE = "leveldb.filter.size";
+    private static final String INDEX_SIZE = "leveldb.index.size";
+    private static final String LARGEST_SEQUENCE = "leveldb.largest.sequence";
+    private static final String NUM_DATA_BLOCKS = "leveldb.num.data.blocks";
+    private static final String NUM_DELETIONS = "leveldb.num.deletions";
+    private static final String NUM_ENTRIES = "leveldb.num.entries";
+    private static final String NUM_RANGE_DELETIONS = "leveldb.num.range-deletions";
+    private static final String RAW_KEY_SIZE = "leveldb.raw.key.size";
+    private static final String RAW_VALUE_SIZE = "leveldb.raw.value.size";
+    private static final String SMALLEST_SEQUENCE = "leveldb.smallest.sequence";
+
+    private final long dataSize;
+    private final long indexSize;
+    private final long filterSize;
+    private final long rawKeySize;
+    private final long rawValueSize;
+    private final long numDataBlocks;
+    private final long numEntries;
+    private final long numDeletions;
+    private final long numRangeDeletions;
+    // null for aggregated properties of tables with different compressions
+    private final CompressionType compressionType;
+    private final long creationTime;
+    private final long smallestSequence;
+    private final long largestSequence;
+
+    private TableProperties(Builder builder) {
+        this.dataSize = builder.dataSize;
+        this.indexSize = builder.indexSize;
+        this.filterSize = builder.filterSize;
+        this.rawKeySize = builder.rawKeySize;
+        this.rawValueSize = builder.rawValueSize;
+        this.numDataBlocks = builder.numDataBlocks;
+        this.numEntries = builder.numEntries;
+        this.numDeletions = builder.numDeletions;
+        this.numRangeDeletions = builder.numRangeDeletions;
+        this.compressionType = builder.compressionType;
+        this.creationTime = builder.creationTime;
+        this.smallestSequence = builder.smallestSequence;
+        this.largestSequence = builder.largestSequence;
+    }
+
+    /**
+     * Size of the data blocks, including their trailers.
+     */
+    public long getDataSize() {
+        return dataSize;
+    }
+
+    /**
+     * Size of the index block, including the partitions of a partitioned index.
+     */
+    public long getIndexSize() {
+        return indexSize;
+    }
+
+    public long getFilterSize() {
+        return filterSize;
+    }
+
+    public long getRawKeySize() {
+        return rawKeySize;
+    }
+
+    public long getRawValueSize() {
+        return rawValueSize;
+    }
+
+    public long getNumDataBlocks() {
+        return numDataBlocks;
+    }
+
+    /**
+     * Number of entries, not counting the range tombstones.
+     */
+    public long getNumEntries() {
+        return numEntries;
+    }
+
+    /**
+     * Number of deletion markers, only known for tables written by the database.
+     */
+    public long getNumDeletions() {
+        return numDeletions;
+    }
+
+    public long getNumRangeDeletions() {
+        return numRangeDeletions;
+    }
+
+    public CompressionType getCompressionType() {
+        return compressionType;
+    }
+
+    /**
+     * Seconds since the epoch at which the table was written, 0 if unknown.
+     */
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    public long getSmallestSequence() {
+        return smallestSequence;
+    }
+
+    public long getLargestSequence() {
+        return largestSequence;
+    }
+
+    /**
+     * Ratio of the raw size of the entries to the size of the data blocks holding them.
+     */
+    public double getCompressionRatio() {
+        return dataSize == 0 ? 0 : 1.0 * (rawKeySize + rawValueSize) / dataSize;
+    }
+
+    /**
+     * Encodes the properties as the entries of a block, in the bytewise order of their names.
+     */
+    void writeTo(BlockBuilder blockBuilder) {
+        Map<String, Long> properties = new TreeMap<>();
+        properties.put(DATA_SIZE, dataSize);
+        properties.put(INDEX_SIZE, indexSize);
+        properties.put(FILTER_SIZE, filterSize);
+        properties.put(RAW_KEY_SIZE, rawKeySize);
+        properties.put(RAW_VALUE_SIZE, rawValueSize);
+        properties.put(NUM_DATA_BLOCKS, numDataBlocks);
+        properties.put(NUM_ENTRIES, numEntries);
+        properties.put(NUM_DELETIONS, numDeletions);
+        properties.put(NUM_RANGE_DELETIONS, numRangeDeletions);
+        if (compressionType != null) {
+            properties.put(COMPRESSION, (long) compressionType.persistentId());
+        }
+        properties.put(CREATION_TIME, creationTime);
+        properties.put(SMALLEST_SEQUENCE, smallestSequence);
+        properties.put(LARGEST_SEQUENCE, largestSequence);
+
+        for (Map.Entry<String, Long> property : properties.entrySet()) {
+            DynamicSliceOutput value = new DynamicSliceOutput(10);
+            VariableLengthQuantity.writeVariableLengthLong(property.getValue(), value);
+            blockBuilder.add(Slices.copiedBuffer(property.getKey(), UTF_8), value.slice());
+        }
+    }
+
+    static TableProperties read(Block block) {
+        Builder builder = new Builder();
+        for (BlockIterator iterator = block.iterator(); iterator.hasNext(); ) {
+            BlockEntry entry = iterator.next();
+            String name = entry.getKey().toString(UTF_8);
+            long value = VariableLengthQuantity.readVariableLengthLong(entry.getValue().input());
+            switch (name) {
+                case DATA_SIZE:
+                    builder.dataSize = value;
+                    break;
+                case INDEX_SIZE:
+                    builder.indexSize = value;
+                    break;
+                case FILTER_SIZE:
+                    builder.filterSize = value;
+                    break;
+                case RAW_KEY_SIZE:
+                    builder.rawKeySize = value;
+                    break;
+                case RAW_VALUE_SIZE:
+                    builder.rawValueSize = value;
+                    break;
+                case NUM_DATA_BLOCKS:
+                    builder.numDataBlocks = value;
+                    break;
+                case NUM_ENTRIES:
+                    builder.numEntries = value;
+                    break;
+                case NUM_DELETIONS:
+                    builder.numDeletions = value;
+                    break;
+                case NUM_RANGE_DELETIONS:
+                    builder.numRangeDeletions = value;
+                    break;
+                case COMPRESSION:
+                    try {
+                        builder.compressionType = CompressionType.getCompressionTypeByPersistentId((int) value);
+                    } catch (IllegalArgumentException ignored) {
+                        // a codec added by a newer version
+                    }
+                    break;
+                case CREATION_TIME:
+                    builder.creationTime = value;
+                    break;
+                case SMALLEST_SEQUENCE:
+                    builder.smallestSequence = value;
+                    break;
+                case LARGEST_SEQUENCE:
+                    builder.largestSequence = value;
+                    break;
+                default:
+                    // written by a newer version
+                    break;
+            }
+        }
+        return builder.build();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("TableProperties");
+        sb.append("{dataSize=").append(dataSize);
+        sb.append(", indexSize=").append(indexSize);
+        sb.append(", filterSize=").append(filterSize);
+        sb.append(", rawKeySize=").append(rawKeySize);
+        sb.append(", rawValueSize=").append(rawValueSize);
+        sb.append(", numDataBlocks=").append(numDataBlocks);
+        sb.append(", numEntries=").append(numEntries);
+        sb.append(", numDeletions=").append(numDeletions);
+        sb.append(", numRangeDeletions=").append(numRangeDeletions);
+        sb.append(", compressionType=").append(compressionType);
+        sb.append(", creationTime=").append(creationTime);
+        sb.append(", smallestSequence=").append(smallestSequence);
+        sb.append(", largestSequence=").append(largestSequence);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    public static class Builder {
+        private long dataSize;
+        private long indexSize;
+        private long filterSize;
+        private long rawKeySize;
+        private long rawValueSize;
+        private long numDataBlocks;
+        private long numEntries;
+        private long numDeletions;
+        private long numRangeDeletions;
+        private CompressionType compressionType;
+        private long creationTime;
+        private long smallestSequence;
+        private long largestSequence;
+        private boolean empty = true;
+
+        public Builder dataSize(long dataSize) {
+            this.dataSize = dataSize;
+            return this;
+        }
+
+        public Builder indexSize(long indexSize) {
+            this.indexSize = indexSize;
+            return this;
+        }
+
+        public Builder filterSize(long filterSize) {
+            this.filterSize = filterSize;
+            return this;
+        }
+
+        public Builder rawKeySize(long rawKeySize) {
+            this.rawKeySize = rawKeySize;
+            return this;
+        }
+
+        public Builder rawValueSize(long rawValueSize) {
+            this.rawValueSize = rawValueSize;
+            return this;
+        }
+
+        public Builder numDataBlocks(long numDataBlocks) {
+            this.numDataBlocks = numDataBlocks;
+            return this;
+        }
+
+        public Builder numEntries(long numEntries) {
+            this.numEntries = numEntries;
+            return this;
+        }
+
+        public Builder numDeletions(long numDeletions) {
+            this.numDeletions = numDeletions;
+            return this;
+        }
+
+        public Builder numRangeDeletions(long numRangeDeletions) {
+            this.numRangeDeletions = numRangeDeletions;
+            return this;
+        }
+
+        public Builder compressionType(CompressionType compressionType) {
+            this.compressionType = compressionType;
+            return this;
+        }
+
+        public Builder creationTime(long creationTime) {
+            this.creationTime = creationTime;
+            return this;
+        }
+
+        public Builder sequenceRange(long smallestSequence, long largestSequence) {
+            this.smallestSequence = smallestSequence;
+            this.largestSequence = largestSequence;
+            return this;
+        }
+
+        /**
+         * Adds the properties of another table: counts and sizes are summed, the
+         * sequence range is widened and the creation time is that of the oldest table.
+         */
+        public Builder add(TableProperties properties) {
+            dataSize += properties.dataSize;
+            indexSize += properties.indexSize;
+            filterSize += properties.filterSize;
+            rawKeySize += properties.rawKeySize;
+            rawValueSize += properties.rawValueSize;
+            numDataBlocks += properties.numDataBlocks;
+            numEntries += properties.numEntries;
+            numDeletions += properties.numDeletions;
+            numRangeDeletions += properties.numRangeDeletions;
+            if (empty) {
+                compressionType = properties.compressionType;
+                creationTime = properties.creationTime;
+                smallestSequence = properties.smallestSequence;
+                largestSequence = properties.largestSequence;
+                empty = false;
+            } else {
+                if (compressionType != properties.compressionType) {
+                    compressionType = null;
+                }
+                creationTime = Math.min(creationTime, properties.creationTime);
+                smallestSequence = Math.min(smallestSequence, properties.smallestSequence);
+                largestSequence = Math.max(largestSequence, properties.largestSequence);
+            }
+            return this;
+        }
+
+        public TableProperties build() {
+            return new TableProperties(this);
+        }
+    }
+}
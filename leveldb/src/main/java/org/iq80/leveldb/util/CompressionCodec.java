@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.util;
+
+import org.iq80.leveldb.CompressionType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compresses and uncompresses table blocks.  Codecs are found through
+ * {@link CompressionCodecs} by the compression type in the block trailer.
+ */
+public interface CompressionCodec {
+    CompressionType getType();
+
+    /**
+     * Size of the output buffer {@link #compress} needs for the input length.
+     */
+    int maxCompressedLength(int length);
+
+    /**
+     * Compresses the input into the output and returns the compressed size.
+     */
+    int compress(byte[] input, int inputOffset, int length, byte[] output, int outputOffset)
+            throws IOException;
+
+    /**
+     * Uncompresses the bytes between the position and the limit of the buffer.
+     * The position of the buffer is not changed.
+     */
+    Slice uncompress(ByteBuffer compressed)
+            throws IOException;
+
+    /**
+     * Returns true if the codec can be primed with a dictionary of raw content, data
+     * similar to the blocks that is used for matches from the start of each block.
+     */
+    default boolean supportsDictionary() {
+        return false;
+    }
+
+    /**
+     * Compresses the input with the dictionary, see {@link #supportsDictionary()}.
+     */
+    default int compress(byte[] input, int inputOffset, int length, byte[] output, int outputOffset, Slice dictionary)
+            throws IOException {
+        throw new UnsupportedOperationException(getType() + " does not support dictionaries");
+    }
+
+    /**
+     * Uncompresses a buffer compressed with the dictionary.
+     */
+    default Slice uncompress(ByteBuffer compressed, Slice dictionary)
+            throws IOException {
+        throw new UnsupportedOperationException(getType() + " does not support dictionaries");
+    }
+}
@@ -0,0 +1,481 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.util;
+
+import com.google.common.base.Throwables;
+import org.iq80.leveldb.CompressionType;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Registry of the block compression codecs, keyed by the persistent id of their
+ * compression type.  Zlib is always there, snappy, lz4 and zstd only when their
+ * libraries can be loaded.  Other implementations can be registered in place of
+ * the built in ones.
+ */
+public final class CompressionCodecs {
+    private static final Map<Integer, CompressionCodec> CODECS = new ConcurrentHashMap<>();
+
+    static {
+        if (Snappy.available()) {
+            register(new SnappyCodec());
+        }
+        register(new ZlibCodec());
+        for (CompressionType type : new CompressionType[]{CompressionType.LZ4, CompressionType.LZ4HC}) {
+            try {
+                register(new Lz4Codec(type));
+            } catch (Throwable ignored) {
+                // lz4-java is not on the class path
+            }
+        }
+        try {
+            register(new ZstdCodec());
+        } catch (Throwable ignored) {
+            // zstd-jni is not on the class path
+        }
+    }
+
+    private CompressionCodecs() {
+    }
+
+    /**
+     * Registers the codec for its compression type, replacing the codec registered before.
+     */
+    public static void register(CompressionCodec codec) {
+        requireNonNull(codec, "codec is null");
+        CODECS.put(codec.getType().persistentId(), codec);
+    }
+
+    /**
+     * Returns the codec of the compression type, or null if there is none.
+     */
+    public static CompressionCodec getCodec(CompressionType type) {
+        return getCodec(type.persistentId());
+    }
+
+    public static CompressionCodec getCodec(int persistentId) {
+        return CODECS.get(persistentId);
+    }
+
+    public static boolean isAvailable(CompressionType type) {
+        return type == CompressionType.NONE || getCodec(type) != null;
+    }
+
+    /**
+     * Returns the bytes of the slice, without a copy when the slice covers its whole array.
+     */
+    private static byte[] toExactArray(Slice slice) {
+        if (slice.getRawOffset() == 0 && slice.getRawArray().length == slice.length()) {
+            return slice.getRawArray();
+        }
+        return slice.getBytes();
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Base of the codecs that write the uncompressed length as a varint in front of
+     * the compressed data, like the C++ implementations do for codecs other than snappy.
+     */
+    private abstract static class LengthPrefixedCodec
+            implements CompressionCodec {
+        private static final int MAX_PREFIX_LENGTH = 5;
+
+        @Override
+        public final int maxCompressedLength(int length) {
+            return MAX_PREFIX_LENGTH + maxPayloadLength(length);
+        }
+
+        @Override
+        public final int compress(byte[] input, int inputOffset, int length, byte[] output, int outputOffset)
+                throws IOException {
+            return compress(input, inputOffset, length, output, outputOffset, null);
+        }
+
+        @Override
+        public final Slice uncompress(ByteBuffer compressed)
+                throws IOException {
+            return uncompress(compressed, null);
+        }
+
+        @Override
+        public final int compress(byte[] input, int inputOffset, int length, byte[] output, int outputOffset, Slice dictionary)
+                throws IOException {
+            checkArgument(dictionary == null || supportsDictionary(), "%s does not support dictionaries", getType());
+            SliceOutput prefix = new Slice(output, outputOffset, MAX_PREFIX_LENGTH).output();
+            VariableLengthQuantity.writeVariableLengthInt(length, prefix);
+            int prefixLength = prefix.size();
+            int payloadOffset = outputOffset + prefixLength;
+            return prefixLength + compressPayload(input, inputOffset, length, output, payloadOffset, output.length - payloadOffset, dictionary);
+        }
+
+        @Override
+        public final Slice uncompress(ByteBuffer compressed, Slice dictionary)
+                throws IOException {
+            checkArgument(dictionary == null || supportsDictionary(), "%s does not support dictionaries", getType());
+            ByteBuffer input = compressed.duplicate();
+            int length = VariableLengthQuantity.readVariableLengthInt(input);
+            byte[] array;
+            int offset;
+            if (input.hasArray()) {
+                array = input.array();
+                offset = input.arrayOffset() + input.position();
+            } else {
+                array = toArray(input);
+                offset = 0;
+            }
+            byte[] output = new byte[length];
+            uncompressPayload(array, offset, input.remaining(), output, length, dictionary);
+            return Slices.wrappedBuffer(output);
+        }
+
+        protected abstract int maxPayloadLength(int length);
+
+        /**
+         * @param dictionary may be null, is only set when the codec supports dictionaries
+         */
+        protected abstract int compressPayload(byte[] input, int inputOffset, int length, byte[] output, int outputOffset, int maxOutputLength, Slice dictionary)
+                throws IOException;
+
+        /**
+         * Uncompresses exactly uncompressedLength bytes into the output.
+         */
+        protected abstract void uncompressPayload(byte[] input, int inputOffset, int length, byte[] output, int uncompressedLength, Slice dictionary)
+                throws IOException;
+    }
+
+    private static final class SnappyCodec
+            implements CompressionCodec {
+        private static ByteBuffer uncompressedScratch = ByteBuffer.allocateDirect(4 * 1024 * 1024);
+
+        @Override
+        public CompressionType getType() {
+            return CompressionType.SNAPPY;
+        }
+
+        @Override
+        public int maxCompressedLength(int length) {
+            // Compressed data can be defined as:
+            //    compressed := item* literal*
+            //    item       := literal* copy
+            //
+            // The trailing literal sequence has a space blowup of at most 62/60
+            // since a literal of length 60 needs one tag byte + one extra byte
+            // for length information.
+            //
+            // Item blowup is trickier to measure.  Suppose the "copy" op copies
+            // 4 bytes of data.  Because of a special check in the encoding code,
+            // we produce a 4-byte copy only if the offset is < 65536.  Therefore
+            // the copy op takes 3 bytes to encode, and this type of item leads
+            // to at most the 62/60 blowup for representing literals.
+            //
+            // Suppose the "copy" op copies 5 bytes of data.  If the offset is big
+            // enough, it will take 5 bytes to encode the copy op.  Therefore the
+            // worst case here is a one-byte literal followed by a five-byte copy.
+            // I.e., 6 bytes of input turn into 7 bytes of "compressed" data.
+            //
+            // This last factor dominates the blowup, so the final estimate is:
+            return 32 + length + (length / 6);
+        }
+
+        @Override
+        public int compress(byte[] input, int inputOffset, int length, byte[] output, int outputOffset)
+                throws IOException {
+            return Snappy.compress(input, inputOffset, length, output, outputOffset);
+        }
+
+        @Override
+        public Slice uncompress(ByteBuffer compressed)
+                throws IOException {
+            synchronized (SnappyCodec.class) {
+                int uncompressedLength = VariableLengthQuantity.readVariableLengthInt(compressed.duplicate());
+                if (uncompressedScratch.capacity() < uncompressedLength) {
+                    uncompressedScratch = ByteBuffer.allocateDirect(uncompressedLength);
+                }
+                uncompressedScratch.clear();
+
+                Snappy.uncompress(compressed.duplicate(), uncompressedScratch);
+                return Slices.copiedBuffer(uncompressedScratch);
+            }
+        }
+    }
+
+    /**
+     * Raw deflate streams.  The C++ implementations inflate with a 16KB window, while
+     * java.util.zip deflates with 32KB, so blocks written for them must not be larger
+     * than 16KB.
+     */
+    private static final class ZlibCodec
+            extends LengthPrefixedCodec {
+        @Override
+        public CompressionType getType() {
+            return CompressionType.ZLIB;
+        }
+
+        @Override
+        protected int maxPayloadLength(int length) {
+            // the bound of zlib's compressBound(), which includes a 6 byte header we do not write
+            return length + (length >> 12) + (length >> 14) + (length >> 25) + 13;
+        }
+
+        @Override
+        public boolean supportsDictionary() {
+            return true;
+        }
+
+        @Override
+        protected int compressPayload(byte[] input, int inputOffset, int length, byte[] output, int outputOffset, int maxOutputLength, Slice dictionary)
+                throws IOException {
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try {
+                if (dictionary != null) {
+                    deflater.setDictionary(dictionary.getRawArray(), dictionary.getRawOffset(), dictionary.length());
+                }
+                deflater.setInput(input, inputOffset, length);
+                deflater.finish();
+                int size = deflater.deflate(output, outputOffset, maxOutputLength);
+                if (!deflater.finished()) {
+                    throw new IOException("Compressed data does not fit in " + maxOutputLength + " bytes");
+                }
+                return size;
+            } finally {
+                deflater.end();
+            }
+        }
+
+        @Override
+        protected void uncompressPayload(byte[] input, int inputOffset, int length, byte[] output, int uncompressedLength, Slice dictionary)
+                throws IOException {
+            Inflater inflater = new Inflater(true);
+            try {
+                if (dictionary != null) {
+                    // raw streams do not ask for the dictionary, it is set up front
+                    inflater.setDictionary(dictionary.getRawArray(), dictionary.getRawOffset(), dictionary.length());
+                }
+                inflater.setInput(input, inputOffset, length);
+                int size = inflater.inflate(output, 0, uncompressedLength);
+                if (size != uncompressedLength) {
+                    throw new IOException("Expected " + uncompressedLength + " uncompressed bytes but got " + size);
+                }
+            } catch (DataFormatException e) {
+                throw new IOException(e);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * LZ4 blocks through lz4-java, LZ4HC uses its high compressor.  Both are read the same way.
+     */
+    private static final class Lz4Codec
+            extends LengthPrefixedCodec {
+        private final CompressionType type;
+        private final MethodHandle compress;
+        private final MethodHandle maxCompressedLength;
+        private final MethodHandle decompress;
+
+        private Lz4Codec(CompressionType type)
+                throws ReflectiveOperationException {
+            this.type = type;
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> factoryClass = Class.forName("net.jpountz.lz4.LZ4Factory");
+            Class<?> compressorClass = Class.forName("net.jpountz.lz4.LZ4Compressor");
+            Class<?> decompressorClass = Class.forName("net.jpountz.lz4.LZ4FastDecompressor");
+
+            Object factory = factoryClass.getMethod("fastestInstance").invoke(null);
+            Object compressor = factoryClass.getMethod(type == CompressionType.LZ4HC ? "highCompressor" : "fastCompressor").invoke(factory);
+            Object decompressor = factoryClass.getMethod("fastDecompressor").invoke(factory);
+
+            compress = lookup.findVirtual(compressorClass, "compress",
+                    MethodType.methodType(int.class, byte[].class, int.class, int.class, byte[].class, int.class, int.class))
+                    .bindTo(compressor);
+            maxCompressedLength = lookup.findVirtual(compressorClass, "maxCompressedLength", MethodType.methodType(int.class, int.class))
+                    .bindTo(compressor);
+            decompress = lookup.findVirtual(decompressorClass, "decompress",
+                    MethodType.methodType(int.class, byte[].class, int.class, byte[].class, int.class, int.class))
+                    .bindTo(decompressor);
+        }
+
+        @Override
+        public CompressionType getType() {
+            return type;
+        }
+
+        @Override
+        protected int maxPayloadLength(int length) {
+            try {
+                return (int) maxCompressedLength.invokeExact(length);
+            } catch (Throwable e) {
+                throw Throwables.propagate(e);
+            }
+        }
+
+        @Override
+        protected int compressPayload(byte[] input, int inputOffset, int length, byte[] output, int outputOffset, int maxOutputLength, Slice dictionary)
+                throws IOException {
+            try {
+                return (int) compress.invokeExact(input, inputOffset, length, output, outputOffset, maxOutputLength);
+            } catch (Throwable e) {
+                Throwables.propagateIfPossible(e, IOException.class);
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        protected void uncompressPayload(byte[] input, int inputOffset, int length, byte[] output, int uncompressedLength, Slice dictionary)
+                throws IOException {
+            int read;
+            try {
+                read = (int) decompress.invokeExact(input, inputOffset, output, 0, uncompressedLength);
+            } catch (Throwable e) {
+                Throwables.propagateIfPossible(e, IOException.class);
+                throw new IOException(e);
+            }
+            if (read != length) {
+                throw new IOException("Expected " + length + " compressed bytes but read " + read);
+            }
+        }
+    }
+
+    /**
+     * Zstandard frames through zstd-jni.
+     */
+    private static final class ZstdCodec
+            extends LengthPrefixedCodec {
+        // the default level of the C++ implementations
+        private static final int LEVEL = 3;
+
+        private final MethodHandle compress;
+        private final MethodHandle compressBound;
+        private final MethodHandle decompress;
+        private final MethodHandle isError;
+        private final MethodHandle getErrorName;
+        // null when zstd-jni is too old to take raw content dictionaries
+        private final MethodHandle compressUsingDict;
+        private final MethodHandle decompressUsingDict;
+
+        private ZstdCodec()
+                throws ReflectiveOperationException {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            Class<?> zstdClass = Class.forName("com.github.luben.zstd.Zstd");
+            compress = lookup.findStatic(zstdClass, "compressByteArray",
+                    MethodType.methodType(long.class, byte[].class, int.class, int.class, byte[].class, int.class, int.class, int.class));
+            compressBound = lookup.findStatic(zstdClass, "compressBound", MethodType.methodType(long.class, long.class));
+            decompress = lookup.findStatic(zstdClass, "decompressByteArray",
+                    MethodType.methodType(long.class, byte[].class, int.class, int.class, byte[].class, int.class, int.class));
+            isError = lookup.findStatic(zstdClass, "isError", MethodType.methodType(boolean.class, long.class));
+            getErrorName = lookup.findStatic(zstdClass, "getErrorName", MethodType.methodType(String.class, long.class));
+
+            MethodHandle compressWithDictionary;
+            MethodHandle decompressWithDictionary;
+            try {
+                compressWithDictionary = lookup.findStatic(zstdClass, "compressUsingDict",
+                        MethodType.methodType(long.class, byte[].class, int.class, byte[].class, int.class, int.class, byte[].class, int.class));
+                decompressWithDictionary = lookup.findStatic(zstdClass, "decompressUsingDict",
+                        MethodType.methodType(long.class, byte[].class, int.class, byte[].class, int.class, int.class, byte[].class));
+            } catch (NoSuchMethodException e) {
+                compressWithDictionary = null;
+                decompressWithDictionary = null;
+            }
+            compressUsingDict = compressWithDictionary;
+            decompressUsingDict = decompressWithDictionary;
+        }
+
+        @Override
+        public boolean supportsDictionary() {
+            return compressUsingDict != null;
+        }
+
+        @Override
+        public CompressionType getType() {
+            return CompressionType.ZSTD;
+        }
+
+        @Override
+        protected int maxPayloadLength(int length) {
+            try {
+                return (int) (long) compressBound.invokeExact((long) length);
+            } catch (Throwable e) {
+                throw Throwables.propagate(e);
+            }
+        }
+
+        @Override
+        protected int compressPayload(byte[] input, int inputOffset, int length, byte[] output, int outputOffset, int maxOutputLength, Slice dictionary)
+                throws IOException {
+            try {
+                long size;
+                if (dictionary != null) {
+                    // the output buffer is sized with compressBound, which the dictionary does not raise
+                    size = (long) compressUsingDict.invokeExact(output, outputOffset, input, inputOffset, length, toExactArray(dictionary), LEVEL);
+                } else {
+                    size = (long) compress.invokeExact(output, outputOffset, maxOutputLength, input, inputOffset, length, LEVEL);
+                }
+                checkResult(size);
+                return (int) size;
+            } catch (Throwable e) {
+                Throwables.propagateIfPossible(e, IOException.class);
+                throw new IOException(e);
+            }
+        }
+
+        @Override
+        protected void uncompressPayload(byte[] input, int inputOffset, int length, byte[] output, int uncompressedLength, Slice dictionary)
+                throws IOException {
+            long size;
+            try {
+                if (dictionary != null) {
+                    size = (long) decompressUsingDict.invokeExact(output, 0, input, inputOffset, length, toExactArray(dictionary));
+                } else {
+                    size = (long) decompress.invokeExact(output, 0, uncompressedLength, input, inputOffset, length);
+                }
+                checkResult(size);
+            } catch (Throwable e) {
+                Throwables.propagateIfPossible(e, IOException.class);
+                throw new IOException(e);
+            }
+            if (size != uncompressedLength) {
+                throw new IOException("Expected " + uncompressedLength + " uncompressed bytes but got " + size);
+            }
+        }
+
+        private void checkResult(long result)
+                throws Throwable {
+            if ((boolean) isError.invokeExact(result)) {
+                throw new IOException("zstd error: " + (String) getErrorName.invokeExact(result));
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.util;
+
+import com.google.common.base.Throwables;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+
+/**
+ * CRC32-C checksum of byte arrays and buffers.  Uses java.util.zip.CRC32C when the JVM
+ * has it (Java 9 and later), which is compiled to the SSE4.2 or ARMv8 crc32c
+ * instructions and reads direct buffers in place.  Older JVMs fall back to
+ * {@link PureJavaCrc32C}.
+ */
+public final class Crc32C
+        implements Checksum {
+    private static final MethodHandle NEW_CRC32C;
+    private static final MethodHandle UPDATE_BUFFER;
+
+    static {
+        MethodHandle newCrc32C;
+        MethodHandle updateBuffer;
+        try {
+            Class<?> crc32CClass = Class.forName("java.util.zip.CRC32C");
+            newCrc32C = MethodHandles.publicLookup()
+                    .findConstructor(crc32CClass, MethodType.methodType(void.class))
+                    .asType(MethodType.methodType(Checksum.class));
+            updateBuffer = MethodHandles.publicLookup()
+                    .findVirtual(crc32CClass, "update", MethodType.methodType(void.class, ByteBuffer.class))
+                    .asType(MethodType.methodType(void.class, Checksum.class, ByteBuffer.class));
+        } catch (Exception e) {
+            // pre-java 9, use the pure java implementation
+            newCrc32C = null;
+            updateBuffer = null;
+        }
+        NEW_CRC32C = newCrc32C;
+        UPDATE_BUFFER = updateBuffer;
+    }
+
+    private final Checksum checksum;
+    private byte[] scratch;
+
+    public Crc32C() {
+        if (NEW_CRC32C != null) {
+            try {
+                checksum = (Checksum) NEW_CRC32C.invokeExact();
+            } catch (Throwable e) {
+                throw Throwables.propagate(e);
+            }
+        } else {
+            checksum = new PureJavaCrc32C();
+        }
+    }
+
+    /**
+     * Returns true if the checksum is computed by java.util.zip.CRC32C.
+     */
+    public static boolean isIntrinsic() {
+        return NEW_CRC32C != null;
+    }
+
+    public static int mask(int crc) {
+        return PureJavaCrc32C.mask(crc);
+    }
+
+    public static int unmask(int maskedCrc) {
+        return PureJavaCrc32C.unmask(maskedCrc);
+    }
+
+    public int getMaskedValue() {
+        return mask(getIntValue());
+    }
+
+    public int getIntValue() {
+        return (int) checksum.getValue();
+    }
+
+    @Override
+    public long getValue() {
+        return checksum.getValue();
+    }
+
+    @Override
+    public void reset() {
+        checksum.reset();
+    }
+
+    @Override
+    public void update(int b) {
+        checksum.update(b);
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        checksum.update(b, off, len);
+    }
+
+    public void update(Slice slice) {
+        checksum.update(slice.getRawArray(), slice.getRawOffset(), slice.length());
+    }
+
+    /**
+     * Updates the checksum with the bytes between the position and the limit of the
+     * buffer.  The position of the buffer is not changed.
+     */
+    public void update(ByteBuffer buffer) {
+        if (UPDATE_BUFFER != null) {
+            try {
+                UPDATE_BUFFER.invokeExact(checksum, buffer.duplicate());
+            } catch (Throwable e) {
+                throw Throwables.propagate(e);
+            }
+        } else if (buffer.hasArray()) {
+            checksum.update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        } else {
+            // the pure java version only reads arrays, copy direct buffers in pieces
+            ByteBuffer source = buffer.duplicate();
+            if (scratch == null) {
+                scratch = new byte[8192];
+            }
+            while (source.hasRemaining()) {
+                int length = Math.min(source.remaining(), scratch.length);
+                source.get(scratch, 0, length);
+                checksum.update(scratch, 0, length);
+            }
+        }
+    }
+}
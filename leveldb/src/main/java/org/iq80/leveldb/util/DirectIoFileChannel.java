@@ -0,0 +1,534 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.util;
+
+import com.google.common.base.Throwables;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * File channel doing direct I/O, bypassing the page cache of the operating system.
+ * Direct I/O must transfer whole blocks of the file system between aligned buffers
+ * and aligned offsets; this channel hides that behind the usual channel operations.
+ * Reads go through a per thread aligned buffer, writes at the end of the file are
+ * gathered in an aligned buffer and written a block at a time.  A partial last block
+ * is padded on {@link #force} and close, and the file truncated back to its size.
+ * Writes before the end of the file rewrite the blocks they touch; they are correct
+ * but slow, the tables only append.
+ * <p>
+ * Needs Java 10 or later, see {@link #isAvailable()}.
+ */
+public final class DirectIoFileChannel
+        extends FileChannel {
+    private static final int DEFAULT_BLOCK_SIZE = 4096;
+    private static final int MAX_BLOCK_SIZE = 64 * 1024;
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+    // larger reads allocate a buffer of their own rather than keep it around
+    private static final int MAX_READ_SCRATCH_SIZE = 4 * 1024 * 1024;
+
+    private static final OpenOption DIRECT;
+    private static final MethodHandle ALIGNED_SLICE;
+    private static final MethodHandle GET_BLOCK_SIZE;
+
+    static {
+        OpenOption direct;
+        MethodHandle alignedSlice;
+        MethodHandle getBlockSize;
+        try {
+            Class<?> extendedOpenOption = Class.forName("com.sun.nio.file.ExtendedOpenOption");
+            direct = (OpenOption) extendedOpenOption.getField("DIRECT").get(null);
+            alignedSlice = MethodHandles.publicLookup()
+                    .findVirtual(ByteBuffer.class, "alignedSlice", MethodType.methodType(ByteBuffer.class, int.class));
+            getBlockSize = MethodHandles.publicLookup()
+                    .findVirtual(FileStore.class, "getBlockSize", MethodType.methodType(long.class));
+        } catch (Exception e) {
+            // pre-java 10
+            direct = null;
+            alignedSlice = null;
+            getBlockSize = null;
+        }
+        DIRECT = direct;
+        ALIGNED_SLICE = alignedSlice;
+        GET_BLOCK_SIZE = getBlockSize;
+    }
+
+    private static final ThreadLocal<ByteBuffer> READ_SCRATCH = new ThreadLocal<>();
+
+    private final FileChannel channel;
+    private final int alignment;
+    // null when opened for reading
+    private final ByteBuffer writeBuffer;
+    // aligned file offset of the start of the write buffer
+    private long writeBufferOffset;
+    // position of the relative reads and writes
+    private long position;
+
+    private DirectIoFileChannel(FileChannel channel, int alignment, boolean write) {
+        this.channel = channel;
+        this.alignment = alignment;
+        this.writeBuffer = write ? allocateAligned(Math.max(WRITE_BUFFER_SIZE, alignment), alignment) : null;
+    }
+
+    /**
+     * Returns true if the JVM can open files for direct I/O.
+     */
+    public static boolean isAvailable() {
+        return DIRECT != null;
+    }
+
+    public static DirectIoFileChannel openForRead(File file)
+            throws IOException {
+        return open(file, false, StandardOpenOption.READ);
+    }
+
+    /**
+     * Opens the file for writing from its start, creating or truncating it.
+     */
+    public static DirectIoFileChannel openForWrite(File file)
+            throws IOException {
+        return open(file, true, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private static DirectIoFileChannel open(File file, boolean write, OpenOption... options)
+            throws IOException {
+        checkState(isAvailable(), "Direct I/O needs Java 10 or later");
+        Path path = file.toPath();
+        OpenOption[] directOptions = new OpenOption[options.length + 1];
+        System.arraycopy(options, 0, directOptions, 0, options.length);
+        directOptions[options.length] = DIRECT;
+        FileChannel channel = FileChannel.open(path, directOptions);
+        return new DirectIoFileChannel(channel, blockSize(path), write);
+    }
+
+    private static int blockSize(Path path)
+            throws IOException {
+        try {
+            long blockSize = (long) GET_BLOCK_SIZE.invokeExact(Files.getFileStore(path));
+            if (blockSize > 0 && blockSize <= MAX_BLOCK_SIZE && Long.bitCount(blockSize) == 1) {
+                return (int) blockSize;
+            }
+        } catch (UnsupportedOperationException ignored) {
+            // file store does not tell
+        } catch (IOException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw Throwables.propagate(e);
+        }
+        return DEFAULT_BLOCK_SIZE;
+    }
+
+    private static ByteBuffer allocateAligned(int capacity, int alignment) {
+        try {
+            // the aligned slice ends on an aligned address as well
+            int alignedCapacity = (capacity + alignment - 1) & -alignment;
+            ByteBuffer buffer = (ByteBuffer) ALIGNED_SLICE.invokeExact(ByteBuffer.allocateDirect(alignedCapacity + alignment - 1), alignment);
+            buffer.limit(capacity);
+            return buffer.slice();
+        } catch (Throwable e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private long alignDown(long offset) {
+        return offset & -alignment;
+    }
+
+    private long alignUp(long offset) {
+        return (offset + alignment - 1) & -alignment;
+    }
+
+    private ByteBuffer readScratch(int length) {
+        if (length > MAX_READ_SCRATCH_SIZE) {
+            return allocateAligned(length, alignment);
+        }
+        ByteBuffer scratch = READ_SCRATCH.get();
+        if (scratch == null || scratch.capacity() < length) {
+            // shared by the channels of the thread, so aligned for any block size
+            scratch = allocateAligned(Math.max(length, MAX_BLOCK_SIZE), MAX_BLOCK_SIZE);
+            READ_SCRATCH.set(scratch);
+        }
+        scratch.clear().limit(length);
+        return scratch;
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position)
+            throws IOException {
+        checkArgument(position >= 0, "position is negative");
+        if (!dst.hasRemaining()) {
+            return 0;
+        }
+        if (writeBuffer != null) {
+            // the buffered tail is read back from the file
+            flushWriteBuffer(true);
+        }
+        long start = alignDown(position);
+        long end = alignUp(position + dst.remaining());
+        ByteBuffer scratch = readScratch((int) (end - start));
+        int read = readBlocks(scratch, start);
+        int available = (int) (read - (position - start));
+        if (available <= 0) {
+            return -1;
+        }
+        scratch.flip().position((int) (position - start));
+        int length = Math.min(available, dst.remaining());
+        scratch.limit(scratch.position() + length);
+        dst.put(scratch);
+        return length;
+    }
+
+    /**
+     * Reads whole blocks from the aligned offset into the aligned buffer, returning
+     * the number of bytes read, which is short at the end of the file.
+     */
+    private int readBlocks(ByteBuffer buffer, long offset)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            // a read ending off a block boundary reached the end of the file, which need not be aligned
+            if (channel.read(buffer, offset + buffer.position()) <= 0 || buffer.position() % alignment != 0) {
+                break;
+            }
+        }
+        return buffer.position();
+    }
+
+    @Override
+    public int read(ByteBuffer dst)
+            throws IOException {
+        int read = read(dst, position);
+        if (read > 0) {
+            position += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length)
+            throws IOException {
+        long read = 0;
+        for (int i = offset; i < offset + length; i++) {
+            if (!dsts[i].hasRemaining()) {
+                continue;
+            }
+            int count = read(dsts[i]);
+            if (count < 0) {
+                return read == 0 ? -1 : read;
+            }
+            read += count;
+            if (dsts[i].hasRemaining()) {
+                break;
+            }
+        }
+        return read;
+    }
+
+    @Override
+    public int write(ByteBuffer src)
+            throws IOException {
+        int written = write(src, position);
+        position += written;
+        return written;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length)
+            throws IOException {
+        long written = 0;
+        for (int i = offset; i < offset + length; i++) {
+            written += write(srcs[i]);
+        }
+        return written;
+    }
+
+    /**
+     * Writes at the end of the file go through the write buffer.  Writes before the
+     * end rewrite the blocks they touch, writes past it fill the gap with zeros.
+     */
+    @Override
+    public int write(ByteBuffer src, long position)
+            throws IOException {
+        checkArgument(position >= 0, "position is negative");
+        if (writeBuffer == null) {
+            throw new NonWritableChannelException();
+        }
+        int written = src.remaining();
+        if (written == 0) {
+            return 0;
+        }
+        long end = size();
+        if (position < end) {
+            ByteBuffer head = src.duplicate();
+            head.limit(head.position() + (int) Math.min(head.remaining(), end - position));
+            overwrite(head, position);
+            src.position(head.limit());
+        } else if (position > end) {
+            appendZeros(position - end);
+        }
+        append(src);
+        return written;
+    }
+
+    private void append(ByteBuffer src)
+            throws IOException {
+        while (src.hasRemaining()) {
+            if (!writeBuffer.hasRemaining()) {
+                flushWriteBuffer(false);
+            }
+            int length = Math.min(src.remaining(), writeBuffer.remaining());
+            ByteBuffer chunk = src.duplicate();
+            chunk.limit(chunk.position() + length);
+            writeBuffer.put(chunk);
+            src.position(src.position() + length);
+        }
+    }
+
+    private void appendZeros(long length)
+            throws IOException {
+        ByteBuffer zeros = ByteBuffer.allocate((int) Math.min(length, WRITE_BUFFER_SIZE));
+        while (length > 0) {
+            zeros.clear().limit((int) Math.min(length, zeros.capacity()));
+            length -= zeros.remaining();
+            append(zeros);
+        }
+    }
+
+    /**
+     * Rewrites the blocks of the file covering a range before its end.
+     */
+    private void overwrite(ByteBuffer src, long position)
+            throws IOException {
+        long end = size();
+        flushWriteBuffer(true);
+
+        long start = alignDown(position);
+        ByteBuffer blocks = readScratch((int) (alignUp(position + src.remaining()) - start));
+        int read = readBlocks(blocks, start);
+        // the last block may be the partial one, padded as on flush
+        for (int i = read; i < blocks.limit(); i++) {
+            blocks.put(i, (byte) 0);
+        }
+        blocks.position((int) (position - start));
+        blocks.put(src);
+        blocks.position(0);
+        while (blocks.hasRemaining()) {
+            channel.write(blocks, start + blocks.position());
+        }
+        channel.truncate(end);
+
+        if (start + blocks.limit() > writeBufferOffset) {
+            // the buffered partial block was written to
+            reloadWriteBuffer(end);
+        }
+    }
+
+    /**
+     * Fills the write buffer with the partial last block of a file of the given size,
+     * which must be on disk.
+     */
+    private void reloadWriteBuffer(long size)
+            throws IOException {
+        writeBufferOffset = alignDown(size);
+        int partial = (int) (size - writeBufferOffset);
+        writeBuffer.clear().limit(partial == 0 ? 0 : alignment);
+        readBlocks(writeBuffer, writeBufferOffset);
+        writeBuffer.limit(writeBuffer.capacity()).position(partial);
+    }
+
+    /**
+     * Writes the whole blocks of the write buffer, and optionally the padded partial
+     * last one, which stays in the buffer to be written again once more data follows it.
+     */
+    private void flushWriteBuffer(boolean includePartialBlock)
+            throws IOException {
+        int length = writeBuffer.position();
+        int wholeBlocks = (int) alignDown(length);
+        int writeLength = includePartialBlock ? (int) alignUp(length) : wholeBlocks;
+        if (writeLength == 0) {
+            return;
+        }
+
+        ByteBuffer out = writeBuffer.duplicate();
+        out.clear();
+        for (int i = length; i < writeLength; i++) {
+            out.put(i, (byte) 0);
+        }
+        out.limit(writeLength);
+        while (out.hasRemaining()) {
+            channel.write(out, writeBufferOffset + out.position());
+        }
+
+        // move the partial block to the front of the buffer
+        int partial = length - wholeBlocks;
+        ByteBuffer tail = writeBuffer.duplicate();
+        tail.limit(length).position(wholeBlocks);
+        writeBuffer.clear();
+        writeBuffer.put(tail);
+        writeBufferOffset += wholeBlocks;
+        if (includePartialBlock) {
+            channel.truncate(writeBufferOffset + partial);
+        }
+    }
+
+    @Override
+    public long position() {
+        return position;
+    }
+
+    @Override
+    public FileChannel position(long newPosition) {
+        checkArgument(newPosition >= 0, "position is negative");
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size()
+            throws IOException {
+        if (writeBuffer != null) {
+            return writeBufferOffset + writeBuffer.position();
+        }
+        return channel.size();
+    }
+
+    @Override
+    public FileChannel truncate(long size)
+            throws IOException {
+        checkArgument(size >= 0, "size is negative");
+        if (writeBuffer == null) {
+            throw new NonWritableChannelException();
+        }
+        if (size < size()) {
+            flushWriteBuffer(true);
+            channel.truncate(size);
+            reloadWriteBuffer(size);
+        }
+        position = Math.min(position, size);
+        return this;
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target)
+            throws IOException {
+        checkArgument(position >= 0 && count >= 0, "position or count is negative");
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(count, WRITE_BUFFER_SIZE));
+        long transferred = 0;
+        while (transferred < count) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), count - transferred));
+            int read = read(buffer, position + transferred);
+            if (read <= 0) {
+                break;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+            transferred += read;
+        }
+        return transferred;
+    }
+
+    @Override
+    public long transferFrom(ReadableByteChannel src, long position, long count)
+            throws IOException {
+        checkArgument(position >= 0 && count >= 0, "position or count is negative");
+        if (writeBuffer == null) {
+            throw new NonWritableChannelException();
+        }
+        if (position > size()) {
+            return 0;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(count, WRITE_BUFFER_SIZE));
+        long transferred = 0;
+        while (transferred < count) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), count - transferred));
+            int read = src.read(buffer);
+            if (read <= 0) {
+                break;
+            }
+            buffer.flip();
+            write(buffer, position + transferred);
+            transferred += read;
+        }
+        return transferred;
+    }
+
+    /**
+     * Maps the file through the page cache; later writes to this channel are not
+     * seen through the mapping before {@link #force}.
+     */
+    @Override
+    public MappedByteBuffer map(MapMode mode, long position, long size)
+            throws IOException {
+        if (writeBuffer != null) {
+            flushWriteBuffer(true);
+        }
+        return channel.map(mode, position, size);
+    }
+
+    @Override
+    public FileLock lock(long position, long size, boolean shared)
+            throws IOException {
+        return channel.lock(position, size, shared);
+    }
+
+    @Override
+    public FileLock tryLock(long position, long size, boolean shared)
+            throws IOException {
+        return channel.tryLock(position, size, shared);
+    }
+
+    @Override
+    public void force(boolean metaData)
+            throws IOException {
+        if (writeBuffer != null) {
+            flushWriteBuffer(true);
+        }
+        channel.force(metaData);
+    }
+
+    @Override
+    protected void implCloseChannel()
+            throws IOException {
+        try {
+            if (writeBuffer != null) {
+                flushWriteBuffer(true);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.util;
+
+/**
+ * Port of the murmur-like hash in leveldb's util/hash.cc.  The results are
+ * persisted (hash indexes, filters) so this must never change.
+ */
+public final class Hash {
+    private Hash() {
+    }
+
+    public static int hash(Slice data, int seed) {
+        return hash(data.getRawArray(), data.getRawOffset(), data.length(), seed);
+    }
+
+    public static int hash(byte[] data, int offset, int length, int seed) {
+        // Similar to murmur hash
+        int m = 0xc6a4a793;
+        int r = 24;
+
+        int h = seed ^ (length * m);
+
+        // Pick up four bytes at a time
+        int limit = offset + length;
+        int position = offset;
+        for (; position + 4 <= limit; position += 4) {
+            int w = (data[position] & 0xff) |
+                    (data[position + 1] & 0xff) << 8 |
+                    (data[position + 2] & 0xff) << 16 |
+                    (data[position + 3] & 0xff) << 24;
+            h += w;
+            h *= m;
+            h ^= (h >>> 16);
+        }
+
+        // Pick up remaining bytes
+        switch (limit - position) {
+            case 3:
+                h += (data[position + 2] & 0xff) << 16;
+                // fall through
+            case 2:
+                h += (data[position + 1] & 0xff) << 8;
+                // fall through
+            case 1:
+                h += data[position] & 0xff;
+                h *= m;
+                h ^= (h >>> r);
+                break;
+            default:
+                break;
+        }
+        return h;
+    }
+}
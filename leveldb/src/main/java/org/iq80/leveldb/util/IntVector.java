@@ -20,6 +20,7 @@ package org.iq80.leveldb.util;
 import java.util.Arrays;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
 
 public class IntVector {
     private int size;
@@ -60,6 +61,11 @@ public class IntVector {
         values = Arrays.copyOf(values, newLength);
     }
 
+    public int get(int index) {
+        checkElementIndex(index, size);
+        return values[index];
+    }
+
     public int[] values() {
         return Arrays.copyOf(values, size);
     }
@@ -19,15 +19,16 @@ package org.iq80.leveldb.util;
 
 import com.google.common.collect.Maps;
 import org.iq80.leveldb.impl.InternalKey;
+import org.iq80.leveldb.impl.SeekingIterator;
 
 import java.util.Map.Entry;
 
 public class InternalTableIterator
         extends AbstractSeekingIterator<InternalKey, Slice>
         implements InternalIterator {
-    private final TableIterator tableIterator;
+    private final SeekingIterator<Slice, Slice> tableIterator;
 
-    public InternalTableIterator(TableIterator tableIterator) {
+    public InternalTableIterator(SeekingIterator<Slice, Slice> tableIterator) {
         this.tableIterator = tableIterator;
     }
 
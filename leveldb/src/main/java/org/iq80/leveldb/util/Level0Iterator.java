@@ -36,9 +36,13 @@ public final class Level0Iterator
     private final Comparator<InternalKey> comparator;
 
     public Level0Iterator(TableCache tableCache, List<FileMetaData> files, Comparator<InternalKey> comparator) {
+        this(tableCache, files, comparator, true);
+    }
+
+    public Level0Iterator(TableCache tableCache, List<FileMetaData> files, Comparator<InternalKey> comparator, boolean fillCache) {
         Builder<InternalTableIterator> builder = ImmutableList.builder();
         for (FileMetaData file : files) {
-            builder.add(tableCache.newIterator(file));
+            builder.add(tableCache.newIterator(file, fillCache));
         }
         this.inputs = builder.build();
         this.comparator = comparator;
@@ -31,13 +31,19 @@ public final class LevelIterator
     private final TableCache tableCache;
     private final List<FileMetaData> files;
     private final InternalKeyComparator comparator;
+    private final boolean fillCache;
     private InternalTableIterator current;
     private int index;
 
     public LevelIterator(TableCache tableCache, List<FileMetaData> files, InternalKeyComparator comparator) {
+        this(tableCache, files, comparator, true);
+    }
+
+    public LevelIterator(TableCache tableCache, List<FileMetaData> files, InternalKeyComparator comparator, boolean fillCache) {
         this.tableCache = tableCache;
         this.files = files;
         this.comparator = comparator;
+        this.fillCache = fillCache;
     }
 
     @Override
@@ -123,7 +129,7 @@ public final class LevelIterator
     private InternalTableIterator openNextFile() {
         FileMetaData fileMetaData = files.get(index);
         index++;
-        return tableCache.newIterator(fileMetaData);
+        return tableCache.newIterator(fileMetaData, fillCache);
     }
 
     @Override
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Read only mapping of a file of any size.  A single {@link MappedByteBuffer} is
+ * limited to 2GB, so the file is mapped in segments and the rare read that spans
+ * two segments is copied.
+ */
+public final class MappedSegments
+        implements Closeable {
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+    private final long size;
+    private final int segmentSize;
+    private final MappedByteBuffer[] segments;
+
+    public MappedSegments(FileChannel fileChannel)
+            throws IOException {
+        this(fileChannel, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public MappedSegments(FileChannel fileChannel, int segmentSize)
+            throws IOException {
+        checkArgument(segmentSize > 0, "segmentSize must be positive");
+        this.size = fileChannel.size();
+        this.segmentSize = segmentSize;
+        this.segments = new MappedByteBuffer[(int) ((size + segmentSize - 1) / segmentSize)];
+        try {
+            for (int i = 0; i < segments.length; i++) {
+                long position = (long) i * segmentSize;
+                segments[i] = fileChannel.map(MapMode.READ_ONLY, position, Math.min(segmentSize, size - position));
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns a little endian buffer positioned at the offset and limited to the length.
+     * The buffer shares the mapping unless the range spans two segments.
+     */
+    public ByteBuffer read(long offset, int length) {
+        checkArgument(offset >= 0 && length >= 0 && offset + length <= size, "Range [%s, %s) is outside of the file of %s bytes", offset, offset + length, size);
+        int index = (int) (offset / segmentSize);
+        int segmentOffset = (int) (offset % segmentSize);
+        if (length == 0 || segmentOffset + length <= segmentSize) {
+            if (index == segments.length) {
+                // empty range at the end of the file
+                return ByteBuffer.allocate(0).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            ByteBuffer segment = segments[index].duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            segment.limit(segmentOffset + length);
+            segment.position(segmentOffset);
+            return segment;
+        }
+
+        ByteBuffer copy = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (copy.hasRemaining()) {
+            ByteBuffer segment = segments[index++].duplicate();
+            segment.position(segmentOffset);
+            segment.limit(Math.min(segment.capacity(), segmentOffset + copy.remaining()));
+            copy.put(segment);
+            segmentOffset = 0;
+        }
+        copy.flip();
+        return copy;
+    }
+
+    /**
+     * Copies the range out of the mapping.
+     */
+    public Slice copy(long offset, int length) {
+        return Slices.copiedBuffer(read(offset, length));
+    }
+
+    /**
+     * Unmaps the segments, the buffers returned by {@link #read} must not be used afterwards.
+     */
+    @Override
+    public void close() {
+        for (int i = 0; i < segments.length; i++) {
+            if (segments[i] != null) {
+                ByteBufferSupport.unmap(segments[i]);
+                segments[i] = null;
+            }
+        }
+    }
+}
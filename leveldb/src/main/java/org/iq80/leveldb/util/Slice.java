@@ -219,16 +219,14 @@ public final class Slice
     /**
      * Transfers this buffer's data to the specified destination starting at
      * the specified absolute {@code index} until the destination's position
-     * reaches its limit.
+     * reaches its limit or the end of this buffer is reached.
      *
      * @throws IndexOutOfBoundsException if the specified {@code index} is less than {@code 0} or
-     *                                   if {@code index + dst.remaining()} is greater than
-     *                                   {@code this.capacity}
+     *                                   greater than {@code this.capacity}
      */
     public void getBytes(int index, ByteBuffer destination) {
         checkPositionIndex(index, this.length);
-        index += offset;
-        destination.put(data, index, Math.min(length, destination.remaining()));
+        destination.put(data, offset + index, Math.min(length - index, destination.remaining()));
     }
 
     /**
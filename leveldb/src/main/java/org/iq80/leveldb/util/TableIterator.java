@@ -17,6 +17,7 @@
  */
 package org.iq80.leveldb.util;
 
+import org.iq80.leveldb.impl.SeekingIterator;
 import org.iq80.leveldb.table.Block;
 import org.iq80.leveldb.table.BlockIterator;
 import org.iq80.leveldb.table.Table;
@@ -26,12 +27,19 @@ import java.util.Map.Entry;
 public final class TableIterator
         extends AbstractSeekingIterator<Slice, Slice> {
     private final Table table;
-    private final BlockIterator blockIterator;
+    // the index entries, read from the index block or from its partitions
+    private final SeekingIterator<Slice, Slice> blockIterator;
+    private final boolean fillCache;
     private BlockIterator current;
 
-    public TableIterator(Table table, BlockIterator blockIterator) {
+    public TableIterator(Table table, SeekingIterator<Slice, Slice> blockIterator) {
+        this(table, blockIterator, true);
+    }
+
+    public TableIterator(Table table, SeekingIterator<Slice, Slice> blockIterator, boolean fillCache) {
         this.table = table;
         this.blockIterator = blockIterator;
+        this.fillCache = fillCache;
         current = null;
     }
 
@@ -89,7 +97,7 @@ public final class TableIterator
 
     private BlockIterator getNextBlock() {
         Slice blockHandle = blockIterator.next().getValue();
-        Block dataBlock = table.openBlock(blockHandle);
+        Block dataBlock = table.openBlock(blockHandle, fillCache);
         return dataBlock.iterator();
     }
 
@@ -17,26 +17,43 @@
  */
 package org.iq80.leveldb.impl;
 
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
 import com.google.common.primitives.Ints;
 import com.google.common.primitives.UnsignedBytes;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.iq80.leveldb.*;
+import org.iq80.leveldb.table.BloomFilterPolicy;
+import org.iq80.leveldb.table.Footer;
+import org.iq80.leveldb.table.TableBuilder;
+import org.iq80.leveldb.table.TableProperties;
+import org.iq80.leveldb.util.DirectIoFileChannel;
 import org.iq80.leveldb.util.FileUtils;
 import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.Slices;
+import org.testng.SkipException;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.google.common.collect.Maps.immutableEntry;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Arrays.asList;
 import static org.iq80.leveldb.CompressionType.NONE;
+import static org.iq80.leveldb.impl.DbConstants.L0_SLOWDOWN_WRITES_TRIGGER;
 import static org.iq80.leveldb.impl.DbConstants.NUM_LEVELS;
 import static org.iq80.leveldb.table.BlockHelper.*;
 import static org.testng.Assert.*;
@@ -143,6 +160,205 @@ public class DbImplTest {
         assertEquals(db.get("bar"), "v2");
     }
 
+    @Test
+    public void testGetIntoByteBuffer()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        db.put("foo", "value");
+        db.put("bar", "v2");
+        db.compactMemTable();
+        db.put("bar", "v3");
+
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        assertEquals(db.db.get(toByteArray("foo"), buffer), 5);
+        buffer.flip();
+        assertEquals(UTF_8.decode(buffer).toString(), "value");
+
+        // a short buffer receives a prefix but the full length is reported
+        buffer = ByteBuffer.allocateDirect(3);
+        assertEquals(db.db.get(toByteArray("foo"), buffer), 5);
+        assertFalse(buffer.hasRemaining());
+        buffer.flip();
+        assertEquals(UTF_8.decode(buffer).toString(), "val");
+
+        buffer = ByteBuffer.allocate(16);
+        assertEquals(db.db.get(toByteArray("bar"), buffer), 2);
+        buffer.flip();
+        assertEquals(UTF_8.decode(buffer).toString(), "v3");
+
+        assertEquals(db.db.get(toByteArray("missing"), ByteBuffer.allocate(16)), -1);
+    }
+
+    @Test
+    public void testGetPinned()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        db.put("foo", "v1");
+        db.compactMemTable();
+        assertNull(db.db.getPinned(toByteArray("missing")));
+
+        try (PinnedSlice pinned = db.db.getPinned(toByteArray("foo"))) {
+            ByteBuffer buffer = pinned.buffer();
+            assertTrue(buffer.isReadOnly());
+            assertEquals(pinned.length(), 2);
+            // the pinned value is unaffected by later writes and compactions
+            db.put("foo", "v2");
+            db.compact("a", "z");
+            assertEquals(UTF_8.decode(buffer).toString(), "v1");
+        }
+        assertEquals(db.get("foo"), "v2");
+
+        // values from the memtable are not backed by a version
+        db.put("foo", "v3");
+        try (PinnedSlice pinned = db.db.getPinned(toByteArray("foo"))) {
+            assertEquals(UTF_8.decode(pinned.buffer()).toString(), "v3");
+        }
+
+        SeekingIteratorAdapter iterator = db.db.iterator();
+        iterator.seekToFirst();
+        SeekingIteratorAdapter.DbEntry entry = iterator.next();
+        assertEquals(UTF_8.decode(entry.getKeyBuffer()).toString(), "foo");
+        assertEquals(UTF_8.decode(entry.getValueBuffer()).toString(), "v3");
+        iterator.close();
+    }
+
+    @Test
+    public void testDataBlockHashIndex()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options().dataBlockHashIndex(true).blockRestartInterval(4), databaseDir);
+        for (int i = 0; i < 1000; i++) {
+            db.put(key(i), "v1-" + i);
+        }
+        Snapshot snapshot = db.getSnapshot();
+        for (int i = 0; i < 1000; i += 3) {
+            db.put(key(i), "v2-" + i);
+        }
+        for (int i = 1; i < 1000; i += 7) {
+            db.delete(key(i));
+        }
+        db.compactMemTable();
+
+        for (int i = 0; i < 1000; i++) {
+            String expected = i % 7 == 1 ? null : (i % 3 == 0 ? "v2-" : "v1-") + i;
+            assertEquals(db.get(key(i)), expected);
+            assertEquals(db.get(key(i), snapshot), "v1-" + i);
+        }
+        assertNull(db.get("key"));
+        assertNull(db.get(key(5000)));
+        snapshot.close();
+    }
+
+    @Test
+    public void testPartitionedIndex()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options().indexPartitionSize(128).blockSize(256).cacheSize(64 * 1024), databaseDir);
+        for (int i = 0; i < 2000; i++) {
+            db.put(key(i), "value" + i);
+        }
+        db.compact("a", "z");
+        db.reopen();
+
+        for (int i = 0; i < 2000; i++) {
+            assertEquals(db.get(key(i)), "value" + i);
+        }
+        assertNull(db.get(key(2000)));
+
+        SeekingIterator<String, String> iterator = db.iterator();
+        iterator.seek(key(1500));
+        for (int i = 1500; i < 2000; i++) {
+            assertEquals(iterator.next().getKey(), key(i));
+        }
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testRowCache()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options().rowCacheSize(1024 * 1024), databaseDir);
+        assertNull(db.db.getProperty("leveldb.no-such-property"));
+        db.put("foo", "v1");
+        db.put("bar", "v1");
+        Snapshot snapshot = db.getSnapshot();
+        db.put("foo", "v2");
+        db.delete("bar");
+        db.compactMemTable();
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(db.get("foo"), "v2");
+            assertNull(db.get("bar"));
+            assertNull(db.get("baz"));
+            // the cached rows are newer than the snapshot
+            assertEquals(db.get("foo", snapshot), "v1");
+            assertEquals(db.get("bar", snapshot), "v1");
+        }
+        String stats = db.db.getProperty("leveldb.row-cache-stats");
+        assertTrue(stats.contains("misses: 3"), stats);
+        assertTrue(stats.contains("hits: 12"), stats);
+
+        // rows of the compacted file are never consulted again
+        db.compact("a", "z");
+        assertEquals(db.get("foo"), "v2");
+        assertNull(db.get("bar"));
+        assertEquals(db.get("foo", snapshot), "v1");
+        snapshot.close();
+    }
+
+    @Test
+    public void testKeyMayExist()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options().filterPolicy(new BloomFilterPolicy(10)), databaseDir);
+        assertFalse(db.db.keyMayExist(toByteArray("foo")));
+
+        db.put("foo", "v1");
+        db.put("bar", "v1");
+        db.delete("bar");
+        Holder<byte[]> value = new Holder<>();
+        assertTrue(db.db.keyMayExist(toByteArray("foo"), new ReadOptions(), value));
+        assertEquals(new String(value.getValue(), UTF_8), "v1");
+        assertFalse(db.db.keyMayExist(toByteArray("bar"), new ReadOptions(), value));
+        assertNull(value.getValue());
+
+        db.compactMemTable();
+        db.reopen();
+        // the table is not open yet, so only its key range can rule a key out
+        assertFalse(db.db.keyMayExist(toByteArray("zzz")));
+        assertTrue(db.db.keyMayExist(toByteArray("foo"), new ReadOptions(), value));
+        assertNull(value.getValue());
+
+        // once the block is cached the value is returned from memory
+        assertEquals(db.get("foo"), "v1");
+        assertTrue(db.db.keyMayExist(toByteArray("foo"), new ReadOptions(), value));
+        assertEquals(new String(value.getValue(), UTF_8), "v1");
+        assertFalse(db.db.keyMayExist(toByteArray("bar")));
+        assertFalse(db.db.keyMayExist(toByteArray("baz")));
+
+        db.put("foo", "v2");
+        assertTrue(db.db.keyMayExist(toByteArray("foo"), new ReadOptions(), value));
+        assertEquals(new String(value.getValue(), UTF_8), "v2");
+    }
+
+    @Test
+    public void testFilterPolicy()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options().filterPolicy(new BloomFilterPolicy(10)), databaseDir);
+        for (int i = 0; i < 1000; i++) {
+            db.put(key(i * 2), "v" + i);
+        }
+        db.compactMemTable();
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(db.get(key(i * 2)), "v" + i);
+            assertNull(db.get(key(i * 2 + 1)));
+        }
+
+        // tables written with a filter are still readable without one
+        db.reopen(new Options());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(db.get(key(i * 2)), "v" + i);
+            assertNull(db.get(key(i * 2 + 1)));
+        }
+    }
+
     @Test
     public void testPutDeleteGet()
             throws Exception {
@@ -245,192 +461,1281 @@ public class DbImplTest {
         db.put("f", "vf");
         db.compact("f", "g");
 
-        assertEquals(db.get("a"), "va");
-        assertEquals(db.get("f"), "vf");
-        assertEquals(db.get("x"), "vx");
+        assertEquals(db.get("a"), "va");
+        assertEquals(db.get("f"), "vf");
+        assertEquals(db.get("x"), "vx");
+
+    }
+
+    @Test
+    public void testEmptyIterator()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        SeekingIterator<String, String> iterator = db.iterator();
+
+        iterator.seekToFirst();
+        assertNoNextElement(iterator);
+
+        iterator.seek("foo");
+        assertNoNextElement(iterator);
+    }
+
+    @Test
+    public void testIteratorSingle()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        db.put("a", "va");
+
+        assertSequence(db.iterator(), immutableEntry("a", "va"));
+    }
+
+    @Test
+    public void testIteratorMultiple()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        db.put("a", "va");
+        db.put("b", "vb");
+        db.put("c", "vc");
+
+        SeekingIterator<String, String> iterator = db.iterator();
+        assertSequence(iterator,
+                immutableEntry("a", "va"),
+                immutableEntry("b", "vb"),
+                immutableEntry("c", "vc"));
+
+        // Make sure iterator stays at snapshot
+        db.put("a", "va2");
+        db.put("a2", "va3");
+        db.put("b", "vb2");
+        db.put("c", "vc2");
+
+        iterator.seekToFirst();
+        assertSequence(iterator,
+                immutableEntry("a", "va"),
+                immutableEntry("b", "vb"),
+                immutableEntry("c", "vc"));
+    }
+
+    @Test
+    public void testRecover()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        db.put("foo", "v1");
+        db.put("baz", "v5");
+
+        db.reopen();
+
+        assertEquals(db.get("foo"), "v1");
+        assertEquals(db.get("baz"), "v5");
+        db.put("bar", "v2");
+        db.put("foo", "v3");
+
+        db.reopen();
+
+        assertEquals(db.get("foo"), "v3");
+        db.put("foo", "v4");
+        assertEquals(db.get("foo"), "v4");
+        assertEquals(db.get("bar"), "v2");
+        assertEquals(db.get("baz"), "v5");
+
+    }
+
+    @Test
+    public void testRecoveryWithEmptyLog()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        db.put("foo", "v1");
+        db.put("foo", "v2");
+        db.reopen();
+        db.reopen();
+        db.put("foo", "v3");
+        db.reopen();
+        assertEquals(db.get("foo"), "v3");
+    }
+
+    @Test
+    public void testRecoverDuringMemtableCompaction()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options().writeBufferSize(1000000), databaseDir);
+
+        // Trigger a long memtable compaction and reopen the database during it
+        db.put("foo", "v1");                        // Goes to 1st log file
+        db.put("big1", longString(10000000, 'x'));  // Fills memtable
+        db.put("big2", longString(1000, 'y'));      // Triggers compaction
+        db.put("bar", "v2");                       // Goes to new log file
+
+        db.reopen();
+        assertEquals(db.get("foo"), "v1");
+        assertEquals(db.get("bar"), "v2");
+        assertEquals(db.get("big1"), longString(10000000, 'x'));
+        assertEquals(db.get("big2"), longString(1000, 'y'));
+
+    }
+
+    @Test
+    public void testMinorCompactionsHappen()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options().writeBufferSize(10000), databaseDir);
+
+        int n = 500;
+        int startingNumTables = db.totalTableFiles();
+        for (int i = 0; i < n; i++) {
+            db.put(key(i), key(i) + longString(1000, 'v'));
+        }
+        int endingNumTables = db.totalTableFiles();
+        assertTrue(endingNumTables > startingNumTables);
+
+        for (int i = 0; i < n; i++) {
+            assertEquals(db.get(key(i)), key(i) + longString(1000, 'v'));
+        }
+        db.compactMemTable();
+
+        for (int i = 0; i < n; i++) {
+            assertEquals(db.get(key(i)), key(i) + longString(1000, 'v'));
+        }
+
+        db.reopen();
+        for (int i = 0; i < n; i++) {
+            assertEquals(db.get(key(i)), key(i) + longString(1000, 'v'));
+        }
+
+    }
+
+    @Test
+    public void testRecoverWithLargeLog()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        db.put("big1", longString(200000, '1'));
+        db.put("big2", longString(200000, '2'));
+        db.put("small3", longString(10, '3'));
+        db.put("small4", longString(10, '4'));
+        assertEquals(db.numberOfFilesInLevel(0), 0);
+
+        db.reopen(new Options().writeBufferSize(100000));
+        assertEquals(db.numberOfFilesInLevel(0), 3);
+        assertEquals(db.get("big1"), longString(200000, '1'));
+        assertEquals(db.get("big2"), longString(200000, '2'));
+        assertEquals(db.get("small3"), longString(10, '3'));
+        assertEquals(db.get("small4"), longString(10, '4'));
+        assertTrue(db.numberOfFilesInLevel(0) > 1);
+    }
+
+    @Test
+    public void testCompactionsGenerateMultipleFiles()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options().writeBufferSize(100000000), databaseDir);
+
+        // Write 8MB (80 values, each 100K)
+        assertEquals(db.numberOfFilesInLevel(0), 0);
+        assertEquals(db.numberOfFilesInLevel(1), 0);
+        Random random = new Random(301);
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < 80; i++) {
+            String value = randomString(random, 100 * 1024);
+            db.put(key(i), value);
+            values.add(value);
+        }
+
+        // Reopening moves updates to level-0
+        db.reopen();
+        assertTrue(db.numberOfFilesInLevel(0) > 0);
+        assertEquals(db.numberOfFilesInLevel(1), 0);
+        db.compactRange(0, "", key(100000));
+
+        assertEquals(db.numberOfFilesInLevel(0), 0);
+        assertTrue(db.numberOfFilesInLevel(1) > 0);
+        for (int i = 0; i < 80; i++) {
+            assertEquals(db.get(key(i)), values.get(i));
+        }
+    }
+
+    @Test
+    public void testTargetFileSize()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options().writeBufferSize(100000000).targetFileSize(512 * 1024), databaseDir);
+
+        // Write 4MB (40 values, each 100K)
+        Random random = new Random(301);
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            String value = randomString(random, 100 * 1024);
+            db.put(key(i), value);
+            values.add(value);
+        }
+
+        db.reopen();
+        db.compactRange(0, "", key(100000));
+
+        assertEquals(db.numberOfFilesInLevel(0), 0);
+        assertTrue(db.numberOfFilesInLevel(1) >= 7, "expected about 8 files of 512K, got " + db.numberOfFilesInLevel(1));
+        for (int i = 0; i < 40; i++) {
+            assertEquals(db.get(key(i)), values.get(i));
+        }
+    }
+
+    @Test
+    public void testDynamicLevelBytes()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options().writeBufferSize(100000000).dynamicLevelBytes(true), databaseDir);
+
+        Random random = new Random(301);
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            String value = randomString(random, 100 * 1024);
+            db.put(key(i), value);
+            values.add(value);
+        }
+
+        // memtable output is never pushed past level-0
+        db.reopen();
+        assertTrue(db.numberOfFilesInLevel(0) > 0);
+        assertEquals(db.numberOfFilesInLevel(1), 0);
+
+        // the database is small, so level-0 compacts straight into the last level
+        db.compactRange(0, "", key(100000));
+        assertEquals(db.numberOfFilesInLevel(0), 0);
+        for (int level = 1; level < NUM_LEVELS - 1; level++) {
+            assertEquals(db.numberOfFilesInLevel(level), 0);
+        }
+        assertTrue(db.numberOfFilesInLevel(NUM_LEVELS - 1) > 0);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(db.get(key(i)), values.get(i));
+        }
+    }
+
+    @Test
+    public void testUniversalCompaction()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options().compactionStyle(CompactionStyle.UNIVERSAL), databaseDir);
+
+        Random random = new Random(301);
+        Map<String, String> values = new HashMap<>();
+        for (int run = 0; run < 12; run++) {
+            for (int i = 0; i < 100; i++) {
+                String key = key(random.nextInt(500));
+                String value = randomString(random, 1000);
+                db.put(key, value);
+                values.put(key, value);
+            }
+            db.delete(key(run));
+            values.remove(key(run));
+            db.compactMemTable();
+
+            // only level-0 and the base level, which starts out as the last level, are used
+            for (int level = 1; level < NUM_LEVELS - 1; level++) {
+                assertEquals(db.numberOfFilesInLevel(level), 0);
+            }
+        }
+
+        // the runs are merged in the background until there are fewer than the trigger
+        for (int i = 0; i < 100 && db.numberOfFilesInLevel(0) + 1 >= 4; i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(db.numberOfFilesInLevel(0) + 1 < 4, "level-0 files: " + db.numberOfFilesInLevel(0));
+        assertTrue(db.numberOfFilesInLevel(NUM_LEVELS - 1) > 0);
+
+        for (int i = 0; i < 500; i++) {
+            assertEquals(db.get(key(i)), values.get(key(i)));
+        }
+        db.reopen();
+        for (int i = 0; i < 500; i++) {
+            assertEquals(db.get(key(i)), values.get(key(i)));
+        }
+    }
+
+    @Test
+    public void testMerge()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options().mergeOperator(new StringAppendOperator(true)), databaseDir);
+
+        db.merge("a", "1");
+        db.put("b", "x");
+        db.merge("b", "1");
+        db.merge("a", "2");
+        assertEquals(db.get("a"), "1,2");
+        assertEquals(db.get("b"), "x,1");
+
+        // operands spread over the memtable and several level-0 files
+        db.compactMemTable();
+        Snapshot snapshot = db.getSnapshot();
+        db.merge("a", "3");
+        db.compactMemTable();
+        db.merge("a", "4");
+        db.delete("b");
+        db.merge("b", "2");
+        assertEquals(db.get("a"), "1,2,3,4");
+        assertEquals(db.get("a", snapshot), "1,2");
+        assertEquals(db.get("b"), "2");
+        assertEquals(db.get("b", snapshot), "x,1");
+        assertEquals(db.iterator().next(), immutableEntry("a", "1,2,3,4"));
+        assertTrue(db.db.keyMayExist(toByteArray("a")));
+        snapshot.close();
+
+        // the write ahead log replays the operands
+        db.reopen();
+        assertEquals(db.get("a"), "1,2,3,4");
+        assertEquals(db.get("b"), "2");
+
+        db.compact("a", "z");
+        assertEquals(db.allEntriesFor("a"), asList("1,2,3,4"));
+        assertEquals(db.allEntriesFor("b"), asList("2"));
+        db.merge("a", "5");
+        assertEquals(db.get("a"), "1,2,3,4,5");
+        assertEquals(db.get("c"), null);
+    }
+
+    @Test
+    public void testMergeOperandsAcrossLevels()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options().mergeOperator(new StringAppendOperator(false)), databaseDir);
+
+        // push the first operands down to the deepest level
+        for (int i = 0; i < 10; i++) {
+            db.merge(key(i), "0");
+        }
+        db.compactMemTable();
+        for (int level = 0; level < NUM_LEVELS - 1; level++) {
+            db.compactRange(level, "", "~");
+        }
+        assertEquals(db.numberOfFilesInLevel(NUM_LEVELS - 1), 1);
+
+        for (int round = 1; round < 4; round++) {
+            for (int i = 0; i < 10; i++) {
+                db.merge(key(i), String.valueOf(round));
+            }
+            db.compactMemTable();
+        }
+        // compacting the upper levels can not fold the operands without the deepest level
+        db.compactRange(0, "", "~");
+        assertEquals(db.allEntriesFor(key(3)), asList("+3", "+2", "+1", "0"));
+        for (int i = 0; i < 10; i++) {
+            assertEquals(db.get(key(i)), "0,1,2,3");
+        }
+
+        db.compact("", "~");
+        for (int i = 0; i < 10; i++) {
+            assertEquals(db.get(key(i)), "0,1,2,3");
+        }
+        SeekingIterator<String, String> iterator = db.iterator();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(iterator.next(), immutableEntry(key(i), "0,1,2,3"));
+        }
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testMergeOperandNewerThanSnapshotKeepsItsBase()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options().mergeOperator(new StringAppendOperator(false)), databaseDir);
+        Snapshot snapshot = db.getSnapshot();
+        db.put("foo", "base");
+        db.compactMemTable();
+        db.merge("foo", "1");
+        db.compactMemTable();
+
+        // the operand is newer than the snapshot so it is not folded, the value
+        // it applies to must survive although both are in the same stripe
+        db.compact("", "~");
+        compactLastLevel(db);
+        assertEquals(db.allEntriesFor("foo"), asList("+1", "base"));
+        assertEquals(db.get("foo"), "base,1");
+        assertNull(db.get("foo", snapshot));
+
+        snapshot.close();
+        compactLastLevel(db);
+        assertEquals(db.allEntriesFor("foo"), asList("base,1"));
+        assertEquals(db.get("foo"), "base,1");
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testMergeRequiresOperator()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        db.merge("a", "1");
+    }
+
+    @Test
+    public void testDeleteRange()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        for (int i = 0; i < 100; i++) {
+            db.put(key(i), "v" + i);
+        }
+        db.compactMemTable();
+
+        Snapshot snapshot = db.getSnapshot();
+        db.deleteRange(key(10), key(20));
+        db.put(key(15), "new");
+        assertDeleteRange(db);
+        for (int i = 10; i < 20; i++) {
+            assertEquals(db.get(key(i), snapshot), "v" + i);
+        }
+        assertFalse(db.db.keyMayExist(toByteArray(key(12))));
+        snapshot.close();
+
+        // from the log, then from a level-0 table
+        db.reopen();
+        assertDeleteRange(db);
+        db.compactMemTable();
+        assertDeleteRange(db);
+
+        // the compaction drops the deleted entries together with the tombstone
+        db.compact("a", "z");
+        assertDeleteRange(db);
+        assertEquals(db.allEntriesFor(key(12)), ImmutableList.of());
+        assertEquals(db.allEntriesFor(key(15)), asList("new"));
+        db.reopen();
+        assertDeleteRange(db);
+    }
+
+    @Test
+    public void testDeleteRangesInMemTable()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        Random random = new Random(301);
+        Map<String, String> expected = new TreeMap<>();
+        for (int i = 0; i < 1000; i++) {
+            int start = random.nextInt(100);
+            if (random.nextInt(4) == 0) {
+                // each tombstone changes the fragments the following lookups search
+                int end = start + random.nextInt(10);
+                db.deleteRange(key(start), key(end));
+                expected.keySet().removeIf(key -> key.compareTo(key(start)) >= 0 && key.compareTo(key(end)) < 0);
+            } else {
+                db.put(key(start), "v" + i);
+                expected.put(key(start), "v" + i);
+            }
+            int lookup = random.nextInt(100);
+            assertEquals(db.get(key(lookup)), expected.get(key(lookup)), key(lookup));
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals(db.get(key(i)), expected.get(key(i)), key(i));
+        }
+    }
+
+    private static void assertDeleteRange(DbStringWrapper db) {
+        for (int i = 0; i < 100; i++) {
+            String expected = "v" + i;
+            if (i == 15) {
+                expected = "new";
+            } else if (i >= 10 && i < 20) {
+                expected = null;
+            }
+            assertEquals(db.get(key(i)), expected, key(i));
+        }
+        SeekingIterator<String, String> iterator = db.iterator();
+        for (int i = 0; i < 100; i++) {
+            if (i != 15 && i >= 10 && i < 20) {
+                continue;
+            }
+            assertEquals(iterator.next().getKey(), key(i));
+        }
+        assertFalse(iterator.hasNext());
+    }
+
+    @Test
+    public void testDeleteRangeDropsCoveredFiles()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        for (int i = 0; i < 100; i++) {
+            db.put(key(i), "v" + i);
+        }
+        db.compactMemTable();
+        assertEquals(db.numberOfFilesInLevel(2), 1);
+
+        db.deleteRange(key(0), key(100));
+        db.compactMemTable();
+        assertEquals(db.numberOfFilesInLevel(1), 1);
+        assertNull(db.get(key(50)));
+
+        // the level-2 file is covered by the tombstone and nothing is below it
+        db.compactRange(1, "", "~");
+        assertEquals(db.totalTableFiles(), 0);
+        for (int i = 0; i < 100; i++) {
+            assertNull(db.get(key(i)));
+        }
+    }
+
+    @Test
+    public void testRangeTombstonesAreKeptWithFiles()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        for (int i = 0; i < 100; i++) {
+            db.put(key(i), "v" + i);
+        }
+        db.deleteRange(key(10), key(20));
+        db.compactMemTable();
+
+        // new files carry their tombstones, so new versions need not open the tables
+        FileMetaData file = db.db.getFilesInLevel(2).get(0);
+        assertEquals(file.getRangeTombstones().getTombstones().size(), 1);
+
+        // recovered files keep them once the table is opened, here to read the stats missing from the manifest
+        db.reopen();
+        file = db.db.getFilesInLevel(2).get(0);
+        assertEquals(file.getRangeTombstones().getTombstones().size(), 1);
+        assertNull(db.get(key(15)));
+        SeekingIterator<String, String> iterator = db.iterator();
+        iterator.seek(key(10));
+        assertEquals(iterator.next().getKey(), key(20));
+    }
+
+    @Test
+    public void testDeleteRangeAcrossOutputFiles()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options().targetFileSize(4 * 1024), databaseDir);
+        Random random = new Random(301);
+        for (int i = 0; i < 200; i++) {
+            db.put(key(i), randomString(random, 100));
+        }
+        db.compactMemTable();
+        for (int level = 0; level < NUM_LEVELS - 1; level++) {
+            db.compactRange(level, "", "~");
+        }
+        assertTrue(db.numberOfFilesInLevel(NUM_LEVELS - 1) > 0);
+
+        Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < 200; i++) {
+            String value = randomString(random, 100);
+            db.put(key(i), value);
+            if (i < 50 || i >= 150) {
+                values.put(key(i), value);
+            }
+        }
+        db.deleteRange(key(50), key(150));
+        db.compactMemTable();
+
+        // the tombstone is cut at the output file boundaries and kept for the older level
+        db.compactRange(2, "", "~");
+        assertTrue(db.numberOfFilesInLevel(3) > 1, "files in level 3: " + db.numberOfFilesInLevel(3));
+        for (int i = 0; i < 200; i++) {
+            assertEquals(db.get(key(i)), values.get(key(i)), key(i));
+        }
+        assertEquals(db.allEntriesFor(key(100)).size(), 1);
+
+        db.compactRange(3, "", "~");
+        db.compactRange(4, "", "~");
+        db.compactRange(5, "", "~");
+        assertEquals(db.allEntriesFor(key(100)), ImmutableList.of());
+        for (int i = 0; i < 200; i++) {
+            assertEquals(db.get(key(i)), values.get(key(i)), key(i));
+        }
+        db.reopen();
+        SeekingIterator<String, String> iterator = db.iterator();
+        int count = 0;
+        while (iterator.hasNext()) {
+            Entry<String, String> entry = iterator.next();
+            assertEquals(entry.getValue(), values.get(entry.getKey()));
+            count++;
+        }
+        assertEquals(count, 100);
+    }
+
+    @Test
+    public void testCompactRange()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options().targetFileSize(4 * 1024), databaseDir);
+        Random random = new Random(301);
+        for (int i = 0; i < 400; i++) {
+            db.put(key(i), randomString(random, 100));
+        }
+        db.compactMemTable();
+        db.compactRange(2, "", "~");
+
+        Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < 400; i++) {
+            if (i % 10 == 0) {
+                db.delete(key(i));
+            } else {
+                String value = randomString(random, 100);
+                db.put(key(i), value);
+                values.put(key(i), value);
+            }
+        }
+
+        final List<String> progress = Collections.synchronizedList(new ArrayList<String>());
+        CompactRangeOptions options = new CompactRangeOptions()
+                .targetChunkSize(1)
+                .maxSubcompactions(4)
+                .progressListener(new CompactRangeOptions.ProgressListener() {
+                    @Override
+                    public void progress(int level, int completedChunks, int totalChunks) {
+                        progress.add(level + ":" + totalChunks);
+                    }
+                });
+        // open bounds, and the memtable is flushed first
+        db.db.compactRange(null, null, options);
+
+        assertTrue(progress.size() > 1, "progress: " + progress);
+        int levelsWithFiles = 0;
+        for (int level = 0; level < NUM_LEVELS; level++) {
+            if (db.numberOfFilesInLevel(level) > 0) {
+                levelsWithFiles++;
+            }
+        }
+        assertEquals(levelsWithFiles, 1);
+        assertEquals(db.allEntriesFor(key(10)), ImmutableList.of());
+        for (int i = 0; i < 400; i++) {
+            assertEquals(db.get(key(i)), values.get(key(i)), key(i));
+        }
+    }
+
+    @Test
+    public void testCompactRangeCancel()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options().targetFileSize(4 * 1024), databaseDir);
+        Random random = new Random(301);
+        for (int i = 0; i < 400; i++) {
+            db.put(key(i), randomString(random, 100));
+        }
+        db.compactMemTable();
+        db.compactRange(2, "", "~");
+        db.compactRange(3, "", "~");
+
+        Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < 400; i++) {
+            String value = randomString(random, 100);
+            db.put(key(i), value);
+            values.put(key(i), value);
+        }
+        db.compactMemTable();
+        for (int level = 0; level < 3; level++) {
+            db.compactRange(level, "", "~");
+        }
+        int files = db.numberOfFilesInLevel(3);
+        assertTrue(files > 2, "files in level 3: " + files);
+
+        final CompactRangeOptions options = new CompactRangeOptions()
+                .targetChunkSize(1)
+                .maxSubcompactions(1);
+        options.progressListener(new CompactRangeOptions.ProgressListener() {
+            @Override
+            public void progress(int level, int completedChunks, int totalChunks) {
+                options.cancel();
+            }
+        });
+        db.db.compactRange(key(0).getBytes(UTF_8), key(399).getBytes(UTF_8), options);
+
+        // only the first chunk was compacted
+        assertTrue(db.numberOfFilesInLevel(3) < files, "files in level 3: " + db.numberOfFilesInLevel(3));
+        assertTrue(db.numberOfFilesInLevel(3) > 0);
+        for (int i = 0; i < 400; i++) {
+            assertEquals(db.get(key(i)), values.get(key(i)), key(i));
+        }
+    }
+
+    @Test
+    public void testIntraLevel0Compaction()
+            throws Exception {
+        final DbStringWrapper db = new DbStringWrapper(new Options().targetFileSize(4 * 1024), databaseDir);
+        Random random = new Random(301);
+        for (int i = 0; i < 400; i++) {
+            db.put(key(i), randomString(random, 100));
+        }
+        db.compactMemTable();
+        db.compactRange(2, "", "~");
+        db.compactRange(3, "", "~");
+        for (int i = 0; i < 400; i++) {
+            db.put(key(i), randomString(random, 100));
+        }
+        db.compactMemTable();
+        for (int level = 0; level < 3; level++) {
+            db.compactRange(level, "", "~");
+        }
+        assertTrue(db.numberOfFilesInLevel(3) > 1);
+
+        // flush level-0 files while compactRange holds the deeper levels, without
+        // intra level-0 compactions the writes would stop for good
+        final int rounds = 10;
+        final AtomicBoolean flushed = new AtomicBoolean();
+        final AtomicInteger level0Files = new AtomicInteger(-1);
+        final CompactRangeOptions options = new CompactRangeOptions()
+                .targetChunkSize(1)
+                .maxSubcompactions(1);
+        options.progressListener(new CompactRangeOptions.ProgressListener() {
+            @Override
+            public void progress(int level, int completedChunks, int totalChunks) {
+                if (!flushed.compareAndSet(false, true)) {
+                    return;
+                }
+                for (int round = 0; round < rounds; round++) {
+                    db.put(key(0), "round" + round);
+                    db.put(key(399), "round" + round);
+                    db.compactMemTable();
+                }
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (db.numberOfFilesInLevel(0) >= L0_SLOWDOWN_WRITES_TRIGGER && System.nanoTime() < deadline) {
+                    Uninterruptibles.sleepUninterruptibly(10, TimeUnit.MILLISECONDS);
+                }
+                level0Files.set(db.numberOfFilesInLevel(0));
+            }
+        });
+        db.db.compactRange(key(0).getBytes(UTF_8), key(399).getBytes(UTF_8), options);
+
+        assertTrue(flushed.get());
+        assertTrue(level0Files.get() >= 0 && level0Files.get() < L0_SLOWDOWN_WRITES_TRIGGER, "files in level 0: " + level0Files.get());
+        assertEquals(db.get(key(0)), "round" + (rounds - 1));
+        assertEquals(db.get(key(399)), "round" + (rounds - 1));
+
+        db.reopen();
+        assertEquals(db.get(key(0)), "round" + (rounds - 1));
+        assertEquals(db.get(key(399)), "round" + (rounds - 1));
+    }
+
+    @Test
+    public void testRateLimiter()
+            throws Exception {
+        TokenBucketRateLimiter rateLimiter = new TokenBucketRateLimiter(64 << 20);
+        DbStringWrapper db = new DbStringWrapper(new Options().rateLimiter(rateLimiter).bytesPerSync(4096), databaseDir);
+        Random random = new Random(301);
+        Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < 200; i++) {
+            String value = randomString(random, 100);
+            db.put(key(i), value);
+            values.put(key(i), value);
+        }
+        db.compactMemTable();
+        long flushed = rateLimiter.getTotalBytesThrough(RateLimiter.Priority.HIGH);
+        assertTrue(flushed > 20000, "flushed: " + flushed);
+        assertEquals(rateLimiter.getTotalBytesThrough(RateLimiter.Priority.LOW), 0);
+
+        db.compactRange(2, "", "~");
+        assertEquals(rateLimiter.getTotalBytesThrough(RateLimiter.Priority.HIGH), flushed);
+        assertTrue(rateLimiter.getTotalBytesThrough(RateLimiter.Priority.LOW) > 20000);
+
+        rateLimiter.setBytesPerSecond(32 << 20);
+        assertEquals(rateLimiter.getBytesPerSecond(), 32 << 20);
+        for (int i = 0; i < 200; i++) {
+            assertEquals(db.get(key(i)), values.get(key(i)));
+        }
+    }
+
+    @Test
+    public void testCompressionPerLevel()
+            throws Exception {
+        Options options = new Options()
+                .compressionPerLevel(asList(CompressionType.NONE))
+                .bottommostCompressionType(CompressionType.ZLIB);
+        DbStringWrapper db = new DbStringWrapper(options, databaseDir);
+        Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < 1000; i++) {
+            String value = Strings.repeat("value" + (i % 10), 20);
+            db.put(key(i), value);
+            values.put(key(i), value);
+        }
+        db.compactMemTable();
+        // the flush is written with the compression of level-0
+        long uncompressedSize = Compaction.totalFileSize(db.db.getFilesInLevel(2));
+        assertTrue(uncompressedSize > 100000, "size: " + uncompressedSize);
+
+        // level 3 is the last level with files, so the compaction uses the bottommost compression
+        db.compactRange(2, "", "~");
+        assertEquals(db.numberOfFilesInLevel(2), 0);
+        long compressedSize = Compaction.totalFileSize(db.db.getFilesInLevel(3));
+        assertTrue(compressedSize * 4 < uncompressedSize, "size: " + compressedSize + " of " + uncompressedSize);
+        for (Entry<String, String> entry : values.entrySet()) {
+            assertEquals(db.get(entry.getKey()), entry.getValue());
+        }
+
+        db.reopen();
+        for (Entry<String, String> entry : values.entrySet()) {
+            assertEquals(db.get(entry.getKey()), entry.getValue());
+        }
+    }
+
+    @Test
+    public void testCompressionDictionary()
+            throws Exception {
+        Options options = new Options()
+                .compressionType(CompressionType.ZLIB)
+                .blockSize(512)
+                .targetFileSize(8 * 1024)
+                .maxCompressionDictionaryBytes(8 * 1024);
+        DbStringWrapper db = new DbStringWrapper(options, databaseDir);
+        Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < 4000; i++) {
+            String value = String.format("{\"id\": %d, \"name\": \"user%d\", \"status\": \"active\"}", i, i % 13);
+            db.put(key(i), value);
+            values.put(key(i), value);
+        }
+        db.compactMemTable();
+        db.compactRange(2, "", "~");
+
+        // every output of the bottommost compaction but the first has the dictionary
+        List<FileMetaData> files = new ArrayList<>(db.db.getFilesInLevel(3));
+        assertTrue(files.size() > 2, "files: " + files.size());
+        int withDictionary = 0;
+        for (FileMetaData file : files) {
+            byte[] contents = Files.toByteArray(new File(databaseDir, Filename.tableFileName(file.getNumber())));
+            if (new String(contents, ISO_8859_1).contains("leveldb.compression_dict")) {
+                withDictionary++;
+            }
+        }
+        assertEquals(withDictionary, files.size() - 1);
+
+        for (Entry<String, String> entry : values.entrySet()) {
+            assertEquals(db.get(entry.getKey()), entry.getValue());
+        }
+        db.reopen();
+        for (Entry<String, String> entry : values.entrySet()) {
+            assertEquals(db.get(entry.getKey()), entry.getValue());
+        }
+    }
+
+    @Test
+    public void testParallelCompression()
+            throws Exception {
+        Options options = new Options()
+                .compressionType(CompressionType.ZLIB)
+                .compressionThreads(4)
+                .filterPolicy(new BloomFilterPolicy(10))
+                .targetFileSize(16 * 1024);
+        DbStringWrapper db = new DbStringWrapper(options, databaseDir);
+        Random random = new Random(301);
+        Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < 2000; i++) {
+            String value = randomString(random, 10) + Strings.repeat("x", 100);
+            db.put(key(i), value);
+            values.put(key(i), value);
+        }
+        db.compactMemTable();
+        db.compactRange(2, "", "~");
+        assertTrue(db.numberOfFilesInLevel(3) > 1, "files: " + db.numberOfFilesInLevel(3));
+
+        db.reopen();
+        for (Entry<String, String> entry : values.entrySet()) {
+            assertEquals(db.get(entry.getKey()), entry.getValue());
+        }
+        assertNull(db.get(key(2000)));
+    }
+
+    @Test
+    public void testDirectIo()
+            throws Exception {
+        if (!DirectIoFileChannel.isAvailable()) {
+            throw new SkipException("direct I/O needs Java 10 or later");
+        }
+        Options options = new Options()
+                .useDirectReads(true)
+                .useDirectIoForFlushAndCompaction(true)
+                .targetFileSize(32 * 1024);
+        DbStringWrapper db = new DbStringWrapper(options, databaseDir);
+        Random random = new Random(301);
+        Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < 2000; i++) {
+            String value = randomString(random, 100);
+            db.put(key(i), value);
+            values.put(key(i), value);
+        }
+        db.compactMemTable();
+        db.compactRange(2, "", "~");
+        assertTrue(db.numberOfFilesInLevel(3) > 1, "files: " + db.numberOfFilesInLevel(3));
+
+        // the files have the size of the data written, not of whole blocks
+        for (FileMetaData file : db.db.getFilesInLevel(3)) {
+            assertEquals(new File(databaseDir, Filename.tableFileName(file.getNumber())).length(), file.getFileSize());
+        }
+
+        db.reopen();
+        for (Entry<String, String> entry : values.entrySet()) {
+            assertEquals(db.get(entry.getKey()), entry.getValue());
+        }
+    }
+
+    @Test
+    public void testBlobFiles()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options().enableBlobFiles(true).minBlobSize(100), databaseDir);
+        Random random = new Random(301);
+        Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            // every other value is large enough for a blob file
+            String value = randomString(random, i % 2 == 0 ? 1000 : 10);
+            db.put(key(i), value);
+            values.put(key(i), value);
+        }
+        db.compactMemTable();
+        assertEquals(blobFileNumbers().size(), 1);
+        assertTrue(db.db.getProperty("leveldb.blob-stats").startsWith(String.format("blob files: 1%nblobs: 50%n")));
+        // the table only holds references to the large values
+        for (FileMetaData file : db.db.getFilesInLevel(2)) {
+            assertTrue(file.getFileSize() < 10_000, "size: " + file.getFileSize());
+        }
+        long firstBlobFile = blobFileNumbers().get(0);
+
+        Snapshot snapshot = db.getSnapshot();
+        String oldValue = values.get(key(0));
+        for (int i = 0; i < 100; i += 2) {
+            String value = randomString(random, 1000);
+            db.put(key(i), value);
+            values.put(key(i), value);
+        }
+        db.compact("", "~");
+        assertEquals(db.get(key(0), snapshot), oldValue);
+        assertTrue(blobFileNumbers().contains(firstBlobFile));
+
+        // without the snapshot the old values are garbage and their file is deleted
+        snapshot.close();
+        compactLastLevel(db);
+        assertFalse(blobFileNumbers().contains(firstBlobFile));
+        assertEquals(blobFileNumbers().size(), 1);
 
+        db.reopen();
+        for (Entry<String, String> entry : values.entrySet()) {
+            assertEquals(db.get(entry.getKey()), entry.getValue());
+        }
+        SeekingIterator<String, String> iterator = db.iterator();
+        iterator.seekToFirst();
+        for (int i = 0; i < 100; i++) {
+            assertEquals(iterator.next(), immutableEntry(key(i), values.get(key(i))));
+        }
+        assertFalse(iterator.hasNext());
     }
 
     @Test
-    public void testEmptyIterator()
+    public void testDeleteRangeReleasesBlobFiles()
             throws Exception {
-        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
-        SeekingIterator<String, String> iterator = db.iterator();
+        DbStringWrapper db = new DbStringWrapper(new Options().enableBlobFiles(true).minBlobSize(100), databaseDir);
+        Random random = new Random(301);
+        for (int i = 0; i < 100; i++) {
+            db.put(key(i), randomString(random, 1000));
+        }
+        db.compactMemTable();
+        assertEquals(db.numberOfFilesInLevel(2), 1);
+        assertEquals(blobFileNumbers().size(), 1);
 
-        iterator.seekToFirst();
-        assertNoNextElement(iterator);
+        db.deleteRange(key(0), key(100));
+        db.compactMemTable();
+        assertEquals(db.numberOfFilesInLevel(1), 1);
 
-        iterator.seek("foo");
-        assertNoNextElement(iterator);
+        // the covered file is read, so the values it references become garbage
+        db.compactRange(1, "", "~");
+        assertEquals(db.totalTableFiles(), 0);
+        assertTrue(blobFileNumbers().isEmpty());
     }
 
     @Test
-    public void testIteratorSingle()
+    public void testBlobGarbageCollection()
             throws Exception {
-        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
-        db.put("a", "va");
+        // every compaction moves all values it reads to new blob files
+        Options options = new Options()
+                .enableBlobFiles(true)
+                .minBlobSize(100)
+                .blobGarbageCollectionAgeCutoff(1);
+        DbStringWrapper db = new DbStringWrapper(options, databaseDir);
+        Random random = new Random(301);
+        Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            String value = randomString(random, 1000);
+            db.put(key(i), value);
+            values.put(key(i), value);
+            if (i % 50 == 49) {
+                db.compactMemTable();
+            }
+        }
+        List<Long> oldBlobFiles = blobFileNumbers();
+        assertEquals(oldBlobFiles.size(), 2);
+
+        compactLastLevel(db);
+        List<Long> newBlobFiles = blobFileNumbers();
+        assertFalse(newBlobFiles.isEmpty());
+        for (Long oldBlobFile : oldBlobFiles) {
+            assertFalse(newBlobFiles.contains(oldBlobFile));
+        }
+        assertEquals(db.db.getProperty("leveldb.blob-stats"),
+                String.format("blob files: 1%nblobs: 100%nblob size: %d%ngarbage blobs: 0%ngarbage size: 0%n", 100 * (1000 + BlobFileBuilder.RECORD_HEADER_SIZE)));
 
-        assertSequence(db.iterator(), immutableEntry("a", "va"));
+        // blob files are no longer written, relocated values go back to the tables
+        db.reopen(options.enableBlobFiles(false));
+        for (Entry<String, String> entry : values.entrySet()) {
+            assertEquals(db.get(entry.getKey()), entry.getValue());
+        }
+        compactLastLevel(db);
+        assertTrue(blobFileNumbers().isEmpty());
+        for (Entry<String, String> entry : values.entrySet()) {
+            assertEquals(db.get(entry.getKey()), entry.getValue());
+        }
     }
 
+    /**
+     * Compacts all files into the deepest level holding any, and that level into the
+     * next one, which rewrites every file.
+     */
     @Test
-    public void testIteratorMultiple()
+    public void testPlainTableFormat()
             throws Exception {
-        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
-        db.put("a", "va");
-        db.put("b", "vb");
-        db.put("c", "vc");
-
-        SeekingIterator<String, String> iterator = db.iterator();
-        assertSequence(iterator,
-                immutableEntry("a", "va"),
-                immutableEntry("b", "vb"),
-                immutableEntry("c", "vc"));
+        DbStringWrapper db = new DbStringWrapper(new Options().tableFormat(TableFormat.PLAIN), databaseDir);
+        Random random = new Random(301);
+        Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            String value = randomString(random, 100);
+            db.put(key(i), value);
+            values.put(key(i), value);
+        }
+        db.compactMemTable();
+        assertEquals(tableMagicNumbers(db), ImmutableList.of(TableBuilder.PLAIN_TABLE_MAGIC_NUMBER));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(db.get(key(i)), values.get(key(i)));
+        }
 
-        // Make sure iterator stays at snapshot
-        db.put("a", "va2");
-        db.put("a2", "va3");
-        db.put("b", "vb2");
-        db.put("c", "vc2");
+        // the tables are read by their format, whatever the format of the options
+        db.reopen(new Options());
+        for (int i = 0; i < 100; i += 2) {
+            db.delete(key(i));
+            values.remove(key(i));
+        }
+        assertEquals(db.get(key(1)), values.get(key(1)));
+        compactLastLevel(db);
+        assertEquals(tableMagicNumbers(db), ImmutableList.of(TableBuilder.TABLE_MAGIC_NUMBER));
 
+        db.reopen(new Options().tableFormat(TableFormat.PLAIN));
+        SeekingIterator<String, String> iterator = db.iterator();
         iterator.seekToFirst();
-        assertSequence(iterator,
-                immutableEntry("a", "va"),
-                immutableEntry("b", "vb"),
-                immutableEntry("c", "vc"));
+        for (int i = 1; i < 100; i += 2) {
+            assertEquals(iterator.next(), immutableEntry(key(i), values.get(key(i))));
+        }
+        assertFalse(iterator.hasNext());
     }
 
-    @Test
-    public void testRecover()
-            throws Exception {
-        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
-        db.put("foo", "v1");
-        db.put("baz", "v5");
-
-        db.reopen();
-
-        assertEquals(db.get("foo"), "v1");
-        assertEquals(db.get("baz"), "v5");
-        db.put("bar", "v2");
-        db.put("foo", "v3");
-
-        db.reopen();
+    private List<Long> tableMagicNumbers(DbStringWrapper db)
+            throws IOException {
+        List<Long> magicNumbers = new ArrayList<>();
+        for (int level = 0; level < NUM_LEVELS; level++) {
+            for (FileMetaData file : db.db.getFilesInLevel(level)) {
+                try (FileInputStream in = new FileInputStream(new File(databaseDir, Filename.tableFileName(file.getNumber())))) {
+                    magicNumbers.add(Footer.readMagicNumber(in.getChannel()));
+                }
+            }
+        }
+        return magicNumbers;
+    }
 
-        assertEquals(db.get("foo"), "v3");
-        db.put("foo", "v4");
-        assertEquals(db.get("foo"), "v4");
-        assertEquals(db.get("bar"), "v2");
-        assertEquals(db.get("baz"), "v5");
+    private static void compactLastLevel(DbStringWrapper db) {
+        db.compact("", "~");
+        int lastLevel = 0;
+        for (int level = 0; level < NUM_LEVELS - 1; level++) {
+            if (db.numberOfFilesInLevel(level) > 0) {
+                lastLevel = level;
+            }
+        }
+        db.compactRange(lastLevel, "", "~");
+    }
 
+    private List<Long> blobFileNumbers() {
+        List<Long> numbers = new ArrayList<>();
+        for (File file : Filename.listFiles(databaseDir)) {
+            Filename.FileInfo fileInfo = Filename.parseFileName(file);
+            if (fileInfo != null && fileInfo.getFileType() == Filename.FileType.BLOB) {
+                numbers.add(fileInfo.getFileNumber());
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
     }
 
     @Test
-    public void testRecoveryWithEmptyLog()
+    public void testFileStats()
             throws Exception {
-        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
-        db.put("foo", "v1");
-        db.put("foo", "v2");
-        db.reopen();
-        db.reopen();
-        db.put("foo", "v3");
+        DbStringWrapper db = new DbStringWrapper(new Options().persistFileStats(true), databaseDir);
+        for (int i = 0; i < 100; i++) {
+            db.put(key(i), "value");
+        }
+        for (int i = 0; i < 30; i++) {
+            db.delete(key(i));
+        }
+        db.compactMemTable();
+        assertEquals(db.numberOfFilesInLevel(2), 1);
+        FileStats stats = db.db.getFilesInLevel(2).get(0).getStats();
+        assertEquals(stats.getEntries(), 130);
+        assertEquals(stats.getDeletions(), 30);
+        assertEquals(stats.getRawValueSize(), 100 * "value".length());
+        assertEquals(stats.getLargestSequence(), 130);
+
+        // the stats are kept in the manifest
         db.reopen();
-        assertEquals(db.get("foo"), "v3");
+        assertEquals(db.db.getFilesInLevel(2).get(0).getStats().getDeletions(), 30);
+
+        // and read back from the table properties when a manifest is written without them
+        db.reopen(new Options());
+        db.put(key(200), "value");
+        db.compactMemTable();
+        db.reopen(new Options());
+        long deletions = 0;
+        for (FileMetaData file : db.db.getFilesInLevel(2)) {
+            assertTrue(file.getStats().isKnown());
+            deletions += file.getStats().getDeletions();
+        }
+        assertEquals(deletions, 30);
     }
 
     @Test
-    public void testRecoverDuringMemtableCompaction()
+    public void testTableProperties()
             throws Exception {
-        DbStringWrapper db = new DbStringWrapper(new Options().writeBufferSize(1000000), databaseDir);
-
-        // Trigger a long memtable compaction and reopen the database during it
-        db.put("foo", "v1");                        // Goes to 1st log file
-        db.put("big1", longString(10000000, 'x'));  // Fills memtable
-        db.put("big2", longString(1000, 'y'));      // Triggers compaction
-        db.put("bar", "v2");                       // Goes to new log file
-
-        db.reopen();
-        assertEquals(db.get("foo"), "v1");
-        assertEquals(db.get("bar"), "v2");
-        assertEquals(db.get("big1"), longString(10000000, 'x'));
-        assertEquals(db.get("big2"), longString(1000, 'y'));
-
+        DbStringWrapper db = new DbStringWrapper(new Options().compressionType(CompressionType.NONE), databaseDir);
+        for (int i = 0; i < 100; i++) {
+            db.put(key(i), "value");
+        }
+        for (int i = 0; i < 30; i++) {
+            db.delete(key(i));
+        }
+        db.compactMemTable();
+        assertEquals(db.numberOfFilesInLevel(2), 1);
+
+        FileMetaData file = db.db.getFilesInLevel(2).get(0);
+        TableProperties properties = db.db.getPropertiesOfAllTables().get(file.getNumber());
+        assertEquals(properties.getNumEntries(), 130);
+        assertEquals(properties.getNumDeletions(), 30);
+        assertEquals(properties.getRawValueSize(), 100 * "value".length());
+        assertEquals(properties.getSmallestSequence(), 1);
+        assertEquals(properties.getLargestSequence(), 130);
+        assertEquals(properties.getCompressionType(), CompressionType.NONE);
+        assertTrue(properties.getCreationTime() > 0);
+        assertTrue(properties.getDataSize() + properties.getIndexSize() < file.getFileSize());
+
+        assertTrue(db.db.getProperty("leveldb.aggregated-table-properties").contains("entries: 130"));
+        assertTrue(db.db.getProperty("leveldb.aggregated-table-properties-at-level2").contains("deletions: 30"));
+        assertTrue(db.db.getProperty("leveldb.aggregated-table-properties-at-level3").contains("tables: 0"));
+        assertNull(db.db.getProperty("leveldb.aggregated-table-properties-at-levelx"));
     }
 
     @Test
-    public void testMinorCompactionsHappen()
+    public void testDeletionTriggeredCompaction()
             throws Exception {
-        DbStringWrapper db = new DbStringWrapper(new Options().writeBufferSize(10000), databaseDir);
-
-        int n = 500;
-        int startingNumTables = db.totalTableFiles();
-        for (int i = 0; i < n; i++) {
-            db.put(key(i), key(i) + longString(1000, 'v'));
+        DbStringWrapper db = new DbStringWrapper(new Options().deletionCompactionRatio(0.5), databaseDir);
+        for (int i = 0; i < 100; i++) {
+            db.put(key(i), "value");
         }
-        int endingNumTables = db.totalTableFiles();
-        assertTrue(endingNumTables > startingNumTables);
+        db.compactMemTable();
+        db.compactRange(2, "", "~");
+        assertEquals(db.numberOfFilesInLevel(3), 1);
 
-        for (int i = 0; i < n; i++) {
-            assertEquals(db.get(key(i)), key(i) + longString(1000, 'v'));
+        // the flushed file only holds deletions, which are dropped once it is compacted into level 3
+        for (int i = 0; i < 80; i++) {
+            db.delete(key(i));
         }
         db.compactMemTable();
-
-        for (int i = 0; i < n; i++) {
-            assertEquals(db.get(key(i)), key(i) + longString(1000, 'v'));
+        for (int i = 0; i < 1000 && db.numberOfFilesInLevel(2) > 0; i++) {
+            Thread.sleep(10);
         }
+        assertEquals(db.numberOfFilesInLevel(2), 0);
+        assertEquals(db.numberOfFilesInLevel(3), 1);
+        assertEquals(db.db.getFilesInLevel(3).get(0).getStats().getEntries(), 20);
+        assertEquals(db.allEntriesFor(key(0)), ImmutableList.of());
+        assertEquals(db.get(key(90)), "value");
+    }
 
-        db.reopen();
-        for (int i = 0; i < n; i++) {
-            assertEquals(db.get(key(i)), key(i) + longString(1000, 'v'));
+    @Test
+    public void testCompactionPriorities()
+            throws Exception {
+        for (CompactionPriority priority : CompactionPriority.values()) {
+            FileUtils.deleteRecursively(databaseDir);
+            DbStringWrapper db = new DbStringWrapper(new Options()
+                    .compactionPriority(priority)
+                    .targetFileSize(4 * 1024)
+                    .maxBytesForLevelBase(16 * 1024)
+                    .writeBufferSize(16 * 1024), databaseDir);
+            Random random = new Random(301);
+            Map<String, String> values = new HashMap<>();
+            for (int i = 0; i < 3000; i++) {
+                String key = key(random.nextInt(1000));
+                if (i % 7 == 0) {
+                    db.delete(key);
+                    values.remove(key);
+                } else {
+                    String value = randomString(random, 50);
+                    db.put(key, value);
+                    values.put(key, value);
+                }
+            }
+            db.compactMemTable();
+            for (int i = 0; i < 1000; i++) {
+                assertEquals(db.get(key(i)), values.get(key(i)), priority + " " + key(i));
+            }
+            db.close();
         }
-
     }
 
     @Test
-    public void testRecoverWithLargeLog()
+    public void testCompactionFilter()
             throws Exception {
-        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
-        db.put("big1", longString(200000, '1'));
-        db.put("big2", longString(200000, '2'));
-        db.put("small3", longString(10, '3'));
-        db.put("small4", longString(10, '4'));
-        assertEquals(db.numberOfFilesInLevel(0), 0);
+        List<Integer> levels = new ArrayList<>();
+        CompactionFilter filter = new CompactionFilter() {
+            @Override
+            public String name() {
+                return "test";
+            }
 
-        db.reopen(new Options().writeBufferSize(100000));
-        assertEquals(db.numberOfFilesInLevel(0), 3);
-        assertEquals(db.get("big1"), longString(200000, '1'));
-        assertEquals(db.get("big2"), longString(200000, '2'));
-        assertEquals(db.get("small3"), longString(10, '3'));
-        assertEquals(db.get("small4"), longString(10, '4'));
-        assertTrue(db.numberOfFilesInLevel(0) > 1);
+            @Override
+            public byte[] filter(int level, byte[] key, byte[] existingValue) {
+                levels.add(level);
+                String userKey = new String(key, UTF_8);
+                if (userKey.startsWith("drop")) {
+                    return null;
+                }
+                if (userKey.startsWith("change")) {
+                    return toByteArray(new String(existingValue, UTF_8) + "-changed");
+                }
+                return existingValue;
+            }
+        };
+        DbStringWrapper db = new DbStringWrapper(new Options().compactionFilter(filter), databaseDir);
+
+        // the second flush overlaps the first so the compaction merges both files
+        for (int round = 0; round < 2; round++) {
+            for (String prefix : asList("change", "drop", "keep")) {
+                for (int i = 0; i < 10; i++) {
+                    db.put(prefix + i, prefix + round);
+                }
+            }
+            db.compactMemTable();
+        }
+        // not touched until a compaction reaches them
+        assertEquals(db.get("drop0"), "drop1");
+        assertEquals(db.get("change0"), "change1");
+        assertTrue(levels.isEmpty());
+
+        db.compact("a", "z");
+        assertFalse(levels.isEmpty());
+        for (int i = 0; i < 10; i++) {
+            assertNull(db.get("drop" + i));
+            assertEquals(db.get("keep" + i), "keep1");
+            assertEquals(db.get("change" + i), "change1-changed");
+            // only the newest version of each key is offered to the filter
+            assertEquals(db.allEntriesFor("change" + i), asList("change1-changed"));
+        }
     }
 
     @Test
-    public void testCompactionsGenerateMultipleFiles()
+    public void testTtlCompactionFilter()
             throws Exception {
-        DbStringWrapper db = new DbStringWrapper(new Options().writeBufferSize(100000000), databaseDir);
+        long start = 1_000_000L;
+        AtomicLong clock = new AtomicLong(start);
+        Options options = new Options().compactionFilter(new TtlCompactionFilter(10, TimeUnit.SECONDS, clock::get));
+        DbStringWrapper db = new DbStringWrapper(options, databaseDir);
 
-        // Write 8MB (80 values, each 100K)
-        assertEquals(db.numberOfFilesInLevel(0), 0);
-        assertEquals(db.numberOfFilesInLevel(1), 0);
-        Random random = new Random(301);
-        List<String> values = new ArrayList<>();
-        for (int i = 0; i < 80; i++) {
-            String value = randomString(random, 100 * 1024);
-            db.put(key(i), value);
-            values.add(value);
+        for (int i = 0; i < 20; i++) {
+            long timestamp = i < 10 ? start : start + 30_000;
+            db.db.put(toByteArray(key(i)), TtlCompactionFilter.appendTimestamp(toByteArray("v" + i), timestamp));
         }
+        db.db.put(toByteArray("short"), toByteArray("v"));
+        db.compactMemTable();
+        db.db.put(toByteArray(key(0)), TtlCompactionFilter.appendTimestamp(toByteArray("v0"), start));
+        db.compactMemTable();
 
-        // Reopening moves updates to level-0
-        db.reopen();
-        assertTrue(db.numberOfFilesInLevel(0) > 0);
-        assertEquals(db.numberOfFilesInLevel(1), 0);
-        db.compactRange(0, "", key(100000));
-
-        assertEquals(db.numberOfFilesInLevel(0), 0);
-        assertTrue(db.numberOfFilesInLevel(1) > 0);
-        for (int i = 0; i < 80; i++) {
-            assertEquals(db.get(key(i)), values.get(i));
+        clock.set(start + 35_000);
+        db.compact("a", "z");
+        for (int i = 0; i < 20; i++) {
+            byte[] value = db.db.get(toByteArray(key(i)));
+            if (i < 10) {
+                assertNull(value, key(i));
+            } else {
+                assertNotNull(value, key(i));
+                assertEquals(new String(TtlCompactionFilter.stripTimestamp(value), UTF_8), "v" + i);
+                assertEquals(TtlCompactionFilter.getTimestamp(value), start + 30_000);
+            }
         }
+        // values without a timestamp never expire
+        assertEquals(db.get("short"), "v");
     }
 
     @Test
@@ -617,6 +1922,37 @@ public class DbImplTest {
         assertEquals("v4", db.get("foo"));
     }
 
+    @Test
+    public void testCompactionKeepsSnapshotVersions()
+            throws Exception {
+        DbStringWrapper db = new DbStringWrapper(new Options(), databaseDir);
+        db.put("foo", "v1");
+        Snapshot s1 = db.getSnapshot();
+        db.put("foo", "v2");
+        db.put("foo", "v3");
+        Snapshot s2 = db.getSnapshot();
+        db.put("foo", "v4");
+        db.delete("foo");
+        db.put("foo", "v5");
+        db.compactMemTable();
+
+        // one version per snapshot stripe survives the compaction
+        db.compactRange(2, "", "~");
+        assertEquals(db.allEntriesFor("foo"), asList("v5", "v3", "v1"));
+        assertEquals(db.get("foo", s1), "v1");
+        assertEquals(db.get("foo", s2), "v3");
+        assertEquals(db.get("foo"), "v5");
+
+        s1.close();
+        db.compactRange(3, "", "~");
+        assertEquals(db.allEntriesFor("foo"), asList("v5", "v3"));
+        assertEquals(db.get("foo", s2), "v3");
+
+        s2.close();
+        db.compactRange(4, "", "~");
+        assertEquals(db.allEntriesFor("foo"), asList("v5"));
+    }
+
     @Test
     public void testHiddenValuesAreRemoved()
             throws Exception {
@@ -1020,6 +2356,43 @@ public class DbImplTest {
         }
     }
 
+    private static class StringAppendOperator
+            implements MergeOperator {
+        private final boolean partialMerge;
+
+        private StringAppendOperator(boolean partialMerge) {
+            this.partialMerge = partialMerge;
+        }
+
+        @Override
+        public String name() {
+            return "test.StringAppend";
+        }
+
+        @Override
+        public byte[] fullMerge(byte[] key, byte[] existingValue, List<byte[]> operands) {
+            StringBuilder sb = new StringBuilder();
+            if (existingValue != null) {
+                sb.append(new String(existingValue, UTF_8));
+            }
+            for (byte[] operand : operands) {
+                if (sb.length() > 0) {
+                    sb.append(',');
+                }
+                sb.append(new String(operand, UTF_8));
+            }
+            return toByteArray(sb.toString());
+        }
+
+        @Override
+        public byte[] partialMerge(byte[] key, byte[] leftOperand, byte[] rightOperand) {
+            if (!partialMerge) {
+                return null;
+            }
+            return toByteArray(new String(leftOperand, UTF_8) + "," + new String(rightOperand, UTF_8));
+        }
+    }
+
     private class DbStringWrapper {
         private final Options options;
         private final File databaseDir;
@@ -1057,6 +2430,14 @@ public class DbImplTest {
             db.delete(toByteArray(key));
         }
 
+        public void merge(String key, String value) {
+            db.merge(toByteArray(key), toByteArray(value));
+        }
+
+        public void deleteRange(String begin, String end) {
+            db.deleteRange(toByteArray(begin), toByteArray(end));
+        }
+
         public SeekingIterator<String, String> iterator() {
             return new StringDbIterator(db.iterator());
         }
@@ -1129,6 +2510,8 @@ public class DbImplTest {
                 if (entryKey.equals(userKey)) {
                     if (entry.getKey().getValueType() == ValueType.VALUE) {
                         result.add(entry.getValue().toString(UTF_8));
+                    } else if (entry.getKey().getValueType() == ValueType.MERGE) {
+                        result.add("+" + entry.getValue().toString(UTF_8));
                     } else {
                         result.add("DEL");
                     }
@@ -22,9 +22,16 @@ import org.testng.annotations.Test;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
 import static org.testng.Assert.fail;
 
 public class TestFileChannelLogWriter {
@@ -57,6 +64,77 @@ public class TestFileChannelLogWriter {
         }
     }
 
+    @Test
+    public void testRecordsAcrossBlocks()
+            throws Exception {
+        File file = File.createTempFile("test", ".log");
+        try {
+            // records leaving less than a header at the end of a block, spanning
+            // several blocks and larger than the staging buffer of the writer
+            List<Slice> records = new ArrayList<>();
+            Random random = new Random(301);
+            int[] sizes = {0, LogConstants.BLOCK_SIZE - 2 * LogConstants.HEADER_SIZE - 3, 1, 3 * LogConstants.BLOCK_SIZE + 5, 100, 5 * LogConstants.BLOCK_SIZE, 0};
+            for (int size : sizes) {
+                byte[] bytes = new byte[size];
+                random.nextBytes(bytes);
+                records.add(new Slice(bytes));
+            }
+
+            LogWriter writer = new FileChannelLogWriter(file, 10);
+            for (Slice record : records) {
+                writer.addRecord(record, false);
+            }
+            writer.close();
+
+            try (FileInputStream fis = new FileInputStream(file);
+                 FileChannel channel = fis.getChannel()) {
+                LogReader logReader = new LogReader(channel, new AssertNoCorruptionLogMonitor(), true, 0);
+                for (Slice record : records) {
+                    assertEquals(logReader.readRecord(), record);
+                }
+                assertNull(logReader.readRecord());
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testFailedWriteStopsTheLog()
+            throws Exception {
+        File file = File.createTempFile("test", ".log");
+        try {
+            FileChannel fileChannel = new RandomAccessFile(file, "rw").getChannel();
+            LogWriter writer = new FileChannelLogWriter(file, 10, fileChannel);
+            Slice record = new Slice(new byte[]{1, 2, 3});
+            writer.addRecord(record, false);
+
+            fileChannel.close();
+            try {
+                writer.addRecord(new Slice(LogConstants.BLOCK_SIZE), false);
+                fail("expected the write to fail");
+            } catch (ClosedChannelException expected) {
+            }
+            // the staged chunks are not dropped to carry on at the wrong block offset
+            try {
+                writer.addRecord(record, false);
+                fail("expected the log to reject records");
+            } catch (IOException expected) {
+                assertEquals(expected.getMessage(), "Log is unusable after a failed write");
+            }
+            writer.close();
+
+            try (FileInputStream fis = new FileInputStream(file);
+                 FileChannel channel = fis.getChannel()) {
+                LogReader logReader = new LogReader(channel, new AssertNoCorruptionLogMonitor(), true, 0);
+                assertEquals(logReader.readRecord(), record);
+                assertNull(logReader.readRecord());
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
     private static class AssertNoCorruptionLogMonitor
             implements LogMonitor {
         @Override
@@ -21,11 +21,14 @@ import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.Slices;
 import org.testng.annotations.Test;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Arrays.asList;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
 
 public class BlockTest {
     private static void blockTest(int blockRestartInterval, BlockEntry... entries) {
@@ -133,4 +136,64 @@ public class BlockTest {
             blockTest(i, entries);
         }
     }
+
+    @Test
+    public void testHashIndex()
+            throws Exception {
+        List<BlockEntry> entries = asList(
+                BlockHelper.createBlockEntry("beer/ale", "Lagunitas  Little Sumpin’ Sumpin’"),
+                BlockHelper.createBlockEntry("beer/ipa", "Lagunitas IPA"),
+                BlockHelper.createBlockEntry("beer/stout", "Lagunitas Imperial Stout"),
+                BlockHelper.createBlockEntry("scotch/light", "Oban 14"),
+                BlockHelper.createBlockEntry("scotch/medium", "Highland Park"),
+                BlockHelper.createBlockEntry("scotch/strong", "Lagavulin"));
+
+        for (int i = 1; i < entries.size(); i++) {
+            hashIndexTest(i, entries);
+        }
+    }
+
+    @Test
+    public void testHashIndexWithTooManyRestarts()
+            throws Exception {
+        List<BlockEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            entries.add(BlockHelper.createBlockEntry(String.format("key%06d", i), "value" + i));
+        }
+        // one restart per entry is more than the hash index can address
+        hashIndexTest(1, entries);
+        hashIndexTest(16, entries);
+    }
+
+    private static void hashIndexTest(int blockRestartInterval, List<BlockEntry> entries) {
+        BlockBuilder builder = new BlockBuilder(256, blockRestartInterval, new BytewiseComparator(), true);
+        for (BlockEntry entry : entries) {
+            builder.add(entry);
+        }
+        int estimatedSize = builder.currentSizeEstimate();
+        Slice blockSlice = builder.finish();
+        assertEquals(blockSlice.length(), estimatedSize);
+
+        Block block = new Block(blockSlice, new BytewiseComparator());
+        BlockIterator blockIterator = block.iterator();
+        BlockHelper.assertSequence(blockIterator, entries);
+
+        for (BlockEntry entry : entries) {
+            List<BlockEntry> nextEntries = entries.subList(entries.indexOf(entry), entries.size());
+            blockIterator.seek(entry.getKey());
+            BlockHelper.assertSequence(blockIterator, nextEntries);
+
+            blockIterator.seekForGet(entry.getKey());
+            BlockHelper.assertSequence(blockIterator, nextEntries);
+        }
+
+        // keys missing from the block must never be reported as present
+        for (BlockEntry entry : entries) {
+            Slice missing = Slices.copiedBuffer(entry.getKey().toString(UTF_8) + "/missing", UTF_8);
+            blockIterator.seekForGet(missing);
+            if (blockIterator.hasNext()) {
+                assertNotEquals(blockIterator.next().getKey(), missing);
+            }
+        }
+    }
 }
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.Slices;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Arrays.asList;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class FilterBlockTest {
+    private final BloomFilterPolicy policy = new BloomFilterPolicy(10);
+
+    private static Slice key(String value) {
+        return Slices.copiedBuffer(value, UTF_8);
+    }
+
+    private static Slice key(int i) {
+        Slice key = Slices.allocate(4);
+        key.setInt(0, i);
+        return key;
+    }
+
+    @Test
+    public void testEmptyBloomFilter() {
+        Slice filter = new Slice(policy.createFilter(new ArrayList<Slice>()));
+        assertFalse(policy.keyMayMatch(key("hello"), filter));
+        assertFalse(policy.keyMayMatch(key("world"), filter));
+    }
+
+    @Test
+    public void testSmallBloomFilter() {
+        Slice filter = new Slice(policy.createFilter(asList(key("hello"), key("world"))));
+        assertTrue(policy.keyMayMatch(key("hello"), filter));
+        assertTrue(policy.keyMayMatch(key("world"), filter));
+        assertFalse(policy.keyMayMatch(key("x"), filter));
+        assertFalse(policy.keyMayMatch(key("foo"), filter));
+    }
+
+    @Test
+    public void testBloomFilterFalsePositiveRate() {
+        for (int length = 1; length <= 10000; length = length < 10 ? length + 1 : length * 10) {
+            List<Slice> keys = new ArrayList<>();
+            for (int i = 0; i < length; i++) {
+                keys.add(key(i));
+            }
+            Slice filter = new Slice(policy.createFilter(keys));
+            assertTrue(filter.length() <= (length * 10 / 8) + 40, "filter too large for " + length + " keys");
+
+            // all added keys must match
+            for (int i = 0; i < length; i++) {
+                assertTrue(policy.keyMayMatch(key(i), filter), "length " + length + " key " + i);
+            }
+
+            // about 1% of other keys match
+            int matches = 0;
+            for (int i = 0; i < 10000; i++) {
+                if (policy.keyMayMatch(key(i + 1000000000), filter)) {
+                    matches++;
+                }
+            }
+            assertTrue(matches <= 200, "false positive rate too high for " + length + " keys: " + matches);
+        }
+    }
+
+    @Test
+    public void testEmptyFilterBlock() {
+        FilterBlockBuilder builder = new FilterBlockBuilder(policy);
+        Slice block = builder.finish();
+        assertEquals(block.length(), 5);
+
+        FilterBlockReader reader = new FilterBlockReader(policy, block);
+        assertTrue(reader.keyMayMatch(0, key("foo")));
+        assertTrue(reader.keyMayMatch(100000, key("foo")));
+    }
+
+    @Test
+    public void testSingleChunk() {
+        FilterBlockBuilder builder = new FilterBlockBuilder(policy);
+        builder.startBlock(100);
+        builder.addKey(key("foo"));
+        builder.addKey(key("bar"));
+        builder.addKey(key("box"));
+        builder.startBlock(200);
+        builder.addKey(key("box"));
+        builder.startBlock(300);
+        builder.addKey(key("hello"));
+
+        FilterBlockReader reader = new FilterBlockReader(policy, builder.finish());
+        assertTrue(reader.keyMayMatch(100, key("foo")));
+        assertTrue(reader.keyMayMatch(100, key("bar")));
+        assertTrue(reader.keyMayMatch(100, key("box")));
+        assertTrue(reader.keyMayMatch(100, key("hello")));
+        assertFalse(reader.keyMayMatch(100, key("missing")));
+        assertFalse(reader.keyMayMatch(100, key("other")));
+    }
+
+    @Test
+    public void testMultiChunk() {
+        FilterBlockBuilder builder = new FilterBlockBuilder(policy);
+
+        // first filter
+        builder.startBlock(0);
+        builder.addKey(key("foo"));
+        builder.startBlock(2000);
+        builder.addKey(key("bar"));
+
+        // second filter
+        builder.startBlock(3100);
+        builder.addKey(key("box"));
+
+        // third filter is empty
+
+        // last filter
+        builder.startBlock(9000);
+        builder.addKey(key("box"));
+        builder.addKey(key("hello"));
+
+        FilterBlockReader reader = new FilterBlockReader(policy, builder.finish());
+
+        assertTrue(reader.keyMayMatch(0, key("foo")));
+        assertTrue(reader.keyMayMatch(2000, key("bar")));
+        assertFalse(reader.keyMayMatch(0, key("box")));
+        assertFalse(reader.keyMayMatch(0, key("hello")));
+
+        assertTrue(reader.keyMayMatch(3100, key("box")));
+        assertFalse(reader.keyMayMatch(3100, key("foo")));
+        assertFalse(reader.keyMayMatch(3100, key("bar")));
+        assertFalse(reader.keyMayMatch(3100, key("hello")));
+
+        assertFalse(reader.keyMayMatch(4100, key("foo")));
+        assertFalse(reader.keyMayMatch(4100, key("bar")));
+        assertFalse(reader.keyMayMatch(4100, key("box")));
+        assertFalse(reader.keyMayMatch(4100, key("hello")));
+
+        assertTrue(reader.keyMayMatch(9000, key("box")));
+        assertTrue(reader.keyMayMatch(9000, key("hello")));
+        assertFalse(reader.keyMayMatch(9000, key("foo")));
+        assertFalse(reader.keyMayMatch(9000, key("bar")));
+    }
+}
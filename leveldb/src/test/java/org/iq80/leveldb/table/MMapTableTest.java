@@ -26,8 +26,14 @@ import java.util.Comparator;
 public class MMapTableTest
         extends TableTest {
     @Override
-    protected Table createTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums)
+    protected Table createTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums, BlockCache blockCache)
             throws IOException {
-        return new MMapTable(name, fileChannel, comparator, verifyChecksums);
+        return new MMapTable(name, fileChannel, comparator, verifyChecksums, blockCache);
+    }
+
+    @Override
+    protected Table createTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums, BlockCache blockCache, long cacheId)
+            throws IOException {
+        return new MMapTable(name, fileChannel, comparator, verifyChecksums, blockCache, cacheId, null);
     }
 }
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.table;
+
+import org.iq80.leveldb.CompressionType;
+import org.iq80.leveldb.Options;
+import org.iq80.leveldb.TableFormat;
+import org.iq80.leveldb.impl.SeekingIterator;
+import org.iq80.leveldb.util.Closeables;
+import org.iq80.leveldb.util.Slice;
+import org.iq80.leveldb.util.Slices;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class PlainTableTest {
+    private File file;
+    private RandomAccessFile randomAccessFile;
+    private FileChannel fileChannel;
+
+    @Test
+    public void testPlainTable()
+            throws Exception {
+        List<BlockEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            entries.add(BlockHelper.createBlockEntry(String.format("key%06d", i * 10), "value" + i));
+        }
+        // the block size only sets how often the entries are written out
+        TableBuilder builder = new TableBuilder(new Options().tableFormat(TableFormat.PLAIN).blockSize(256), fileChannel, new BytewiseComparator());
+        for (BlockEntry entry : entries) {
+            builder.add(entry);
+        }
+        builder.addRangeTombstone(Slices.copiedBuffer("key000000", UTF_8), Slices.copiedBuffer("key000100", UTF_8));
+        builder.finish();
+        assertEquals(builder.getFileSize(), fileChannel.size());
+        assertEquals(Footer.readMagicNumber(fileChannel), TableBuilder.PLAIN_TABLE_MAGIC_NUMBER);
+
+        Table table = new PlainTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), true);
+        SeekingIterator<Slice, Slice> iterator = table.iterator();
+        BlockHelper.assertSequence(iterator, entries);
+        iterator.seekToFirst();
+        BlockHelper.assertSequence(iterator, entries);
+
+        long lastApproximateOffset = 0;
+        for (int i = 0; i < entries.size(); i += 7) {
+            BlockEntry entry = entries.get(i);
+            List<BlockEntry> nextEntries = entries.subList(i, entries.size());
+            iterator.seek(entry.getKey());
+            BlockHelper.assertSequence(iterator, nextEntries);
+            iterator.seek(BlockHelper.before(entry));
+            BlockHelper.assertSequence(iterator, nextEntries);
+            iterator.seek(BlockHelper.after(entry));
+            BlockHelper.assertSequence(iterator, nextEntries.subList(1, nextEntries.size()));
+
+            assertEquals(table.get(entry.getKey()), entry);
+            assertEquals(table.getIfCached(entry.getKey()), entry);
+
+            long approximateOffset = table.getApproximateOffsetOf(entry.getKey());
+            assertTrue(approximateOffset >= lastApproximateOffset);
+            lastApproximateOffset = approximateOffset;
+        }
+
+        Slice endKey = Slices.copiedBuffer("~", UTF_8);
+        iterator.seek(endKey);
+        BlockHelper.assertSequence(iterator, Collections.<BlockEntry>emptyList());
+        assertNull(table.get(endKey));
+
+        TableProperties properties = table.getProperties();
+        assertEquals(properties.toString(), builder.getProperties().toString());
+        assertEquals(properties.getNumEntries(), 1000);
+        assertEquals(properties.getNumDataBlocks(), 1);
+        assertEquals(properties.getCompressionType(), CompressionType.NONE);
+        assertEquals(table.getApproximateOffsetOf(endKey), properties.getDataSize());
+        assertEquals(table.getRangeTombstones().size(), 1);
+    }
+
+    @Test
+    public void testEmptyPlainTable()
+            throws Exception {
+        TableBuilder builder = new TableBuilder(new Options().tableFormat(TableFormat.PLAIN), fileChannel, new BytewiseComparator());
+        builder.finish();
+
+        Table table = new PlainTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), true);
+        BlockHelper.assertSequence(table.iterator(), Collections.<BlockEntry>emptyList());
+        assertNull(table.get(Slices.copiedBuffer("key", UTF_8)));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testBlockBasedTableIsNotPlain()
+            throws Exception {
+        TableBuilder builder = new TableBuilder(new Options(), fileChannel, new BytewiseComparator());
+        builder.add(BlockHelper.createBlockEntry("key", "value"));
+        builder.finish();
+        assertEquals(Footer.readMagicNumber(fileChannel), TableBuilder.TABLE_MAGIC_NUMBER);
+
+        new PlainTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), true);
+    }
+
+    @Test
+    public void testChecksumMismatch()
+            throws Exception {
+        TableBuilder builder = new TableBuilder(new Options().tableFormat(TableFormat.PLAIN), fileChannel, new BytewiseComparator());
+        for (int i = 0; i < 100; i++) {
+            builder.add(BlockHelper.createBlockEntry(String.format("key%06d", i), "value" + i));
+        }
+        builder.finish();
+
+        // flip a bit in the value of the first entry
+        ByteBuffer data = ByteBuffer.allocate(1);
+        fileChannel.read(data, 11);
+        data.put(0, (byte) (data.get(0) ^ 1));
+        data.clear();
+        fileChannel.write(data, 11);
+
+        Table table = new PlainTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), false);
+        assertEquals(table.get(Slices.copiedBuffer("key000001", UTF_8)), BlockHelper.createBlockEntry("key000001", "value1"));
+
+        try {
+            new PlainTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), true);
+            fail("expected checksum mismatch");
+        } catch (IllegalStateException expected) {
+            assertTrue(expected.getMessage().contains("checksum mismatch"), expected.getMessage());
+        }
+    }
+
+    @BeforeMethod
+    public void setUp()
+            throws Exception {
+        file = File.createTempFile("table", ".db");
+        file.delete();
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        fileChannel = randomAccessFile.getChannel();
+    }
+
+    @AfterMethod
+    public void tearDown()
+            throws Exception {
+        Closeables.closeQuietly(fileChannel);
+        Closeables.closeQuietly(randomAccessFile);
+        file.delete();
+    }
+}
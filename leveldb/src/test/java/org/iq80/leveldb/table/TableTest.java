@@ -17,9 +17,12 @@
  */
 package org.iq80.leveldb.table;
 
+import com.google.common.io.Files;
+import org.iq80.leveldb.CompressionType;
 import org.iq80.leveldb.Options;
 import org.iq80.leveldb.impl.SeekingIterator;
 import org.iq80.leveldb.util.Closeables;
+import org.iq80.leveldb.util.CompressionCodecs;
 import org.iq80.leveldb.util.Slice;
 import org.iq80.leveldb.util.Slices;
 import org.testng.annotations.AfterMethod;
@@ -29,27 +32,37 @@ import org.testng.annotations.Test;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Arrays.asList;
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 public abstract class TableTest {
     private File file;
     private RandomAccessFile randomAccessFile;
     private FileChannel fileChannel;
 
-    protected abstract Table createTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums)
+    protected abstract Table createTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums, BlockCache blockCache)
+            throws IOException;
+
+    protected abstract Table createTable(String name, FileChannel fileChannel, Comparator<Slice> comparator, boolean verifyChecksums, BlockCache blockCache, long cacheId)
             throws IOException;
 
     @Test(expectedExceptions = IllegalArgumentException.class)
     public void testEmptyFile()
             throws Exception {
-        createTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), true);
+        createTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), true, null);
     }
 
     @Test
@@ -99,6 +112,212 @@ public abstract class TableTest {
         tableTest(BlockHelper.estimateBlockSize(Integer.MAX_VALUE, entries) / 3, Integer.MAX_VALUE, entries);
     }
 
+    @Test
+    public void testPartitionedIndex()
+            throws Exception {
+        List<BlockEntry> entries = new ArrayList<>();
+        // keys are spaced out so the keys just before and after each one are absent
+        for (int i = 0; i < 1000; i++) {
+            entries.add(BlockHelper.createBlockEntry(String.format("key%06d", i * 10), "value" + i));
+        }
+
+        // one entry per block and a few index entries per partition
+        tableTest(new Options().blockSize(1).blockRestartInterval(Integer.MAX_VALUE).indexPartitionSize(64), entries);
+
+        // several blocks per partition, read through a block cache
+        tableTest(new Options().blockSize(256).blockRestartInterval(16).indexPartitionSize(128), new BlockCache(1024 * 1024), entries);
+
+        // a single partition
+        tableTest(new Options().blockSize(4096).indexPartitionSize(4096), entries.subList(0, 3));
+    }
+
+    @Test
+    public void testCompressionCodecs()
+            throws Exception {
+        List<BlockEntry> entries = new ArrayList<>();
+        // keys are spaced out so the keys just before and after each one are absent
+        for (int i = 0; i < 1000; i++) {
+            entries.add(BlockHelper.createBlockEntry(String.format("key%06d", i * 10), "value value value value " + i));
+        }
+        for (CompressionType compressionType : CompressionType.values()) {
+            if (CompressionCodecs.isAvailable(compressionType)) {
+                tableTest(new Options().compressionType(compressionType), entries);
+            }
+        }
+    }
+
+    @Test
+    public void testCompressionDictionary()
+            throws Exception {
+        List<BlockEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            String value = String.format("{\"id\": %d, \"name\": \"user%d\", \"status\": \"active\", \"tags\": [\"a\", \"b\"]}", i, i % 7);
+            entries.add(BlockHelper.createBlockEntry(String.format("key%06d", i * 10), value));
+        }
+        Options options = new Options().compressionType(CompressionType.ZLIB).blockSize(256);
+
+        TableBuilder builder = new TableBuilder(options, fileChannel, new BytewiseComparator());
+        CompressionDictionarySampler sampler = new CompressionDictionarySampler(4096, 32 * 1024);
+        builder.sampleDataBlocks(sampler);
+        for (BlockEntry entry : entries) {
+            builder.add(entry);
+        }
+        builder.finish();
+        long sizeWithoutDictionary = builder.getFileSize();
+        Slice dictionary = sampler.finish();
+        assertEquals(dictionary.length(), 4096);
+
+        reopenFile();
+        builder = new TableBuilder(options, fileChannel, new BytewiseComparator());
+        builder.setCompressionDictionary(dictionary);
+        for (BlockEntry entry : entries) {
+            builder.add(entry);
+        }
+        builder.finish();
+        assertTrue(builder.getFileSize() < sizeWithoutDictionary, builder.getFileSize() + " not smaller than " + sizeWithoutDictionary);
+
+        Table table = createTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), true, null);
+        BlockHelper.assertSequence(table.iterator(), entries);
+        for (BlockEntry entry : entries) {
+            assertEquals(table.get(entry.getKey()), entry);
+        }
+    }
+
+    @Test
+    public void testParallelCompression()
+            throws Exception {
+        List<BlockEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            entries.add(BlockHelper.createBlockEntry(String.format("key%06d", i * 10), "value value value value " + i));
+        }
+        Options options = new Options()
+                .compressionType(CompressionType.ZLIB)
+                .blockSize(256)
+                .indexPartitionSize(512)
+                .filterPolicy(new BloomFilterPolicy(10));
+
+        TableBuilder builder = new TableBuilder(options, fileChannel, new BytewiseComparator());
+        for (BlockEntry entry : entries) {
+            builder.add(entry);
+        }
+        builder.finish();
+        byte[] serial = Files.toByteArray(file);
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            reopenFile();
+            builder = new TableBuilder(options, fileChannel, new BytewiseComparator());
+            builder.compressBlocksIn(executor, 8);
+            for (BlockEntry entry : entries) {
+                builder.add(entry);
+            }
+            builder.finish();
+        } finally {
+            executor.shutdown();
+        }
+        // blocks, filter and index end up exactly where the serial builder puts them
+        assertEquals(Files.toByteArray(file), serial);
+
+        Table table = createTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), true, null);
+        BlockHelper.assertSequence(table.iterator(), entries);
+    }
+
+    @Test
+    public void testTableProperties()
+            throws Exception {
+        List<BlockEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            entries.add(BlockHelper.createBlockEntry(String.format("key%06d", i * 10), "value" + i));
+        }
+        TableBuilder builder = new TableBuilder(new Options().compressionType(CompressionType.NONE).blockSize(1024), fileChannel, new BytewiseComparator());
+        long rawSize = 0;
+        for (BlockEntry entry : entries) {
+            builder.add(entry);
+            rawSize += entry.getKey().length() + entry.getValue().length();
+        }
+        builder.addRangeTombstone(Slices.copiedBuffer("key000000", UTF_8), Slices.copiedBuffer("key000100", UTF_8));
+        builder.setInternalKeyStats(0, 5, 1005);
+        builder.finish();
+
+        Table table = createTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), true, null);
+        TableProperties properties = table.getProperties();
+        assertEquals(properties.toString(), builder.getProperties().toString());
+        assertEquals(properties.getNumEntries(), 1000);
+        assertEquals(properties.getNumRangeDeletions(), 1);
+        assertEquals(properties.getRawKeySize() + properties.getRawValueSize(), rawSize);
+        assertTrue(properties.getNumDataBlocks() > 1);
+        assertEquals(properties.getCompressionType(), CompressionType.NONE);
+        assertEquals(properties.getSmallestSequence(), 5);
+        assertEquals(properties.getLargestSequence(), 1005);
+        assertTrue(properties.getDataSize() + properties.getIndexSize() < fileChannel.size());
+
+        // past the last key the approximate offset is the end of the data blocks
+        assertEquals(table.getApproximateOffsetOf(Slices.copiedBuffer("~", UTF_8)), properties.getDataSize());
+    }
+
+    @Test
+    public void testBlockCache()
+            throws Exception {
+        List<BlockEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            entries.add(BlockHelper.createBlockEntry(String.format("key%06d", i), "value" + i));
+        }
+        TableBuilder builder = new TableBuilder(new Options().blockSize(256), fileChannel, new BytewiseComparator());
+        for (BlockEntry entry : entries) {
+            builder.add(entry);
+        }
+        builder.finish();
+
+        // scans that do not fill the cache leave it as it was
+        BlockCache blockCache = new BlockCache(1024 * 1024);
+        Table table = createTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), true, blockCache, 7);
+        BlockHelper.assertSequence(table.iterator(false), entries);
+        for (BlockEntry entry : entries) {
+            assertEquals(table.getIfCached(entry.getKey()), Table.NOT_CACHED);
+        }
+        BlockHelper.assertSequence(table.iterator(), entries);
+
+        // the blocks are cached for the file, not for the table instance
+        Table reopened = createTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), true, blockCache, 7);
+        Table other = createTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), true, blockCache, 8);
+        for (BlockEntry entry : entries) {
+            assertEquals(reopened.getIfCached(entry.getKey()), entry);
+            assertEquals(other.getIfCached(entry.getKey()), Table.NOT_CACHED);
+        }
+    }
+
+    @Test
+    public void testChecksumMismatch()
+            throws Exception {
+        List<BlockEntry> entries = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            entries.add(BlockHelper.createBlockEntry(String.format("key%06d", i), "value" + i));
+        }
+        TableBuilder builder = new TableBuilder(new Options().compressionType(CompressionType.NONE), fileChannel, new BytewiseComparator());
+        for (BlockEntry entry : entries) {
+            builder.add(entry);
+        }
+        builder.finish();
+
+        // flip a bit in the value of the first entry of the data block
+        ByteBuffer data = ByteBuffer.allocate(1);
+        fileChannel.read(data, 14);
+        data.put(0, (byte) (data.get(0) ^ 1));
+        data.clear();
+        fileChannel.write(data, 14);
+
+        Table table = createTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), false, null);
+        assertEquals(table.get(entries.get(1).getKey()), entries.get(1));
+
+        table = createTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), true, null);
+        try {
+            table.get(entries.get(1).getKey());
+            fail("expected checksum mismatch");
+        } catch (IllegalStateException expected) {
+            assertTrue(expected.getMessage().contains("checksum mismatch"), expected.getMessage());
+        }
+    }
+
     private void tableTest(int blockSize, int blockRestartInterval, BlockEntry... entries)
             throws IOException {
         tableTest(blockSize, blockRestartInterval, asList(entries));
@@ -106,8 +325,17 @@ public abstract class TableTest {
 
     private void tableTest(int blockSize, int blockRestartInterval, List<BlockEntry> entries)
             throws IOException {
+        tableTest(new Options().blockSize(blockSize).blockRestartInterval(blockRestartInterval), entries);
+    }
+
+    private void tableTest(Options options, List<BlockEntry> entries)
+            throws IOException {
+        tableTest(options, null, entries);
+    }
+
+    private void tableTest(Options options, BlockCache blockCache, List<BlockEntry> entries)
+            throws IOException {
         reopenFile();
-        Options options = new Options().blockSize(blockSize).blockRestartInterval(blockRestartInterval);
         TableBuilder builder = new TableBuilder(options, fileChannel, new BytewiseComparator());
 
         for (BlockEntry entry : entries) {
@@ -115,7 +343,7 @@ public abstract class TableTest {
         }
         builder.finish();
 
-        Table table = createTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), true);
+        Table table = createTable(file.getAbsolutePath(), fileChannel, new BytewiseComparator(), true, blockCache);
 
         SeekingIterator<Slice, Slice> seekingIterator = table.iterator();
         BlockHelper.assertSequence(seekingIterator, entries);
@@ -135,6 +363,8 @@ public abstract class TableTest {
             seekingIterator.seek(BlockHelper.after(entry));
             BlockHelper.assertSequence(seekingIterator, nextEntries.subList(1, nextEntries.size()));
 
+            assertEquals(table.get(entry.getKey()), entry);
+
             long approximateOffset = table.getApproximateOffsetOf(entry.getKey());
             assertTrue(approximateOffset >= lastApproximateOffset);
             lastApproximateOffset = approximateOffset;
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.util;
+
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.testng.Assert.assertEquals;
+
+public class Crc32CTest {
+    private static int pureJavaCrc(byte[] data, int offset, int length) {
+        PureJavaCrc32C crc = new PureJavaCrc32C();
+        crc.update(data, offset, length);
+        return crc.getMaskedValue();
+    }
+
+    @Test
+    public void testMatchesPureJava() {
+        Random random = new Random(301);
+        for (int length : new int[]{0, 1, 7, 100, 4096, 100_000}) {
+            byte[] data = new byte[length + 10];
+            random.nextBytes(data);
+            int expected = pureJavaCrc(data, 3, length);
+
+            Crc32C crc = new Crc32C();
+            crc.update(data, 3, length);
+            assertEquals(crc.getMaskedValue(), expected);
+
+            crc = new Crc32C();
+            crc.update(new Slice(data, 3, length));
+            assertEquals(crc.getMaskedValue(), expected);
+
+            ByteBuffer heap = (ByteBuffer) ByteBuffer.wrap(data).position(3).limit(3 + length);
+            crc = new Crc32C();
+            crc.update(heap);
+            assertEquals(crc.getMaskedValue(), expected);
+            assertEquals(heap.position(), 3);
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+            direct.put(data).position(3).limit(3 + length);
+            crc = new Crc32C();
+            crc.update(direct);
+            assertEquals(crc.getMaskedValue(), expected);
+            assertEquals(direct.position(), 3);
+        }
+    }
+
+    @Test
+    public void testComposes() {
+        byte[] data = "hello world".getBytes(US_ASCII);
+        Crc32C crc = new Crc32C();
+        crc.update(data, 0, 6);
+        crc.update(ByteBuffer.wrap(data, 6, 5));
+        crc.update(1);
+        PureJavaCrc32C expected = new PureJavaCrc32C();
+        expected.update(data, 0, data.length);
+        expected.update(1);
+        assertEquals(crc.getIntValue(), expected.getIntValue());
+        assertEquals(crc.getMaskedValue(), expected.getMaskedValue());
+    }
+}
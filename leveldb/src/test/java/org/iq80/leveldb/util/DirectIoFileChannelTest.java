@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.util;
+
+import org.testng.SkipException;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertThrows;
+
+public class DirectIoFileChannelTest {
+    @BeforeMethod
+    public void setUp() {
+        if (!DirectIoFileChannel.isAvailable()) {
+            throw new SkipException("direct I/O needs Java 10 or later");
+        }
+    }
+
+    @Test
+    public void testWriteAndRead()
+            throws Exception {
+        byte[] data = new byte[3 * 1024 * 1024 + 1234];
+        new Random(301).nextBytes(data);
+        File file = File.createTempFile("direct", ".db");
+        try {
+            try (FileChannel channel = DirectIoFileChannel.openForWrite(file)) {
+                int offset = 0;
+                int chunk = 1;
+                while (offset < data.length) {
+                    int length = Math.min(chunk, data.length - offset);
+                    channel.write(new ByteBuffer[]{ByteBuffer.wrap(data, offset, length)});
+                    offset += length;
+                    assertEquals(channel.position(), offset);
+                    if (chunk == 3280) {
+                        // syncs an unaligned size, the partial block is written again by the following writes
+                        channel.force(false);
+                        assertEquals(file.length(), offset);
+                    }
+                    chunk = chunk * 3 + 1;
+                    if (chunk > 100_000) {
+                        chunk = 5;
+                    }
+                }
+            }
+            assertEquals(Files.readAllBytes(file.toPath()), data);
+
+            try (FileChannel channel = DirectIoFileChannel.openForRead(file)) {
+                assertEquals(channel.size(), data.length);
+                int[][] ranges = {{0, 10}, {4000, 200}, {4095, 2}, {12345, 100_000}, {data.length - 10, 10}};
+                for (int[] range : ranges) {
+                    ByteBuffer buffer = ByteBuffer.allocate(range[1]);
+                    assertEquals(channel.read(buffer, range[0]), range[1]);
+                    assertEquals(buffer.array(), Arrays.copyOfRange(data, range[0], range[0] + range[1]));
+                }
+
+                // reads past the end are short
+                ByteBuffer buffer = ByteBuffer.allocate(100);
+                assertEquals(channel.read(buffer, data.length - 10), 10);
+                assertEquals(channel.read(ByteBuffer.allocate(100), data.length), -1);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testRelativeReads()
+            throws Exception {
+        byte[] data = new byte[10_000];
+        new Random(302).nextBytes(data);
+        File file = File.createTempFile("direct", ".db");
+        try {
+            Files.write(file.toPath(), data);
+            try (FileChannel channel = DirectIoFileChannel.openForRead(file)) {
+                assertEquals(channel.position(), 0);
+                ByteBuffer first = ByteBuffer.allocate(100);
+                assertEquals(channel.read(first), 100);
+                assertEquals(channel.position(), 100);
+                assertEquals(first.array(), Arrays.copyOfRange(data, 0, 100));
+
+                ByteBuffer[] buffers = {ByteBuffer.allocate(5000), ByteBuffer.allocate(0), ByteBuffer.allocate(6000)};
+                assertEquals(channel.position(4000).read(buffers), 6000);
+                assertEquals(channel.position(), data.length);
+                assertEquals(buffers[0].array(), Arrays.copyOfRange(data, 4000, 9000));
+                assertEquals(Arrays.copyOf(buffers[2].array(), 1000), Arrays.copyOfRange(data, 9000, 10_000));
+                assertEquals(channel.read(ByteBuffer.allocate(10)), -1);
+
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                assertEquals(channel.transferTo(123, 4567, Channels.newChannel(out)), 4567);
+                assertEquals(out.toByteArray(), Arrays.copyOfRange(data, 123, 123 + 4567));
+
+                assertThrows(NonWritableChannelException.class, () -> channel.write(ByteBuffer.allocate(1)));
+                assertThrows(NonWritableChannelException.class, () -> channel.truncate(0));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testWritesMatchFileChannel()
+            throws Exception {
+        File file = File.createTempFile("direct", ".db");
+        File expectedFile = File.createTempFile("expected", ".db");
+        Random random = new Random(303);
+        try {
+            try (FileChannel channel = DirectIoFileChannel.openForWrite(file);
+                    FileChannel expected = FileChannel.open(expectedFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                for (int i = 0; i < 500; i++) {
+                    byte[] bytes = new byte[random.nextInt(3) == 0 ? random.nextInt(20_000) : random.nextInt(100)];
+                    random.nextBytes(bytes);
+                    long position = random.nextInt((int) expected.size() + 5000);
+                    switch (random.nextInt(6)) {
+                        case 0:
+                            assertEquals(channel.write(ByteBuffer.wrap(bytes), position), expected.write(ByteBuffer.wrap(bytes), position));
+                            break;
+                        case 1:
+                            assertEquals(channel.position(), expected.position());
+                            assertEquals(channel.write(ByteBuffer.wrap(bytes)), expected.write(ByteBuffer.wrap(bytes)));
+                            break;
+                        case 2:
+                            channel.position(position);
+                            expected.position(position);
+                            break;
+                        case 3:
+                            if (random.nextInt(4) == 0) {
+                                channel.truncate(position);
+                                expected.truncate(position);
+                            }
+                            break;
+                        case 4:
+                            ByteBuffer actualRead = ByteBuffer.allocate(bytes.length);
+                            ByteBuffer expectedRead = ByteBuffer.allocate(bytes.length);
+                            assertEquals(channel.read(actualRead, position), expected.read(expectedRead, position));
+                            assertEquals(actualRead.array(), expectedRead.array());
+                            break;
+                        default:
+                            channel.force(false);
+                            assertEquals(file.length(), expected.size());
+                            break;
+                    }
+                    assertEquals(channel.size(), expected.size());
+                    assertEquals(channel.position(), expected.position());
+                }
+            }
+            // the gaps past the end are zeros in both
+            assertEquals(Files.readAllBytes(file.toPath()), Files.readAllBytes(expectedFile.toPath()));
+        } finally {
+            file.delete();
+            expectedFile.delete();
+        }
+    }
+
+    @Test
+    public void testTransferFrom()
+            throws Exception {
+        byte[] data = new byte[70_000];
+        new Random(304).nextBytes(data);
+        File file = File.createTempFile("direct", ".db");
+        try {
+            try (FileChannel channel = DirectIoFileChannel.openForWrite(file)) {
+                channel.write(ByteBuffer.wrap(data, 0, 1000));
+                assertEquals(channel.transferFrom(Channels.newChannel(new ByteArrayInputStream(data, 500, 69_500)), 500, 100_000), 69_500);
+                assertEquals(channel.position(), 1000);
+                assertEquals(channel.size(), data.length);
+                assertEquals(channel.transferFrom(Channels.newChannel(new ByteArrayInputStream(data)), data.length + 1, 10), 0);
+            }
+            assertEquals(Files.readAllBytes(file.toPath()), data);
+        } finally {
+            file.delete();
+        }
+    }
+}
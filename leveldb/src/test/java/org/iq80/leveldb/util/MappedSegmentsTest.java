@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2011 the original author or authors.
+ * See the notice.md file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iq80.leveldb.util;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.testng.Assert.assertEquals;
+
+public class MappedSegmentsTest {
+    @Test
+    public void testReadsAcrossSegments()
+            throws Exception {
+        byte[] data = new byte[10_000];
+        new Random(301).nextBytes(data);
+        File file = File.createTempFile("segments", ".db");
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.write(data);
+            try (MappedSegments segments = new MappedSegments(randomAccessFile.getChannel(), 1000)) {
+                assertEquals(segments.size(), data.length);
+                // within a segment, ending on its boundary, spanning one and several boundaries, at the end
+                int[][] ranges = {{10, 100}, {900, 100}, {990, 20}, {1500, 3000}, {9990, 10}, {10_000, 0}, {0, 10_000}};
+                for (int[] range : ranges) {
+                    ByteBuffer buffer = segments.read(range[0], range[1]);
+                    assertEquals(buffer.order(), ByteOrder.LITTLE_ENDIAN);
+                    assertEquals(buffer.remaining(), range[1]);
+                    assertEquals(segments.copy(range[0], range[1]), new Slice(data, range[0], range[1]));
+                }
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testReadPastEnd()
+            throws Exception {
+        File file = File.createTempFile("segments", ".db");
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.write(new byte[100]);
+            try (MappedSegments segments = new MappedSegments(randomAccessFile.getChannel(), 64)) {
+                segments.read(90, 20);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testFileLargerThanTwoGigabytes()
+            throws Exception {
+        File file = File.createTempFile("segments", ".db");
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            // sparse, so only the written pages take up space; the bytes straddle the 2GB boundary
+            long offset = 2L << 30;
+            randomAccessFile.setLength(offset + 4096);
+            randomAccessFile.seek(offset - 2);
+            randomAccessFile.write(new byte[]{1, 2, 3, 4});
+            try (MappedSegments segments = new MappedSegments(randomAccessFile.getChannel())) {
+                assertEquals(segments.size(), offset + 4096);
+                assertEquals(segments.copy(offset - 2, 4), new Slice(new byte[]{1, 2, 3, 4}));
+                ByteBuffer buffer = segments.read(offset, 2);
+                assertEquals(buffer.getShort(buffer.position()), 0x0403);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}